@@ -0,0 +1,10 @@
+-- 聊天历史主键迁移脚本
+-- chat_histories.id 由 IDENTITY 改为序列分配（每次分配50个），使 Hibernate 可以对聊天历史做JDBC批量插入。
+-- Hibernate 的 ddl-auto: update 不会修改已有的IDENTITY列，需要手动执行本脚本
+
+ALTER TABLE chat_histories ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+CREATE SEQUENCE IF NOT EXISTS chat_histories_seq INCREMENT BY 50;
+
+-- pooled 优化器把取到的序列值作为一段ID的上界，起点留出一个分配区间，避免与已有ID冲突
+SELECT setval('chat_histories_seq', COALESCE(MAX(id), 0) + 50) FROM chat_histories;
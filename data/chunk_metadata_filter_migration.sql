@@ -0,0 +1,31 @@
+-- 检索过滤迁移脚本
+-- 迭代索引扫描（hnsw.iterative_scan / ivfflat.iterative_scan）需要 pgvector 0.8.0 及以上版本，
+-- 低版本请将 app.vector-store.filter.iterative-scan 设为 false
+
+-- 1. 为已有片段补齐metadata中的文档ID和文件类型（页码和标题路径只对新入库的文档生成）
+UPDATE document_chunks dc
+SET metadata = COALESCE(dc.metadata, '{}'::jsonb)
+    || jsonb_strip_nulls(jsonb_build_object('documentId', d.id, 'mimeType', d.mime_type))
+FROM documents d
+WHERE d.id = dc.document_id
+AND (dc.metadata IS NULL OR NOT dc.metadata ? 'documentId');
+
+-- 2. 过滤条件对应的索引（ChunkFilterClause 中的表达式必须与这里一致）
+-- 任意metadata键值（metadata @> ...）
+CREATE INDEX IF NOT EXISTS idx_document_chunks_metadata
+ON document_chunks
+USING gin (metadata jsonb_path_ops);
+
+-- 文件类型
+CREATE INDEX IF NOT EXISTS idx_document_chunks_kb_mime_type
+ON document_chunks (knowledge_base_id, (metadata->>'mimeType'));
+
+-- 入库时间范围
+CREATE INDEX IF NOT EXISTS idx_document_chunks_kb_created_at
+ON document_chunks (knowledge_base_id, created_at);
+
+-- 指定文档
+CREATE INDEX IF NOT EXISTS idx_document_chunks_kb_document
+ON document_chunks (knowledge_base_id, document_id);
+
+ANALYZE document_chunks;
@@ -1,15 +1,62 @@
 -- 混合检索优化索引脚本
 -- 为支持关键词检索和向量检索创建必要的索引
 
--- 1. 为document_chunks表的content字段创建全文搜索索引
--- 支持中文全文搜索
-CREATE INDEX IF NOT EXISTS idx_document_chunks_content_fts 
+-- 1. 全文检索：维护content_tsv列并在其上创建GIN索引
+-- 分词配置按知识库设置（knowledge_bases.text_search_config），查询时使用同一配置，
+-- 因此不能用生成列（生成列不能引用其他表），改为由触发器维护。
+-- 旧的表达式索引使用'chinese'配置，而查询使用'simple'，规划器永远用不上，一并删除。
+DROP INDEX IF EXISTS idx_document_chunks_content_fts;
+
+ALTER TABLE knowledge_bases
+ADD COLUMN IF NOT EXISTS text_search_config VARCHAR(64) NOT NULL DEFAULT 'simple';
+
+ALTER TABLE document_chunks
+ADD COLUMN IF NOT EXISTS content_tsv tsvector;
+
+CREATE OR REPLACE FUNCTION document_chunks_content_tsv_update() RETURNS trigger AS $$
+BEGIN
+    NEW.content_tsv := to_tsvector(
+        COALESCE((SELECT text_search_config FROM knowledge_bases WHERE id = NEW.knowledge_base_id), 'simple')::regconfig,
+        NEW.content);
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_document_chunks_content_tsv ON document_chunks;
+CREATE TRIGGER trg_document_chunks_content_tsv
+BEFORE INSERT OR UPDATE OF content, knowledge_base_id ON document_chunks
+FOR EACH ROW EXECUTE FUNCTION document_chunks_content_tsv_update();
+
+-- 知识库修改分词配置后重建该知识库所有片段的content_tsv
+CREATE OR REPLACE FUNCTION knowledge_bases_text_search_config_update() RETURNS trigger AS $$
+BEGIN
+    UPDATE document_chunks
+    SET content_tsv = to_tsvector(NEW.text_search_config::regconfig, content)
+    WHERE knowledge_base_id = NEW.id;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_knowledge_bases_text_search_config ON knowledge_bases;
+CREATE TRIGGER trg_knowledge_bases_text_search_config
+AFTER UPDATE OF text_search_config ON knowledge_bases
+FOR EACH ROW WHEN (OLD.text_search_config IS DISTINCT FROM NEW.text_search_config)
+EXECUTE FUNCTION knowledge_bases_text_search_config_update();
+
+-- 回填已有数据
+UPDATE document_chunks dc
+SET content_tsv = to_tsvector(kb.text_search_config::regconfig, dc.content)
+FROM knowledge_bases kb
+WHERE kb.id = dc.knowledge_base_id
+AND dc.content_tsv IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_document_chunks_content_tsv 
 ON document_chunks 
-USING gin(to_tsvector('chinese', content));
+USING gin(content_tsv);
 
--- 2. 为knowledge_base_id创建复合索引，优化混合检索查询
-CREATE INDEX IF NOT EXISTS idx_document_chunks_kb_content 
-ON document_chunks (knowledge_base_id, content);
+-- 2. 旧的 (knowledge_base_id, content) B-tree索引对检索没有帮助，
+-- 而且内容超过B-tree单条索引项上限（约2.7KB）时会导致写入失败
+DROP INDEX IF EXISTS idx_document_chunks_kb_content;
 
 -- 3. 为embedding字段创建向量索引（如果还没有）
 -- 注意：这需要pgvector扩展
@@ -18,9 +65,13 @@ ON document_chunks
 USING ivfflat (embedding vector_cosine_ops) 
 WITH (lists = 100);
 
--- 4. 为content字段创建B-tree索引，支持LIKE查询
-CREATE INDEX IF NOT EXISTS idx_document_chunks_content_btree 
-ON document_chunks (content);
+-- 4. 为content字段创建三元组GIN索引，支持 ILIKE '%关键词%' 模糊查询
+-- （B-tree索引只能加速前缀匹配，对包含匹配无效，已删除）
+-- pg_trgm 扩展和索引只在 trigram_fuzzy_search_migration.sql 中定义（容错检索共用同一个索引），
+-- 这里用 psql 的 \ir 按相对路径执行该脚本
+DROP INDEX IF EXISTS idx_document_chunks_content_btree;
+
+\ir trigram_fuzzy_search_migration.sql
 
 -- 5. 创建复合索引，同时支持向量和关键词检索
 CREATE INDEX IF NOT EXISTS idx_document_chunks_kb_embedding 
@@ -51,10 +102,9 @@ CREATE UNIQUE INDEX IF NOT EXISTS idx_document_chunks_content_hash
 ON document_chunks (content_hash);
 
 -- 注释说明：
--- - idx_document_chunks_content_fts: 支持中文全文搜索
--- - idx_document_chunks_kb_content: 优化按知识库ID和内容查询
+-- - idx_document_chunks_content_tsv: 全文检索索引（content_tsv由触发器按知识库分词配置维护）
 -- - idx_document_chunks_embedding_cosine: 向量相似性搜索索引
--- - idx_document_chunks_content_btree: 支持LIKE模糊查询
+-- - idx_document_chunks_content_trgm: 支持ILIKE模糊查询和容错检索（定义见 trigram_fuzzy_search_migration.sql）
 -- - idx_document_chunks_kb_embedding: 优化向量检索查询
 -- - idx_document_chunks_token_count: 支持按token数量排序
 -- - idx_document_chunks_embedding_partial: 部分向量索引，只对非空embedding
@@ -0,0 +1,9 @@
+-- 文档入库流水线状态迁移脚本
+-- 文档处理状态新增 PARSING / SPLITTING / EMBEDDING / PERSISTING 四个阶段状态，
+-- Hibernate 的 ddl-auto: update 不会更新已有的 CHECK 约束，需要手动执行本脚本
+
+ALTER TABLE documents DROP CONSTRAINT IF EXISTS documents_process_status_check;
+
+ALTER TABLE documents ADD CONSTRAINT documents_process_status_check
+CHECK (process_status IN ('PENDING', 'PROCESSING', 'PARSING', 'SPLITTING', 'EMBEDDING', 'PERSISTING', 'COMPLETED', 'FAILED'));
+
@@ -0,0 +1,13 @@
+-- 容错检索迁移脚本
+-- 混合检索第三路（app.hybrid-retrieval.fuzzy.enabled=true 且 app.fuzzy-store.type=pg-trgm）使用 pg_trgm 的词相似度，
+-- 需要安装扩展并为片段内容建立三元组索引，否则 <% 运算符会退化为全表扫描。
+-- 同一个索引也支持关键词检索的 ILIKE 模糊查询，hybrid_retrieval_indexes.sql 通过 \ir 引用本脚本，
+-- 扩展和索引只在这里定义
+
+-- 1. 安装 pg_trgm 扩展
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- 2. 片段内容的三元组索引（支持 <% / word_similarity）
+CREATE INDEX IF NOT EXISTS idx_document_chunks_content_trgm
+ON document_chunks
+USING gin (content gin_trgm_ops);
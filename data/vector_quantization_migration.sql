@@ -0,0 +1,26 @@
+-- 向量量化检索迁移脚本
+-- 需要 pgvector 0.7.0 及以上版本（halfvec 类型和 binary_quantize 函数）
+-- 用 psql 执行，向量维度必须与 app.vector-store.dimension 一致：
+--   psql -v dimension=1024 -f vector_quantization_migration.sql
+-- 未指定时按 1024 创建；修改维度后需要删除这两个索引重新执行
+
+\if :{?dimension}
+\else
+\set dimension 1024
+\endif
+
+-- 1. 知识库的量化模式：NONE / HALFVEC / BINARY / INT8
+ALTER TABLE knowledge_bases
+ADD COLUMN IF NOT EXISTS vector_quantization VARCHAR(16) NOT NULL DEFAULT 'NONE';
+
+-- 2. 量化表示以表达式索引的形式与float32列并存，不额外占用表空间。
+-- halfvec 索引的大小约为 float32 的一半，bit 索引约为 1/32，首轮检索只需要索引常驻缓存，
+-- 重打分时才按候选读取堆表中的全精度向量。
+-- 查询中的排序表达式（DocumentChunkRepositoryImpl）必须与这里的表达式完全一致才能命中索引。
+CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_halfvec
+ON document_chunks
+USING hnsw ((embedding::halfvec(:dimension)) halfvec_cosine_ops);
+
+CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_bit
+ON document_chunks
+USING hnsw ((binary_quantize(embedding)::bit(:dimension)) bit_hamming_ops);
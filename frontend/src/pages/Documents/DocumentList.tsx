@@ -121,6 +121,10 @@ const DocumentList: React.FC = () => {
       case 'COMPLETED':
         return 'success';
       case 'PROCESSING':
+      case 'PARSING':
+      case 'SPLITTING':
+      case 'EMBEDDING':
+      case 'PERSISTING':
         return 'processing';
       case 'PENDING':
         return 'default';
@@ -137,6 +141,14 @@ const DocumentList: React.FC = () => {
         return '已完成';
       case 'PROCESSING':
         return '处理中';
+      case 'PARSING':
+        return '解析中';
+      case 'SPLITTING':
+        return '分块中';
+      case 'EMBEDDING':
+        return '向量化中';
+      case 'PERSISTING':
+        return '写入中';
       case 'PENDING':
         return '待处理';
       case 'FAILED':
@@ -190,6 +190,9 @@ export const ragApi = {
     const formData = new FormData();
     formData.append('question', data.question);
     formData.append('knowledgeBaseId', data.knowledgeBaseId.toString());
+    if (data.filter) {
+      formData.append('filter', JSON.stringify(data.filter));
+    }
     
     const response = await api.post<AskQuestionResponse>('/rag/ask', formData, {
       headers: { 'Content-Type': 'multipart/form-data' },
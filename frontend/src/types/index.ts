@@ -41,6 +41,8 @@ export interface KnowledgeBase {
   id: number;
   name: string;
   description?: string;
+  textSearchConfig?: string;
+  vectorQuantization?: 'NONE' | 'HALFVEC' | 'BINARY' | 'INT8';
   userId: number;
   createdAt: string;
   updatedAt: string;
@@ -60,7 +62,8 @@ export interface Document {
   filePath: string;
   fileSize: number;
   contentType: string;
-  processStatus: 'PENDING' | 'PROCESSING' | 'COMPLETED' | 'FAILED';
+  processStatus: 'PENDING' | 'PROCESSING' | 'PARSING' | 'SPLITTING' | 'EMBEDDING' | 'PERSISTING' | 'COMPLETED' | 'FAILED';
+  processMessage?: string;
   knowledgeBaseId: number;
   userId: number;
   uploadedAt: string;
@@ -86,9 +89,18 @@ export interface ChatMessage {
   knowledgeBaseId?: number;
 }
 
+export interface RetrievalFilter {
+  documentIds?: number[];
+  mimeTypes?: string[];
+  createdAfter?: string;
+  createdBefore?: string;
+  metadata?: Record<string, unknown>;
+}
+
 export interface AskQuestionRequest {
   question: string;
   knowledgeBaseId: number;
+  filter?: RetrievalFilter;
 }
 
 export interface AskQuestionResponse {
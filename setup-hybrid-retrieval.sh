@@ -5,16 +5,30 @@
 
 echo "🚀 设置混合检索功能..."
 
-# 1. 创建数据库索引
-echo "📊 创建数据库索引..."
-psql -h localhost -U ragone_user -d ragone -f data/hybrid_retrieval_indexes.sql
-
-if [ $? -eq 0 ]; then
-    echo "✅ 数据库索引创建成功"
-else
-    echo "❌ 数据库索引创建失败"
-    exit 1
-fi
+# 1. 执行数据库迁移（顺序固定，脚本均可重复执行）
+# 表由应用首次启动时 Hibernate 自动创建，请先启动过一次应用再执行本脚本
+# 向量维度须与 app.vector-store.dimension 一致，可通过 VECTOR_DIMENSION 环境变量指定
+VECTOR_DIMENSION=${VECTOR_DIMENSION:-1024}
+MIGRATIONS=(
+    data/ingestion_status_migration.sql
+    data/hybrid_retrieval_indexes.sql
+    data/vector_quantization_migration.sql
+    data/chunk_metadata_filter_migration.sql
+    data/chat_history_sequence_migration.sql
+)
+
+echo "📊 执行数据库迁移..."
+for migration in "${MIGRATIONS[@]}"; do
+    echo "  - $migration"
+    psql -h localhost -U ragone_user -d ragone -v ON_ERROR_STOP=1 -v dimension=$VECTOR_DIMENSION -f $migration
+    
+    if [ $? -ne 0 ]; then
+        echo "❌ 数据库迁移失败: $migration"
+        exit 1
+    fi
+done
+
+echo "✅ 数据库迁移执行成功"
 
 # 2. 更新配置文件启用混合检索
 echo "⚙️ 更新配置文件..."
@@ -1,9 +1,11 @@
 package com.example.ragone.config;
 
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -54,6 +56,23 @@ public class LangChainConfig {
                 .build();
     }
     
+    /**
+     * 配置流式聊天语言模型，逐个token回调，用于SSE流式问答
+     */
+    @Bean
+    public StreamingChatLanguageModel streamingChatLanguageModel() {
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(chatModelName)
+                .temperature(temperature)
+                .maxTokens(maxTokens)
+                .timeout(Duration.parse("PT" + timeout.replace("s", "S")))
+                .logRequests(true)
+                .logResponses(true)
+                .build();
+    }
+    
     /**
      * 配置嵌入模型
      */
@@ -29,11 +29,14 @@ public class KnowledgeBaseController {
     @PostMapping
     public ResponseEntity<?> createKnowledgeBase(@RequestParam String name,
                                                @RequestParam(required = false) String description,
+                                               @RequestParam(required = false) String textSearchConfig,
+                                               @RequestParam(required = false) KnowledgeBase.VectorQuantization vectorQuantization,
                                                Authentication authentication) {
         User user = (User) authentication.getPrincipal();
         
         try {
-            KnowledgeBase knowledgeBase = knowledgeBaseService.createKnowledgeBase(name, description, user);
+            KnowledgeBase knowledgeBase = knowledgeBaseService.createKnowledgeBase(name, description, textSearchConfig,
+                    vectorQuantization, user);
             return ResponseEntity.ok(knowledgeBase);
         } catch (Exception e) {
             Map<String, String> response = new HashMap<>();
@@ -76,11 +79,14 @@ public class KnowledgeBaseController {
     public ResponseEntity<?> updateKnowledgeBase(@PathVariable Long id,
                                                @RequestParam String name,
                                                @RequestParam(required = false) String description,
+                                               @RequestParam(required = false) String textSearchConfig,
+                                               @RequestParam(required = false) KnowledgeBase.VectorQuantization vectorQuantization,
                                                Authentication authentication) {
         User user = (User) authentication.getPrincipal();
         
         try {
-            KnowledgeBase knowledgeBase = knowledgeBaseService.updateKnowledgeBase(id, name, description, user);
+            KnowledgeBase knowledgeBase = knowledgeBaseService.updateKnowledgeBase(id, name, description, textSearchConfig,
+                    vectorQuantization, user);
             return ResponseEntity.ok(knowledgeBase);
         } catch (Exception e) {
             Map<String, String> response = new HashMap<>();
@@ -1,13 +1,17 @@
 package com.example.ragone.controller;
 
 import com.example.ragone.dto.ChatSession;
+import com.example.ragone.dto.RetrievalFilter;
 import com.example.ragone.entity.ChatHistory;
 import com.example.ragone.entity.User;
 import com.example.ragone.service.RagService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
@@ -24,18 +28,31 @@ public class RagController {
     @Autowired
     private RagService ragService;
     
+    @Autowired
+    private ObjectMapper objectMapper;
+    
     /**
      * 问答接口（支持会话）
+     *
+     * filter 为可选的JSON格式检索过滤条件，格式见 {@link RetrievalFilter}
      */
     @PostMapping("/ask")
     public ResponseEntity<?> askQuestion(@RequestParam String question,
                                        @RequestParam Long knowledgeBaseId,
                                        @RequestParam(required = false) String sessionId,
+                                       @RequestParam(required = false) String filter,
                                        Authentication authentication) {
         User user = (User) authentication.getPrincipal();
         
+        RetrievalFilter retrievalFilter;
+        try {
+            retrievalFilter = parseFilter(filter);
+        } catch (JsonProcessingException e) {
+            return invalidFilter(e);
+        }
+        
         long startTime = System.currentTimeMillis();
-        String answer = ragService.askQuestion(question, knowledgeBaseId, user, sessionId);
+        String answer = ragService.askQuestion(question, knowledgeBaseId, user, sessionId, retrievalFilter);
         long responseTime = System.currentTimeMillis() - startTime;
         
         Map<String, Object> response = new HashMap<>();
@@ -49,6 +66,47 @@ public class RagController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * 流式问答接口（Server-Sent Events）
+     *
+     * 参数与 /ask 相同；回答以 token 事件逐段推送，最后一个 done 事件包含耗时统计，出错时推送 error 事件
+     */
+    @PostMapping("/ask/stream")
+    public ResponseEntity<?> askQuestionStream(@RequestParam String question,
+                                             @RequestParam Long knowledgeBaseId,
+                                             @RequestParam(required = false) String sessionId,
+                                             @RequestParam(required = false) String filter,
+                                             Authentication authentication) {
+        User user = (User) authentication.getPrincipal();
+        
+        RetrievalFilter retrievalFilter;
+        try {
+            retrievalFilter = parseFilter(filter);
+        } catch (JsonProcessingException e) {
+            return invalidFilter(e);
+        }
+        
+        SseEmitter emitter = ragService.askQuestionStream(question, knowledgeBaseId, user, sessionId, retrievalFilter);
+        return ResponseEntity.ok()
+                .header("Cache-Control", "no-cache")
+                // 关闭反向代理（如nginx）的响应缓冲，否则token会被攒到一起才发出
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+    
+    private RetrievalFilter parseFilter(String filter) throws JsonProcessingException {
+        if (filter == null || filter.isBlank()) {
+            return null;
+        }
+        return objectMapper.readValue(filter, RetrievalFilter.class);
+    }
+    
+    private ResponseEntity<?> invalidFilter(JsonProcessingException e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", "无效的检索过滤条件: " + e.getOriginalMessage());
+        return ResponseEntity.badRequest().body(error);
+    }
+    
     /**
      * 创建新的聊天会话
      */
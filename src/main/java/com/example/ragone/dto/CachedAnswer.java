@@ -0,0 +1,64 @@
+package com.example.ragone.dto;
+
+/**
+ * 语义回答缓存条目：问题、问题向量、回答和引用的文档片段
+ */
+public class CachedAnswer {
+    
+    private String question;
+    private float[] embedding;
+    private String answer;
+    private String contextChunks; // 引用的文档片段（JSON格式）
+    private long createdAt;
+    
+    public CachedAnswer() {}
+    
+    public CachedAnswer(String question, float[] embedding, String answer, String contextChunks) {
+        this.question = question;
+        this.embedding = embedding;
+        this.answer = answer;
+        this.contextChunks = contextChunks;
+        this.createdAt = System.currentTimeMillis();
+    }
+    
+    // Getters and Setters
+    public String getQuestion() {
+        return question;
+    }
+    
+    public void setQuestion(String question) {
+        this.question = question;
+    }
+    
+    public float[] getEmbedding() {
+        return embedding;
+    }
+    
+    public void setEmbedding(float[] embedding) {
+        this.embedding = embedding;
+    }
+    
+    public String getAnswer() {
+        return answer;
+    }
+    
+    public void setAnswer(String answer) {
+        this.answer = answer;
+    }
+    
+    public String getContextChunks() {
+        return contextChunks;
+    }
+    
+    public void setContextChunks(String contextChunks) {
+        this.contextChunks = contextChunks;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+}
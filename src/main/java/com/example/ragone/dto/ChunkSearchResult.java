@@ -0,0 +1,92 @@
+package com.example.ragone.dto;
+
+import java.util.Objects;
+
+/**
+ * 检索命中的文档片段（精简投影，只包含检索与拼接上下文需要的列）
+ *
+ * score 的含义取决于产生它的检索方式：向量检索为余弦相似度（1 - 距离），
+ * 关键词检索为 ts_rank，模糊检索为匹配等级，融合后为融合分数。
+ */
+public class ChunkSearchResult {
+    
+    private final Long id;
+    private final Long documentId;
+    private final Integer chunkPosition;
+    private final String content;
+    private double score;
+    
+    // 单条SQL混合检索时返回的两路原始分数，未命中该路时为null
+    private Double vectorScore;
+    private Double keywordScore;
+    
+    public ChunkSearchResult(Long id, Long documentId, Integer chunkPosition, String content, double score) {
+        this.id = id;
+        this.documentId = documentId;
+        this.chunkPosition = chunkPosition;
+        this.content = content;
+        this.score = score;
+    }
+    
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getDocumentId() {
+        return documentId;
+    }
+    
+    public Integer getChunkPosition() {
+        return chunkPosition;
+    }
+    
+    public String getContent() {
+        return content;
+    }
+    
+    public double getScore() {
+        return score;
+    }
+    
+    public void setScore(double score) {
+        this.score = score;
+    }
+    
+    public Double getVectorScore() {
+        return vectorScore;
+    }
+    
+    public void setVectorScore(Double vectorScore) {
+        this.vectorScore = vectorScore;
+    }
+    
+    public Double getKeywordScore() {
+        return keywordScore;
+    }
+    
+    public void setKeywordScore(Double keywordScore) {
+        this.keywordScore = keywordScore;
+    }
+    
+    /**
+     * 复制一份带有新分数的结果，不修改原检索结果
+     */
+    public ChunkSearchResult withScore(double newScore) {
+        ChunkSearchResult copy = new ChunkSearchResult(id, documentId, chunkPosition, content, newScore);
+        copy.vectorScore = vectorScore;
+        copy.keywordScore = keywordScore;
+        return copy;
+    }
+    
+    // 同一片段可能被多路检索命中，按片段ID判等便于去重
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ChunkSearchResult other && Objects.equals(id, other.id);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+}
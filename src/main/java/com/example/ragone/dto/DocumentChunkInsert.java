@@ -0,0 +1,73 @@
+package com.example.ragone.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 待写入的文档片段（批量写入使用）
+ */
+public class DocumentChunkInsert {
+    
+    private final Long documentId;
+    private final Long knowledgeBaseId;
+    private final int chunkPosition;
+    private final String content;
+    private final String contentHash;
+    private final int tokenCount;
+    private final float[] embedding;
+    private final String metadata;
+    private final LocalDateTime createdAt;
+    
+    /**
+     * @param metadata 片段metadata的JSON文本（写入 jsonb 列），可以为null
+     */
+    public DocumentChunkInsert(Long documentId, Long knowledgeBaseId, int chunkPosition, String content,
+                               String contentHash, int tokenCount, float[] embedding, String metadata,
+                               LocalDateTime createdAt) {
+        this.documentId = documentId;
+        this.knowledgeBaseId = knowledgeBaseId;
+        this.chunkPosition = chunkPosition;
+        this.content = content;
+        this.contentHash = contentHash;
+        this.tokenCount = tokenCount;
+        this.embedding = embedding;
+        this.metadata = metadata;
+        this.createdAt = createdAt;
+    }
+    
+    // Getters
+    public Long getDocumentId() {
+        return documentId;
+    }
+    
+    public Long getKnowledgeBaseId() {
+        return knowledgeBaseId;
+    }
+    
+    public int getChunkPosition() {
+        return chunkPosition;
+    }
+    
+    public String getContent() {
+        return content;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public int getTokenCount() {
+        return tokenCount;
+    }
+    
+    public float[] getEmbedding() {
+        return embedding;
+    }
+    
+    public String getMetadata() {
+        return metadata;
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
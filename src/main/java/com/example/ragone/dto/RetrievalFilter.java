@@ -0,0 +1,91 @@
+package com.example.ragone.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检索过滤条件
+ *
+ * 以JSON形式随问答和检索请求提交，各条件之间为AND关系，未设置的条件不生效：
+ * <pre>
+ * {
+ *   "documentIds": [12, 15],                    // 只检索这些文档
+ *   "mimeTypes": ["application/pdf"],           // 只检索这些文件类型
+ *   "createdAfter": "2024-01-01T00:00:00",      // 片段入库时间范围（含边界）
+ *   "createdBefore": "2024-06-30T23:59:59",
+ *   "metadata": {"headingPath": ["安装指南"]}   // 片段metadata包含这些键值（JSONB @>）
+ * }
+ * </pre>
+ * 过滤条件下推到向量检索和全文检索的SQL中，由索引完成过滤，而不是多取结果后在内存中丢弃。
+ */
+public class RetrievalFilter {
+    
+    private List<Long> documentIds;
+    private List<String> mimeTypes;
+    private LocalDateTime createdAfter;
+    private LocalDateTime createdBefore;
+    private Map<String, Object> metadata;
+    
+    /**
+     * 过滤条件为null或没有任何条件
+     */
+    public static boolean isEmpty(RetrievalFilter filter) {
+        return filter == null || (isEmpty(filter.documentIds) && isEmpty(filter.mimeTypes)
+                && filter.createdAfter == null && filter.createdBefore == null
+                && (filter.metadata == null || filter.metadata.isEmpty()));
+    }
+    
+    /**
+     * 只按文档过滤，内存向量索引可以直接按节点所属文档过滤，不需要回退到数据库
+     */
+    public boolean isDocumentOnly() {
+        return !isEmpty(documentIds) && isEmpty(mimeTypes) && createdAfter == null && createdBefore == null
+                && (metadata == null || metadata.isEmpty());
+    }
+    
+    private static boolean isEmpty(List<?> values) {
+        return values == null || values.isEmpty();
+    }
+    
+    // Getters and Setters
+    public List<Long> getDocumentIds() {
+        return documentIds;
+    }
+    
+    public void setDocumentIds(List<Long> documentIds) {
+        this.documentIds = documentIds;
+    }
+    
+    public List<String> getMimeTypes() {
+        return mimeTypes;
+    }
+    
+    public void setMimeTypes(List<String> mimeTypes) {
+        this.mimeTypes = mimeTypes;
+    }
+    
+    public LocalDateTime getCreatedAfter() {
+        return createdAfter;
+    }
+    
+    public void setCreatedAfter(LocalDateTime createdAfter) {
+        this.createdAfter = createdAfter;
+    }
+    
+    public LocalDateTime getCreatedBefore() {
+        return createdBefore;
+    }
+    
+    public void setCreatedBefore(LocalDateTime createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+    
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+    
+    public void setMetadata(Map<String, Object> metadata) {
+        this.metadata = metadata;
+    }
+}
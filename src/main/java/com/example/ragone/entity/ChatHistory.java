@@ -17,8 +17,10 @@ import org.hibernate.annotations.JdbcTypeCode;
 })
 public class ChatHistory {
     
+    // 序列每次分配50个ID，批量插入不必逐行取回自增主键（见 chat_history_sequence_migration.sql）
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_histories_seq")
+    @SequenceGenerator(name = "chat_histories_seq", sequenceName = "chat_histories_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "session_id", nullable = false)
@@ -54,7 +56,10 @@ public class ChatHistory {
     
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
+        // 异步写入时保留问答发生的时间，而不是写入数据库的时间
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
     }
     
     // Getters and Setters
@@ -207,8 +207,12 @@ public class Document {
      * 文档处理状态枚举
      */
     public enum ProcessStatus {
-        PENDING,    // 待处理
-        PROCESSING, // 处理中
+        PENDING,    // 待处理（已进入处理队列）
+        PROCESSING, // 处理中（旧版同步处理遗留状态）
+        PARSING,    // 解析中
+        SPLITTING,  // 分块中
+        EMBEDDING,  // 向量化中
+        PERSISTING, // 写入中
         COMPLETED,  // 已完成
         FAILED      // 处理失败
     }
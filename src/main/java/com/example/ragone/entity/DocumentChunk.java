@@ -1,7 +1,9 @@
 package com.example.ragone.entity;
 
+import com.example.ragone.vector.PgVectorType;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Type;
 
 import java.time.LocalDateTime;
 
@@ -37,9 +39,10 @@ public class DocumentChunk {
     @Column(name = "token_count")
     private Integer tokenCount;
     
-    // 使用PostgreSQL的vector扩展存储向量
+    // 使用PostgreSQL的vector扩展存储向量（二进制格式收发）
+    @Type(PgVectorType.class)
     @Column(name = "embedding", columnDefinition = "vector(1024)")
-    private String embedding;
+    private float[] embedding;
     
     @Column(name = "metadata", columnDefinition = "JSONB")
     private String metadata;
@@ -101,11 +104,11 @@ public class DocumentChunk {
         this.tokenCount = tokenCount;
     }
     
-    public String getEmbedding() {
+    public float[] getEmbedding() {
         return embedding;
     }
     
-    public void setEmbedding(String embedding) {
+    public void setEmbedding(float[] embedding) {
         this.embedding = embedding;
     }
     
@@ -39,6 +39,15 @@ public class KnowledgeBase {
     @Column(name = "is_active", nullable = false)
     private Boolean active = true;
     
+    // 全文检索使用的PostgreSQL分词配置（regconfig名称），片段的content_tsv按此配置生成
+    @Column(name = "text_search_config", columnDefinition = "VARCHAR(64) DEFAULT 'simple' NOT NULL")
+    private String textSearchConfig = "simple";
+    
+    // 向量检索的量化模式，首轮在量化数据上检索，再用全精度向量对候选重新打分
+    @Enumerated(EnumType.STRING)
+    @Column(name = "vector_quantization", columnDefinition = "VARCHAR(16) DEFAULT 'NONE' NOT NULL")
+    private VectorQuantization vectorQuantization = VectorQuantization.NONE;
+    
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
     
@@ -102,6 +111,22 @@ public class KnowledgeBase {
         this.active = active;
     }
     
+    public String getTextSearchConfig() {
+        return textSearchConfig;
+    }
+    
+    public void setTextSearchConfig(String textSearchConfig) {
+        this.textSearchConfig = textSearchConfig;
+    }
+    
+    public VectorQuantization getVectorQuantization() {
+        return vectorQuantization;
+    }
+    
+    public void setVectorQuantization(VectorQuantization vectorQuantization) {
+        this.vectorQuantization = vectorQuantization;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -125,4 +150,18 @@ public class KnowledgeBase {
     public void setDocuments(Set<Document> documents) {
         this.documents = documents;
     }
+    
+    /**
+     * 向量量化模式枚举
+     *
+     * HALFVEC 和 BINARY 在 pgvector 后端由表达式索引实现，INT8 是应用侧的量化，由平面向量段后端实现。
+     * 后端不支持的模式使用最接近的表示：pgvector 没有int8类型，INT8 按 HALFVEC 处理；
+     * Java 17 没有半精度浮点运算，平面向量段后端的 HALFVEC 按 INT8 处理。
+     */
+    public enum VectorQuantization {
+        NONE,    // 不量化，直接使用float32向量
+        HALFVEC, // 半精度浮点（16位）
+        BINARY,  // 按符号位二值化，汉明距离排序
+        INT8     // 逐行对称量化为8位整数
+    }
 }
@@ -0,0 +1,24 @@
+package com.example.ragone.event;
+
+/**
+ * 文档片段已写入数据库（入库流水线完成）
+ */
+public class DocumentIndexedEvent {
+    
+    private final Long documentId;
+    private final Long knowledgeBaseId;
+    
+    public DocumentIndexedEvent(Long documentId, Long knowledgeBaseId) {
+        this.documentId = documentId;
+        this.knowledgeBaseId = knowledgeBaseId;
+    }
+    
+    // Getters
+    public Long getDocumentId() {
+        return documentId;
+    }
+    
+    public Long getKnowledgeBaseId() {
+        return knowledgeBaseId;
+    }
+}
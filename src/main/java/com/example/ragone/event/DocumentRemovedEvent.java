@@ -0,0 +1,24 @@
+package com.example.ragone.event;
+
+/**
+ * 文档及其片段已被删除
+ */
+public class DocumentRemovedEvent {
+    
+    private final Long documentId;
+    private final Long knowledgeBaseId;
+    
+    public DocumentRemovedEvent(Long documentId, Long knowledgeBaseId) {
+        this.documentId = documentId;
+        this.knowledgeBaseId = knowledgeBaseId;
+    }
+    
+    // Getters
+    public Long getDocumentId() {
+        return documentId;
+    }
+    
+    public Long getKnowledgeBaseId() {
+        return knowledgeBaseId;
+    }
+}
@@ -6,9 +6,11 @@ import com.example.ragone.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -73,9 +75,12 @@ public interface ChatHistoryRepository extends JpaRepository<ChatHistory, Long>
     List<String> findDistinctSessionIdsByUserId(@Param("userId") Long userId);
     
     /**
-     * 删除指定会话的所有聊天历史
+     * 删除指定会话的所有聊天历史（一条DELETE语句，不加载实体）
      */
-    void deleteBySessionId(String sessionId);
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatHistory ch WHERE ch.sessionId = :sessionId")
+    int deleteBySessionId(@Param("sessionId") String sessionId);
     
     /**
      * 删除指定时间之前的聊天历史
@@ -0,0 +1,94 @@
+package com.example.ragone.repository;
+
+import com.example.ragone.dto.RetrievalFilter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把 {@link RetrievalFilter} 渲染为附加在 WHERE 之后的SQL条件和对应的绑定参数
+ *
+ * 每个条件都对应 chunk_metadata_filter_migration.sql 中的一个索引：
+ * document_id 和 mimeType 走 B-tree，时间范围走 (knowledge_base_id, created_at)，
+ * 任意metadata键值走 jsonb_path_ops 的GIN索引。
+ */
+final class ChunkFilterClause {
+    
+    static final ChunkFilterClause NONE = new ChunkFilterClause("", List.of());
+    
+    private final String sql;
+    private final List<Object> params;
+    
+    private ChunkFilterClause(String sql, List<Object> params) {
+        this.sql = sql;
+        this.params = params;
+    }
+    
+    /**
+     * @param alias document_chunks 在查询中的别名，没有别名时传空字符串
+     */
+    static ChunkFilterClause of(RetrievalFilter filter, String alias, ObjectMapper objectMapper) {
+        if (RetrievalFilter.isEmpty(filter)) {
+            return NONE;
+        }
+        String prefix = alias.isEmpty() ? "" : alias + ".";
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        
+        if (filter.getDocumentIds() != null && !filter.getDocumentIds().isEmpty()) {
+            sql.append(" AND ").append(prefix).append("document_id = ANY(?)");
+            params.add(new ArrayParam("bigint", filter.getDocumentIds().toArray()));
+        }
+        if (filter.getMimeTypes() != null && !filter.getMimeTypes().isEmpty()) {
+            sql.append(" AND (").append(prefix).append("metadata->>'mimeType') = ANY(?)");
+            params.add(new ArrayParam("text", filter.getMimeTypes().toArray()));
+        }
+        if (filter.getCreatedAfter() != null) {
+            sql.append(" AND ").append(prefix).append("created_at >= ?");
+            params.add(Timestamp.valueOf(filter.getCreatedAfter()));
+        }
+        if (filter.getCreatedBefore() != null) {
+            sql.append(" AND ").append(prefix).append("created_at <= ?");
+            params.add(Timestamp.valueOf(filter.getCreatedBefore()));
+        }
+        if (filter.getMetadata() != null && !filter.getMetadata().isEmpty()) {
+            sql.append(" AND ").append(prefix).append("metadata @> CAST(? AS jsonb)");
+            try {
+                params.add(objectMapper.writeValueAsString(filter.getMetadata()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("无效的metadata过滤条件", e);
+            }
+        }
+        return new ChunkFilterClause(sql.toString(), params);
+    }
+    
+    boolean isEmpty() {
+        return params.isEmpty();
+    }
+    
+    String sql() {
+        return sql;
+    }
+    
+    /**
+     * 从 index 开始依次绑定过滤参数，返回下一个参数的位置
+     */
+    int bind(PreparedStatement ps, int index) throws SQLException {
+        for (Object param : params) {
+            if (param instanceof ArrayParam array) {
+                ps.setArray(index++, ps.getConnection().createArrayOf(array.type(), array.values()));
+            } else {
+                ps.setObject(index++, param);
+            }
+        }
+        return index;
+    }
+    
+    private record ArrayParam(String type, Object[] values) {
+    }
+}
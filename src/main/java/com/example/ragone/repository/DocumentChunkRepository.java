@@ -15,28 +15,13 @@ import java.util.List;
  * 文档片段Repository接口
  */
 @Repository
-public interface DocumentChunkRepository extends JpaRepository<DocumentChunk, Long> {
+public interface DocumentChunkRepository extends JpaRepository<DocumentChunk, Long>, DocumentChunkRepositoryCustom {
     
     /**
      * 根据文档查找所有片段
      */
     List<DocumentChunk> findByDocumentOrderByChunkPosition(Document document);
     
-    /**
-     * 根据知识库ID进行向量相似性搜索（优化版本 - 无需JOIN）
-     * 直接使用knowledge_base_id字段，避免JOIN操作
-     */
-    @Query(value = """
-        SELECT * FROM document_chunks
-        WHERE knowledge_base_id = :knowledgeBaseId
-        AND embedding IS NOT NULL
-        ORDER BY embedding <=> CAST(:queryEmbedding AS vector)
-        LIMIT :limit
-        """, nativeQuery = true)
-    List<DocumentChunk> findSimilarChunks(@Param("knowledgeBaseId") Long knowledgeBaseId,
-                                         @Param("queryEmbedding") String queryEmbedding,
-                                         @Param("limit") int limit);
-    
     /**
      * 旧版本查询方法（保留作为备用）
      */
@@ -58,62 +43,15 @@ public interface DocumentChunkRepository extends JpaRepository<DocumentChunk, Lo
     void deleteByDocument(Document document);
     
     /**
-     * 统计文档的片段数量
+     * 按文档ID删除所有片段（供后台处理流水线使用，无需加载实体）
      */
-    int countByDocument(Document document);
-    
-    /**
-     * 关键词全文搜索 - 使用PostgreSQL的全文搜索功能
-     */
-    @Query(value = """
-        SELECT dc.*, ts_rank(to_tsvector('simple', dc.content), plainto_tsquery('simple', :query)) as rank
-        FROM document_chunks dc
-        WHERE dc.knowledge_base_id = :knowledgeBaseId
-        AND to_tsvector('simple', dc.content) @@ plainto_tsquery('simple', :query)
-        ORDER BY rank DESC
-        LIMIT :limit
-        """, nativeQuery = true)
-    List<DocumentChunk> findByKeywordSearch(@Param("knowledgeBaseId") Long knowledgeBaseId,
-                                           @Param("query") String query,
-                                           @Param("limit") int limit);
-    
-    /**
-     * 关键词模糊搜索 - 使用LIKE操作符进行模糊匹配
-     */
-    @Query(value = """
-        SELECT * FROM document_chunks
-        WHERE knowledge_base_id = :knowledgeBaseId
-        AND content ILIKE CONCAT('%', :query, '%')
-        ORDER BY 
-            CASE 
-                WHEN content ILIKE CONCAT(:query, '%') THEN 1
-                WHEN content ILIKE CONCAT('%', :query, '%') THEN 2
-                ELSE 3
-            END,
-            LENGTH(content)
-        LIMIT :limit
-        """, nativeQuery = true)
-    List<DocumentChunk> findByFuzzySearch(@Param("knowledgeBaseId") Long knowledgeBaseId,
-                                         @Param("query") String query,
-                                         @Param("limit") int limit);
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM DocumentChunk c WHERE c.document.id = :documentId")
+    int deleteByDocumentId(@Param("documentId") Long documentId);
     
     /**
-     * 使用原生SQL保存文档片段（处理vector类型，包含knowledge_base_id）
+     * 统计文档的片段数量
      */
-    @Modifying
-    @Transactional
-    @Query(value = """
-        INSERT INTO document_chunks 
-        (document_id, knowledge_base_id, chunk_position, content, content_hash, token_count, embedding, created_at)
-        VALUES (:documentId, :knowledgeBaseId, :chunkPosition, :content, :contentHash, :tokenCount, 
-                CAST(:embedding AS vector), :createdAt)
-        """, nativeQuery = true)
-    void saveChunkWithVector(@Param("documentId") Long documentId,
-                           @Param("knowledgeBaseId") Long knowledgeBaseId,
-                           @Param("chunkPosition") Integer chunkPosition,
-                           @Param("content") String content,
-                           @Param("contentHash") String contentHash,
-                           @Param("tokenCount") Integer tokenCount,
-                           @Param("embedding") String embedding,
-                           @Param("createdAt") java.time.LocalDateTime createdAt);
+    int countByDocument(Document document);
 }
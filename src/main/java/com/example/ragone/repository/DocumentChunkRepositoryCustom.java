@@ -0,0 +1,122 @@
+package com.example.ragone.repository;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.DocumentChunkInsert;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档片段Repository自定义扩展（基于原生SQL/JDBC实现）
+ *
+ * 检索方法的 filter 参数可以为null，表示只按知识库过滤。
+ */
+public interface DocumentChunkRepositoryCustom {
+    
+    /**
+     * 根据知识库ID进行向量相似性搜索（直接使用knowledge_base_id字段，避免JOIN操作）
+     */
+    List<ChunkSearchResult> findSimilarChunks(Long knowledgeBaseId, float[] queryEmbedding, int limit,
+                                              RetrievalFilter filter);
+    
+    /**
+     * 精确向量检索：禁用索引扫描后对知识库内的片段逐个计算距离，用作量化召回率的基准，不用于在线查询
+     */
+    List<ChunkSearchResult> findSimilarChunksExact(Long knowledgeBaseId, float[] queryEmbedding, int limit,
+                                                   RetrievalFilter filter);
+    
+    /**
+     * 批量向量检索：一条SQL（unnest 展开查询向量，LATERAL 子查询逐个走ANN索引）为每个查询向量各取 limit 个片段，
+     * 返回列表与 queryEmbeddings 一一对应
+     */
+    List<List<ChunkSearchResult>> findSimilarChunksBatch(Long knowledgeBaseId, List<float[]> queryEmbeddings,
+                                                         int limit, RetrievalFilter filter);
+    
+    /**
+     * 量化向量检索：先按 HALFVEC 或 BINARY 表示（命中对应的表达式索引）取 candidates 个候选，
+     * 再用全精度向量重新计算余弦距离，返回前 limit 个
+     */
+    List<ChunkSearchResult> findSimilarChunksRescored(Long knowledgeBaseId, float[] queryEmbedding,
+                                                      KnowledgeBase.VectorQuantization quantization,
+                                                      int candidates, int limit, RetrievalFilter filter);
+    
+    /**
+     * 关键词全文搜索 - 使用PostgreSQL的全文搜索功能
+     */
+    List<ChunkSearchResult> findByKeywordSearch(Long knowledgeBaseId, String query, int limit,
+                                                RetrievalFilter filter);
+    
+    /**
+     * 批量关键词全文搜索：一条SQL为每个查询各取 limit 个片段，返回列表与 queries 一一对应
+     */
+    List<List<ChunkSearchResult>> findByKeywordSearchBatch(Long knowledgeBaseId, List<String> queries, int limit,
+                                                           RetrievalFilter filter);
+    
+    /**
+     * 容错搜索 - 使用pg_trgm的词相似度（word_similarity）匹配拼写有误的查询，
+     * 只返回相似度不低于 threshold 的片段，score 为相似度
+     */
+    List<ChunkSearchResult> findByTrigramSearch(Long knowledgeBaseId, String query, double threshold, int limit,
+                                                RetrievalFilter filter);
+    
+    /**
+     * 单条SQL完成混合检索：向量检索与全文检索各取 candidates 个候选，在数据库内按RRF融合后返回前 limit 个，
+     * 结果同时带有两路的原始分数
+     */
+    List<ChunkSearchResult> findHybridChunks(Long knowledgeBaseId, float[] queryEmbedding, String query,
+                                             int candidates, int rrfK, double vectorWeight, double keywordWeight,
+                                             int limit, RetrievalFilter filter);
+    
+    /**
+     * 批量写入文档片段，返回成功写入的行数
+     */
+    int bulkInsertChunks(List<DocumentChunkInsert> chunks);
+    
+    /**
+     * 以游标方式逐行读取知识库（documentId 不为空时仅该文档）中带向量的片段，用于构建内存向量索引
+     */
+    void streamChunkVectors(Long knowledgeBaseId, Long documentId, ChunkVectorHandler handler);
+    
+    /**
+     * 以游标方式逐行读取知识库（documentId 不为空时仅该文档）中的片段文本，用于构建内存倒排索引
+     */
+    void streamChunkTexts(Long knowledgeBaseId, Long documentId, ChunkTextHandler handler);
+    
+    /**
+     * 返回知识库中满足过滤条件的片段ID，用于内存索引按任意条件过滤
+     */
+    List<Long> findChunkIds(Long knowledgeBaseId, RetrievalFilter filter);
+    
+    /**
+     * 统计知识库中带向量的片段，返回 {片段数, 最大片段ID}，没有片段时最大ID为 -1
+     */
+    long[] findChunkVectorStats(Long knowledgeBaseId);
+    
+    /**
+     * 按主键批量取回片段（分数为0），返回顺序不保证与 ids 一致
+     */
+    List<ChunkSearchResult> findChunksByIds(List<Long> ids);
+    
+    /**
+     * 按主键批量取回片段向量，没有向量的片段不在结果中
+     */
+    Map<Long, float[]> findEmbeddingsByIds(List<Long> ids);
+    
+    /**
+     * 逐行处理片段及其向量
+     */
+    @FunctionalInterface
+    interface ChunkVectorHandler {
+        void accept(long id, long documentId, int chunkPosition, String content, float[] embedding);
+    }
+    
+    /**
+     * 逐行处理片段文本
+     */
+    @FunctionalInterface
+    interface ChunkTextHandler {
+        void accept(long id, long documentId, String content);
+    }
+}
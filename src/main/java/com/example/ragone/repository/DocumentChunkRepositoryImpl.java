@@ -0,0 +1,744 @@
+package com.example.ragone.repository;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.DocumentChunkInsert;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.vector.PgVector;
+import com.example.ragone.vector.PgVectorSupport;
+import com.example.ragone.vector.PgVectorType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档片段Repository自定义扩展实现
+ *
+ * 检索查询只取回 id、文档ID、位置、内容和计算出的分数，映射为 {@link ChunkSearchResult}，
+ * 避免每个命中都携带 1024 维向量、metadata 和文档代理。
+ * 向量参数统一通过 {@link PgVector} 以二进制格式绑定。
+ * 批量写入走 PostgreSQL 二进制 COPY 协议：整批片段在一个连接上以流的方式发送，
+ * 不再逐行执行 INSERT。COPY 失败时（例如触发唯一索引冲突）回退到
+ * INSERT ... ON CONFLICT DO NOTHING 的批量插入。
+ * 检索SQL中的 {filter} 占位符替换为 {@link ChunkFilterClause} 渲染的过滤条件，与知识库条件一起下推到索引扫描。
+ */
+public class DocumentChunkRepositoryImpl implements DocumentChunkRepositoryCustom {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DocumentChunkRepositoryImpl.class);
+    
+    private static final String COPY_SQL = """
+        COPY document_chunks
+        (document_id, knowledge_base_id, chunk_position, content, content_hash, token_count, embedding, metadata, created_at)
+        FROM STDIN WITH (FORMAT binary)
+        """;
+    
+    private static final String INSERT_SQL = """
+        INSERT INTO document_chunks
+        (document_id, knowledge_base_id, chunk_position, content, content_hash, token_count, embedding, metadata, created_at)
+        VALUES (?, ?, ?, ?, ?, ?, ?, CAST(? AS jsonb), ?)
+        ON CONFLICT DO NOTHING
+        """;
+    
+    private static final String FILTER = "{filter}";
+    
+    private static final Map<String, String> ITERATIVE_SCAN_SETTINGS = Map.of(
+            "hnsw.iterative_scan", "relaxed_order",
+            "ivfflat.iterative_scan", "relaxed_order");
+    
+    // ANN索引只能通过索引扫描使用，关闭后按知识库过滤的位图扫描仍可用，排序变为精确计算
+    private static final Map<String, String> EXACT_SCAN_SETTINGS = Map.of("enable_indexscan", "off");
+    
+    private static final String SIMILAR_CHUNKS_SQL = """
+        SELECT id, document_id, chunk_position, content, embedding <=> ? AS distance
+        FROM document_chunks
+        WHERE knowledge_base_id = ?
+        AND embedding IS NOT NULL{filter}
+        ORDER BY distance
+        LIMIT ?
+        """;
+    
+    // 每个查询向量在 LATERAL 子查询里独立排序和 LIMIT，仍然可以走ANN索引；
+    // {vectors} 按查询数展开为 ?, ?, ...，每个向量作为单独的参数以二进制格式传输
+    private static final String SIMILAR_CHUNKS_BATCH_SQL = """
+        SELECT q.ord, c.id, c.document_id, c.chunk_position, c.content, c.distance
+        FROM unnest(ARRAY[{vectors}]) WITH ORDINALITY AS q(query_embedding, ord)
+        CROSS JOIN LATERAL (
+            SELECT id, document_id, chunk_position, content, embedding <=> q.query_embedding AS distance
+            FROM document_chunks
+            WHERE knowledge_base_id = ?
+            AND embedding IS NOT NULL{filter}
+            ORDER BY distance
+            LIMIT ?
+        ) c
+        ORDER BY q.ord, c.distance
+        """;
+    
+    // 首轮排序表达式必须与 vector_quantization_migration.sql 中表达式索引的定义完全一致，
+    // 重打分只对候选计算全精度距离，最终只为前 limit 个片段读取内容
+    private static final String RESCORED_SEARCH_SQL = """
+        WITH candidates AS (
+            SELECT id, embedding
+            FROM document_chunks
+            WHERE knowledge_base_id = ?
+            AND embedding IS NOT NULL{filter}
+            ORDER BY %s
+            LIMIT ?
+        ), rescored AS (
+            SELECT id, embedding <=> ? AS distance
+            FROM candidates
+            ORDER BY distance
+            LIMIT ?
+        )
+        SELECT dc.id, dc.document_id, dc.chunk_position, dc.content, r.distance
+        FROM rescored r
+        JOIN document_chunks dc ON dc.id = r.id
+        ORDER BY r.distance
+        """;
+    
+    // 维度取自 app.vector-store.dimension，迁移脚本建索引时通过 psql 变量 dimension 传入同一个值
+    private static final String HALFVEC_ORDER_BY = "embedding::halfvec(%1$d) <=> ?::halfvec(%1$d)";
+    
+    private static final String BINARY_ORDER_BY = "binary_quantize(embedding)::bit(%1$d) <~> binary_quantize(?)";
+    
+    // content_tsv 由触发器按知识库的分词配置维护，查询使用同一配置才能命中GIN索引
+    private static final String KEYWORD_SEARCH_SQL = """
+        SELECT dc.id, dc.document_id, dc.chunk_position, dc.content, ts_rank(dc.content_tsv, q) AS rank
+        FROM knowledge_bases kb
+        CROSS JOIN plainto_tsquery(kb.text_search_config::regconfig, ?) q
+        JOIN document_chunks dc ON dc.knowledge_base_id = kb.id
+        WHERE kb.id = ?
+        AND dc.content_tsv @@ q{filter}
+        ORDER BY rank DESC
+        LIMIT ?
+        """;
+    
+    private static final String KEYWORD_SEARCH_BATCH_SQL = """
+        SELECT q.ord, k.id, k.document_id, k.chunk_position, k.content, k.rank
+        FROM knowledge_bases kb
+        CROSS JOIN unnest(?) WITH ORDINALITY AS q(query_text, ord)
+        CROSS JOIN LATERAL (
+            SELECT dc.id, dc.document_id, dc.chunk_position, dc.content, ts_rank(dc.content_tsv, tq) AS rank
+            FROM plainto_tsquery(kb.text_search_config::regconfig, q.query_text) tq
+            JOIN document_chunks dc ON dc.knowledge_base_id = kb.id
+            WHERE dc.content_tsv @@ tq{filter}
+            ORDER BY rank DESC
+            LIMIT ?
+        ) k
+        WHERE kb.id = ?
+        ORDER BY q.ord, k.rank DESC
+        """;
+    
+    // <% 按 pg_trgm.word_similarity_threshold 过滤，可以使用 content 上的 gin_trgm_ops 索引
+    private static final String TRIGRAM_SEARCH_SQL = """
+        SELECT id, document_id, chunk_position, content, word_similarity(?, content) AS rank
+        FROM document_chunks
+        WHERE knowledge_base_id = ?
+        AND ? <% content{filter}
+        ORDER BY rank DESC
+        LIMIT ?
+        """;
+    
+    private static final String HYBRID_SEARCH_SQL = """
+        WITH vector_hits AS (
+            SELECT id, distance, ROW_NUMBER() OVER (ORDER BY distance) AS vector_rank
+            FROM (
+                SELECT id, embedding <=> ? AS distance
+                FROM document_chunks
+                WHERE knowledge_base_id = ?
+                AND embedding IS NOT NULL{filter}
+                ORDER BY distance
+                LIMIT ?
+            ) v
+        ),
+        keyword_hits AS (
+            SELECT id, rank, ROW_NUMBER() OVER (ORDER BY rank DESC) AS keyword_rank
+            FROM (
+                SELECT dc.id, ts_rank(dc.content_tsv, q) AS rank
+                FROM knowledge_bases kb
+                CROSS JOIN plainto_tsquery(kb.text_search_config::regconfig, ?) q
+                JOIN document_chunks dc ON dc.knowledge_base_id = kb.id
+                WHERE kb.id = ?
+                AND dc.content_tsv @@ q{filter}
+                ORDER BY rank DESC
+                LIMIT ?
+            ) k
+        )
+        SELECT dc.id, dc.document_id, dc.chunk_position, dc.content,
+            1 - v.distance AS vector_score,
+            k.rank::float8 AS keyword_score,
+            COALESCE(? / (? + v.vector_rank), 0) + COALESCE(? / (? + k.keyword_rank), 0) AS rrf_score
+        FROM vector_hits v
+        FULL OUTER JOIN keyword_hits k ON v.id = k.id
+        JOIN document_chunks dc ON dc.id = COALESCE(v.id, k.id)
+        ORDER BY rrf_score DESC
+        LIMIT ?
+        """;
+    
+    private static final String CHUNK_VECTORS_SQL = """
+        SELECT id, document_id, chunk_position, content, embedding
+        FROM document_chunks
+        WHERE knowledge_base_id = ?
+        AND embedding IS NOT NULL
+        """;
+    
+    private static final String CHUNK_TEXTS_SQL = """
+        SELECT id, document_id, content
+        FROM document_chunks
+        WHERE knowledge_base_id = ?
+        """;
+    
+    private static final String CHUNK_IDS_SQL = """
+        SELECT id
+        FROM document_chunks
+        WHERE knowledge_base_id = ?{filter}
+        """;
+    
+    private static final String CHUNK_VECTOR_STATS_SQL = """
+        SELECT COUNT(*), COALESCE(MAX(id), -1)
+        FROM document_chunks
+        WHERE knowledge_base_id = ?
+        AND embedding IS NOT NULL
+        """;
+    
+    private static final String EMBEDDINGS_BY_IDS_SQL = """
+        SELECT id, embedding
+        FROM document_chunks
+        WHERE id = ANY(?)
+        AND embedding IS NOT NULL
+        """;
+    
+    private static final String CHUNKS_BY_IDS_SQL = """
+        SELECT id, document_id, chunk_position, content
+        FROM document_chunks
+        WHERE id = ANY(?)
+        """;
+    
+    private static final int STREAM_FETCH_SIZE = 500;
+    
+    // 二进制COPY文件头：签名 + 标志位 + 扩展区长度
+    private static final byte[] COPY_HEADER = {
+        'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+        0, 0, 0, 0,
+        0, 0, 0, 0
+    };
+    
+    private static final LocalDateTime POSTGRES_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+    
+    private static final int COPY_FIELD_COUNT = 9;
+    
+    // jsonb 二进制格式的版本号
+    private static final int JSONB_VERSION = 1;
+    
+    private static final RowMapper<ChunkSearchResult> RANK_MAPPER = (rs, rowNum) -> new ChunkSearchResult(
+            rs.getLong("id"), rs.getLong("document_id"), rs.getInt("chunk_position"),
+            rs.getString("content"), rs.getDouble("rank"));
+    
+    private static final RowMapper<ChunkSearchResult> DISTANCE_MAPPER = (rs, rowNum) -> new ChunkSearchResult(
+            rs.getLong("id"), rs.getLong("document_id"), rs.getInt("chunk_position"),
+            rs.getString("content"), 1.0 - rs.getDouble("distance"));
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${app.vector-store.filter.iterative-scan:true}")
+    private boolean iterativeScan;
+    
+    @Value("${app.vector-store.dimension:1024}")
+    private int dimension;
+    
+    private String halfvecSearchSql;
+    private String binarySearchSql;
+    
+    @PostConstruct
+    public void init() {
+        halfvecSearchSql = RESCORED_SEARCH_SQL.formatted(HALFVEC_ORDER_BY.formatted(dimension));
+        binarySearchSql = RESCORED_SEARCH_SQL.formatted(BINARY_ORDER_BY.formatted(dimension));
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findSimilarChunks(Long knowledgeBaseId, float[] queryEmbedding, int limit,
+                                                     RetrievalFilter filter) {
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        // 余弦距离转换为相似度，分数越大越相关
+        List<ChunkSearchResult> results = queryVectors(SIMILAR_CHUNKS_SQL.replace(FILTER, clause.sql()), clause, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            ps.setObject(1, new PgVector(queryEmbedding));
+            ps.setLong(2, knowledgeBaseId);
+            int index = clause.bind(ps, 3);
+            ps.setInt(index, limit);
+        }, DISTANCE_MAPPER);
+        // 迭代扫描按 relaxed_order 返回，顺序可能有轻微偏差
+        if (!clause.isEmpty()) {
+            results.sort(Comparator.comparingDouble(ChunkSearchResult::getScore).reversed());
+        }
+        return results;
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findSimilarChunksExact(Long knowledgeBaseId, float[] queryEmbedding, int limit,
+                                                          RetrievalFilter filter) {
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        return queryWithSettings(SIMILAR_CHUNKS_SQL.replace(FILTER, clause.sql()), EXACT_SCAN_SETTINGS, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            ps.setObject(1, new PgVector(queryEmbedding));
+            ps.setLong(2, knowledgeBaseId);
+            int index = clause.bind(ps, 3);
+            ps.setInt(index, limit);
+        }, DISTANCE_MAPPER);
+    }
+    
+    @Override
+    public List<List<ChunkSearchResult>> findSimilarChunksBatch(Long knowledgeBaseId, List<float[]> queryEmbeddings,
+                                                                int limit, RetrievalFilter filter) {
+        if (queryEmbeddings.isEmpty()) {
+            return List.of();
+        }
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        String sql = SIMILAR_CHUNKS_BATCH_SQL
+                .replace("{vectors}", String.join(", ", Collections.nCopies(queryEmbeddings.size(), "?")))
+                .replace(FILTER, clause.sql());
+        List<Map.Entry<Integer, ChunkSearchResult>> rows = queryVectors(sql, clause, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            int index = 1;
+            for (float[] queryEmbedding : queryEmbeddings) {
+                ps.setObject(index++, new PgVector(queryEmbedding));
+            }
+            ps.setLong(index++, knowledgeBaseId);
+            index = clause.bind(ps, index);
+            ps.setInt(index, limit);
+        }, (rs, rowNum) -> Map.entry(rs.getInt("ord"), DISTANCE_MAPPER.mapRow(rs, rowNum)));
+        List<List<ChunkSearchResult>> results = groupByQuery(rows, queryEmbeddings.size());
+        if (!clause.isEmpty()) {
+            results.forEach(list -> list.sort(Comparator.comparingDouble(ChunkSearchResult::getScore).reversed()));
+        }
+        return results;
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findSimilarChunksRescored(Long knowledgeBaseId, float[] queryEmbedding,
+                                                             KnowledgeBase.VectorQuantization quantization,
+                                                             int candidates, int limit, RetrievalFilter filter) {
+        String sql = switch (quantization) {
+            case HALFVEC -> halfvecSearchSql;
+            case BINARY -> binarySearchSql;
+            default -> throw new IllegalArgumentException("pgvector不支持的量化模式: " + quantization);
+        };
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        
+        return queryVectors(sql.replace(FILTER, clause.sql()), clause, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            PgVector query = new PgVector(queryEmbedding);
+            ps.setLong(1, knowledgeBaseId);
+            int index = clause.bind(ps, 2);
+            ps.setObject(index++, query);
+            ps.setInt(index++, candidates);
+            ps.setObject(index++, query);
+            ps.setInt(index, limit);
+        }, DISTANCE_MAPPER);
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findByKeywordSearch(Long knowledgeBaseId, String query, int limit,
+                                                       RetrievalFilter filter) {
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "dc", objectMapper);
+        return jdbcTemplate.query(KEYWORD_SEARCH_SQL.replace(FILTER, clause.sql()), ps -> {
+            ps.setString(1, query);
+            ps.setLong(2, knowledgeBaseId);
+            int index = clause.bind(ps, 3);
+            ps.setInt(index, limit);
+        }, RANK_MAPPER);
+    }
+    
+    @Override
+    public List<List<ChunkSearchResult>> findByKeywordSearchBatch(Long knowledgeBaseId, List<String> queries, int limit,
+                                                                  RetrievalFilter filter) {
+        if (queries.isEmpty()) {
+            return List.of();
+        }
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "dc", objectMapper);
+        List<Map.Entry<Integer, ChunkSearchResult>> rows = jdbcTemplate.query(
+                KEYWORD_SEARCH_BATCH_SQL.replace(FILTER, clause.sql()), ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("text", queries.toArray(new String[0])));
+                    int index = clause.bind(ps, 2);
+                    ps.setInt(index++, limit);
+                    ps.setLong(index, knowledgeBaseId);
+                }, (rs, rowNum) -> Map.entry(rs.getInt("ord"), RANK_MAPPER.mapRow(rs, rowNum)));
+        return groupByQuery(rows, queries.size());
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findByTrigramSearch(Long knowledgeBaseId, String query, double threshold,
+                                                       int limit, RetrievalFilter filter) {
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        return queryWithSettings(TRIGRAM_SEARCH_SQL.replace(FILTER, clause.sql()),
+                Map.of("pg_trgm.word_similarity_threshold", String.valueOf(threshold)), ps -> {
+                    ps.setString(1, query);
+                    ps.setLong(2, knowledgeBaseId);
+                    ps.setString(3, query);
+                    int index = clause.bind(ps, 4);
+                    ps.setInt(index, limit);
+                }, RANK_MAPPER);
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findHybridChunks(Long knowledgeBaseId, float[] queryEmbedding, String query,
+                                                    int candidates, int rrfK, double vectorWeight, double keywordWeight,
+                                                    int limit, RetrievalFilter filter) {
+        RowMapper<ChunkSearchResult> mapper = (rs, rowNum) -> {
+            ChunkSearchResult result = new ChunkSearchResult(
+                    rs.getLong("id"), rs.getLong("document_id"), rs.getInt("chunk_position"),
+                    rs.getString("content"), rs.getDouble("rrf_score"));
+            result.setVectorScore(rs.getObject("vector_score", Double.class));
+            result.setKeywordScore(rs.getObject("keyword_score", Double.class));
+            return result;
+        };
+        
+        // 两路检索各自带一份过滤条件：向量路的表没有别名，全文路为 dc
+        ChunkFilterClause vectorClause = ChunkFilterClause.of(filter, "", objectMapper);
+        ChunkFilterClause keywordClause = ChunkFilterClause.of(filter, "dc", objectMapper);
+        int keywordFilterAt = HYBRID_SEARCH_SQL.lastIndexOf(FILTER);
+        String sql = HYBRID_SEARCH_SQL.substring(0, keywordFilterAt).replace(FILTER, vectorClause.sql())
+                + keywordClause.sql() + HYBRID_SEARCH_SQL.substring(keywordFilterAt + FILTER.length());
+        
+        return queryVectors(sql, vectorClause, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            ps.setObject(1, new PgVector(queryEmbedding));
+            ps.setLong(2, knowledgeBaseId);
+            int index = vectorClause.bind(ps, 3);
+            ps.setInt(index++, candidates);
+            ps.setString(index++, query);
+            ps.setLong(index++, knowledgeBaseId);
+            index = keywordClause.bind(ps, index);
+            ps.setInt(index++, candidates);
+            ps.setDouble(index++, vectorWeight);
+            ps.setInt(index++, rrfK);
+            ps.setDouble(index++, keywordWeight);
+            ps.setInt(index++, rrfK);
+            ps.setInt(index, limit);
+        }, mapper);
+    }
+    
+    @Override
+    public int bulkInsertChunks(List<DocumentChunkInsert> chunks) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        
+        long startTime = System.nanoTime();
+        int rows;
+        try {
+            rows = copyChunks(chunks);
+        } catch (Exception e) {
+            logger.warn("COPY写入文档片段失败，回退到批量INSERT: {}", e.getMessage());
+            rows = batchInsertChunks(chunks);
+        }
+        
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1_000_000_000.0;
+        logger.info("批量写入文档片段 {} 行，耗时 {} ms，{} 行/秒",
+                rows, Math.round(seconds * 1000), Math.round(rows / seconds));
+        return rows;
+    }
+    
+    @Override
+    public void streamChunkVectors(Long knowledgeBaseId, Long documentId, ChunkVectorHandler handler) {
+        String sql = documentId != null ? CHUNK_VECTORS_SQL + " AND document_id = ? ORDER BY id" : CHUNK_VECTORS_SQL + " ORDER BY id";
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            // PostgreSQL只有在事务内才会按fetchSize分批返回结果，否则一次性读入整个知识库
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                PgVectorSupport.register(connection);
+                ps.setFetchSize(STREAM_FETCH_SIZE);
+                ps.setLong(1, knowledgeBaseId);
+                if (documentId != null) {
+                    ps.setLong(2, documentId);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        handler.accept(rs.getLong("id"), rs.getLong("document_id"), rs.getInt("chunk_position"),
+                                rs.getString("content"), PgVectorType.toFloatArray(rs.getObject("embedding")));
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public void streamChunkTexts(Long knowledgeBaseId, Long documentId, ChunkTextHandler handler) {
+        String sql = documentId != null ? CHUNK_TEXTS_SQL + " AND document_id = ? ORDER BY id" : CHUNK_TEXTS_SQL + " ORDER BY id";
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setFetchSize(STREAM_FETCH_SIZE);
+                ps.setLong(1, knowledgeBaseId);
+                if (documentId != null) {
+                    ps.setLong(2, documentId);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        handler.accept(rs.getLong("id"), rs.getLong("document_id"), rs.getString("content"));
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public List<Long> findChunkIds(Long knowledgeBaseId, RetrievalFilter filter) {
+        ChunkFilterClause clause = ChunkFilterClause.of(filter, "", objectMapper);
+        return jdbcTemplate.query(CHUNK_IDS_SQL.replace(FILTER, clause.sql()), ps -> {
+            ps.setLong(1, knowledgeBaseId);
+            clause.bind(ps, 2);
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+    
+    @Override
+    public long[] findChunkVectorStats(Long knowledgeBaseId) {
+        return jdbcTemplate.queryForObject(CHUNK_VECTOR_STATS_SQL,
+                (rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2)}, knowledgeBaseId);
+    }
+    
+    @Override
+    public List<ChunkSearchResult> findChunksByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query(CHUNKS_BY_IDS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray())),
+                (rs, rowNum) -> new ChunkSearchResult(rs.getLong("id"), rs.getLong("document_id"),
+                        rs.getInt("chunk_position"), rs.getString("content"), 0.0));
+    }
+    
+    @Override
+    public Map<Long, float[]> findEmbeddingsByIds(List<Long> ids) {
+        Map<Long, float[]> embeddings = new HashMap<>();
+        if (ids.isEmpty()) {
+            return embeddings;
+        }
+        jdbcTemplate.query(EMBEDDINGS_BY_IDS_SQL, ps -> {
+            PgVectorSupport.register(ps.getConnection());
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray()));
+        }, rs -> {
+            embeddings.put(rs.getLong("id"), PgVectorType.toFloatArray(rs.getObject("embedding")));
+        });
+        return embeddings;
+    }
+    
+    /**
+     * 按批量查询结果中的序号（WITH ORDINALITY，从1开始）拆分为每个查询一个列表
+     */
+    private static List<List<ChunkSearchResult>> groupByQuery(List<Map.Entry<Integer, ChunkSearchResult>> rows,
+                                                              int queryCount) {
+        List<List<ChunkSearchResult>> results = new ArrayList<>(queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            results.add(new ArrayList<>());
+        }
+        for (Map.Entry<Integer, ChunkSearchResult> row : rows) {
+            results.get(row.getKey() - 1).add(row.getValue());
+        }
+        return results;
+    }
+    
+    /**
+     * 执行向量检索SQL
+     *
+     * 带过滤条件时在事务内开启 pgvector 0.8 的迭代索引扫描：索引返回的候选被过滤条件排除后继续向后扫描，
+     * 而不是只在 ef_search / probes 范围内的候选里过滤，否则选择性高的过滤条件会让结果数远少于 limit。
+     */
+    private <T> List<T> queryVectors(String sql, ChunkFilterClause clause, PreparedStatementSetter setter,
+                                     RowMapper<T> mapper) {
+        if (clause.isEmpty() || !iterativeScan) {
+            return jdbcTemplate.query(sql, setter, mapper);
+        }
+        return queryWithSettings(sql, ITERATIVE_SCAN_SETTINGS, setter, mapper);
+    }
+    
+    /**
+     * 在事务内用 set_config(..., true) 设置只对本次查询生效的参数后执行查询
+     */
+    private <T> List<T> queryWithSettings(String sql, Map<String, String> settings, PreparedStatementSetter setter,
+                                          RowMapper<T> mapper) {
+        return jdbcTemplate.execute((ConnectionCallback<List<T>>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT set_config(?, ?, true)")) {
+                    for (Map.Entry<String, String> setting : settings.entrySet()) {
+                        statement.setString(1, setting.getKey());
+                        statement.setString(2, setting.getValue());
+                        statement.execute();
+                    }
+                }
+                List<T> results = new ArrayList<>();
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    setter.setValues(ps);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            results.add(mapper.mapRow(rs, results.size()));
+                        }
+                    }
+                }
+                connection.commit();
+                return results;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+    
+    /**
+     * 使用二进制格式 COPY FROM STDIN 逐行流式写入
+     */
+    private int copyChunks(List<DocumentChunkInsert> chunks) {
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            PGCopyOutputStream copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class), COPY_SQL, 64 * 1024);
+            try {
+                DataOutputStream out = new DataOutputStream(copyStream);
+                out.write(COPY_HEADER);
+                for (DocumentChunkInsert chunk : chunks) {
+                    writeRow(out, chunk);
+                }
+                out.writeShort(-1);
+                out.flush();
+                return copyStream.endCopy();
+            } catch (IOException e) {
+                throw new IllegalStateException("COPY数据写入失败", e);
+            } finally {
+                if (copyStream.isActive()) {
+                    copyStream.cancelCopy();
+                }
+            }
+        });
+        return copied != null ? copied.intValue() : 0;
+    }
+    
+    /**
+     * 按二进制COPY格式写入一行：字段数 + 每个字段的（长度, 内容）
+     */
+    private void writeRow(DataOutputStream out, DocumentChunkInsert chunk) throws IOException {
+        out.writeShort(COPY_FIELD_COUNT);
+        
+        out.writeInt(8);
+        out.writeLong(chunk.getDocumentId());
+        
+        out.writeInt(8);
+        out.writeLong(chunk.getKnowledgeBaseId());
+        
+        out.writeInt(4);
+        out.writeInt(chunk.getChunkPosition());
+        
+        writeText(out, stripNul(chunk.getContent()));
+        writeText(out, chunk.getContentHash());
+        
+        out.writeInt(4);
+        out.writeInt(chunk.getTokenCount());
+        
+        PgVector vector = new PgVector(chunk.getEmbedding());
+        byte[] vectorBytes = new byte[vector.lengthInBytes()];
+        vector.toBytes(vectorBytes, 0);
+        out.writeInt(vectorBytes.length);
+        out.write(vectorBytes);
+        
+        writeJsonb(out, chunk.getMetadata());
+        
+        // timestamp without time zone: 自2000-01-01起的微秒数
+        out.writeInt(8);
+        out.writeLong(ChronoUnit.MICROS.between(POSTGRES_EPOCH, chunk.getCreatedAt()));
+    }
+    
+    private void writeJsonb(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length + 1);
+        out.writeByte(JSONB_VERSION);
+        out.write(bytes);
+    }
+    
+    private void writeText(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * 回退方案：批量INSERT（配合reWriteBatchedInserts会被驱动改写为多行INSERT）
+     */
+    private int batchInsertChunks(List<DocumentChunkInsert> chunks) {
+        int[][] results = jdbcTemplate.batchUpdate(INSERT_SQL, chunks, 500, (ps, chunk) -> {
+            PgVectorSupport.register(ps.getConnection());
+            ps.setLong(1, chunk.getDocumentId());
+            ps.setLong(2, chunk.getKnowledgeBaseId());
+            ps.setInt(3, chunk.getChunkPosition());
+            ps.setString(4, stripNul(chunk.getContent()));
+            ps.setString(5, chunk.getContentHash());
+            ps.setInt(6, chunk.getTokenCount());
+            ps.setObject(7, new PgVector(chunk.getEmbedding()));
+            ps.setString(8, chunk.getMetadata());
+            ps.setTimestamp(9, Timestamp.valueOf(chunk.getCreatedAt()));
+        });
+        
+        int rows = 0;
+        for (int[] batch : results) {
+            for (int count : batch) {
+                // 改写后的多行INSERT返回SUCCESS_NO_INFO(-2)，按1行计
+                rows += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * PostgreSQL文本不允许NUL字符
+     */
+    private static String stripNul(String value) {
+        return value.indexOf('\u0000') >= 0 ? value.replace("\u0000", "") : value;
+    }
+}
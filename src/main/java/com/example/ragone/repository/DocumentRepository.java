@@ -3,8 +3,14 @@ package com.example.ragone.repository;
 import com.example.ragone.entity.Document;
 import com.example.ragone.entity.KnowledgeBase;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,6 +30,11 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
      */
     List<Document> findByKnowledgeBaseAndProcessStatus(KnowledgeBase knowledgeBase, Document.ProcessStatus status);
     
+    /**
+     * 查找处于指定处理状态的文档
+     */
+    List<Document> findByProcessStatusIn(Collection<Document.ProcessStatus> statuses);
+    
     /**
      * 根据文件哈希查找文档
      */
@@ -33,4 +44,28 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
      * 根据知识库和文档ID查找文档
      */
     Optional<Document> findByIdAndKnowledgeBase(Long id, KnowledgeBase knowledgeBase);
+    
+    /**
+     * 更新文档处理进度（供后台处理流水线使用，无需加载实体）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Document d SET d.processStatus = :status, d.processMessage = :message, d.updatedAt = :updatedAt WHERE d.id = :id")
+    int updateProcessProgress(@Param("id") Long id,
+                              @Param("status") Document.ProcessStatus status,
+                              @Param("message") String message,
+                              @Param("updatedAt") LocalDateTime updatedAt);
+    
+    /**
+     * 标记文档处理结束
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Document d SET d.processStatus = :status, d.processMessage = :message, d.chunkCount = :chunkCount, " +
+           "d.processedAt = :processedAt, d.updatedAt = :processedAt WHERE d.id = :id")
+    int finishProcessing(@Param("id") Long id,
+                         @Param("status") Document.ProcessStatus status,
+                         @Param("message") String message,
+                         @Param("chunkCount") Integer chunkCount,
+                         @Param("processedAt") LocalDateTime processedAt);
 }
@@ -3,6 +3,8 @@ package com.example.ragone.repository;
 import com.example.ragone.entity.KnowledgeBase;
 import com.example.ragone.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -33,4 +35,10 @@ public interface KnowledgeBaseRepository extends JpaRepository<KnowledgeBase, Lo
      * 根据用户ID和知识库ID查找知识库
      */
     Optional<KnowledgeBase> findByIdAndUser(Long id, User user);
+    
+    /**
+     * 检查PostgreSQL中是否存在指定的全文检索分词配置
+     */
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM pg_ts_config WHERE cfgname = :name)", nativeQuery = true)
+    boolean existsTextSearchConfig(@Param("name") String name);
 }
@@ -0,0 +1,102 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.event.DocumentRemovedEvent;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.text.Bm25Index;
+import com.example.ragone.text.CjkBigramTokenizer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+
+/**
+ * 基于内存BM25倒排索引的关键词检索
+ *
+ * PostgreSQL 的 simple 分词配置不切分中文，整句中文会变成一个词项，几乎匹配不到任何片段。
+ * 这里每个知识库一个 {@link Bm25Index}，中文按二元组切分，查询用WAND求 top-k，不需要安装数据库扩展。
+ * 索引的构建、增量更新和过滤见 {@link TextIndexRegistry}，索引构建完成前回退到 PostgreSQL 全文检索。
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "app.keyword-store.type", havingValue = "bm25")
+public class Bm25KeywordStore implements KeywordStore {
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @Autowired
+    private PgKeywordStore pgKeywordStore;
+    
+    @Value("${app.keyword-store.bm25.k1:1.2}")
+    private float k1;
+    
+    @Value("${app.keyword-store.bm25.b:0.75}")
+    private float b;
+    
+    @Value("${app.keyword-store.bm25.max-loaded-knowledge-bases:32}")
+    private int maxLoadedKnowledgeBases;
+    
+    @Value("${app.keyword-store.bm25.rebuild-deleted-ratio:0.3}")
+    private double rebuildDeletedRatio;
+    
+    @Value("${app.keyword-store.bm25.preload-on-startup:false}")
+    private boolean preloadOnStartup;
+    
+    private TextIndexRegistry registry;
+    
+    @PostConstruct
+    public void start() {
+        registry = new TextIndexRegistry("bm25", () -> new Bm25Index(CjkBigramTokenizer.INSTANCE, k1, b),
+                maxLoadedKnowledgeBases, rebuildDeletedRatio, documentChunkRepository);
+    }
+    
+    @PreDestroy
+    public void stop() {
+        registry.shutdown();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preloadOnStartup) {
+            return;
+        }
+        for (KnowledgeBase knowledgeBase : knowledgeBaseRepository.findAll()) {
+            if (Boolean.TRUE.equals(knowledgeBase.getActive())) {
+                registry.scheduleBuild(knowledgeBase.getId());
+            }
+        }
+    }
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter) {
+        List<ChunkSearchResult> results = registry.search(knowledgeBaseId, query, limit, filter);
+        return results != null ? results : pgKeywordStore.search(knowledgeBaseId, query, limit, filter);
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexed(DocumentIndexedEvent event) {
+        registry.documentIndexed(event.getKnowledgeBaseId(), event.getDocumentId());
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentRemoved(DocumentRemovedEvent event) {
+        registry.documentRemoved(event.getKnowledgeBaseId(), event.getDocumentId());
+    }
+}
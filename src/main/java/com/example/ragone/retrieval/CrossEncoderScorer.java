@@ -0,0 +1,263 @@
+package com.example.ragone.retrieval;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.djl.util.PairList;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的交叉编码器（cross-encoder）打分，通过 ONNX Runtime 在CPU上运行
+ *
+ * 模型和 tokenizer.json 从本地路径加载（如导出为ONNX的 ms-marco-MiniLM-L-6-v2 或 bge-reranker-base），
+ * 依赖 ONNX Runtime 和 DJL 的 HuggingFace tokenizer（pom.xml 中显式声明，版本与 langchain4j-embeddings 一致）。
+ * 所有候选与查询拼成句对后一次批量前向计算；超过时间预算时通过 RunOptions 终止推理并返回null，
+ * 由调用方退回融合排序。分词和推理两个阶段的耗时记录在 rag.rerank.stage 指标中。
+ */
+@Component
+@ConditionalOnProperty(name = "app.reranking.mode", havingValue = "cross-encoder")
+public class CrossEncoderScorer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CrossEncoderScorer.class);
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${app.reranking.cross-encoder.model-path:}")
+    private String modelPath;
+    
+    @Value("${app.reranking.cross-encoder.tokenizer-path:}")
+    private String tokenizerPath;
+    
+    @Value("${app.reranking.cross-encoder.max-length:512}")
+    private int maxLength;
+    
+    @Value("${app.reranking.cross-encoder.intra-op-threads:2}")
+    private int intraOpThreads;
+    
+    @Value("${app.reranking.cross-encoder.workers:2}")
+    private int workers;
+    
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private HuggingFaceTokenizer tokenizer;
+    private boolean tokenTypeIds;
+    private ThreadPoolExecutor scoringExecutor;
+    
+    @PostConstruct
+    public void start() throws Exception {
+        if (modelPath.isBlank() || tokenizerPath.isBlank()) {
+            throw new IllegalStateException(
+                    "交叉编码器重排序需要配置 app.reranking.cross-encoder.model-path 和 tokenizer-path");
+        }
+        if (!Files.isRegularFile(Path.of(modelPath)) || !Files.isRegularFile(Path.of(tokenizerPath))) {
+            throw new IllegalStateException("交叉编码器模型或分词器文件不存在: " + modelPath + ", " + tokenizerPath);
+        }
+        
+        environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            options.setIntraOpNumThreads(intraOpThreads);
+            session = environment.createSession(modelPath, options);
+        }
+        tokenTypeIds = session.getInputNames().contains("token_type_ids");
+        
+        Map<String, String> tokenizerOptions = new HashMap<>();
+        tokenizerOptions.put("maxLength", String.valueOf(maxLength));
+        tokenizerOptions.put("truncation", "true");
+        tokenizerOptions.put("padding", "true");
+        tokenizer = HuggingFaceTokenizer.newInstance(Path.of(tokenizerPath), tokenizerOptions);
+        
+        AtomicInteger counter = new AtomicInteger();
+        // 不使用 CallerRunsPolicy：调用线程执行就无法限制等待时间，队列满时直接退回融合排序
+        scoringExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "cross-encoder-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        logger.info("交叉编码器已加载: {}，输入: {}", modelPath, session.getInputNames());
+    }
+    
+    @PreDestroy
+    public void stop() throws OrtException {
+        if (scoringExecutor != null) {
+            scoringExecutor.shutdownNow();
+        }
+        if (session != null) {
+            session.close();
+        }
+        if (tokenizer != null) {
+            tokenizer.close();
+        }
+    }
+    
+    /**
+     * 对每个候选片段打分（logit，越大越相关），返回顺序与 passages 一致；
+     * 超过 budgetMs 或推理线程繁忙时返回null
+     */
+    public float[] score(String query, List<String> passages, long budgetMs) throws InterruptedException {
+        if (passages.isEmpty()) {
+            return new float[0];
+        }
+        ScoringRun run = new ScoringRun();
+        Future<float[]> future;
+        try {
+            future = scoringExecutor.submit(() -> run.score(query, passages));
+        } catch (RejectedExecutionException e) {
+            run.close();
+            meterRegistry.counter("rag.rerank.fallback", "reason", "busy").increment();
+            return null;
+        }
+        try {
+            return future.get(budgetMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            run.terminate();
+            future.cancel(true);
+            // 仍在队列中的任务被取消后不会执行，由这里释放它的 RunOptions
+            run.abandon();
+            logger.warn("交叉编码器 {} 个候选超过 {} ms未完成，使用融合排序", passages.size(), budgetMs);
+            meterRegistry.counter("rag.rerank.fallback", "reason", "timeout").increment();
+            return null;
+        } catch (ExecutionException e) {
+            logger.error("交叉编码器打分失败，使用融合排序", e.getCause());
+            meterRegistry.counter("rag.rerank.fallback", "reason", "error").increment();
+            return null;
+        }
+    }
+    
+    /**
+     * 一次打分请求；RunOptions 在推理结束后关闭，超时终止与关闭互斥。
+     * 任务开始执行后由任务自己关闭，未开始就被放弃时由调用线程关闭，不会在推理过程中释放
+     */
+    private final class ScoringRun {
+        
+        private final OrtSession.RunOptions runOptions;
+        private boolean started;
+        private boolean closed;
+        
+        ScoringRun() {
+            try {
+                this.runOptions = new OrtSession.RunOptions();
+            } catch (OrtException e) {
+                throw new IllegalStateException("创建ONNX Runtime运行选项失败", e);
+            }
+        }
+        
+        float[] score(String query, List<String> passages) throws OrtException {
+            if (!begin()) {
+                return null;
+            }
+            try {
+                long startTime = System.nanoTime();
+                PairList<String, String> pairs = new PairList<>(passages.size());
+                for (String passage : passages) {
+                    pairs.add(query, passage);
+                }
+                Encoding[] encodings = tokenizer.batchEncode(pairs);
+                int batch = encodings.length;
+                int length = encodings[0].getIds().length;
+                LongBuffer ids = LongBuffer.allocate(batch * length);
+                LongBuffer mask = LongBuffer.allocate(batch * length);
+                LongBuffer types = LongBuffer.allocate(batch * length);
+                for (Encoding encoding : encodings) {
+                    ids.put(encoding.getIds());
+                    mask.put(encoding.getAttentionMask());
+                    types.put(encoding.getTypeIds());
+                }
+                ids.flip();
+                mask.flip();
+                types.flip();
+                long tokenized = System.nanoTime();
+                meterRegistry.timer("rag.rerank.stage", "stage", "tokenize")
+                        .record(tokenized - startTime, TimeUnit.NANOSECONDS);
+                
+                long[] shape = {batch, length};
+                Map<String, OnnxTensor> inputs = new HashMap<>();
+                try {
+                    inputs.put("input_ids", OnnxTensor.createTensor(environment, ids, shape));
+                    inputs.put("attention_mask", OnnxTensor.createTensor(environment, mask, shape));
+                    if (tokenTypeIds) {
+                        inputs.put("token_type_ids", OnnxTensor.createTensor(environment, types, shape));
+                    }
+                    try (OrtSession.Result result = session.run(inputs, runOptions)) {
+                        float[][] logits = (float[][]) result.get(0).getValue();
+                        float[] scores = new float[batch];
+                        for (int i = 0; i < batch; i++) {
+                            // 单输出为相关性logit；二分类输出取“相关”一类
+                            scores[i] = logits[i][logits[i].length - 1];
+                        }
+                        long inferred = System.nanoTime();
+                        meterRegistry.timer("rag.rerank.stage", "stage", "inference")
+                                .record(inferred - tokenized, TimeUnit.NANOSECONDS);
+                        logger.debug("交叉编码器打分 {} 个候选（{} tokens）- 分词 {} ms，推理 {} ms", batch, length,
+                                TimeUnit.NANOSECONDS.toMillis(tokenized - startTime),
+                                TimeUnit.NANOSECONDS.toMillis(inferred - tokenized));
+                        return scores;
+                    }
+                } finally {
+                    inputs.values().forEach(OnnxTensor::close);
+                }
+            } finally {
+                close();
+            }
+        }
+        
+        private synchronized boolean begin() {
+            if (closed) {
+                return false;
+            }
+            started = true;
+            return true;
+        }
+        
+        synchronized void abandon() {
+            if (!started) {
+                close();
+            }
+        }
+        
+        synchronized void terminate() {
+            if (!closed) {
+                try {
+                    runOptions.setTerminate(true);
+                } catch (OrtException e) {
+                    logger.debug("终止交叉编码器推理失败: {}", e.getMessage());
+                }
+            }
+        }
+        
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                runOptions.close();
+            }
+        }
+    }
+}
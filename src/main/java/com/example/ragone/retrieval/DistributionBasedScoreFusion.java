@@ -0,0 +1,58 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于分布的分数融合（DBSF）：每一路以 μ ± 3σ 作为上下界归一化到 [0, 1]，再按权重累加
+ *
+ * 相比最小-最大归一化，单个离群的高分不会把同一路其他结果全部压低。
+ */
+@Component
+public class DistributionBasedScoreFusion implements FusionStrategy {
+    
+    @Override
+    public String getName() {
+        return "dbsf";
+    }
+    
+    @Override
+    public List<ChunkSearchResult> fuse(List<RetrievalLeg> legs, int limit) {
+        Map<Long, ChunkSearchResult> chunks = FusionSupport.newChunkMap();
+        Map<Long, Double> scores = new HashMap<>();
+        
+        for (RetrievalLeg leg : legs) {
+            List<ChunkSearchResult> results = leg.getResults();
+            if (results.isEmpty()) {
+                continue;
+            }
+            
+            double sum = 0;
+            for (ChunkSearchResult chunk : results) {
+                sum += chunk.getScore();
+            }
+            double mean = sum / results.size();
+            double variance = 0;
+            for (ChunkSearchResult chunk : results) {
+                double diff = chunk.getScore() - mean;
+                variance += diff * diff;
+            }
+            double stdDev = Math.sqrt(variance / results.size());
+            double lower = mean - 3 * stdDev;
+            double upper = mean + 3 * stdDev;
+            
+            for (ChunkSearchResult chunk : results) {
+                double normalized = upper > lower
+                        ? Math.min(1.0, Math.max(0.0, (chunk.getScore() - lower) / (upper - lower)))
+                        : 1.0;
+                FusionSupport.accumulate(chunks, scores, chunk, leg.getWeight() * normalized);
+            }
+        }
+        
+        return FusionSupport.topK(chunks, scores, limit);
+    }
+}
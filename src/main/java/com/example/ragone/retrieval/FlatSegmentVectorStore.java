@@ -0,0 +1,564 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.entity.KnowledgeBase.VectorQuantization;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.event.DocumentRemovedEvent;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.vector.FlatVectorSegment;
+import com.example.ragone.vector.VectorMath;
+import com.example.ragone.vector.VectorSearchResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射平面向量段的精确向量检索
+ *
+ * 每个知识库对应目录 kb-{id} 下的若干 {@link FlatVectorSegment} 段文件，查询时用SIMD逐行扫描所有段，
+ * 结果是确定的精确top-k，适合片段数在几万以内的知识库。向量只存在于映射的文件页中，不占用Java堆；
+ * 命中片段的内容按主键从数据库取回。
+ *
+ * 首次查询（或启动时预加载）时，若磁盘上的段与数据库中的片段数和最大片段ID一致则直接映射复用，
+ * 否则从数据库重建，完成前的查询回退到 pgvector。入库完成的文档追加为新段，删除的文档打墓碑标记，
+ * 段数量或墓碑比例超过阈值时合并为一个段。所有写操作在同一个单线程执行器上串行执行。
+ *
+ * 知识库的量化模式决定段的编码：INT8（以及 HALFVEC）为int8量化，BINARY 为符号位二值化，
+ * 首轮扫描量化区后对 rescore-factor 倍的候选用float32重新打分。模式变更后按新编码在后台重建。
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "app.vector-store.type", havingValue = "flat")
+public class FlatSegmentVectorStore implements VectorStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FlatSegmentVectorStore.class);
+    
+    private static final Pattern SEGMENT_FILE = Pattern.compile("seg-(\\d+)\\.vec");
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @Autowired
+    private PgVectorStore pgVectorStore;
+    
+    @Autowired
+    private VectorQuantizationResolver vectorQuantizationResolver;
+    
+    @Autowired
+    private QuantizationRecallMonitor quantizationRecallMonitor;
+    
+    @Value("${app.vector-store.dimension:1024}")
+    private int dimension;
+    
+    @Value("${app.vector-store.flat.directory:./data/vector-segments}")
+    private String directory;
+    
+    @Value("${app.vector-store.flat.max-segments:8}")
+    private int maxSegments;
+    
+    @Value("${app.vector-store.flat.max-deleted-ratio:0.2}")
+    private double maxDeletedRatio;
+    
+    @Value("${app.vector-store.quantization.rescore-factor:4}")
+    private int rescoreFactor;
+    
+    @Value("${app.vector-store.flat.preload-on-startup:false}")
+    private boolean preloadOnStartup;
+    
+    private final Map<Long, KnowledgeBaseSegments> loaded = new ConcurrentHashMap<>();
+    
+    private final Set<Long> building = ConcurrentHashMap.newKeySet();
+    
+    private ExecutorService segmentExecutor;
+    
+    @PostConstruct
+    public void start() {
+        segmentExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flat-segment");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("平面向量段目录: {}，SIMD扫描: {}", Paths.get(directory).toAbsolutePath(),
+                VectorMath.isSimdAvailable() ? "启用" : "未启用（缺少 --add-modules jdk.incubator.vector）");
+    }
+    
+    @PreDestroy
+    public void stop() {
+        segmentExecutor.shutdownNow();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preloadOnStartup) {
+            return;
+        }
+        for (KnowledgeBase knowledgeBase : knowledgeBaseRepository.findAll()) {
+            if (Boolean.TRUE.equals(knowledgeBase.getActive())) {
+                scheduleLoad(knowledgeBase.getId());
+            }
+        }
+    }
+    
+    /**
+     * 精确检索（量化模式下为量化首轮加全精度重打分），efSearch 参数不适用，直接忽略
+     *
+     * 段文件只保存片段和文档ID，按文档过滤在扫描时完成；其他过滤条件需要片段metadata，交给 pgvector。
+     */
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit, int efSearch,
+                                          RetrievalFilter filter) {
+        KnowledgeBaseSegments segments = loaded.get(knowledgeBaseId);
+        if (segments == null) {
+            scheduleLoad(knowledgeBaseId);
+            return pgVectorStore.search(knowledgeBaseId, queryEmbedding, limit, efSearch, filter);
+        }
+        if (!RetrievalFilter.isEmpty(filter) && !filter.isDocumentOnly()) {
+            return pgVectorStore.search(knowledgeBaseId, queryEmbedding, limit, efSearch, filter);
+        }
+        LongPredicate documentFilter = RetrievalFilter.isEmpty(filter) ? null
+                : Set.copyOf(filter.getDocumentIds())::contains;
+        VectorQuantization mode = vectorQuantizationResolver.modeOf(knowledgeBaseId);
+        if (encodingOf(mode) != segments.encoding()) {
+            // 重建期间继续使用旧编码的段
+            scheduleLoad(knowledgeBaseId);
+        }
+        
+        float[] query = VectorMath.normalize(queryEmbedding);
+        List<ChunkSearchResult> results = fetchChunks(segments.search(query, limit, rescoreFactor, documentFilter));
+        if (segments.encoding() != FlatVectorSegment.ENCODING_FLOAT32) {
+            quantizationRecallMonitor.sample("flat", segments.quantization(), results,
+                    () -> segments.searchExact(query, limit, documentFilter).stream()
+                            .map(hit -> new ChunkSearchResult(hit.chunkId(), null, null, null, hit.score()))
+                            .toList());
+        }
+        return results;
+    }
+    
+    private List<ChunkSearchResult> fetchChunks(List<Hit> hits) {
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            ids.add(hit.chunkId());
+        }
+        Map<Long, ChunkSearchResult> chunks = new HashMap<>();
+        for (ChunkSearchResult chunk : documentChunkRepository.findChunksByIds(ids)) {
+            chunks.put(chunk.getId(), chunk);
+        }
+        // 按扫描得到的相似度顺序返回，段文件与数据库短暂不一致时跳过已不存在的片段
+        List<ChunkSearchResult> results = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            ChunkSearchResult chunk = chunks.get(hit.chunkId());
+            if (chunk != null) {
+                chunk.setScore(hit.score());
+                results.add(chunk);
+            }
+        }
+        return results;
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexed(DocumentIndexedEvent event) {
+        segmentExecutor.execute(() -> {
+            KnowledgeBaseSegments segments = loaded.get(event.getKnowledgeBaseId());
+            if (segments == null || segments.containsDocument(event.getDocumentId())) {
+                return;
+            }
+            try {
+                Path path = segments.nextSegmentPath();
+                FlatVectorSegment segment = writeSegment(path, segments.encoding(), event.getKnowledgeBaseId(),
+                        event.getDocumentId());
+                if (segment != null) {
+                    segments.addSegment(segment);
+                    logger.debug("向量段 {} 写入文档 {} 的 {} 个片段", path, event.getDocumentId(), segment.size());
+                }
+                compactIfNeeded(event.getKnowledgeBaseId(), segments);
+            } catch (Exception e) {
+                // 追加失败时卸载该知识库，下次查询重新校验或重建
+                logger.error("向量段追加失败，知识库 {} 的向量段将重建", event.getKnowledgeBaseId(), e);
+                loaded.remove(event.getKnowledgeBaseId());
+            }
+        });
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentRemoved(DocumentRemovedEvent event) {
+        segmentExecutor.execute(() -> {
+            KnowledgeBaseSegments segments = loaded.get(event.getKnowledgeBaseId());
+            if (segments == null) {
+                return;
+            }
+            segments.removeDocument(event.getDocumentId());
+            try {
+                compactIfNeeded(event.getKnowledgeBaseId(), segments);
+            } catch (Exception e) {
+                // 墓碑标记已生效，合并失败不影响查询结果
+                logger.error("知识库 {} 的向量段合并失败", event.getKnowledgeBaseId(), e);
+            }
+        });
+    }
+    
+    private void scheduleLoad(Long knowledgeBaseId) {
+        if (!building.add(knowledgeBaseId)) {
+            return;
+        }
+        segmentExecutor.execute(() -> {
+            try {
+                long startTime = System.currentTimeMillis();
+                VectorQuantization mode = vectorQuantizationResolver.modeOf(knowledgeBaseId);
+                KnowledgeBaseSegments segments = openOrRebuild(knowledgeBaseId, mode);
+                loaded.put(knowledgeBaseId, segments);
+                logger.info("知识库 {} 的向量段加载完成，{} 个段，{} 个片段，耗时 {} ms",
+                        knowledgeBaseId, segments.segmentCount(), segments.liveCount(),
+                        System.currentTimeMillis() - startTime);
+            } catch (Exception e) {
+                logger.error("知识库 {} 的向量段加载失败", knowledgeBaseId, e);
+            } finally {
+                building.remove(knowledgeBaseId);
+            }
+        });
+    }
+    
+    /**
+     * 磁盘上的段与数据库一致且编码与量化模式相符时直接映射，否则删除旧段并从数据库重建为一个段
+     *
+     * 片段ID单调递增，新增文档必然使最大ID变大，删除文档必然使片段数变小，
+     * 因此两者都相同即可认为段文件是最新的（内存中的墓碑不落盘，重启后由这一校验触发重建）。
+     */
+    private KnowledgeBaseSegments openOrRebuild(Long knowledgeBaseId, VectorQuantization mode) throws IOException {
+        int encoding = encodingOf(mode);
+        Path kbDirectory = knowledgeBaseDirectory(knowledgeBaseId);
+        long[] stats = documentChunkRepository.findChunkVectorStats(knowledgeBaseId);
+        
+        List<FlatVectorSegment> existing = openExisting(kbDirectory);
+        long rows = 0;
+        long maxChunkId = -1;
+        boolean compatible = true;
+        for (FlatVectorSegment segment : existing) {
+            rows += segment.size();
+            maxChunkId = Math.max(maxChunkId, segment.maxChunkId());
+            compatible &= segment.dimension() == dimension && segment.encoding() == encoding;
+        }
+        if (!existing.isEmpty() && compatible && rows == stats[0] && maxChunkId == stats[1]) {
+            return new KnowledgeBaseSegments(kbDirectory, mode, existing);
+        }
+        
+        if (!existing.isEmpty()) {
+            logger.info("知识库 {} 的向量段已过期（段内 {} 行，数据库 {} 行，量化模式 {}），重新构建",
+                    knowledgeBaseId, rows, stats[0], mode);
+        }
+        deleteSegments(existing);
+        KnowledgeBaseSegments segments = new KnowledgeBaseSegments(kbDirectory, mode, new ArrayList<>());
+        FlatVectorSegment segment = writeSegment(segments.nextSegmentPath(), encoding, knowledgeBaseId, null);
+        if (segment != null) {
+            segments.addSegment(segment);
+        }
+        return segments;
+    }
+    
+    private List<FlatVectorSegment> openExisting(Path kbDirectory) throws IOException {
+        List<FlatVectorSegment> segments = new ArrayList<>();
+        if (!Files.isDirectory(kbDirectory)) {
+            return segments;
+        }
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(kbDirectory)) {
+            paths = files.filter(path -> SEGMENT_FILE.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.comparingLong(FlatSegmentVectorStore::segmentNumber))
+                    .toList();
+        }
+        for (Path path : paths) {
+            try {
+                segments.add(FlatVectorSegment.open(path));
+            } catch (IOException e) {
+                // 任意一个段损坏都视为整体过期，由调用方重建
+                logger.warn("向量段文件无法打开，将重建: {}", e.getMessage());
+                Files.deleteIfExists(path);
+                return new ArrayList<>();
+            }
+        }
+        return segments;
+    }
+    
+    /**
+     * 从数据库流式读取片段写成一个段文件，没有片段时返回null
+     */
+    private FlatVectorSegment writeSegment(Path path, int encoding, Long knowledgeBaseId, Long documentId)
+            throws IOException {
+        try (FlatVectorSegment.Writer writer = FlatVectorSegment.writer(path, dimension, encoding)) {
+            documentChunkRepository.streamChunkVectors(knowledgeBaseId, documentId,
+                    (id, docId, chunkPosition, content, embedding) -> {
+                        try {
+                            writer.add(id, docId, embedding);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            return writer.size() > 0 ? writer.finish() : null;
+        }
+    }
+    
+    private void compactIfNeeded(Long knowledgeBaseId, KnowledgeBaseSegments segments) throws IOException {
+        int total = segments.totalCount();
+        int deleted = total - segments.liveCount();
+        if (segments.segmentCount() <= maxSegments && deleted <= total * maxDeletedRatio) {
+            return;
+        }
+        
+        long startTime = System.currentTimeMillis();
+        Path path = segments.nextSegmentPath();
+        List<FlatVectorSegment> merged = segments.snapshot();
+        FlatVectorSegment compacted = null;
+        try (FlatVectorSegment.Writer writer = FlatVectorSegment.writer(path, dimension, segments.encoding())) {
+            // 合并在执行器线程上进行，期间不会有其他写操作，查询仍可并发读取旧段
+            for (FlatVectorSegment segment : merged) {
+                for (int row = 0; row < segment.size(); row++) {
+                    if (!segment.isDeleted(row)) {
+                        writer.add(segment.chunkId(row), segment.documentId(row), segment.vector(row));
+                    }
+                }
+            }
+            if (writer.size() > 0) {
+                compacted = writer.finish();
+            }
+        }
+        segments.replaceAll(compacted);
+        deleteSegments(merged);
+        logger.info("知识库 {} 的 {} 个向量段合并完成，剩余 {} 个片段，耗时 {} ms",
+                knowledgeBaseId, merged.size(), segments.liveCount(), System.currentTimeMillis() - startTime);
+    }
+    
+    private void deleteSegments(List<FlatVectorSegment> segments) throws IOException {
+        // 已映射的页在缓冲区被回收前仍然可读，删除文件不影响正在进行的查询
+        for (FlatVectorSegment segment : segments) {
+            Files.deleteIfExists(segment.path());
+        }
+    }
+    
+    /**
+     * 量化模式对应的段编码，Java 17 没有半精度浮点运算，HALFVEC 使用 int8
+     */
+    private static int encodingOf(VectorQuantization mode) {
+        return switch (mode) {
+            case NONE -> FlatVectorSegment.ENCODING_FLOAT32;
+            case HALFVEC, INT8 -> FlatVectorSegment.ENCODING_INT8;
+            case BINARY -> FlatVectorSegment.ENCODING_BINARY;
+        };
+    }
+    
+    private Path knowledgeBaseDirectory(Long knowledgeBaseId) {
+        return Paths.get(directory, "kb-" + knowledgeBaseId);
+    }
+    
+    private static long segmentNumber(Path path) {
+        Matcher matcher = SEGMENT_FILE.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+    
+    private record Hit(long chunkId, float score) {
+    }
+    
+    /**
+     * 单个知识库已映射的段，以及段内包含的文档ID（用于过滤重复的入库事件）
+     */
+    private static final class KnowledgeBaseSegments {
+        
+        private final Path directory;
+        private final VectorQuantization quantization;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<FlatVectorSegment> segments;
+        private final Set<Long> documentIds = new HashSet<>();
+        private long nextSegmentNumber;
+        
+        KnowledgeBaseSegments(Path directory, VectorQuantization quantization, List<FlatVectorSegment> segments) {
+            this.directory = directory;
+            this.quantization = quantization;
+            this.segments = new ArrayList<>(segments);
+            for (FlatVectorSegment segment : segments) {
+                indexSegment(segment);
+            }
+        }
+        
+        List<Hit> search(float[] normalizedQuery, int limit, int rescoreFactor, LongPredicate documentFilter) {
+            lock.readLock().lock();
+            try {
+                List<Hit> hits = new ArrayList<>();
+                for (FlatVectorSegment segment : segments) {
+                    collect(hits, segment, segment.search(normalizedQuery, limit, rescoreFactor, documentFilter));
+                }
+                return topHits(hits, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        List<Hit> searchExact(float[] normalizedQuery, int limit, LongPredicate documentFilter) {
+            lock.readLock().lock();
+            try {
+                List<Hit> hits = new ArrayList<>();
+                for (FlatVectorSegment segment : segments) {
+                    collect(hits, segment, segment.searchExact(normalizedQuery, limit, documentFilter));
+                }
+                return topHits(hits, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        VectorQuantization quantization() {
+            return quantization;
+        }
+        
+        int encoding() {
+            return encodingOf(quantization);
+        }
+        
+        boolean containsDocument(long documentId) {
+            lock.readLock().lock();
+            try {
+                return documentIds.contains(documentId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        void addSegment(FlatVectorSegment segment) {
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                indexSegment(segment);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void removeDocument(long documentId) {
+            lock.writeLock().lock();
+            try {
+                if (documentIds.remove(documentId)) {
+                    for (FlatVectorSegment segment : segments) {
+                        segment.markDocumentDeleted(documentId);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        List<FlatVectorSegment> snapshot() {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<>(segments);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * 用合并后的段替换全部现有段，replacement 为null表示已没有片段
+         */
+        void replaceAll(FlatVectorSegment replacement) {
+            lock.writeLock().lock();
+            try {
+                segments.clear();
+                documentIds.clear();
+                if (replacement != null) {
+                    segments.add(replacement);
+                    indexSegment(replacement);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        Path nextSegmentPath() {
+            return directory.resolve("seg-" + nextSegmentNumber + ".vec");
+        }
+        
+        int segmentCount() {
+            lock.readLock().lock();
+            try {
+                return segments.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        int totalCount() {
+            lock.readLock().lock();
+            try {
+                return segments.stream().mapToInt(FlatVectorSegment::size).sum();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        int liveCount() {
+            lock.readLock().lock();
+            try {
+                return segments.stream().mapToInt(FlatVectorSegment::liveCount).sum();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private static void collect(List<Hit> hits, FlatVectorSegment segment, VectorSearchResult rows) {
+            for (int i = 0; i < rows.size(); i++) {
+                hits.add(new Hit(segment.chunkId(rows.node(i)), rows.score(i)));
+            }
+        }
+        
+        private static List<Hit> topHits(List<Hit> hits, int limit) {
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+        }
+        
+        private void indexSegment(FlatVectorSegment segment) {
+            for (int row = 0; row < segment.size(); row++) {
+                if (!segment.isDeleted(row)) {
+                    documentIds.add(segment.documentId(row));
+                }
+            }
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(segment.path()) + 1);
+        }
+    }
+}
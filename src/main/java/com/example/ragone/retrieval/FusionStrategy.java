@@ -0,0 +1,21 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+
+import java.util.List;
+
+/**
+ * 多路检索结果融合策略
+ *
+ * 实现类需要按片段ID去重，返回按融合分数从高到低排列的前 limit 个结果，
+ * 结果的 score 为融合后的分数。
+ */
+public interface FusionStrategy {
+    
+    /**
+     * 策略名称，对应配置项 app.hybrid-retrieval.fusion
+     */
+    String getName();
+    
+    List<ChunkSearchResult> fuse(List<RetrievalLeg> legs, int limit);
+}
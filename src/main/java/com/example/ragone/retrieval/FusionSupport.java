@@ -0,0 +1,40 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 融合策略的公共逻辑：按片段ID累加分数、排序并截断
+ */
+final class FusionSupport {
+    
+    private FusionSupport() {
+    }
+    
+    /**
+     * 按片段ID累加各路贡献的分数
+     */
+    static void accumulate(Map<Long, ChunkSearchResult> chunks, Map<Long, Double> scores,
+                           ChunkSearchResult chunk, double contribution) {
+        chunks.putIfAbsent(chunk.getId(), chunk);
+        scores.merge(chunk.getId(), contribution, Double::sum);
+    }
+    
+    static List<ChunkSearchResult> topK(Map<Long, ChunkSearchResult> chunks, Map<Long, Double> scores, int limit) {
+        List<ChunkSearchResult> fused = new ArrayList<>(chunks.size());
+        for (Map.Entry<Long, ChunkSearchResult> entry : chunks.entrySet()) {
+            fused.add(entry.getValue().withScore(scores.get(entry.getKey())));
+        }
+        fused.sort(Comparator.comparingDouble(ChunkSearchResult::getScore).reversed());
+        return fused.size() > limit ? new ArrayList<>(fused.subList(0, limit)) : fused;
+    }
+    
+    static Map<Long, ChunkSearchResult> newChunkMap() {
+        return new LinkedHashMap<>();
+    }
+}
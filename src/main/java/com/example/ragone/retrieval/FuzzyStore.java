@@ -0,0 +1,22 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+
+import java.util.List;
+
+/**
+ * 容错检索后端（混合检索的第三路），用字符三元组相似度匹配拼写有误的查询
+ *
+ * 默认实现为 pg_trgm（{@link PgTrigramFuzzyStore}），数据库无法安装该扩展时配置
+ * app.fuzzy-store.type=memory 使用按知识库构建的内存三元组索引（{@link TrigramFuzzyStore}）。
+ */
+public interface FuzzyStore {
+    
+    /**
+     * 返回与查询最相似的 limit 个片段，score 越大越相似
+     *
+     * @param filter 检索过滤条件，可以为null
+     */
+    List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter);
+}
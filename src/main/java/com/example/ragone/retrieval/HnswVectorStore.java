@@ -0,0 +1,304 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.event.DocumentRemovedEvent;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.vector.HnswIndex;
+import com.example.ragone.vector.VectorSearchResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 基于内存HNSW索引的向量检索
+ *
+ * 每个知识库一个 {@link HnswIndex}，片段的文档ID、位置和内容与图节点一一对应地保存在数组中，
+ * 查询完全在JVM内完成，不需要访问数据库。索引在首次查询时（或启动时预加载）从数据库构建，
+ * 构建完成前的查询回退到 pgvector；入库完成和删除文档的事件会增量更新已加载的索引。
+ * 构建和增量更新都在同一个单线程执行器上串行执行，保证事件不会早于索引构建被处理。
+ * 删除文档只给节点打墓碑，墓碑节点仍参与图遍历并占用内存，比例超过 rebuild-deleted-ratio 时重建索引。
+ * 按文档过滤在图遍历时完成，匹配的节点较少时改为暴力扫描；其他过滤条件需要片段metadata，交给 pgvector。
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "app.vector-store.type", havingValue = "hnsw")
+public class HnswVectorStore implements VectorStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @Autowired
+    private PgVectorStore pgVectorStore;
+    
+    @Value("${app.vector-store.dimension:1024}")
+    private int dimension;
+    
+    @Value("${app.vector-store.hnsw.m:16}")
+    private int m;
+    
+    @Value("${app.vector-store.hnsw.ef-construction:200}")
+    private int efConstruction;
+    
+    @Value("${app.vector-store.hnsw.ef-search:64}")
+    private int defaultEfSearch;
+    
+    @Value("${app.vector-store.hnsw.max-loaded-knowledge-bases:32}")
+    private int maxLoadedKnowledgeBases;
+    
+    @Value("${app.vector-store.hnsw.preload-on-startup:false}")
+    private boolean preloadOnStartup;
+    
+    @Value("${app.vector-store.hnsw.filter-exact-threshold:2000}")
+    private int filterExactThreshold;
+    
+    @Value("${app.vector-store.hnsw.rebuild-deleted-ratio:0.3}")
+    private double rebuildDeletedRatio;
+    
+    private Cache<Long, KnowledgeBaseIndex> indexes;
+    
+    private final Set<Long> building = ConcurrentHashMap.newKeySet();
+    
+    private ExecutorService indexExecutor;
+    
+    @PostConstruct
+    public void start() {
+        // 已加载的知识库数量有上限，被淘汰的索引在下次查询时重新构建
+        indexes = Caffeine.newBuilder()
+                .maximumSize(maxLoadedKnowledgeBases)
+                .build();
+        indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hnsw-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @PreDestroy
+    public void stop() {
+        indexExecutor.shutdownNow();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preloadOnStartup) {
+            return;
+        }
+        for (KnowledgeBase knowledgeBase : knowledgeBaseRepository.findAll()) {
+            if (Boolean.TRUE.equals(knowledgeBase.getActive())) {
+                scheduleBuild(knowledgeBase.getId());
+            }
+        }
+    }
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit, int efSearch,
+                                          RetrievalFilter filter) {
+        KnowledgeBaseIndex index = indexes.getIfPresent(knowledgeBaseId);
+        if (index == null) {
+            scheduleBuild(knowledgeBaseId);
+            return pgVectorStore.search(knowledgeBaseId, queryEmbedding, limit, efSearch, filter);
+        }
+        if (!RetrievalFilter.isEmpty(filter) && !filter.isDocumentOnly()) {
+            return pgVectorStore.search(knowledgeBaseId, queryEmbedding, limit, efSearch, filter);
+        }
+        Set<Long> allowedDocuments = RetrievalFilter.isEmpty(filter) ? null : new HashSet<>(filter.getDocumentIds());
+        return index.search(queryEmbedding, limit, efSearch > 0 ? efSearch : defaultEfSearch, allowedDocuments,
+                filterExactThreshold);
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexed(DocumentIndexedEvent event) {
+        indexExecutor.execute(() -> {
+            KnowledgeBaseIndex index = indexes.getIfPresent(event.getKnowledgeBaseId());
+            if (index == null) {
+                return;
+            }
+            try {
+                int added = load(index, event.getKnowledgeBaseId(), event.getDocumentId());
+                logger.debug("HNSW索引增量添加文档 {} 的 {} 个片段", event.getDocumentId(), added);
+            } catch (Exception e) {
+                // 增量更新失败时丢弃索引，下次查询重新构建
+                logger.error("HNSW索引增量更新失败，知识库 {} 的索引将重建", event.getKnowledgeBaseId(), e);
+                indexes.invalidate(event.getKnowledgeBaseId());
+            }
+        });
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentRemoved(DocumentRemovedEvent event) {
+        indexExecutor.execute(() -> {
+            KnowledgeBaseIndex index = indexes.getIfPresent(event.getKnowledgeBaseId());
+            if (index == null) {
+                return;
+            }
+            index.removeDocument(event.getDocumentId());
+            if (index.deletedRatio() > rebuildDeletedRatio) {
+                scheduleBuild(event.getKnowledgeBaseId());
+            }
+        });
+    }
+    
+    private void scheduleBuild(Long knowledgeBaseId) {
+        if (!building.add(knowledgeBaseId)) {
+            return;
+        }
+        indexExecutor.execute(() -> {
+            try {
+                long startTime = System.currentTimeMillis();
+                KnowledgeBaseIndex index = new KnowledgeBaseIndex(new HnswIndex(dimension, m, efConstruction, 1024));
+                int added = load(index, knowledgeBaseId, null);
+                indexes.put(knowledgeBaseId, index);
+                logger.info("知识库 {} 的HNSW索引构建完成，{} 个片段，耗时 {} ms",
+                        knowledgeBaseId, added, System.currentTimeMillis() - startTime);
+            } catch (Exception e) {
+                logger.error("知识库 {} 的HNSW索引构建失败", knowledgeBaseId, e);
+            } finally {
+                building.remove(knowledgeBaseId);
+            }
+        });
+    }
+    
+    private int load(KnowledgeBaseIndex index, Long knowledgeBaseId, Long documentId) {
+        int[] added = new int[1];
+        documentChunkRepository.streamChunkVectors(knowledgeBaseId, documentId,
+                (id, docId, chunkPosition, content, embedding) -> {
+                    if (index.add(id, docId, chunkPosition, content, embedding)) {
+                        added[0]++;
+                    }
+                });
+        return added[0];
+    }
+    
+    /**
+     * 单个知识库的索引：HNSW图加上与节点编号对齐的片段信息
+     */
+    private static final class KnowledgeBaseIndex {
+        
+        private final HnswIndex graph;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Integer> nodeByChunkId = new HashMap<>();
+        private long[] documentIds = new long[1024];
+        private int[] positions = new int[1024];
+        private String[] contents = new String[1024];
+        
+        KnowledgeBaseIndex(HnswIndex graph) {
+            this.graph = graph;
+        }
+        
+        boolean add(long chunkId, long documentId, int chunkPosition, String content, float[] embedding) {
+            lock.writeLock().lock();
+            try {
+                if (nodeByChunkId.containsKey(chunkId)) {
+                    return false;
+                }
+                int node = graph.add(chunkId, embedding);
+                if (node >= documentIds.length) {
+                    int newLength = Math.max(node + 1, documentIds.length + (documentIds.length >> 1));
+                    documentIds = Arrays.copyOf(documentIds, newLength);
+                    positions = Arrays.copyOf(positions, newLength);
+                    contents = Arrays.copyOf(contents, newLength);
+                }
+                documentIds[node] = documentId;
+                positions[node] = chunkPosition;
+                contents[node] = content;
+                nodeByChunkId.put(chunkId, node);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void removeDocument(long documentId) {
+            lock.writeLock().lock();
+            try {
+                for (int node = 0; node < graph.size(); node++) {
+                    if (documentIds[node] == documentId && !graph.isDeleted(node)) {
+                        graph.markDeleted(node);
+                        nodeByChunkId.remove(graph.label(node));
+                        contents[node] = null;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        double deletedRatio() {
+            lock.readLock().lock();
+            try {
+                return graph.size() == 0 ? 0.0 : 1.0 - (double) graph.liveCount() / graph.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * @param allowedDocuments 只返回这些文档的片段，为null时不过滤
+         */
+        List<ChunkSearchResult> search(float[] queryEmbedding, int limit, int efSearch, Set<Long> allowedDocuments,
+                                       int exactThreshold) {
+            lock.readLock().lock();
+            try {
+                VectorSearchResult hits;
+                if (allowedDocuments == null) {
+                    hits = graph.search(queryEmbedding, limit, efSearch);
+                } else {
+                    IntPredicate accept = node -> allowedDocuments.contains(documentIds[node]);
+                    int matched = 0;
+                    for (int node = 0; node < graph.size() && matched <= exactThreshold; node++) {
+                        if (accept.test(node)) {
+                            matched++;
+                        }
+                    }
+                    // 匹配的片段不多时暴力扫描更快也更准；否则在图上遍历，放大候选列表弥补被过滤掉的节点
+                    hits = matched <= exactThreshold
+                            ? graph.searchExact(queryEmbedding, limit, accept)
+                            : graph.search(queryEmbedding, limit, Math.max(efSearch, limit) * 2, accept);
+                }
+                List<ChunkSearchResult> results = new ArrayList<>(hits.size());
+                for (int i = 0; i < hits.size(); i++) {
+                    int node = hits.node(i);
+                    results.add(new ChunkSearchResult(graph.label(node), documentIds[node], positions[node],
+                            contents[node], hits.score(i)));
+                }
+                return results;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
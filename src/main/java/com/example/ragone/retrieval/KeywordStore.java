@@ -0,0 +1,42 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 关键词检索后端（混合检索的关键词一路）
+ *
+ * 默认实现为 PostgreSQL 全文检索（{@link PgKeywordStore}），配置 app.keyword-store.type=bm25 时
+ * 使用按知识库构建的内存BM25倒排索引（{@link Bm25KeywordStore}），中文按二元组切分。
+ */
+public interface KeywordStore {
+    
+    /**
+     * 返回与查询最相关的 limit 个片段，score 为后端自身的相关度分数（ts_rank 或 BM25）
+     *
+     * @param filter 检索过滤条件，可以为null
+     */
+    List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter);
+    
+    /**
+     * 批量检索，返回列表与 queries 一一对应；默认逐个检索，数据库后端可以合并为一条SQL
+     */
+    default List<List<ChunkSearchResult>> searchBatch(Long knowledgeBaseId, List<String> queries, int limit,
+                                                      RetrievalFilter filter) {
+        List<List<ChunkSearchResult>> results = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            results.add(search(knowledgeBaseId, query, limit, filter));
+        }
+        return results;
+    }
+    
+    /**
+     * 检索是否在数据库内完成；只有数据库内的实现可以与向量检索合并成单条SQL（single-query 模式）
+     */
+    default boolean inDatabase() {
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最小-最大归一化加权融合：每一路的原始分数先线性缩放到 [0, 1]，再按权重累加
+ */
+@Component
+public class MinMaxScoreFusion implements FusionStrategy {
+    
+    @Override
+    public String getName() {
+        return "minmax";
+    }
+    
+    @Override
+    public List<ChunkSearchResult> fuse(List<RetrievalLeg> legs, int limit) {
+        Map<Long, ChunkSearchResult> chunks = FusionSupport.newChunkMap();
+        Map<Long, Double> scores = new HashMap<>();
+        
+        for (RetrievalLeg leg : legs) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (ChunkSearchResult chunk : leg.getResults()) {
+                min = Math.min(min, chunk.getScore());
+                max = Math.max(max, chunk.getScore());
+            }
+            double range = max - min;
+            
+            for (ChunkSearchResult chunk : leg.getResults()) {
+                // 只有一个结果或分数全部相同时视为满分
+                double normalized = range > 0 ? (chunk.getScore() - min) / range : 1.0;
+                FusionSupport.accumulate(chunks, scores, chunk, leg.getWeight() * normalized);
+            }
+        }
+        
+        return FusionSupport.topK(chunks, scores, limit);
+    }
+}
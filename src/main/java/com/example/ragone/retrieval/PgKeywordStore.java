@@ -0,0 +1,35 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.repository.DocumentChunkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 基于 PostgreSQL 全文检索的关键词检索（content_tsv 上的GIN索引，分词配置按知识库设置）
+ */
+@Component
+public class PgKeywordStore implements KeywordStore {
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter) {
+        return documentChunkRepository.findByKeywordSearch(knowledgeBaseId, query, limit, filter);
+    }
+    
+    @Override
+    public List<List<ChunkSearchResult>> searchBatch(Long knowledgeBaseId, List<String> queries, int limit,
+                                                     RetrievalFilter filter) {
+        return documentChunkRepository.findByKeywordSearchBatch(knowledgeBaseId, queries, limit, filter);
+    }
+    
+    @Override
+    public boolean inDatabase() {
+        return true;
+    }
+}
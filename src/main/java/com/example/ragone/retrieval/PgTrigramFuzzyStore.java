@@ -0,0 +1,31 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.repository.DocumentChunkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 基于 pg_trgm 的容错检索（content 上的 gin_trgm_ops 索引，见 trigram_fuzzy_search_migration.sql）
+ *
+ * 使用词相似度（word_similarity）而不是整段相似度：查询只需要与片段中的一段连续文字相近，
+ * 片段长度不影响分数。
+ */
+@Component
+public class PgTrigramFuzzyStore implements FuzzyStore {
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Value("${app.fuzzy-store.similarity-threshold:0.4}")
+    private double similarityThreshold;
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter) {
+        return documentChunkRepository.findByTrigramSearch(knowledgeBaseId, query, similarityThreshold, limit, filter);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.repository.DocumentChunkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 基于 pgvector 的向量检索（document_chunks.embedding 上的ANN索引）
+ *
+ * 现有索引为 ivfflat，efSearch 参数不适用，直接忽略。
+ * 知识库开启量化时，首轮在 halfvec 或 bit 表达式索引上取 rescore-factor 倍的候选，
+ * 再用全精度向量重新打分。召回率采样的基准是关闭索引扫描的精确检索，不受ANN索引自身召回率的影响。
+ */
+@Component
+public class PgVectorStore implements VectorStore {
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private VectorQuantizationResolver vectorQuantizationResolver;
+    
+    @Autowired
+    private QuantizationRecallMonitor quantizationRecallMonitor;
+    
+    @Value("${app.vector-store.quantization.rescore-factor:4}")
+    private int rescoreFactor;
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit, int efSearch,
+                                          RetrievalFilter filter) {
+        KnowledgeBase.VectorQuantization mode = vectorQuantizationResolver.modeOf(knowledgeBaseId);
+        if (mode == KnowledgeBase.VectorQuantization.NONE) {
+            return documentChunkRepository.findSimilarChunks(knowledgeBaseId, queryEmbedding, limit, filter);
+        }
+        
+        // pgvector没有int8类型，INT8 使用最接近的 halfvec 表示
+        KnowledgeBase.VectorQuantization storage = mode == KnowledgeBase.VectorQuantization.INT8
+                ? KnowledgeBase.VectorQuantization.HALFVEC : mode;
+        List<ChunkSearchResult> results = documentChunkRepository.findSimilarChunksRescored(
+                knowledgeBaseId, queryEmbedding, storage, limit * Math.max(rescoreFactor, 1), limit, filter);
+        quantizationRecallMonitor.sample("pgvector", storage, results,
+                () -> documentChunkRepository.findSimilarChunksExact(knowledgeBaseId, queryEmbedding, limit, filter));
+        return results;
+    }
+    
+    /**
+     * 未量化的知识库合并为一条SQL；量化知识库需要逐个重打分和召回抽样，仍逐个检索
+     */
+    @Override
+    public List<List<ChunkSearchResult>> searchBatch(Long knowledgeBaseId, List<float[]> queryEmbeddings, int limit,
+                                                     RetrievalFilter filter) {
+        if (vectorQuantizationResolver.modeOf(knowledgeBaseId) != KnowledgeBase.VectorQuantization.NONE) {
+            return VectorStore.super.searchBatch(knowledgeBaseId, queryEmbeddings, limit, filter);
+        }
+        return documentChunkRepository.findSimilarChunksBatch(knowledgeBaseId, queryEmbeddings, limit, filter);
+    }
+    
+    /**
+     * 量化知识库需要在表达式索引上取候选再重打分，不能合并进单条SQL
+     */
+    @Override
+    public boolean inDatabase(Long knowledgeBaseId) {
+        return vectorQuantizationResolver.modeOf(knowledgeBaseId) == KnowledgeBase.VectorQuantization.NONE;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.entity.KnowledgeBase;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 量化检索的召回率监控
+ *
+ * 按采样比例在后台用未量化的精确检索（不经过ANN索引）重跑同一查询，以精确结果的前 k 个为基准计算 recall@k，
+ * 记录到指标 rag.vector.quantization.recall（按后端和量化模式打标签）。
+ * 采样在独立线程上执行，不增加查询延迟；队列满时直接丢弃。
+ */
+@Component
+public class QuantizationRecallMonitor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(QuantizationRecallMonitor.class);
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${app.vector-store.quantization.recall-sample-rate:0.01}")
+    private double sampleRate;
+    
+    private ThreadPoolExecutor executor;
+    
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), runnable -> {
+            Thread thread = new Thread(runnable, "quantization-recall");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+    
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * 按采样比例对一次量化检索做召回率评估
+     *
+     * @param quantized 量化路径（含重打分）返回的结果
+     * @param exact     未量化的精确检索，只在被采样时调用
+     */
+    public void sample(String backend, KnowledgeBase.VectorQuantization mode, List<ChunkSearchResult> quantized,
+                       Supplier<List<ChunkSearchResult>> exact) {
+        if (sampleRate <= 0 || quantized.isEmpty() || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                double recall = recallAtK(quantized, exact.get());
+                DistributionSummary.builder("rag.vector.quantization.recall")
+                        .tag("backend", backend)
+                        .tag("mode", mode.name())
+                        .register(meterRegistry)
+                        .record(recall);
+                logger.debug("量化检索召回率采样: backend={}, mode={}, recall@{}={}",
+                        backend, mode, quantized.size(), recall);
+            } catch (Exception e) {
+                logger.warn("量化检索召回率采样失败: {}", e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * 以未量化结果的前 k 个（k 为量化结果数量）为基准，计算量化结果命中的比例
+     */
+    static double recallAtK(List<ChunkSearchResult> quantized, List<ChunkSearchResult> exact) {
+        int k = Math.min(quantized.size(), exact.size());
+        if (k == 0) {
+            return 1.0;
+        }
+        Set<Long> expected = new HashSet<>();
+        for (ChunkSearchResult result : exact.subList(0, k)) {
+            expected.add(result.getId());
+        }
+        int hits = 0;
+        for (ChunkSearchResult result : quantized.subList(0, k)) {
+            if (expected.contains(result.getId())) {
+                hits++;
+            }
+        }
+        return (double) hits / k;
+    }
+}
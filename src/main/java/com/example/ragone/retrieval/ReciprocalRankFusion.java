@@ -0,0 +1,41 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 倒数排名融合（RRF）：score = Σ weight / (k + rank)
+ *
+ * 只依赖名次，不受各路分数量纲不同的影响。
+ */
+@Component
+public class ReciprocalRankFusion implements FusionStrategy {
+    
+    @Value("${app.hybrid-retrieval.rrf-k:60}")
+    private int k;
+    
+    @Override
+    public String getName() {
+        return "rrf";
+    }
+    
+    @Override
+    public List<ChunkSearchResult> fuse(List<RetrievalLeg> legs, int limit) {
+        Map<Long, ChunkSearchResult> chunks = FusionSupport.newChunkMap();
+        Map<Long, Double> scores = new HashMap<>();
+        
+        for (RetrievalLeg leg : legs) {
+            List<ChunkSearchResult> results = leg.getResults();
+            for (int rank = 0; rank < results.size(); rank++) {
+                FusionSupport.accumulate(chunks, scores, results.get(rank), leg.getWeight() / (k + rank + 1));
+            }
+        }
+        
+        return FusionSupport.topK(chunks, scores, limit);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+
+import java.util.List;
+
+/**
+ * 一路检索的结果（按相关性从高到低排列）及其在融合时的权重
+ */
+public class RetrievalLeg {
+    
+    private final String name;
+    private final double weight;
+    private final List<ChunkSearchResult> results;
+    
+    public RetrievalLeg(String name, double weight, List<ChunkSearchResult> results) {
+        this.name = name;
+        this.weight = weight;
+        this.results = results;
+    }
+    
+    // Getters
+    public String getName() {
+        return name;
+    }
+    
+    public double getWeight() {
+        return weight;
+    }
+    
+    public List<ChunkSearchResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.text.Bm25Index;
+import com.example.ragone.text.Bm25SearchResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * 按知识库管理的内存倒排索引（{@link Bm25Index}），供 BM25 关键词检索和三元组容错检索共用
+ *
+ * 索引在首次查询时（或预加载时）从数据库构建，构建完成前 {@link #search} 返回null，由调用方回退到数据库检索；
+ * 入库完成和删除文档的事件在同一个单线程执行器上增量更新已加载的索引，删除比例过高时整体重建。
+ * 按文档过滤直接在索引内完成，其他过滤条件先在数据库中解析为片段ID集合。
+ */
+final class TextIndexRegistry {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TextIndexRegistry.class);
+    
+    private final String name;
+    private final Supplier<Bm25Index> indexFactory;
+    private final double rebuildDeletedRatio;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final Cache<Long, KnowledgeBaseIndex> indexes;
+    private final Set<Long> building = ConcurrentHashMap.newKeySet();
+    private final ExecutorService indexExecutor;
+    
+    TextIndexRegistry(String name, Supplier<Bm25Index> indexFactory, int maxLoadedKnowledgeBases,
+                      double rebuildDeletedRatio, DocumentChunkRepository documentChunkRepository) {
+        this.name = name;
+        this.indexFactory = indexFactory;
+        this.rebuildDeletedRatio = rebuildDeletedRatio;
+        this.documentChunkRepository = documentChunkRepository;
+        // 已加载的知识库数量有上限，被淘汰的索引在下次查询时重新构建
+        this.indexes = Caffeine.newBuilder()
+                .maximumSize(maxLoadedKnowledgeBases)
+                .build();
+        this.indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    void shutdown() {
+        indexExecutor.shutdownNow();
+    }
+    
+    /**
+     * 在已加载的索引上检索，索引尚未加载时安排构建并返回null
+     */
+    List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter) {
+        KnowledgeBaseIndex index = indexes.getIfPresent(knowledgeBaseId);
+        if (index == null) {
+            scheduleBuild(knowledgeBaseId);
+            return null;
+        }
+        
+        Set<Long> allowedDocuments = null;
+        Set<Long> allowedChunks = null;
+        if (!RetrievalFilter.isEmpty(filter)) {
+            if (filter.isDocumentOnly()) {
+                allowedDocuments = new HashSet<>(filter.getDocumentIds());
+            } else {
+                allowedChunks = new HashSet<>(documentChunkRepository.findChunkIds(knowledgeBaseId, filter));
+                if (allowedChunks.isEmpty()) {
+                    return List.of();
+                }
+            }
+        }
+        return fetchChunks(index.search(query, limit, allowedDocuments, allowedChunks));
+    }
+    
+    void documentIndexed(Long knowledgeBaseId, Long documentId) {
+        indexExecutor.execute(() -> {
+            KnowledgeBaseIndex index = indexes.getIfPresent(knowledgeBaseId);
+            if (index == null) {
+                return;
+            }
+            try {
+                int added = load(index, knowledgeBaseId, documentId);
+                logger.debug("{} 索引增量添加文档 {} 的 {} 个片段", name, documentId, added);
+            } catch (Exception e) {
+                // 增量更新失败时丢弃索引，下次查询重新构建
+                logger.error("{} 索引增量更新失败，知识库 {} 的索引将重建", name, knowledgeBaseId, e);
+                indexes.invalidate(knowledgeBaseId);
+            }
+        });
+    }
+    
+    void documentRemoved(Long knowledgeBaseId, Long documentId) {
+        indexExecutor.execute(() -> {
+            KnowledgeBaseIndex index = indexes.getIfPresent(knowledgeBaseId);
+            if (index == null) {
+                return;
+            }
+            index.removeDocument(documentId);
+            // 墓碑文档仍计入文档频率，比例过高时重建以恢复准确的IDF
+            if (index.deletedRatio() > rebuildDeletedRatio) {
+                scheduleBuild(knowledgeBaseId);
+            }
+        });
+    }
+    
+    void scheduleBuild(Long knowledgeBaseId) {
+        if (!building.add(knowledgeBaseId)) {
+            return;
+        }
+        indexExecutor.execute(() -> {
+            try {
+                long startTime = System.currentTimeMillis();
+                KnowledgeBaseIndex index = new KnowledgeBaseIndex(indexFactory.get());
+                int added = load(index, knowledgeBaseId, null);
+                indexes.put(knowledgeBaseId, index);
+                logger.info("知识库 {} 的 {} 索引构建完成，{} 个片段，{} 个词项，耗时 {} ms",
+                        knowledgeBaseId, name, added, index.termCount(), System.currentTimeMillis() - startTime);
+            } catch (Exception e) {
+                logger.error("知识库 {} 的 {} 索引构建失败", knowledgeBaseId, name, e);
+            } finally {
+                building.remove(knowledgeBaseId);
+            }
+        });
+    }
+    
+    private int load(KnowledgeBaseIndex index, Long knowledgeBaseId, Long documentId) {
+        int[] added = new int[1];
+        documentChunkRepository.streamChunkTexts(knowledgeBaseId, documentId, (id, docId, content) -> {
+            if (index.add(id, docId, content)) {
+                added[0]++;
+            }
+        });
+        return added[0];
+    }
+    
+    private List<ChunkSearchResult> fetchChunks(Bm25SearchResult hits) {
+        if (hits.size() == 0) {
+            return List.of();
+        }
+        
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ids.add(hits.label(i));
+        }
+        Map<Long, ChunkSearchResult> chunks = new HashMap<>();
+        for (ChunkSearchResult chunk : documentChunkRepository.findChunksByIds(ids)) {
+            chunks.put(chunk.getId(), chunk);
+        }
+        // 按索引打分的顺序返回，索引与数据库短暂不一致时跳过已不存在的片段
+        List<ChunkSearchResult> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ChunkSearchResult chunk = chunks.get(hits.label(i));
+            if (chunk != null) {
+                results.add(chunk.withScore(hits.score(i)));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 单个知识库的索引：倒排索引加上与文档号对齐的片段所属文档
+     */
+    private static final class KnowledgeBaseIndex {
+        
+        private final Bm25Index index;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Set<Long> chunkIds = new HashSet<>();
+        private long[] documentIds = new long[1024];
+        
+        KnowledgeBaseIndex(Bm25Index index) {
+            this.index = index;
+        }
+        
+        boolean add(long chunkId, long documentId, String content) {
+            lock.writeLock().lock();
+            try {
+                if (!chunkIds.add(chunkId)) {
+                    return false;
+                }
+                int doc = index.add(chunkId, content);
+                if (doc >= documentIds.length) {
+                    documentIds = Arrays.copyOf(documentIds, Math.max(doc + 1, documentIds.length + (documentIds.length >> 1)));
+                }
+                documentIds[doc] = documentId;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        void removeDocument(long documentId) {
+            lock.writeLock().lock();
+            try {
+                for (int doc = 0; doc < index.size(); doc++) {
+                    if (documentIds[doc] == documentId && !index.isDeleted(doc)) {
+                        index.markDeleted(doc);
+                        chunkIds.remove(index.label(doc));
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        double deletedRatio() {
+            lock.readLock().lock();
+            try {
+                return index.size() == 0 ? 0 : 1.0 - (double) index.liveCount() / index.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        int termCount() {
+            return index.termCount();
+        }
+        
+        /**
+         * @param allowedDocuments 只返回这些文档的片段，为null时不按文档过滤
+         * @param allowedChunks    只返回这些片段，为null时不按片段过滤
+         */
+        Bm25SearchResult search(String query, int limit, Set<Long> allowedDocuments, Set<Long> allowedChunks) {
+            lock.readLock().lock();
+            try {
+                IntPredicate accept = null;
+                if (allowedDocuments != null) {
+                    accept = doc -> allowedDocuments.contains(documentIds[doc]);
+                } else if (allowedChunks != null) {
+                    accept = doc -> allowedChunks.contains(index.label(doc));
+                }
+                return index.search(query, limit, accept);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
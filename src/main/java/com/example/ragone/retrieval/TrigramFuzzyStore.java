@@ -0,0 +1,93 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.event.DocumentRemovedEvent;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.text.Bm25Index;
+import com.example.ragone.text.CharTrigramTokenizer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+
+/**
+ * 基于内存三元组倒排索引的容错检索，用于无法安装 pg_trgm 扩展的数据库
+ *
+ * 片段按 {@link CharTrigramTokenizer} 切成字符三元组（中日韩文字为单字）后建立 {@link Bm25Index}，
+ * 拼写错误只影响少数三元组，其余三元组仍贡献分数。索引构建完成前本路检索返回空结果，由其他两路兜底。
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "app.fuzzy-store.type", havingValue = "memory")
+public class TrigramFuzzyStore implements FuzzyStore {
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @Value("${app.fuzzy-store.memory.max-loaded-knowledge-bases:32}")
+    private int maxLoadedKnowledgeBases;
+    
+    @Value("${app.fuzzy-store.memory.rebuild-deleted-ratio:0.3}")
+    private double rebuildDeletedRatio;
+    
+    @Value("${app.fuzzy-store.memory.preload-on-startup:false}")
+    private boolean preloadOnStartup;
+    
+    private TextIndexRegistry registry;
+    
+    @PostConstruct
+    public void start() {
+        // 三元组的词频意义不大，k1 取较小值让分数主要由匹配到的三元组数量和IDF决定
+        registry = new TextIndexRegistry("trigram", () -> new Bm25Index(CharTrigramTokenizer.INSTANCE, 0.5f, 0.5f),
+                maxLoadedKnowledgeBases, rebuildDeletedRatio, documentChunkRepository);
+    }
+    
+    @PreDestroy
+    public void stop() {
+        registry.shutdown();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preloadOnStartup) {
+            return;
+        }
+        for (KnowledgeBase knowledgeBase : knowledgeBaseRepository.findAll()) {
+            if (Boolean.TRUE.equals(knowledgeBase.getActive())) {
+                registry.scheduleBuild(knowledgeBase.getId());
+            }
+        }
+    }
+    
+    @Override
+    public List<ChunkSearchResult> search(Long knowledgeBaseId, String query, int limit, RetrievalFilter filter) {
+        List<ChunkSearchResult> results = registry.search(knowledgeBaseId, query, limit, filter);
+        return results != null ? results : List.of();
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexed(DocumentIndexedEvent event) {
+        registry.documentIndexed(event.getKnowledgeBaseId(), event.getDocumentId());
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentRemoved(DocumentRemovedEvent event) {
+        registry.documentRemoved(event.getKnowledgeBaseId(), event.getDocumentId());
+    }
+}
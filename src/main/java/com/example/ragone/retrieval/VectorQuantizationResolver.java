@@ -0,0 +1,48 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 查询知识库的向量量化模式
+ *
+ * 每次向量检索都需要模式，结果在本地短时间缓存；本节点修改模式时立即失效，
+ * 其他节点在缓存过期后生效。
+ */
+@Component
+public class VectorQuantizationResolver {
+    
+    @Autowired
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @Value("${app.vector-store.quantization.settings-ttl-seconds:30}")
+    private long settingsTtlSeconds;
+    
+    private Cache<Long, KnowledgeBase.VectorQuantization> modes;
+    
+    @PostConstruct
+    public void init() {
+        modes = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofSeconds(settingsTtlSeconds))
+                .build();
+    }
+    
+    public KnowledgeBase.VectorQuantization modeOf(Long knowledgeBaseId) {
+        return modes.get(knowledgeBaseId, id -> knowledgeBaseRepository.findById(id)
+                .map(KnowledgeBase::getVectorQuantization)
+                .orElse(KnowledgeBase.VectorQuantization.NONE));
+    }
+    
+    public void invalidate(Long knowledgeBaseId) {
+        modes.invalidate(knowledgeBaseId);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 向量检索后端
+ *
+ * 默认实现为 pgvector（{@link PgVectorStore}），配置 app.vector-store.type=hnsw 时
+ * 使用按知识库构建的内存HNSW索引（{@link HnswVectorStore}），配置 flat 时使用内存映射的
+ * 平面向量段做精确扫描（{@link FlatSegmentVectorStore}）。
+ */
+public interface VectorStore {
+    
+    /**
+     * 返回与查询向量最相似的 limit 个片段，score 为余弦相似度
+     *
+     * @param efSearch HNSW查询时的候选列表长度，越大召回越高、延迟越大；不大于0时使用后端默认值
+     * @param filter   检索过滤条件，可以为null；后端不能在自身索引上完成的过滤交给 pgvector
+     */
+    List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit, int efSearch,
+                                   RetrievalFilter filter);
+    
+    default List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit, int efSearch) {
+        return search(knowledgeBaseId, queryEmbedding, limit, efSearch, null);
+    }
+    
+    default List<ChunkSearchResult> search(Long knowledgeBaseId, float[] queryEmbedding, int limit) {
+        return search(knowledgeBaseId, queryEmbedding, limit, 0);
+    }
+    
+    /**
+     * 批量检索，返回列表与 queryEmbeddings 一一对应；默认逐个检索，数据库后端可以合并为一条SQL
+     */
+    default List<List<ChunkSearchResult>> searchBatch(Long knowledgeBaseId, List<float[]> queryEmbeddings, int limit,
+                                                      RetrievalFilter filter) {
+        List<List<ChunkSearchResult>> results = new ArrayList<>(queryEmbeddings.size());
+        for (float[] queryEmbedding : queryEmbeddings) {
+            results.add(search(knowledgeBaseId, queryEmbedding, limit, 0, filter));
+        }
+        return results;
+    }
+    
+    /**
+     * 该知识库的检索是否就是数据库内 document_chunks.embedding 上的普通ANN查询；
+     * 只有此时向量检索可以与关键词检索合并成单条SQL（single-query 模式）
+     */
+    default boolean inDatabase(Long knowledgeBaseId) {
+        return false;
+    }
+}
@@ -1,8 +1,8 @@
 package com.example.ragone.service;
 
+import com.example.ragone.dto.ChunkSearchResult;
 import com.example.ragone.entity.Character;
 import com.example.ragone.entity.CharacterProfile;
-import com.example.ragone.entity.DocumentChunk;
 import com.example.ragone.repository.CharacterProfileRepository;
 import com.example.ragone.repository.DocumentChunkRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -89,7 +89,7 @@ public class CharacterProfileService {
         
         try {
             // 从知识库检索相关内容
-            List<DocumentChunk> relevantChunks = retrieveRelevantContent(character);
+            List<ChunkSearchResult> relevantChunks = retrieveRelevantContent(character);
             
             // 生成配置文件内容
             generateProfileContent(profile, character, relevantChunks);
@@ -115,7 +115,7 @@ public class CharacterProfileService {
     /**
      * 从知识库检索相关内容
      */
-    private List<DocumentChunk> retrieveRelevantContent(Character character) {
+    private List<ChunkSearchResult> retrieveRelevantContent(Character character) {
         logger.debug("Retrieving relevant content for character: {}", character.getId());
         
         // 构建检索查询
@@ -128,32 +128,22 @@ public class CharacterProfileService {
             character.getName() + " " + character.getDescription()
         );
         
-        Set<DocumentChunk> allChunks = new HashSet<>();
-        
-        for (String query : queries) {
-            try {
-                List<DocumentChunk> chunks = hybridRetrievalService.hybridSearch(
-                    query, 
-                    character.getKnowledgeBase().getId()
-                );
-                // 限制每个查询的结果数量为5个
-                if (chunks.size() > 5) {
-                    chunks = chunks.subList(0, 5);
-                }
-                allChunks.addAll(chunks);
-            } catch (Exception e) {
-                logger.warn("Failed to retrieve chunks for query: {}", query, e);
-            }
-        }
+        // 所有查询一次embedding调用、每路一条SQL，结果按片段ID去重，每个查询最多取5个
+        List<ChunkSearchResult> allChunks = hybridRetrievalService.hybridSearchBatch(
+            queries,
+            character.getKnowledgeBase().getId(),
+            5,
+            null
+        );
         
         logger.debug("Retrieved {} unique chunks for character: {}", allChunks.size(), character.getId());
-        return new ArrayList<>(allChunks);
+        return allChunks;
     }
     
     /**
      * 生成配置文件内容
      */
-    private void generateProfileContent(CharacterProfile profile, Character character, List<DocumentChunk> chunks) {
+    private void generateProfileContent(CharacterProfile profile, Character character, List<ChunkSearchResult> chunks) {
         logger.debug("Generating profile content for character: {}", character.getId());
         
         // 构建上下文内容
@@ -162,7 +152,7 @@ public class CharacterProfileService {
         contextBuilder.append("角色描述: ").append(character.getDescription()).append("\n\n");
         contextBuilder.append("相关知识库内容:\n");
         
-        for (DocumentChunk chunk : chunks) {
+        for (ChunkSearchResult chunk : chunks) {
             contextBuilder.append("- ").append(chunk.getContent()).append("\n");
         }
         
@@ -2,36 +2,52 @@ package com.example.ragone.service;
 
 import com.example.ragone.dto.ChatMessage;
 import com.example.ragone.dto.ChatSession;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 聊天缓存服务
+ *
+ * 每个会话两个键：chat:sess:{id}:meta 为哈希，保存会话的基本信息（字符串字段）；
+ * chat:sess:{id}:msgs 为列表，每个元素是一条消息（JSON）。追加消息用 RPUSH + LTRIM 保留最近的
+ * max-conversation-turns 轮，一轮问答的两条消息在同一个流水线中一次写入，不再读取和回写整个会话，
+ * 同一会话的并发请求也不会互相覆盖。
  */
 @Service
 public class ChatCacheService {
     
     private static final Logger logger = LoggerFactory.getLogger(ChatCacheService.class);
     
-    private static final String SESSION_PREFIX = "chat:session:";
+    private static final String SESSION_PREFIX = "chat:sess:";
     private static final String USER_SESSIONS_PREFIX = "chat:user:";
     
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private static final String FIELD_SESSION_ID = "sessionId";
+    private static final String FIELD_USER_ID = "userId";
+    private static final String FIELD_KNOWLEDGE_BASE_ID = "knowledgeBaseId";
+    private static final String FIELD_KNOWLEDGE_BASE_NAME = "knowledgeBaseName";
+    private static final String FIELD_CREATED_AT = "createdAt";
+    private static final String FIELD_LAST_ACTIVE_AT = "lastActiveAt";
+    private static final String FIELD_MESSAGE_COUNT = "messageCount";
     
     @Autowired
-    private ObjectMapper objectMapper;
+    private RedisTemplate<String, Object> redisTemplate;
     
     @Value("${app.chat.cache.max-conversation-turns:10}")
     private int maxConversationTurns;
@@ -55,14 +71,16 @@ public class ChatCacheService {
         session.setKnowledgeBaseName(knowledgeBaseName);
         
         try {
-            // 存储会话
-            String sessionKey = SESSION_PREFIX + sessionId;
-            redisTemplate.opsForValue().set(sessionKey, session, Duration.ofHours(cacheTtlHours));
-            
-            // 存储用户会话列表
-            String userSessionsKey = USER_SESSIONS_PREFIX + userId;
-            redisTemplate.opsForSet().add(userSessionsKey, sessionId);
-            redisTemplate.expire(userSessionsKey, Duration.ofHours(cacheTtlHours));
+            // 会话信息和用户会话列表在一次往返中写入
+            byte[] metaKey = bytes(metaKey(sessionId));
+            byte[] userSessionsKey = bytes(USER_SESSIONS_PREFIX + userId);
+            long ttlSeconds = Duration.ofHours(cacheTtlHours).toSeconds();
+            pipelined(connection -> {
+                connection.hashCommands().hMSet(metaKey, encodeMeta(session));
+                connection.keyCommands().expire(metaKey, ttlSeconds);
+                connection.setCommands().sAdd(userSessionsKey, valueSerializer().serialize(sessionId));
+                connection.keyCommands().expire(userSessionsKey, ttlSeconds);
+            });
             
             logger.info("创建聊天会话: {} for 用户: {}", sessionId, userId);
             return sessionId;
@@ -74,7 +92,23 @@ public class ChatCacheService {
     }
     
     /**
-     * 获取聊天会话
+     * 会话是否存在（未过期），只检查会话信息键，不读取消息
+     */
+    public boolean sessionExists(String sessionId) {
+        if (!cacheEnabled) {
+            return false;
+        }
+        
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(metaKey(sessionId)));
+        } catch (Exception e) {
+            logger.error("检查聊天会话失败: {}", sessionId, e);
+            return false;
+        }
+    }
+    
+    /**
+     * 获取聊天会话（包含缓存的全部消息）
      */
     public ChatSession getSession(String sessionId) {
         if (!cacheEnabled) {
@@ -82,14 +116,21 @@ public class ChatCacheService {
         }
         
         try {
-            String sessionKey = SESSION_PREFIX + sessionId;
-            Object sessionObj = redisTemplate.opsForValue().get(sessionKey);
+            byte[] metaKey = bytes(metaKey(sessionId));
+            byte[] messagesKey = bytes(messagesKey(sessionId));
+            List<Object> results = pipelined(connection -> {
+                connection.hashCommands().hGetAll(metaKey);
+                connection.listCommands().lRange(messagesKey, 0, -1);
+            });
             
-            if (sessionObj instanceof ChatSession) {
-                return (ChatSession) sessionObj;
+            @SuppressWarnings("unchecked")
+            Map<byte[], byte[]> meta = (Map<byte[], byte[]>) results.get(0);
+            if (meta == null || meta.isEmpty()) {
+                return null;
             }
-            
-            return null;
+            @SuppressWarnings("unchecked")
+            List<byte[]> messages = (List<byte[]>) results.get(1);
+            return decodeSession(meta, decodeMessages(messages));
             
         } catch (Exception e) {
             logger.error("获取聊天会话失败: {}", sessionId, e);
@@ -98,7 +139,7 @@ public class ChatCacheService {
     }
     
     /**
-     * 更新聊天会话
+     * 更新聊天会话的基本信息（消息通过 addMessage / addExchange 追加）
      */
     public void updateSession(ChatSession session) {
         if (!cacheEnabled || session == null) {
@@ -106,8 +147,12 @@ public class ChatCacheService {
         }
         
         try {
-            String sessionKey = SESSION_PREFIX + session.getSessionId();
-            redisTemplate.opsForValue().set(sessionKey, session, Duration.ofHours(cacheTtlHours));
+            byte[] metaKey = bytes(metaKey(session.getSessionId()));
+            long ttlSeconds = Duration.ofHours(cacheTtlHours).toSeconds();
+            pipelined(connection -> {
+                connection.hashCommands().hMSet(metaKey, encodeMeta(session));
+                connection.keyCommands().expire(metaKey, ttlSeconds);
+            });
             
             logger.debug("更新聊天会话: {}", session.getSessionId());
             
@@ -120,32 +165,7 @@ public class ChatCacheService {
      * 添加消息到会话
      */
     public void addMessage(String sessionId, ChatMessage message) {
-        if (!cacheEnabled) {
-            return;
-        }
-        
-        try {
-            ChatSession session = getSession(sessionId);
-            if (session != null) {
-                session.addMessage(message);
-                
-                // 限制消息数量
-                if (session.getMessages().size() > maxConversationTurns * 2) { // 用户+助手消息
-                    List<ChatMessage> messages = session.getMessages();
-                    // 保留最新的消息，删除最旧的
-                    int removeCount = messages.size() - maxConversationTurns * 2;
-                    for (int i = 0; i < removeCount; i++) {
-                        messages.remove(0);
-                    }
-                    session.setMessages(messages);
-                }
-                
-                updateSession(session);
-            }
-            
-        } catch (Exception e) {
-            logger.error("添加消息到会话失败: {}", sessionId, e);
-        }
+        appendMessages(sessionId, List.of(message));
     }
     
     /**
@@ -162,41 +182,59 @@ public class ChatCacheService {
         addMessage(sessionId, new ChatMessage("assistant", content, contextChunks));
     }
     
+    /**
+     * 添加一轮问答：用户消息和助手消息在一次往返中写入，两条消息在列表中总是相邻
+     */
+    public void addExchange(String sessionId, String question, String response, String contextChunks) {
+        appendMessages(sessionId, List.of(new ChatMessage("user", question),
+                new ChatMessage("assistant", response, contextChunks)));
+    }
+    
     /**
      * 获取会话的聊天历史（用于上下文）
      */
     public String getConversationHistory(String sessionId) {
+        StringBuilder history = new StringBuilder();
+        for (ChatMessage message : getRecentMessages(sessionId)) {
+            String line = formatMessage(message);
+            if (line != null) {
+                history.append(line);
+            }
+        }
+        return history.toString();
+    }
+    
+    /**
+     * 获取会话最近几轮对话的消息（按时间顺序），供按token预算裁剪上下文
+     */
+    public List<ChatMessage> getRecentMessages(String sessionId) {
         if (!cacheEnabled) {
-            return "";
+            return List.of();
         }
         
         try {
-            ChatSession session = getSession(sessionId);
-            if (session == null || session.getMessages().isEmpty()) {
-                return "";
-            }
-            
-            StringBuilder history = new StringBuilder();
-            List<ChatMessage> messages = session.getMessages();//从session中获取历史聊天记录
-            
-            // 只取最近的几轮对话作为上下文
-            int startIndex = Math.max(0, messages.size() - maxConversationTurns * 2);
-            
-            for (int i = startIndex; i < messages.size(); i++) {
-                ChatMessage message = messages.get(i);
-                if ("user".equals(message.getRole())) {
-                    history.append("用户: ").append(message.getContent()).append("\n");
-                } else if ("assistant".equals(message.getRole())) {
-                    history.append("助手: ").append(message.getContent()).append("\n");
-                }
-            }
-            
-            return history.toString();
+            // 只取最近的几轮对话作为上下文（用户+助手消息）
+            byte[] messagesKey = bytes(messagesKey(sessionId));
+            List<byte[]> messages = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.listCommands().lRange(messagesKey, -maxMessages(), -1));
+            return decodeMessages(messages);
             
         } catch (Exception e) {
             logger.error("获取会话历史失败: {}", sessionId, e);
-            return "";
+            return List.of();
+        }
+    }
+    
+    /**
+     * 一条消息在提示词中的格式，不是用户或助手的消息返回null
+     */
+    public static String formatMessage(ChatMessage message) {
+        if ("user".equals(message.getRole())) {
+            return "用户: " + message.getContent() + "\n";
+        } else if ("assistant".equals(message.getRole())) {
+            return "助手: " + message.getContent() + "\n";
         }
+        return null;
     }
     
     /**
@@ -208,8 +246,7 @@ public class ChatCacheService {
         }
         
         try {
-            String sessionKey = SESSION_PREFIX + sessionId;
-            redisTemplate.delete(sessionKey);
+            redisTemplate.delete(List.of(metaKey(sessionId), messagesKey(sessionId)));
             
             logger.info("删除聊天会话: {}", sessionId);
             
@@ -250,8 +287,7 @@ public class ChatCacheService {
         try {
             List<String> sessionIds = getUserSessions(userId);
             for (String sessionId : sessionIds) {
-                ChatSession session = getSession(sessionId);
-                if (session == null) {
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(metaKey(sessionId)))) {
                     // 会话已过期，从用户会话列表中移除
                     String userSessionsKey = USER_SESSIONS_PREFIX + userId;
                     redisTemplate.opsForSet().remove(userSessionsKey, sessionId);
@@ -262,6 +298,134 @@ public class ChatCacheService {
             logger.error("清理过期会话失败: {}", userId, e);
         }
     }
+    
+    /**
+     * RPUSH 追加消息并 LTRIM 到最近的轮数，同时更新活跃时间、消息计数和两个键的过期时间
+     *
+     * 会话信息已过期时不追加，避免留下没有会话信息的消息列表。
+     */
+    private void appendMessages(String sessionId, List<ChatMessage> messages) {
+        if (!cacheEnabled) {
+            return;
+        }
+        
+        try {
+            byte[] metaKey = bytes(metaKey(sessionId));
+            byte[] messagesKey = bytes(messagesKey(sessionId));
+            byte[][] values = new byte[messages.size()][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = valueSerializer().serialize(messages.get(i));
+            }
+            long ttlSeconds = Duration.ofHours(cacheTtlHours).toSeconds();
+            
+            List<Object> results = pipelined(connection -> {
+                connection.keyCommands().exists(metaKey);
+                connection.listCommands().rPush(messagesKey, values);
+                connection.listCommands().lTrim(messagesKey, -maxMessages(), -1);
+                connection.hashCommands().hSet(metaKey, bytes(FIELD_LAST_ACTIVE_AT), bytes(LocalDateTime.now().toString()));
+                connection.hashCommands().hIncrBy(metaKey, bytes(FIELD_MESSAGE_COUNT), values.length);
+                connection.keyCommands().expire(metaKey, ttlSeconds);
+                connection.keyCommands().expire(messagesKey, ttlSeconds);
+            });
+            if (!Boolean.TRUE.equals(results.get(0))) {
+                // 会话在两次往返之间过期的情况极少，直接清理刚写入的键
+                redisTemplate.delete(List.of(metaKey(sessionId), messagesKey(sessionId)));
+            }
+            
+        } catch (Exception e) {
+            logger.error("添加消息到会话失败: {}", sessionId, e);
+        }
+    }
+    
+    private List<Object> pipelined(Consumer<RedisConnection> commands) {
+        return redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            commands.accept(connection);
+            return connection.closePipeline();
+        });
+    }
+    
+    private int maxMessages() {
+        return maxConversationTurns * 2;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<Object> valueSerializer() {
+        return (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+    }
+    
+    private List<ChatMessage> decodeMessages(List<byte[]> values) {
+        if (values == null || values.isEmpty()) {
+            return List.of();
+        }
+        List<ChatMessage> messages = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            if (valueSerializer().deserialize(value) instanceof ChatMessage message) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+    
+    private static Map<byte[], byte[]> encodeMeta(ChatSession session) {
+        Map<byte[], byte[]> meta = new HashMap<>();
+        meta.put(bytes(FIELD_SESSION_ID), bytes(session.getSessionId()));
+        meta.put(bytes(FIELD_USER_ID), bytes(String.valueOf(session.getUserId())));
+        meta.put(bytes(FIELD_KNOWLEDGE_BASE_ID), bytes(String.valueOf(session.getKnowledgeBaseId())));
+        if (session.getKnowledgeBaseName() != null) {
+            meta.put(bytes(FIELD_KNOWLEDGE_BASE_NAME), bytes(session.getKnowledgeBaseName()));
+        }
+        if (session.getCreatedAt() != null) {
+            meta.put(bytes(FIELD_CREATED_AT), bytes(session.getCreatedAt().toString()));
+        }
+        if (session.getLastActiveAt() != null) {
+            meta.put(bytes(FIELD_LAST_ACTIVE_AT), bytes(session.getLastActiveAt().toString()));
+        }
+        meta.put(bytes(FIELD_MESSAGE_COUNT), bytes(String.valueOf(session.getMessageCount())));
+        return meta;
+    }
+    
+    private static ChatSession decodeSession(Map<byte[], byte[]> raw, List<ChatMessage> messages) {
+        Map<String, String> meta = new HashMap<>();
+        raw.forEach((field, value) -> meta.put(string(field), string(value)));
+        
+        ChatSession session = new ChatSession();
+        session.setSessionId(meta.get(FIELD_SESSION_ID));
+        session.setUserId(parseLong(meta.get(FIELD_USER_ID)));
+        session.setKnowledgeBaseId(parseLong(meta.get(FIELD_KNOWLEDGE_BASE_ID)));
+        session.setKnowledgeBaseName(meta.get(FIELD_KNOWLEDGE_BASE_NAME));
+        session.setCreatedAt(parseTime(meta.get(FIELD_CREATED_AT)));
+        session.setLastActiveAt(parseTime(meta.get(FIELD_LAST_ACTIVE_AT)));
+        session.setMessages(new ArrayList<>(messages));
+        // 消息列表只保留最近几轮，累计消息数以计数字段为准
+        Long messageCount = parseLong(meta.get(FIELD_MESSAGE_COUNT));
+        if (messageCount != null) {
+            session.setMessageCount(messageCount.intValue());
+        }
+        return session;
+    }
+    
+    private static String metaKey(String sessionId) {
+        return SESSION_PREFIX + sessionId + ":meta";
+    }
+    
+    private static String messagesKey(String sessionId) {
+        return SESSION_PREFIX + sessionId + ":msgs";
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+    
+    private static Long parseLong(String value) {
+        return value == null || "null".equals(value) ? null : Long.valueOf(value);
+    }
+    
+    private static LocalDateTime parseTime(String value) {
+        return value == null ? null : LocalDateTime.parse(value);
+    }
 }
-
-
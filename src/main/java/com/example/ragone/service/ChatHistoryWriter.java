@@ -0,0 +1,230 @@
+package com.example.ragone.service;
+
+import com.example.ragone.entity.ChatHistory;
+import com.example.ragone.repository.ChatHistoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 聊天历史的异步批量写入（write-behind）
+ *
+ * 问答结束后聊天记录只进入内存队列，由后台线程攒够 batch-size 条或等待 flush-interval-ms 后
+ * 通过 saveAll 一次写入（ChatHistory 使用序列分配ID，配合 hibernate.jdbc.batch_size 成为JDBC批量插入）。
+ * 队列已满或写入未启用时退回同步保存；应用正常关闭时写完队列中剩余的记录。
+ * 删除会话时先丢弃队列中该会话的记录，再由写入线程在当前批次写完之后执行删除：后台线程已经取出的批次
+ * 不在队列里，如果由调用线程直接删除，这一批会在删除之后写入，使记录重新出现。
+ * 队列长度和每批写入耗时分别记录在 rag.chat-history.queue.depth 和 rag.chat-history.flush 指标中。
+ */
+@Service
+public class ChatHistoryWriter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatHistoryWriter.class);
+    
+    // 放入队列唤醒等待中的写入线程，本身不写入
+    private static final ChatHistory WAKE_UP = new ChatHistory();
+    
+    private static final long DELETE_TIMEOUT_SECONDS = 10;
+    
+    @Autowired
+    private ChatHistoryRepository chatHistoryRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${app.chat.history.write-behind.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${app.chat.history.write-behind.batch-size:50}")
+    private int batchSize;
+    
+    @Value("${app.chat.history.write-behind.flush-interval-ms:500}")
+    private long flushIntervalMs;
+    
+    @Value("${app.chat.history.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+    
+    private BlockingQueue<ChatHistory> queue;
+    private final Queue<SessionDeletion> deletions = new ConcurrentLinkedQueue<>();
+    private Thread flusher;
+    private volatile boolean running;
+    
+    private Timer flushTimer;
+    private Counter overflows;
+    private Counter failures;
+    
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        meterRegistry.gauge("rag.chat-history.queue.depth", queue, BlockingQueue::size);
+        flushTimer = meterRegistry.timer("rag.chat-history.flush");
+        overflows = meterRegistry.counter("rag.chat-history.overflow");
+        failures = meterRegistry.counter("rag.chat-history.failed");
+        if (!enabled) {
+            return;
+        }
+        
+        running = true;
+        flusher = new Thread(this::runFlusher, "chat-history-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("聊天历史异步写入已启动 - 批量: {}, 间隔: {} ms, 队列容量: {}", batchSize, flushIntervalMs, queueCapacity);
+    }
+    
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        
+        // 写完关闭前仍在队列中的记录
+        List<ChatHistory> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.removeIf(row -> row == WAKE_UP);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            flush(remaining.subList(from, Math.min(from + batchSize, remaining.size())));
+        }
+        runDeletions();
+        logger.info("聊天历史异步写入已停止，关闭时写入 {} 条", remaining.size());
+    }
+    
+    /**
+     * 保存一条聊天记录：正常情况下只入队，队列已满时同步写入
+     */
+    public void save(ChatHistory chatHistory) {
+        if (running && queue.offer(chatHistory)) {
+            return;
+        }
+        if (running) {
+            overflows.increment();
+            logger.warn("聊天历史写入队列已满（{} 条），同步写入", queue.size());
+        }
+        chatHistoryRepository.save(chatHistory);
+    }
+    
+    /**
+     * 删除会话的全部聊天历史，等待删除完成后返回
+     */
+    public void deleteSession(String sessionId) {
+        if (!running) {
+            chatHistoryRepository.deleteBySessionId(sessionId);
+            return;
+        }
+        
+        queue.removeIf(chatHistory -> sessionId.equals(chatHistory.getSessionId()));
+        SessionDeletion deletion = new SessionDeletion(sessionId, new CompletableFuture<>());
+        deletions.add(deletion);
+        queue.offer(WAKE_UP);
+        try {
+            deletion.done().get(DELETE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // 写入线程已停止或长时间阻塞，直接删除；之后才写入的批次仍可能留下记录
+            logger.warn("等待聊天历史写入线程删除会话超时，直接删除: {}", sessionId);
+            chatHistoryRepository.deleteBySessionId(sessionId);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("删除聊天历史失败: " + sessionId, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("删除聊天历史被中断: " + sessionId, e);
+        }
+    }
+    
+    private void runFlusher() {
+        List<ChatHistory> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                runDeletions();
+                ChatHistory first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null || first == WAKE_UP) {
+                    continue;
+                }
+                batch.add(first);
+                // 从第一条入队起最多再等 flush-interval-ms，攒够 batch-size 条立即写入
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                // 有待执行的删除时不再等待，写完当前批次后立即删除
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long waitNanos = deadline - System.nanoTime();
+                    if (batch.removeIf(row -> row == WAKE_UP) || batch.size() >= batchSize || waitNanos <= 0) {
+                        break;
+                    }
+                    ChatHistory next = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+                    if (next == null || next == WAKE_UP) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // 关闭时已取出的记录放回队列，由 stop 统一写入
+                batch.forEach(queue::offer);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * 在写入线程上执行等待中的会话删除，此时已取出的批次都已写入
+     */
+    private void runDeletions() {
+        SessionDeletion deletion;
+        while ((deletion = deletions.poll()) != null) {
+            try {
+                chatHistoryRepository.deleteBySessionId(deletion.sessionId());
+                deletion.done().complete(null);
+            } catch (Exception e) {
+                deletion.done().completeExceptionally(e);
+            }
+        }
+    }
+    
+    private void flush(List<ChatHistory> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        try {
+            chatHistoryRepository.saveAll(batch);
+        } catch (Exception e) {
+            logger.warn("批量写入 {} 条聊天历史失败，逐条重试: {}", batch.size(), e.getMessage());
+            for (ChatHistory chatHistory : batch) {
+                try {
+                    chatHistory.setId(null);
+                    chatHistoryRepository.save(chatHistory);
+                } catch (Exception single) {
+                    failures.increment();
+                    logger.error("写入聊天历史失败 - 会话: {}", chatHistory.getSessionId(), single);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+        flushTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        logger.debug("写入 {} 条聊天历史，耗时 {} ms", batch.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+    
+    private record SessionDeletion(String sessionId, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.ragone.service;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import com.example.ragone.dto.ChatMessage;
+import com.example.ragone.dto.ChunkSearchResult;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * 按token预算组装问答提示词
+ *
+ * 固定部分（说明文字和用户问题）总是保留；剩余预算中聊天历史最多占 history-max-ratio，从最近的消息往前取整条消息；
+ * 其余留给知识库片段，按检索排序依次放入完整片段，放不下的第一个片段在句子边界截断（第一句就放不下时按token硬截断），
+ * 之后的片段丢弃。一个片段都放不下时不生成提示词，由调用方按没有检索结果处理。
+ * token数用模型的分词器计算：配置 tokenizer-path（如Qwen的 tokenizer.json）时精确计数，
+ * 否则用 cl100k 编码估算，仍比按字符数折算准确得多。
+ */
+@Service
+public class ContextPacker {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ContextPacker.class);
+    
+    private static final String HEADER = "请基于以下知识库内容和聊天历史回答用户的问题。如果知识库中没有相关信息，请明确说明。\n\n";
+    private static final String HISTORY_TITLE = "聊天历史：\n";
+    private static final String CONTEXT_TITLE = "知识库内容：\n";
+    private static final String SECTION_END = "\n\n";
+    private static final String QUESTION_TITLE = "用户问题：";
+    private static final String FOOTER = "请提供准确、有用的回答，并考虑聊天历史中的上下文：";
+    private static final String CHUNK_SEPARATOR = "\n\n";
+    
+    // 中英文句末标点和换行之后切分，标点留在前一句
+    private static final Pattern SENTENCE_BOUNDARY = Pattern.compile("(?<=[。！？；!?;\\n])|(?<=\\.)(?=\\s)");
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${app.context.tokenizer-path:}")
+    private String tokenizerPath;
+    
+    @Value("${app.context.max-prompt-tokens:3000}")
+    private int maxPromptTokens;
+    
+    @Value("${app.context.history-max-ratio:0.3}")
+    private double historyMaxRatio;
+    
+    @Value("${app.context.min-chunk-tokens:48}")
+    private int minChunkTokens;
+    
+    private HuggingFaceTokenizer huggingFaceTokenizer;
+    private ToIntFunction<String> tokenCounter;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        if (tokenizerPath.isBlank()) {
+            // 按普通文本计数，用户输入中出现 <|endoftext|> 之类的特殊token也不会报错
+            Encoding encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+            tokenCounter = encoding::countTokensOrdinary;
+            logger.info("未配置 app.context.tokenizer-path，提示词token数按 cl100k 编码估算");
+        } else {
+            huggingFaceTokenizer = HuggingFaceTokenizer.newInstance(Path.of(tokenizerPath),
+                    Map.of("addSpecialTokens", "false", "truncation", "false"));
+            tokenCounter = text -> huggingFaceTokenizer.encode(text, false, false).getIds().length;
+            logger.info("提示词token数使用分词器: {}", tokenizerPath);
+        }
+    }
+    
+    @PreDestroy
+    public void stop() {
+        if (huggingFaceTokenizer != null) {
+            huggingFaceTokenizer.close();
+        }
+    }
+    
+    public int countTokens(String text) {
+        return text.isEmpty() ? 0 : tokenCounter.applyAsInt(text);
+    }
+    
+    /**
+     * 在 max-prompt-tokens 预算内组装提示词，chunks 按相关性从高到低排列
+     */
+    public PackedContext pack(String question, List<ChatMessage> history, List<ChunkSearchResult> chunks) {
+        int fixedTokens = countTokens(HEADER + CONTEXT_TITLE + SECTION_END + QUESTION_TITLE + question + SECTION_END + FOOTER);
+        int available = maxPromptTokens - fixedTokens;
+        if (available <= 0) {
+            logger.warn("问题本身已占用 {} tokens，超过提示词预算 {}", fixedTokens, maxPromptTokens);
+            available = 0;
+        }
+        
+        // 聊天历史：从最近的消息往前取，放不下就停止，保持对话连续
+        Deque<String> historyLines = new ArrayDeque<>();
+        int historyTokens = 0;
+        if (!history.isEmpty()) {
+            int historyBudget = (int) (available * historyMaxRatio) - countTokens(HISTORY_TITLE + SECTION_END);
+            for (int i = history.size() - 1; i >= 0; i--) {
+                String line = ChatCacheService.formatMessage(history.get(i));
+                if (line == null) {
+                    continue;
+                }
+                int tokens = countTokens(line);
+                if (historyTokens + tokens > historyBudget) {
+                    break;
+                }
+                historyLines.addFirst(line);
+                historyTokens += tokens;
+            }
+            if (!historyLines.isEmpty()) {
+                historyTokens += countTokens(HISTORY_TITLE + SECTION_END);
+            }
+        }
+        
+        // 知识库片段：完整放入排序靠前的片段，第一个放不下的在句子边界截断
+        int remaining = available - historyTokens;
+        int separatorTokens = countTokens(CHUNK_SEPARATOR);
+        List<ChunkSearchResult> packedChunks = new ArrayList<>();
+        StringBuilder context = new StringBuilder();
+        int truncatedChunks = 0;
+        for (ChunkSearchResult chunk : chunks) {
+            int cost = packedChunks.isEmpty() ? 0 : separatorTokens;
+            int tokens = countTokens(chunk.getContent());
+            String content = chunk.getContent();
+            boolean truncated = cost + tokens > remaining;
+            if (truncated) {
+                if (remaining - cost < minChunkTokens) {
+                    break;
+                }
+                content = truncateAtSentence(content, remaining - cost);
+                if (content.isEmpty()) {
+                    break;
+                }
+                tokens = countTokens(content);
+                truncatedChunks++;
+            }
+            if (!packedChunks.isEmpty()) {
+                context.append(CHUNK_SEPARATOR);
+            }
+            context.append(content);
+            packedChunks.add(chunk);
+            remaining -= cost + tokens;
+            if (truncated) {
+                break;
+            }
+        }
+        
+        if (packedChunks.isEmpty()) {
+            logger.warn("提示词预算 {} tokens 放不下任何知识库片段（问题 {} tokens，历史 {} tokens）",
+                    maxPromptTokens, fixedTokens, historyTokens);
+            return new PackedContext(null, 0, 0, List.of(), 0);
+        }
+        
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(HEADER);
+        if (!historyLines.isEmpty()) {
+            prompt.append(HISTORY_TITLE);
+            historyLines.forEach(prompt::append);
+            prompt.append(SECTION_END);
+        }
+        prompt.append(CONTEXT_TITLE).append(context).append(SECTION_END);
+        prompt.append(QUESTION_TITLE).append(question).append(SECTION_END);
+        prompt.append(FOOTER);
+        
+        String text = prompt.toString();
+        int totalTokens = countTokens(text);
+        meterRegistry.summary("rag.prompt.tokens").record(totalTokens);
+        logger.debug("提示词 {} tokens（预算 {}）- 历史消息 {}/{}，片段 {}/{}（截断 {}）", totalTokens, maxPromptTokens,
+                historyLines.size(), history.size(), packedChunks.size(), chunks.size(), truncatedChunks);
+        return new PackedContext(text, totalTokens, historyLines.size(), packedChunks, truncatedChunks);
+    }
+    
+    /**
+     * 保留开头不超过 maxTokens 的完整句子；第一句就超出时退回按token硬截断
+     */
+    private String truncateAtSentence(String text, int maxTokens) {
+        StringBuilder kept = new StringBuilder();
+        int tokens = 0;
+        for (String sentence : SENTENCE_BOUNDARY.split(text)) {
+            int sentenceTokens = countTokens(sentence);
+            if (tokens + sentenceTokens > maxTokens) {
+                break;
+            }
+            kept.append(sentence);
+            tokens += sentenceTokens;
+        }
+        String truncated = kept.toString().strip();
+        return truncated.isEmpty() ? truncateAtTokens(text, maxTokens) : truncated;
+    }
+    
+    /**
+     * 按码点二分查找不超过 maxTokens 的最长前缀，探测的前缀不会以半个代理对结尾
+     */
+    private String truncateAtTokens(String text, int maxTokens) {
+        int low = 0;
+        int high = text.codePointCount(0, text.length());
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (countTokens(text.substring(0, text.offsetByCodePoints(0, middle))) <= maxTokens) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return text.substring(0, text.offsetByCodePoints(0, low)).strip();
+    }
+    
+    /**
+     * 组装结果：提示词、实际token数、保留的历史消息数、放入的片段（按放入顺序）和其中被截断的片段数；
+     * 没有放入任何片段时 prompt 为null
+     */
+    public record PackedContext(String prompt, int tokens, int historyMessages, List<ChunkSearchResult> chunks,
+                                int truncatedChunks) {
+    }
+}
@@ -0,0 +1,668 @@
+package com.example.ragone.service;
+
+import com.example.ragone.dto.DocumentChunkInsert;
+import com.example.ragone.entity.Document;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.repository.DocumentRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 文档入库流水线服务
+ *
+ * 解析 → 分块 → 向量化 → 写入 四个阶段各自拥有固定数量的工作线程，
+ * 阶段之间通过有界队列衔接：下游处理不过来时上游的 put 会阻塞，形成背压，
+ * 避免大文档把分块和向量全部堆在内存里。
+ * 每个分块写入时附带metadata（文档ID、文件类型、页码、标题路径），供检索时按条件过滤。
+ * 向量化请求因分块内容被拒绝时拆分批次定位坏分块；限流、超时、服务不可达等暂时性错误按退避重试，
+ * 重试耗尽后整个文档标记为失败并删除已写入的片段，不会以部分片段完成入库。
+ * 关闭时队列中和处理中的任务直接丢弃，启动后按 recover-on-startup 重新提交这些文档或将其标记为失败。
+ */
+@Service
+public class DocumentIngestionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DocumentIngestionService.class);
+    
+    private static final long POLL_TIMEOUT_MS = 500;
+    
+    private static final long MAX_RETRY_BACKOFF_MS = 30_000;
+    
+    // 处理结束前的状态，停留在这些状态的文档在关闭时被中断
+    private static final List<Document.ProcessStatus> UNFINISHED_STATUSES = List.of(
+            Document.ProcessStatus.PENDING, Document.ProcessStatus.PROCESSING, Document.ProcessStatus.PARSING,
+            Document.ProcessStatus.SPLITTING, Document.ProcessStatus.EMBEDDING, Document.ProcessStatus.PERSISTING);
+    
+    @Autowired
+    private DocumentRepository documentRepository;
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Autowired
+    private EmbeddingModel embeddingModel;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${app.ingestion.parse.workers:2}")
+    private int parseWorkers;
+    
+    @Value("${app.ingestion.parse.queue-capacity:100}")
+    private int parseQueueCapacity;
+    
+    @Value("${app.ingestion.split.workers:1}")
+    private int splitWorkers;
+    
+    @Value("${app.ingestion.split.queue-capacity:4}")
+    private int splitQueueCapacity;
+    
+    @Value("${app.ingestion.embed.workers:4}")
+    private int embedWorkers;
+    
+    @Value("${app.ingestion.embed.queue-capacity:32}")
+    private int embedQueueCapacity;
+    
+    @Value("${app.ingestion.persist.workers:2}")
+    private int persistWorkers;
+    
+    @Value("${app.ingestion.persist.queue-capacity:32}")
+    private int persistQueueCapacity;
+    
+    @Value("${app.ingestion.persist.flush-rows:1000}")
+    private int persistFlushRows;
+    
+    @Value("${app.ingestion.embed.batch-size:32}")
+    private int embedBatchSize;
+    
+    @Value("${app.ingestion.embed.max-batch-chars:16000}")
+    private int embedMaxBatchChars;
+    
+    @Value("${app.ingestion.embed.max-attempts:4}")
+    private int embedMaxAttempts;
+    
+    @Value("${app.ingestion.embed.retry-backoff-ms:1000}")
+    private long embedRetryBackoffMs;
+    
+    @Value("${app.ingestion.submit-timeout-ms:2000}")
+    private long submitTimeoutMs;
+    
+    @Value("${app.ingestion.recover-on-startup:resubmit}")
+    private String recoverOnStartup;
+    
+    // 在每页结束处写入换页符，分块时据此计算页码
+    private final DocumentParser documentParser = new ApacheTikaDocumentParser(
+            AutoDetectParser::new, () -> new BodyContentHandler(new PageBreakContentHandler()), null, null);
+    
+    private BlockingQueue<IngestionJob> parseQueue;
+    private BlockingQueue<ParsedDocument> splitQueue;
+    private BlockingQueue<ChunkBatch> embedQueue;
+    private BlockingQueue<ChunkBatch> persistQueue;
+    
+    private final List<ExecutorService> stageExecutors = new ArrayList<>();
+    
+    private volatile boolean running;
+    
+    @PostConstruct
+    public void start() {
+        if (!List.of("resubmit", "fail", "none").contains(recoverOnStartup)) {
+            throw new IllegalStateException("未知的入库恢复方式: " + recoverOnStartup + "，可选: resubmit, fail, none");
+        }
+        
+        parseQueue = new ArrayBlockingQueue<>(parseQueueCapacity);
+        splitQueue = new ArrayBlockingQueue<>(splitQueueCapacity);
+        embedQueue = new ArrayBlockingQueue<>(embedQueueCapacity);
+        persistQueue = new ArrayBlockingQueue<>(persistQueueCapacity);
+        running = true;
+        
+        startStage("parse", parseWorkers, parseQueue, this::parse);
+        startStage("split", splitWorkers, splitQueue, this::split);
+        startStage("embed", embedWorkers, embedQueue, this::embed);
+        startStage("persist", persistWorkers, persistQueue, this::persist);
+        
+        logger.info("文档入库流水线已启动 - 解析: {}, 分块: {}, 向量化: {}, 写入: {} 个工作线程",
+                parseWorkers, splitWorkers, embedWorkers, persistWorkers);
+    }
+    
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (ExecutorService executor : stageExecutors) {
+            executor.shutdownNow();
+        }
+        logger.info("文档入库流水线已停止，未处理文档: {}", parseQueue.size());
+    }
+    
+    /**
+     * 恢复上次关闭时未处理完的文档
+     *
+     * resubmit 先删除已写入的部分片段再重新提交，fail 标记为失败由用户重新上传；
+     * 多个节点共用数据库时其他节点上的文档可能仍在处理中，应配置为 none。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverUnfinished() {
+        if ("none".equals(recoverOnStartup)) {
+            return;
+        }
+        List<Document> unfinished = documentRepository.findByProcessStatusIn(UNFINISHED_STATUSES);
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        
+        logger.info("发现 {} 个上次关闭时未处理完的文档，恢复方式: {}", unfinished.size(), recoverOnStartup);
+        for (Document document : unfinished) {
+            if ("fail".equals(recoverOnStartup)) {
+                documentRepository.finishProcessing(document.getId(), Document.ProcessStatus.FAILED,
+                        "服务重启时处理被中断，请重新上传", 0, LocalDateTime.now());
+                continue;
+            }
+            try {
+                documentChunkRepository.deleteByDocumentId(document.getId());
+            } catch (Exception e) {
+                logger.error("删除文档 {} 已写入的部分片段失败，标记为失败", document.getId(), e);
+                documentRepository.finishProcessing(document.getId(), Document.ProcessStatus.FAILED,
+                        "服务重启时处理被中断，清理失败: " + e.getMessage(), 0, LocalDateTime.now());
+                continue;
+            }
+            documentRepository.updateProcessProgress(document.getId(), Document.ProcessStatus.PENDING,
+                    "服务重启后重新处理", LocalDateTime.now());
+            submit(document);
+        }
+    }
+    
+    /**
+     * 提交文档到入库流水线
+     *
+     * 解析队列已满时最多等待 submit-timeout-ms，仍然无法入队则将文档标记为失败。
+     */
+    public boolean submit(Document document) {
+        IngestionJob job = new IngestionJob(document.getId(), document.getKnowledgeBase().getId(),
+                document.getFilePath(), document.getOriginalFilename(), document.getMimeType());
+        try {
+            if (parseQueue.offer(job, submitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.info("文档已进入处理队列: {} (队列长度: {})", job.originalFilename, parseQueue.size());
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        logger.warn("处理队列已满，拒绝文档: {}", job.originalFilename);
+        finish(job, Document.ProcessStatus.FAILED, "处理队列已满，请稍后重试", 0);
+        return false;
+    }
+    
+    /**
+     * 1. 解析文档内容
+     */
+    private void parse(IngestionJob job) throws InterruptedException {
+        updateProgress(job, Document.ProcessStatus.PARSING, "解析中");
+        
+        dev.langchain4j.data.document.Document langchainDoc;
+        try (InputStream inputStream = Files.newInputStream(Paths.get(job.filePath))) {
+            langchainDoc = documentParser.parse(inputStream);
+        } catch (Exception e) {
+            logger.error("文档解析失败: {}", job.originalFilename, e);
+            finish(job, Document.ProcessStatus.FAILED, "文档解析失败: " + e.getMessage(), 0);
+            return;
+        }
+        
+        splitQueue.put(new ParsedDocument(job, langchainDoc));
+    }
+    
+    /**
+     * 2. 文档分块，并按批次送入向量化队列
+     */
+    private void split(ParsedDocument parsed) throws InterruptedException {
+        IngestionJob job = parsed.job;
+        updateProgress(job, Document.ProcessStatus.SPLITTING, "分块中");
+        
+        List<TextSegment> segments;
+        try {
+            segments = DocumentSplitters.recursive(
+                    1000, // 每块最大字符数
+                    200   // 重叠字符数
+            ).split(parsed.document);
+        } catch (Exception e) {
+            logger.error("文档分块失败: {}", job.originalFilename, e);
+            finish(job, Document.ProcessStatus.FAILED, "文档分块失败: " + e.getMessage(), 0);
+            return;
+        }
+        
+        job.totalChunks = segments.size();
+        if (segments.isEmpty()) {
+            finish(job, Document.ProcessStatus.COMPLETED, "处理完成（文档无有效内容）", 0);
+            return;
+        }
+        List<String> metadata = chunkMetadata(job, parsed.document.text(), segments);
+        
+        updateProgress(job, Document.ProcessStatus.EMBEDDING, progressMessage("向量化中", 0, job.totalChunks));
+        
+        // 按分块数和总字符数两个上限切分批次
+        int start = 0;
+        int batchChars = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            int length = segments.get(i).text().length();
+            boolean full = i - start >= embedBatchSize || (i > start && batchChars + length > embedMaxBatchChars);
+            if (full) {
+                embedQueue.put(new ChunkBatch(job, start, new ArrayList<>(segments.subList(start, i)),
+                        metadata.subList(start, i)));
+                start = i;
+                batchChars = 0;
+            }
+            batchChars += length;
+        }
+        embedQueue.put(new ChunkBatch(job, start, new ArrayList<>(segments.subList(start, segments.size())),
+                metadata.subList(start, segments.size())));
+    }
+    
+    /**
+     * 按分块在全文中的位置生成每个分块的metadata JSON
+     *
+     * 分块是按顺序切出的，从上一个分块的位置向后查找；定位失败的分块沿用上一个位置的页码和标题。
+     */
+    private List<String> chunkMetadata(IngestionJob job, String text, List<TextSegment> segments) {
+        DocumentOutline outline = DocumentOutline.of(text);
+        List<String> metadata = new ArrayList<>(segments.size());
+        int offset = 0;
+        for (TextSegment segment : segments) {
+            int found = outline.locate(segment.text(), offset);
+            if (found >= 0) {
+                offset = found;
+            }
+            
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("documentId", job.documentId);
+            if (job.mimeType != null) {
+                values.put("mimeType", job.mimeType);
+            }
+            Integer page = outline.pageAt(offset);
+            if (page != null) {
+                values.put("page", page);
+            }
+            List<String> headingPath = outline.headingPathAt(offset);
+            if (!headingPath.isEmpty()) {
+                values.put("headingPath", headingPath);
+            }
+            try {
+                metadata.add(objectMapper.writeValueAsString(values));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("序列化片段metadata失败", e);
+            }
+        }
+        return metadata;
+    }
+    
+    /**
+     * 3. 为批次内的分块批量生成向量
+     *
+     * 每个向量化工作线程同时处理一个批次，embed.workers 即同时在途的批次数。
+     */
+    private void embed(ChunkBatch batch) throws InterruptedException {
+        IngestionJob job = batch.job;
+        
+        // 文档已经失败时后续批次不再请求向量化，只交给写入阶段计数
+        if (job.failure.get() != null) {
+            persistQueue.put(batch);
+            return;
+        }
+        try {
+            embedWithSplitRetry(batch.segments, batch.embeddings, 0);
+        } catch (RuntimeException e) {
+            logger.error("文档 {} 向量化失败，停止处理: {}", job.originalFilename, e.getMessage());
+            job.failure.compareAndSet(null, "向量化失败: " + e.getMessage());
+            persistQueue.put(batch);
+            return;
+        }
+        
+        int embedded = job.embeddedChunks.addAndGet(batch.segments.size());
+        if (embedded >= job.totalChunks) {
+            updateProgress(job, Document.ProcessStatus.PERSISTING, "写入中");
+        } else {
+            updateProgress(job, Document.ProcessStatus.EMBEDDING, progressMessage("向量化中", embedded, job.totalChunks));
+        }
+        
+        persistQueue.put(batch);
+    }
+    
+    /**
+     * 调用 embedAll 批量向量化，请求因输入内容被拒绝时将批次一分为二分别重试，
+     * 直到定位到单个失败的分块，避免一个坏分块拖累整批；其他错误向上抛出，由调用方使整个文档失败
+     */
+    private void embedWithSplitRetry(List<TextSegment> segments, float[][] embeddings, int offset)
+            throws InterruptedException {
+        List<Embedding> results;
+        try {
+            results = embedWithBackoff(segments);
+        } catch (RuntimeException e) {
+            if (!isInputError(e)) {
+                throw e;
+            }
+            if (segments.size() == 1) {
+                logger.error("片段内容被向量化服务拒绝，跳过: {}", e.getMessage());
+                return;
+            }
+            logger.warn("批量向量化请求被拒绝，拆分后重试 ({} 个片段): {}", segments.size(), e.getMessage());
+            int middle = segments.size() / 2;
+            embedWithSplitRetry(segments.subList(0, middle), embeddings, offset);
+            embedWithSplitRetry(segments.subList(middle, segments.size()), embeddings, offset + middle);
+            return;
+        }
+        
+        if (results.size() != segments.size()) {
+            throw new IllegalStateException("向量化服务返回 " + results.size() + " 个向量，请求了 " + segments.size() + " 个片段");
+        }
+        for (int i = 0; i < results.size(); i++) {
+            embeddings[offset + i] = results.get(i).vector();
+        }
+    }
+    
+    /**
+     * 暂时性错误按指数退避重试，最多请求 max-attempts 次；输入错误不重试，直接抛出
+     */
+    private List<Embedding> embedWithBackoff(List<TextSegment> segments) throws InterruptedException {
+        long backoff = embedRetryBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return embeddingModel.embedAll(segments).content();
+            } catch (RuntimeException e) {
+                if (isInputError(e) || attempt >= embedMaxAttempts) {
+                    throw e;
+                }
+                logger.warn("向量化请求失败（第 {}/{} 次），{} ms 后重试: {}", attempt, embedMaxAttempts, backoff,
+                        e.getMessage());
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+    }
+    
+    /**
+     * 请求本身不合法（内容过长、格式错误等），重试同样的输入不会成功，只能拆分批次
+     */
+    private static boolean isInputError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OpenAiHttpException httpException) {
+                int code = httpException.code();
+                return code == 400 || code == 413 || code == 422;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 4. 写入文档片段，全部批次完成后更新文档状态
+     *
+     * 同一文档的片段先在内存中累积，达到 flush-rows 或收到最后一批时通过一次 COPY 写入。
+     */
+    private void persist(ChunkBatch batch) {
+        IngestionJob job = batch.job;
+        LocalDateTime now = LocalDateTime.now();
+        
+        List<DocumentChunkInsert> rows = new ArrayList<>(batch.segments.size());
+        for (int i = 0; i < batch.segments.size() && job.failure.get() == null; i++) {
+            float[] vector = batch.embeddings[i];
+            if (vector == null) {
+                continue;
+            }
+            // 换页符只用于定位页码，不写入片段内容
+            String text = batch.segments.get(i).text().replace(PageBreakContentHandler.PAGE_BREAK, '\n');
+            rows.add(new DocumentChunkInsert(
+                    job.documentId,
+                    job.knowledgeBaseId, // 冗余存储knowledge_base_id
+                    batch.startPosition + i,
+                    text,
+                    calculateContentHash(text),
+                    text.length() / 4, // 粗略估算token数
+                    vector,
+                    batch.metadata.get(i),
+                    now));
+        }
+        
+        // 向量化失败的片段直接计为已完成
+        int done = job.doneChunks.addAndGet(batch.segments.size() - rows.size());
+        
+        List<DocumentChunkInsert> toWrite = null;
+        synchronized (job) {
+            job.pendingRows.addAll(rows);
+            job.receivedChunks += batch.segments.size();
+            if (job.receivedChunks >= job.totalChunks || job.pendingRows.size() >= persistFlushRows) {
+                toWrite = job.pendingRows;
+                job.pendingRows = new ArrayList<>();
+            }
+        }
+        
+        if (toWrite != null) {
+            // 文档已经失败时丢弃待写入的行，只计数
+            if (!toWrite.isEmpty() && job.failure.get() == null) {
+                long startTime = System.nanoTime();
+                int written = 0;
+                try {
+                    written = documentChunkRepository.bulkInsertChunks(toWrite);
+                } catch (Exception e) {
+                    logger.error("保存文档片段失败: {}", e.getMessage());
+                }
+                job.writeNanos.addAndGet(System.nanoTime() - startTime);
+                job.persistedChunks.addAndGet(written);
+            }
+            done = job.doneChunks.addAndGet(toWrite.size());
+        }
+        
+        if (done < job.totalChunks) {
+            return;
+        }
+        
+        // 所有批次都已结束（写入全部完成），此时清理失败文档已写入的片段不会与写入交错
+        String failure = job.failure.get();
+        if (failure != null) {
+            if (job.persistedChunks.get() > 0) {
+                try {
+                    documentChunkRepository.deleteByDocumentId(job.documentId);
+                } catch (Exception e) {
+                    logger.error("删除失败文档 {} 已写入的片段失败", job.documentId, e);
+                }
+            }
+            finish(job, Document.ProcessStatus.FAILED, failure, 0);
+            return;
+        }
+        
+        int persisted = job.persistedChunks.get();
+        int failed = job.totalChunks - persisted;
+        if (persisted == 0) {
+            finish(job, Document.ProcessStatus.FAILED, "所有片段处理失败", 0);
+        } else if (failed > 0) {
+            finish(job, Document.ProcessStatus.COMPLETED, "处理完成，" + failed + " 个片段失败", persisted);
+        } else {
+            finish(job, Document.ProcessStatus.COMPLETED, "处理完成", persisted);
+        }
+        if (persisted > 0) {
+            eventPublisher.publishEvent(new DocumentIndexedEvent(job.documentId, job.knowledgeBaseId));
+        }
+        
+        double writeSeconds = Math.max(job.writeNanos.get(), 1) / 1_000_000_000.0;
+        logger.info("文档处理完成: {}, 共生成 {} 个片段，耗时 {} ms，写入速率 {} 行/秒",
+                job.originalFilename, persisted, System.currentTimeMillis() - job.submittedAt,
+                Math.round(persisted / writeSeconds));
+    }
+    
+    /**
+     * 启动一个阶段的工作线程
+     */
+    private <T> void startStage(String name, int workers, BlockingQueue<T> queue, StageHandler<T> handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(workers, namedThreadFactory("ingest-" + name + "-"));
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                while (running && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        T item = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        if (item != null) {
+                            handler.handle(item);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        logger.error("入库流水线 {} 阶段处理异常", name, e);
+                    }
+                }
+            });
+        }
+        stageExecutors.add(executor);
+    }
+    
+    private ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private void updateProgress(IngestionJob job, Document.ProcessStatus status, String message) {
+        try {
+            documentRepository.updateProcessProgress(job.documentId, status, message, LocalDateTime.now());
+        } catch (Exception e) {
+            logger.warn("更新文档处理进度失败: {}", job.documentId, e);
+        }
+    }
+    
+    private void finish(IngestionJob job, Document.ProcessStatus status, String message, int chunkCount) {
+        try {
+            documentRepository.finishProcessing(job.documentId, status, message, chunkCount, LocalDateTime.now());
+        } catch (Exception e) {
+            logger.error("更新文档处理结果失败: {}", job.documentId, e);
+        }
+    }
+    
+    private String progressMessage(String stage, int done, int total) {
+        return stage + " " + done + "/" + total;
+    }
+    
+    /**
+     * 计算内容哈希
+     */
+    private String calculateContentHash(String content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(content.getBytes());
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) {
+                    hexString.append('0');
+                }
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("计算内容哈希失败", e);
+        }
+    }
+    
+    @FunctionalInterface
+    private interface StageHandler<T> {
+        void handle(T item) throws Exception;
+    }
+    
+    /**
+     * 单个文档的处理任务及进度
+     */
+    private static class IngestionJob {
+        final Long documentId;
+        final Long knowledgeBaseId;
+        final String filePath;
+        final String originalFilename;
+        final String mimeType;
+        final long submittedAt = System.currentTimeMillis();
+        volatile int totalChunks;
+        final AtomicInteger embeddedChunks = new AtomicInteger();
+        final AtomicInteger persistedChunks = new AtomicInteger();
+        final AtomicInteger doneChunks = new AtomicInteger();
+        final AtomicLong writeNanos = new AtomicLong();
+        // 第一个导致整个文档失败的错误，设置后不再向量化和写入
+        final AtomicReference<String> failure = new AtomicReference<>();
+        // 以下两个字段由 synchronized (job) 保护
+        int receivedChunks;
+        List<DocumentChunkInsert> pendingRows = new ArrayList<>();
+        
+        IngestionJob(Long documentId, Long knowledgeBaseId, String filePath, String originalFilename,
+                     String mimeType) {
+            this.documentId = documentId;
+            this.knowledgeBaseId = knowledgeBaseId;
+            this.filePath = filePath;
+            this.originalFilename = originalFilename;
+            this.mimeType = mimeType;
+        }
+    }
+    
+    private static class ParsedDocument {
+        final IngestionJob job;
+        final dev.langchain4j.data.document.Document document;
+        
+        ParsedDocument(IngestionJob job, dev.langchain4j.data.document.Document document) {
+            this.job = job;
+            this.document = document;
+        }
+    }
+    
+    /**
+     * 一批连续的分块，startPosition 为第一个分块在文档中的位置
+     */
+    private static class ChunkBatch {
+        final IngestionJob job;
+        final int startPosition;
+        final List<TextSegment> segments;
+        final List<String> metadata;
+        final float[][] embeddings;
+        
+        ChunkBatch(IngestionJob job, int startPosition, List<TextSegment> segments, List<String> metadata) {
+            this.job = job;
+            this.startPosition = startPosition;
+            this.segments = segments;
+            this.metadata = metadata;
+            this.embeddings = new float[segments.size()][];
+        }
+    }
+}
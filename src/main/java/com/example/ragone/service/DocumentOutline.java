@@ -0,0 +1,102 @@
+package com.example.ragone.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析后全文的页码和标题结构，用于给分块标注所在页和标题路径
+ *
+ * 页码来自 {@link PageBreakContentHandler} 写入的换页符；标题来自 Markdown 风格的 # 标题行，
+ * 其他格式（Word、HTML等）的标题在纯文本中没有标记，标题路径为空。两者都是尽力而为的提取。
+ */
+class DocumentOutline {
+    
+    private static final Pattern HEADING = Pattern.compile("(?m)^(#{1,6})[ \\t]+(.+?)[ \\t#]*$");
+    
+    private static final int PROBE_LENGTH = 32;
+    
+    private final String text;
+    private final int[] pageStarts;
+    private final int[] headingOffsets;
+    private final List<List<String>> headingPaths;
+    
+    private DocumentOutline(String text, int[] pageStarts, int[] headingOffsets, List<List<String>> headingPaths) {
+        this.text = text;
+        this.pageStarts = pageStarts;
+        this.headingOffsets = headingOffsets;
+        this.headingPaths = headingPaths;
+    }
+    
+    static DocumentOutline of(String text) {
+        int[] pageStarts = new int[16];
+        int pages = 0;
+        for (int i = text.indexOf(PageBreakContentHandler.PAGE_BREAK); i >= 0;
+             i = text.indexOf(PageBreakContentHandler.PAGE_BREAK, i + 1)) {
+            if (pages == pageStarts.length) {
+                pageStarts = Arrays.copyOf(pageStarts, pages * 2);
+            }
+            pageStarts[pages++] = i + 1;
+        }
+        
+        List<Integer> offsets = new ArrayList<>();
+        List<List<String>> paths = new ArrayList<>();
+        String[] stack = new String[6];
+        Matcher matcher = HEADING.matcher(text);
+        while (matcher.find()) {
+            int level = matcher.group(1).length();
+            stack[level - 1] = matcher.group(2).trim();
+            Arrays.fill(stack, level, stack.length, null);
+            List<String> path = new ArrayList<>(level);
+            for (int i = 0; i < level; i++) {
+                if (stack[i] != null) {
+                    path.add(stack[i]);
+                }
+            }
+            offsets.add(matcher.start());
+            paths.add(List.copyOf(path));
+        }
+        return new DocumentOutline(text, Arrays.copyOf(pageStarts, pages),
+                offsets.stream().mapToInt(Integer::intValue).toArray(), paths);
+    }
+    
+    /**
+     * 在全文中从 fromIndex 开始查找分块的起始位置，找不到时返回 -1
+     *
+     * 分块器会调整段落间的空白，只用分块开头的一小段文本做匹配。
+     */
+    int locate(String segmentText, int fromIndex) {
+        String probe = segmentText.strip();
+        if (probe.isEmpty()) {
+            return -1;
+        }
+        probe = probe.substring(0, Math.min(PROBE_LENGTH, probe.length()));
+        int newline = probe.indexOf('\n');
+        if (newline > 0) {
+            probe = probe.substring(0, newline);
+        }
+        return text.indexOf(probe, Math.max(fromIndex, 0));
+    }
+    
+    /**
+     * 位置所在的页码（从1开始），文档没有分页信息时返回null
+     */
+    Integer pageAt(int offset) {
+        if (pageStarts.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(pageStarts, offset);
+        return (index >= 0 ? index + 1 : -index - 1) + 1;
+    }
+    
+    /**
+     * 位置之前最近的标题及其各级上级标题，没有标题时返回空列表
+     */
+    List<String> headingPathAt(int offset) {
+        int index = Arrays.binarySearch(headingOffsets, offset);
+        int heading = index >= 0 ? index : -index - 2;
+        return heading >= 0 ? headingPaths.get(heading) : List.of();
+    }
+}
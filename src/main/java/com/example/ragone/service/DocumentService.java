@@ -3,21 +3,18 @@ package com.example.ragone.service;
 import com.example.ragone.entity.Document;
 import com.example.ragone.entity.KnowledgeBase;
 import com.example.ragone.entity.User;
-import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.event.DocumentRemovedEvent;
 import com.example.ragone.repository.DocumentRepository;
 import com.example.ragone.repository.KnowledgeBaseRepository;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -26,7 +23,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
@@ -42,21 +38,19 @@ public class DocumentService {
     private DocumentRepository documentRepository;
     
     @Autowired
-    private DocumentChunkRepository documentChunkRepository;
+    private KnowledgeBaseRepository knowledgeBaseRepository;
     
     @Autowired
-    private KnowledgeBaseRepository knowledgeBaseRepository;
+    private DocumentIngestionService documentIngestionService;
     
     @Autowired
-    private EmbeddingModel embeddingModel;
+    private ApplicationEventPublisher eventPublisher;
     
     @Value("${app.file-storage-path}")
     private String fileStoragePath;
     
-    private final DocumentParser documentParser = new ApacheTikaDocumentParser();
-    
     /**
-     * 上传并处理文档
+     * 上传文档，解析和向量化由 {@link DocumentIngestionService} 在后台完成
      */
     @Transactional
     public Document uploadDocument(MultipartFile file, Long knowledgeBaseId, User user) throws IOException {
@@ -99,72 +93,20 @@ public class DocumentService {
         
         document = documentRepository.save(document);
         
-        // 异步处理文档（这里简化为同步处理）
-        processDocumentAsync(document);
-        
-        return document;
-    }
-    
-    /**
-     * 处理文档（解析、分块、向量化）
-     */
-    @Transactional
-    public void processDocumentAsync(Document document) {
-        try {
-            document.setProcessStatus(Document.ProcessStatus.PROCESSING);
-            documentRepository.save(document);
-            
-            // 1. 解析文档内容
-            dev.langchain4j.data.document.Document langchainDoc = documentParser.parse(
-                    Files.newInputStream(Paths.get(document.getFilePath()))
-            );
-            
-            // 2. 文档分块
-            List<TextSegment> segments = DocumentSplitters.recursive(
-                    1000, // 每块最大字符数
-                    200   // 重叠字符数
-            ).split(langchainDoc);
-            
-            // 3. 为每个分块生成向量并保存
-            int position = 0;
-            for (TextSegment segment : segments) {
-                try {
-                    // 生成向量
-                    Embedding embedding = embeddingModel.embed(segment.text()).content();
-                    String embeddingString = embeddingToVectorString(embedding);
-                    
-                    // 使用原生SQL保存文档片段（处理vector类型，包含knowledge_base_id）
-                    documentChunkRepository.saveChunkWithVector(
-                        document.getId(),
-                        document.getKnowledgeBase().getId(), // 冗余存储knowledge_base_id
-                        position++,
-                        segment.text(),
-                        calculateContentHash(segment.text()),
-                        segment.text().length() / 4, // 粗略估算token数
-                        embeddingString,
-                        LocalDateTime.now()
-                    );
-                    
-                } catch (Exception e) {
-                    logger.error("处理文档片段失败: {}", e.getMessage());
+        // 事务提交后交给后台流水线处理，上传请求立即返回 PENDING 状态的文档
+        Document savedDocument = document;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    documentIngestionService.submit(savedDocument);
                 }
-            }
-            
-            // 4. 更新文档状态
-            document.setProcessStatus(Document.ProcessStatus.COMPLETED);
-            document.setChunkCount(position);
-            document.setProcessedAt(LocalDateTime.now());
-            document.setProcessMessage("处理完成");
-            documentRepository.save(document);
-            
-            logger.info("文档处理完成: {}, 共生成 {} 个片段", document.getOriginalFilename(), position);
-            
-        } catch (Exception e) {
-            logger.error("文档处理失败", e);
-            document.setProcessStatus(Document.ProcessStatus.FAILED);
-            document.setProcessMessage(e.getMessage());
-            documentRepository.save(document);
+            });
+        } else {
+            documentIngestionService.submit(savedDocument);
         }
+        
+        return document;
     }
     
     /**
@@ -185,6 +127,8 @@ public class DocumentService {
         
         // 删除数据库记录（级联删除文档片段）
         documentRepository.delete(document);
+        
+        eventPublisher.publishEvent(new DocumentRemovedEvent(document.getId(), document.getKnowledgeBase().getId()));
     }
     
     /**
@@ -217,40 +161,4 @@ public class DocumentService {
             throw new RuntimeException("计算文件哈希失败", e);
         }
     }
-    
-    /**
-     * 计算内容哈希
-     */
-    private String calculateContentHash(String content) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(content.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("计算内容哈希失败", e);
-        }
-    }
-    
-    /**
-     * 将Embedding转换为PostgreSQL vector格式
-     */
-    private String embeddingToVectorString(Embedding embedding) {
-        float[] vector = embedding.vector();
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < vector.length; i++) {
-            if (i > 0) sb.append(",");
-            sb.append(vector[i]);
-        }
-        sb.append("]");
-        return sb.toString();
-    }
 }
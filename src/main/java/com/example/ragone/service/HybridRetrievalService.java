@@ -1,9 +1,17 @@
 package com.example.ragone.service;
 
-import com.example.ragone.entity.DocumentChunk;
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
 import com.example.ragone.repository.DocumentChunkRepository;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import com.example.ragone.retrieval.FusionStrategy;
+import com.example.ragone.retrieval.FuzzyStore;
+import com.example.ragone.retrieval.KeywordStore;
+import com.example.ragone.retrieval.RetrievalLeg;
+import com.example.ragone.retrieval.VectorStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,10 +19,37 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * 混合检索服务 - 结合关键词检索和向量检索
+ *
+ * 向量检索（含远程embedding调用）和关键词检索在独立的有界线程池上并发执行，
+ * 每一路都有自己的超时时间。某一路超时、失败或因线程池队列已满被拒绝时只使用另一路的结果，
+ * 并通过 rag.hybrid.degraded 指标记录降级次数。
+ * 两路结果携带各自的原始分数（余弦相似度、ts_rank），由配置的 {@link FusionStrategy} 融合。
+ *
+ * mode 为 single-query 时改为一次embedding调用加一条SQL：两路检索写成CTE，在数据库内按RRF融合，
+ * 省去一次数据库往返，此时融合策略固定为RRF。关键词检索使用内存BM25后端（{@link KeywordStore}）、
+ * 向量检索使用内存后端（{@link VectorStore}）或知识库开启了向量量化时无法合并进SQL，
+ * single-query 模式退回两路并发检索。
+ * 开启 fuzzy 时增加第三路容错检索（{@link FuzzyStore}，字符三元组相似度），拼写有误的查询也能召回，
+ * 它和另外两路一样有独立的超时时间并参与融合；single-query 模式不包含这一路。
+ * 两种模式下检索过滤条件（{@link RetrievalFilter}）都下推到每一路检索内部。
+ *
+ * 多个查询共用一个知识库时（如生成角色配置）使用 {@link #hybridSearchBatch}：所有查询一次 embedAll，
+ * 向量和关键词两路各一条SQL，每个查询分别融合后按片段ID去重。
  */
 @Service
 public class HybridRetrievalService {
@@ -25,7 +60,16 @@ public class HybridRetrievalService {
     private DocumentChunkRepository documentChunkRepository;
     
     @Autowired
-    private EmbeddingModel embeddingModel;
+    private QueryEmbeddingService queryEmbeddingService;
+    
+    @Autowired
+    private VectorStore vectorStore;
+    
+    @Autowired
+    private KeywordStore keywordStore;
+    
+    @Autowired
+    private FuzzyStore fuzzyStore;
     
     @Value("${app.hybrid-retrieval.vector-weight:0.7}")
     private double vectorWeight;
@@ -39,121 +83,313 @@ public class HybridRetrievalService {
     @Value("${app.hybrid-retrieval.enabled:false}")
     private boolean hybridEnabled;
     
+    @Value("${app.hybrid-retrieval.workers:8}")
+    private int workers;
+    
+    @Value("${app.hybrid-retrieval.queue-capacity:64}")
+    private int queueCapacity;
+    
+    @Value("${app.hybrid-retrieval.vector-timeout-ms:3000}")
+    private long vectorTimeoutMs;
+    
+    @Value("${app.hybrid-retrieval.keyword-timeout-ms:1500}")
+    private long keywordTimeoutMs;
+    
+    @Value("${app.hybrid-retrieval.fuzzy.enabled:false}")
+    private boolean fuzzyEnabled;
+    
+    @Value("${app.hybrid-retrieval.fuzzy.weight:0.2}")
+    private double fuzzyWeight;
+    
+    @Value("${app.hybrid-retrieval.fuzzy.timeout-ms:1000}")
+    private long fuzzyTimeoutMs;
+    
+    @Value("${app.hybrid-retrieval.fusion:rrf}")
+    private String fusion;
+    
+    @Value("${app.hybrid-retrieval.mode:parallel}")
+    private String mode;
+    
+    @Value("${app.hybrid-retrieval.rrf-k:60}")
+    private int rrfK;
+    
+    @Value("${app.hybrid-retrieval.single-query-candidates:40}")
+    private int singleQueryCandidates;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private List<FusionStrategy> fusionStrategies;
+    
+    private FusionStrategy fusionStrategy;
+    
+    private ThreadPoolExecutor searchExecutor;
+    
+    @PostConstruct
+    public void start() {
+        Map<String, FusionStrategy> strategies = fusionStrategies.stream()
+                .collect(Collectors.toMap(FusionStrategy::getName, Function.identity()));
+        fusionStrategy = strategies.get(fusion);
+        if (fusionStrategy == null) {
+            throw new IllegalStateException("未知的混合检索融合策略: " + fusion + "，可选: " + strategies.keySet());
+        }
+        
+        AtomicInteger counter = new AtomicInteger();
+        // 队列满时拒绝提交，该路按降级处理；由调用线程执行会绕过每路的超时，让请求线程阻塞在慢查询上
+        searchExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "hybrid-search-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    @PreDestroy
+    public void stop() {
+        searchExecutor.shutdownNow();
+    }
+    
     /**
      * 混合检索 - 结合向量检索和关键词检索
      */
-    public List<DocumentChunk> hybridSearch(String query, Long knowledgeBaseId) {
+    public List<ChunkSearchResult> hybridSearch(String query, Long knowledgeBaseId) {
+        return hybridSearch(query, knowledgeBaseId, null);
+    }
+    
+    /**
+     * 带过滤条件的混合检索，filter 为null时不过滤
+     */
+    public List<ChunkSearchResult> hybridSearch(String query, Long knowledgeBaseId, RetrievalFilter filter) {
+        return hybridSearch(query, knowledgeBaseId, filter, maxResults);
+    }
+    
+    /**
+     * 返回 limit 个融合结果的混合检索，每一路也各取 limit 个候选（后续重排序需要更大的候选集时使用）
+     */
+    public List<ChunkSearchResult> hybridSearch(String query, Long knowledgeBaseId, RetrievalFilter filter, int limit) {
         if (!hybridEnabled) {
             // 如果混合检索未启用，回退到纯向量检索
-            return vectorSearch(query, knowledgeBaseId);
+            try {
+                return vectorSearch(query, knowledgeBaseId, limit, filter);
+            } catch (Exception e) {
+                logger.error("向量检索失败", e);
+                return Collections.emptyList();
+            }
+        }
+        
+        if ("single-query".equals(mode) && keywordStore.inDatabase() && vectorStore.inDatabase(knowledgeBaseId)) {
+            return singleQuerySearch(query, knowledgeBaseId, limit, filter);
         }
         
         try {
-            // 1. 向量检索
-            List<DocumentChunk> vectorResults = vectorSearch(query, knowledgeBaseId);
+            // 1. 各路检索并发执行，超时时间都从提交时刻开始计算
+            long startTime = System.nanoTime();
+            Future<List<ChunkSearchResult>> vectorFuture = submitLeg("vector", () -> vectorSearch(query, knowledgeBaseId, limit, filter));
+            Future<List<ChunkSearchResult>> keywordFuture = submitLeg("keyword", () -> keywordSearch(query, knowledgeBaseId, limit, filter));
+            Future<List<ChunkSearchResult>> fuzzyFuture = fuzzyEnabled
+                    ? submitLeg("fuzzy", () -> fuzzyStore.search(knowledgeBaseId, query, limit, filter))
+                    : null;
             
-            // 2. 关键词检索
-            List<DocumentChunk> keywordResults = keywordSearch(query, knowledgeBaseId);
+            List<ChunkSearchResult> vectorResults = awaitLeg("vector", vectorFuture, startTime, vectorTimeoutMs);
+            List<ChunkSearchResult> keywordResults = awaitLeg("keyword", keywordFuture, startTime, keywordTimeoutMs);
+            List<ChunkSearchResult> fuzzyResults = fuzzyFuture != null
+                    ? awaitLeg("fuzzy", fuzzyFuture, startTime, fuzzyTimeoutMs)
+                    : Collections.emptyList();
             
-            // 3. 结果融合和重排序
-            List<DocumentChunk> hybridResults = fuseAndRerankResults(
-                vectorResults, keywordResults, query, knowledgeBaseId);
+            // 2. 按原始分数融合，同一片段按ID去重
+            List<RetrievalLeg> legs = new ArrayList<>(3);
+            legs.add(new RetrievalLeg("vector", vectorWeight, vectorResults));
+            legs.add(new RetrievalLeg("keyword", keywordWeight, keywordResults));
+            if (fuzzyFuture != null) {
+                legs.add(new RetrievalLeg("fuzzy", fuzzyWeight, fuzzyResults));
+            }
+            List<ChunkSearchResult> hybridResults = fusionStrategy.fuse(legs, limit);
             
-            logger.info("混合检索完成 - 向量结果: {}, 关键词结果: {}, 融合结果: {}", 
-                vectorResults.size(), keywordResults.size(), hybridResults.size());
+            logger.info("混合检索完成 - 向量结果: {}, 关键词结果: {}, 容错结果: {}, 融合结果: {} ({})", 
+                vectorResults.size(), keywordResults.size(), fuzzyResults.size(), hybridResults.size(),
+                fusionStrategy.getName());
             
             return hybridResults;
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
         } catch (Exception e) {
-            logger.error("混合检索失败，回退到向量检索", e);
-            return vectorSearch(query, knowledgeBaseId);
+            logger.error("混合检索失败", e);
+            return Collections.emptyList();
         }
     }
     
     /**
-     * 向量检索
+     * 批量混合检索，每个查询最多取 max-results 个片段，合并后按片段ID去重
      */
-    private List<DocumentChunk> vectorSearch(String query, Long knowledgeBaseId) {
+    public List<ChunkSearchResult> hybridSearchBatch(List<String> queries, Long knowledgeBaseId) {
+        return hybridSearchBatch(queries, knowledgeBaseId, maxResults, null);
+    }
+    
+    /**
+     * 批量混合检索：每个查询取 limitPerQuery 个融合结果，按查询顺序合并，同一片段只保留第一次出现
+     * （排在前面的查询优先），filter 为null时不过滤
+     */
+    public List<ChunkSearchResult> hybridSearchBatch(List<String> queries, Long knowledgeBaseId, int limitPerQuery,
+                                                     RetrievalFilter filter) {
+        if (queries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
         try {
-            Embedding queryEmbedding = embeddingModel.embed(query).content();
-            String embeddingString = embeddingToString(queryEmbedding);
-            
-            return documentChunkRepository.findSimilarChunks(
-                knowledgeBaseId, embeddingString, maxResults);
+            List<List<ChunkSearchResult>> perQuery;
+            if (!hybridEnabled) {
+                perQuery = vectorSearchBatch(queries, knowledgeBaseId, limitPerQuery, filter);
+            } else {
+                // 各路批量检索并发执行，超时和降级与单查询相同；每路的候选数不少于单查询时的 max-results
+                int candidates = Math.max(limitPerQuery, maxResults);
+                long startTime = System.nanoTime();
+                Future<List<List<ChunkSearchResult>>> vectorFuture = submitLeg("vector-batch",
+                        () -> vectorSearchBatch(queries, knowledgeBaseId, candidates, filter));
+                Future<List<List<ChunkSearchResult>>> keywordFuture = submitLeg("keyword-batch",
+                        () -> keywordStore.searchBatch(knowledgeBaseId, queries, candidates, filter));
+                // 容错检索没有批量SQL，逐个查询在同一个任务里执行
+                Future<List<List<ChunkSearchResult>>> fuzzyFuture = fuzzyEnabled
+                        ? submitLeg("fuzzy-batch", () -> queries.stream()
+                                .map(query -> fuzzyStore.search(knowledgeBaseId, query, candidates, filter))
+                                .toList())
+                        : null;
                 
+                List<List<ChunkSearchResult>> degraded = Collections.nCopies(queries.size(), Collections.emptyList());
+                List<List<ChunkSearchResult>> vectorResults =
+                        awaitLeg("vector-batch", vectorFuture, startTime, vectorTimeoutMs, degraded);
+                List<List<ChunkSearchResult>> keywordResults =
+                        awaitLeg("keyword-batch", keywordFuture, startTime, keywordTimeoutMs, degraded);
+                List<List<ChunkSearchResult>> fuzzyResults = fuzzyFuture != null
+                        ? awaitLeg("fuzzy-batch", fuzzyFuture, startTime, fuzzyTimeoutMs, degraded)
+                        : null;
+                
+                perQuery = new ArrayList<>(queries.size());
+                for (int i = 0; i < queries.size(); i++) {
+                    List<RetrievalLeg> legs = new ArrayList<>(3);
+                    legs.add(new RetrievalLeg("vector", vectorWeight, vectorResults.get(i)));
+                    legs.add(new RetrievalLeg("keyword", keywordWeight, keywordResults.get(i)));
+                    if (fuzzyResults != null) {
+                        legs.add(new RetrievalLeg("fuzzy", fuzzyWeight, fuzzyResults.get(i)));
+                    }
+                    perQuery.add(fusionStrategy.fuse(legs, limitPerQuery));
+                }
+            }
+            
+            Map<Long, ChunkSearchResult> unique = new LinkedHashMap<>();
+            for (List<ChunkSearchResult> results : perQuery) {
+                for (ChunkSearchResult result : results) {
+                    unique.putIfAbsent(result.getId(), result);
+                }
+            }
+            
+            logger.info("批量混合检索完成 - 查询数: {}, 去重后结果: {}", queries.size(), unique.size());
+            
+            return new ArrayList<>(unique.values());
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
         } catch (Exception e) {
-            logger.error("向量检索失败", e);
+            logger.error("批量混合检索失败", e);
             return Collections.emptyList();
         }
     }
     
     /**
-     * 关键词检索 - 使用PostgreSQL全文搜索
+     * 单条SQL混合检索 - 一次数据库往返完成两路检索和RRF融合
      */
-    private List<DocumentChunk> keywordSearch(String query, Long knowledgeBaseId) {
+    private List<ChunkSearchResult> singleQuerySearch(String query, Long knowledgeBaseId, int limit,
+                                                      RetrievalFilter filter) {
         try {
-            // 使用PostgreSQL的全文搜索功能
-            return documentChunkRepository.findByKeywordSearch(knowledgeBaseId, query, maxResults);
+            float[] queryEmbedding = queryEmbeddingService.embedQuery(query);
+            
+            List<ChunkSearchResult> hybridResults = documentChunkRepository.findHybridChunks(
+                knowledgeBaseId, queryEmbedding, query, Math.max(singleQueryCandidates, limit),
+                rrfK, vectorWeight, keywordWeight, limit, filter);
+            
+            logger.info("单条SQL混合检索完成 - 融合结果: {}", hybridResults.size());
+            
+            return hybridResults;
             
         } catch (Exception e) {
-            logger.error("关键词检索失败", e);
+            logger.error("单条SQL混合检索失败", e);
             return Collections.emptyList();
         }
     }
     
     /**
-     * 结果融合和重排序
+     * 提交一路检索，记录该路的执行耗时；线程池拒绝时返回失败的 Future，由 awaitLeg 按降级处理
      */
-    private List<DocumentChunk> fuseAndRerankResults(List<DocumentChunk> vectorResults, 
-                                                   List<DocumentChunk> keywordResults, 
-                                                   String query, Long knowledgeBaseId) {
-        
-        // 创建文档ID到分数的映射
-        Map<Long, Double> docScores = new HashMap<>();
-        
-        // 处理向量检索结果
-        for (int i = 0; i < vectorResults.size(); i++) {
-            DocumentChunk chunk = vectorResults.get(i);
-            // 向量检索分数：位置越靠前分数越高
-            double vectorScore = 1.0 - (double) i / vectorResults.size();
-            docScores.merge(chunk.getId(), vectorScore * vectorWeight, Double::sum);
+    private <T> Future<T> submitLeg(String leg, Callable<T> search) {
+        Timer timer = meterRegistry.timer("rag.hybrid.leg.latency", "leg", leg);
+        try {
+            return searchExecutor.submit(() -> timer.recordCallable(search));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        
-        // 处理关键词检索结果
-        for (int i = 0; i < keywordResults.size(); i++) {
-            DocumentChunk chunk = keywordResults.get(i);
-            // 关键词检索分数：位置越靠前分数越高
-            double keywordScore = 1.0 - (double) i / keywordResults.size();
-            docScores.merge(chunk.getId(), keywordScore * keywordWeight, Double::sum);
+    }
+    
+    /**
+     * 等待一路检索结果，超时或失败时返回空结果并记录降级
+     */
+    private List<ChunkSearchResult> awaitLeg(String leg, Future<List<ChunkSearchResult>> future,
+                                             long startTime, long timeoutMs) throws InterruptedException {
+        return awaitLeg(leg, future, startTime, timeoutMs, Collections.emptyList());
+    }
+    
+    /**
+     * 等待一路检索结果，超时或失败时返回 fallback 并记录降级
+     */
+    private <T> T awaitLeg(String leg, Future<T> future, long startTime, long timeoutMs, T fallback)
+            throws InterruptedException {
+        long remainingNanos = startTime + TimeUnit.MILLISECONDS.toNanos(timeoutMs) - System.nanoTime();
+        try {
+            return future.get(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("混合检索 {} 路超过 {} ms未返回，仅使用其余各路结果", leg, timeoutMs);
+            meterRegistry.counter("rag.hybrid.degraded", "leg", leg, "reason", "timeout").increment();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                logger.warn("混合检索线程池已满，{} 路未执行，仅使用其余各路结果", leg);
+                meterRegistry.counter("rag.hybrid.degraded", "leg", leg, "reason", "rejected").increment();
+            } else {
+                logger.error("混合检索 {} 路失败，仅使用其余各路结果", leg, e.getCause());
+                meterRegistry.counter("rag.hybrid.degraded", "leg", leg, "reason", "error").increment();
+            }
         }
+        return fallback;
+    }
+    
+    /**
+     * 向量检索
+     */
+    private List<ChunkSearchResult> vectorSearch(String query, Long knowledgeBaseId, int limit,
+                                                 RetrievalFilter filter) {
+        float[] queryEmbedding = queryEmbeddingService.embedQuery(query);
         
-        // 合并所有结果并去重
-        Set<DocumentChunk> allChunks = new HashSet<>();
-        allChunks.addAll(vectorResults);
-        allChunks.addAll(keywordResults);
+        return vectorStore.search(knowledgeBaseId, queryEmbedding, limit, 0, filter);
+    }
+    
+    /**
+     * 批量向量检索：一次 embedAll 调用，再由向量后端批量检索
+     */
+    private List<List<ChunkSearchResult>> vectorSearchBatch(List<String> queries, Long knowledgeBaseId, int limit,
+                                                            RetrievalFilter filter) {
+        List<float[]> queryEmbeddings = queryEmbeddingService.embedQueries(queries);
         
-        // 按融合分数排序
-        return allChunks.stream()
-                .sorted((a, b) -> Double.compare(
-                    docScores.getOrDefault(b.getId(), 0.0),
-                    docScores.getOrDefault(a.getId(), 0.0)))
-                .limit(maxResults)
-                .collect(Collectors.toList());
+        return vectorStore.searchBatch(knowledgeBaseId, queryEmbeddings, limit, filter);
     }
     
     /**
-     * 将Embedding转换为字符串
+     * 关键词检索 - PostgreSQL全文搜索或内存BM25索引
      */
-    private String embeddingToString(Embedding embedding) {
-        float[] vector = embedding.vector();
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < vector.length; i++) {
-            if (i > 0) sb.append(",");
-            sb.append(vector[i]);
-        }
-        sb.append("]");
-        return sb.toString();
+    private List<ChunkSearchResult> keywordSearch(String query, Long knowledgeBaseId, int limit,
+                                                  RetrievalFilter filter) {
+        return keywordStore.search(knowledgeBaseId, query, limit, filter);
     }
     
     /**
@@ -162,4 +398,11 @@ public class HybridRetrievalService {
     public boolean isHybridEnabled() {
         return hybridEnabled;
     }
+    
+    /**
+     * 单次混合检索默认返回的结果数（app.hybrid-retrieval.max-results）
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
 }
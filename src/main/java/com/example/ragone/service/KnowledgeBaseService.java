@@ -3,6 +3,7 @@ package com.example.ragone.service;
 import com.example.ragone.entity.KnowledgeBase;
 import com.example.ragone.entity.User;
 import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.retrieval.VectorQuantizationResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,11 +19,15 @@ public class KnowledgeBaseService {
     @Autowired
     private KnowledgeBaseRepository knowledgeBaseRepository;
     
+    @Autowired
+    private VectorQuantizationResolver vectorQuantizationResolver;
+    
     /**
      * 创建知识库
      */
     @Transactional
-    public KnowledgeBase createKnowledgeBase(String name, String description, User user) {
+    public KnowledgeBase createKnowledgeBase(String name, String description, String textSearchConfig,
+                                             KnowledgeBase.VectorQuantization vectorQuantization, User user) {
         // 检查是否已存在同名知识库
         if (knowledgeBaseRepository.existsByUserAndName(user, name)) {
             throw new RuntimeException("知识库名称已存在");
@@ -33,6 +38,12 @@ public class KnowledgeBaseService {
         knowledgeBase.setDescription(description);
         knowledgeBase.setUser(user);
         knowledgeBase.setActive(true);
+        if (textSearchConfig != null && !textSearchConfig.isBlank()) {
+            knowledgeBase.setTextSearchConfig(validateTextSearchConfig(textSearchConfig));
+        }
+        if (vectorQuantization != null) {
+            knowledgeBase.setVectorQuantization(vectorQuantization);
+        }
         
         return knowledgeBaseRepository.save(knowledgeBase);
     }
@@ -48,7 +59,8 @@ public class KnowledgeBaseService {
      * 更新知识库
      */
     @Transactional
-    public KnowledgeBase updateKnowledgeBase(Long id, String name, String description, User user) {
+    public KnowledgeBase updateKnowledgeBase(Long id, String name, String description, String textSearchConfig,
+                                             KnowledgeBase.VectorQuantization vectorQuantization, User user) {
         KnowledgeBase knowledgeBase = knowledgeBaseRepository.findByIdAndUser(id, user)
                 .orElseThrow(() -> new RuntimeException("知识库不存在或无权访问"));
         
@@ -61,6 +73,15 @@ public class KnowledgeBaseService {
         
         knowledgeBase.setName(name);
         knowledgeBase.setDescription(description);
+        // 修改分词配置后，数据库触发器会重建该知识库所有片段的content_tsv
+        if (textSearchConfig != null && !textSearchConfig.isBlank()) {
+            knowledgeBase.setTextSearchConfig(validateTextSearchConfig(textSearchConfig));
+        }
+        // 量化模式只影响查询路径（平面向量段会按新模式重建），不需要迁移数据
+        if (vectorQuantization != null && vectorQuantization != knowledgeBase.getVectorQuantization()) {
+            knowledgeBase.setVectorQuantization(vectorQuantization);
+            vectorQuantizationResolver.invalidate(id);
+        }
         
         return knowledgeBaseRepository.save(knowledgeBase);
     }
@@ -78,6 +99,16 @@ public class KnowledgeBaseService {
         knowledgeBaseRepository.save(knowledgeBase);
     }
     
+    /**
+     * 校验全文检索分词配置在数据库中存在（如 simple、english，或安装zhparser后的中文配置）
+     */
+    private String validateTextSearchConfig(String textSearchConfig) {
+        if (!knowledgeBaseRepository.existsTextSearchConfig(textSearchConfig)) {
+            throw new RuntimeException("不支持的全文检索分词配置: " + textSearchConfig);
+        }
+        return textSearchConfig;
+    }
+    
     /**
      * 获取知识库详情
      */
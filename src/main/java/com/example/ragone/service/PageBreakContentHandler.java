@@ -0,0 +1,39 @@
+package com.example.ragone.service;
+
+import org.apache.tika.sax.ToTextContentHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 纯文本输出的Tika内容处理器，在每页结束处写入换页符 '\f'
+ *
+ * PDF等分页格式的解析器会把每一页包在 &lt;div class="page"&gt; 中，
+ * 入库时据此把分块定位到页码（见 {@link DocumentOutline}）。不分页的格式输出与默认处理器相同。
+ */
+class PageBreakContentHandler extends ToTextContentHandler {
+    
+    static final char PAGE_BREAK = '\f';
+    
+    private static final char[] PAGE_BREAK_CHARS = {PAGE_BREAK};
+    
+    private final Deque<Boolean> divs = new ArrayDeque<>();
+    
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if ("div".equals(localName)) {
+            divs.push("page".equals(atts.getValue("class")));
+        }
+        super.startElement(uri, localName, qName, atts);
+    }
+    
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        super.endElement(uri, localName, qName);
+        if ("div".equals(localName) && !divs.isEmpty() && divs.pop()) {
+            characters(PAGE_BREAK_CHARS, 0, 1);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.ragone.service;
+
+import com.example.ragone.vector.PgVector;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存服务
+ *
+ * 问答和角色扮演的检索查询先经过规范化（NFKC全半角统一、小写、合并空白），
+ * 再以规范化文本为键缓存embedding结果。一级缓存为进程内的Caffeine（W-TinyLFU淘汰），
+ * 可选的二级缓存为Redis，供多个节点共享。Redis键带有embedding模型名称，
+ * 模型名称变更后启动时会清理旧模型的缓存。
+ */
+@Service
+public class QueryEmbeddingService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(QueryEmbeddingService.class);
+    
+    private static final String KEY_PREFIX = "emb:q:";
+    private static final String MODEL_KEY = KEY_PREFIX + "model";
+    
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
+    @Autowired
+    private EmbeddingModel embeddingModel;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${langchain4j.open-ai.embedding-model.model-name}")
+    private String embeddingModelName;
+    
+    @Value("${app.embedding-cache.enabled:true}")
+    private boolean cacheEnabled;
+    
+    @Value("${app.embedding-cache.max-size:10000}")
+    private long maxSize;
+    
+    @Value("${app.embedding-cache.redis.enabled:false}")
+    private boolean redisEnabled;
+    
+    @Value("${app.embedding-cache.redis.ttl-hours:168}")
+    private long redisTtlHours;
+    
+    private Cache<String, float[]> localCache;
+    
+    private Counter redisHits;
+    private Counter redisMisses;
+    
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "query-embedding");
+        
+        redisHits = meterRegistry.counter("rag.embedding.cache.redis", "result", "hit");
+        redisMisses = meterRegistry.counter("rag.embedding.cache.redis", "result", "miss");
+        
+        if (cacheEnabled && redisEnabled) {
+            evictStaleModel();
+        }
+    }
+    
+    /**
+     * 获取查询文本的向量，依次查询本地缓存、Redis缓存，都未命中时调用embedding模型
+     */
+    public float[] embedQuery(String query) {
+        if (!cacheEnabled) {
+            return embeddingModel.embed(query).content().vector();
+        }
+        
+        String key = normalize(query);
+        return localCache.get(key, k -> {
+            float[] cached = redisEnabled ? getFromRedis(k) : null;
+            if (cached != null) {
+                return cached;
+            }
+            // 使用原始查询调用模型，规范化只用于缓存键
+            float[] vector = embeddingModel.embed(query).content().vector();
+            if (redisEnabled) {
+                putToRedis(k, vector);
+            }
+            return vector;
+        });
+    }
+    
+    /**
+     * 批量获取查询向量，返回顺序与 queries 一致
+     *
+     * 缓存未命中的查询（规范化后相同的只算一次）合并为一次 embedAll 调用，而不是逐条调用模型。
+     */
+    public List<float[]> embedQueries(List<String> queries) {
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        Map<String, String> misses = new LinkedHashMap<>();
+        for (String query : queries) {
+            String key = cacheEnabled ? normalize(query) : query;
+            if (vectors.containsKey(key) || misses.containsKey(key)) {
+                continue;
+            }
+            float[] cached = cacheEnabled ? localCache.getIfPresent(key) : null;
+            if (cached == null && cacheEnabled && redisEnabled) {
+                cached = getFromRedis(key);
+                if (cached != null) {
+                    localCache.put(key, cached);
+                }
+            }
+            if (cached != null) {
+                vectors.put(key, cached);
+            } else {
+                misses.put(key, query);
+            }
+        }
+        
+        if (!misses.isEmpty()) {
+            List<TextSegment> segments = misses.values().stream().map(TextSegment::from).toList();
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            if (embeddings.size() != segments.size()) {
+                throw new IllegalStateException("embedding模型返回的向量数量 " + embeddings.size()
+                        + " 与查询数量 " + segments.size() + " 不一致");
+            }
+            int i = 0;
+            for (String key : misses.keySet()) {
+                float[] vector = embeddings.get(i++).vector();
+                vectors.put(key, vector);
+                if (cacheEnabled) {
+                    localCache.put(key, vector);
+                    if (redisEnabled) {
+                        putToRedis(key, vector);
+                    }
+                }
+            }
+        }
+        
+        List<float[]> results = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            results.add(vectors.get(cacheEnabled ? normalize(query) : query));
+        }
+        return results;
+    }
+    
+    /**
+     * 规范化查询文本：NFKC将全角字母数字和标点转换为半角，统一小写并合并连续空白
+     */
+    static String normalize(String query) {
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+    
+    private float[] getFromRedis(String key) {
+        try {
+            byte[] redisKey = redisKey(key);
+            byte[] value = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.stringCommands().get(redisKey));
+            if (value == null) {
+                redisMisses.increment();
+                return null;
+            }
+            redisHits.increment();
+            return PgVector.decode(value, 0);
+        } catch (Exception e) {
+            logger.warn("读取Redis查询向量缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    private void putToRedis(String key, float[] vector) {
+        try {
+            byte[] redisKey = redisKey(key);
+            byte[] value = new byte[4 + 4 * vector.length];
+            PgVector.encode(vector, value, 0);
+            stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.stringCommands().set(redisKey, value,
+                            Expiration.from(redisTtlHours, TimeUnit.HOURS), RedisStringCommands.SetOption.upsert()));
+        } catch (Exception e) {
+            logger.warn("写入Redis查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Redis键：前缀 + 模型名称 + 规范化文本的SHA-256
+     */
+    private byte[] redisKey(String key) {
+        return (modelPrefix(embeddingModelName) + sha256(key)).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String modelPrefix(String modelName) {
+        return KEY_PREFIX + modelName + ":";
+    }
+    
+    /**
+     * embedding模型变更时清理Redis中旧模型的查询向量
+     */
+    private void evictStaleModel() {
+        try {
+            String previousModel = stringRedisTemplate.opsForValue().get(MODEL_KEY);
+            if (previousModel != null && !previousModel.equals(embeddingModelName)) {
+                List<String> staleKeys = new ArrayList<>();
+                ScanOptions options = ScanOptions.scanOptions().match(modelPrefix(previousModel) + "*").count(1000).build();
+                try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+                    cursor.forEachRemaining(staleKeys::add);
+                }
+                if (!staleKeys.isEmpty()) {
+                    stringRedisTemplate.unlink(staleKeys);
+                }
+                logger.info("embedding模型由 {} 变更为 {}，已清理 {} 条旧查询向量缓存",
+                        previousModel, embeddingModelName, staleKeys.size());
+            }
+            stringRedisTemplate.opsForValue().set(MODEL_KEY, embeddingModelName);
+        } catch (Exception e) {
+            logger.warn("检查查询向量缓存的模型版本失败: {}", e.getMessage());
+        }
+    }
+    
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,27 +1,37 @@
 package com.example.ragone.service;
 
+import com.example.ragone.dto.CachedAnswer;
+import com.example.ragone.dto.ChatMessage;
 import com.example.ragone.dto.ChatSession;
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
 import com.example.ragone.entity.ChatHistory;
-import com.example.ragone.entity.DocumentChunk;
 import com.example.ragone.entity.KnowledgeBase;
 import com.example.ragone.entity.User;
 import com.example.ragone.repository.ChatHistoryRepository;
-import com.example.ragone.repository.DocumentChunkRepository;
 import com.example.ragone.repository.KnowledgeBaseRepository;
+import com.example.ragone.retrieval.VectorStore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * RAG问答服务
@@ -31,14 +41,23 @@ public class RagService {
     
     private static final Logger logger = LoggerFactory.getLogger(RagService.class);
     
+    private static final String NO_RESULT_RESPONSE = "抱歉，在您的知识库中没有找到相关信息。";
+    private static final String ERROR_RESPONSE = "抱歉，处理您的问题时出现了错误。请稍后再试。";
+    
     @Autowired
     private ChatLanguageModel chatLanguageModel;
     
     @Autowired
-    private EmbeddingModel embeddingModel;
+    private StreamingChatLanguageModel streamingChatLanguageModel;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
     
     @Autowired
-    private DocumentChunkRepository documentChunkRepository;
+    private QueryEmbeddingService queryEmbeddingService;
+    
+    @Autowired
+    private VectorStore vectorStore;
     
     @Autowired
     private KnowledgeBaseRepository knowledgeBaseRepository;
@@ -58,71 +77,60 @@ public class RagService {
     @Autowired
     private RerankingService rerankingService;
     
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+    
+    @Autowired
+    private ContextPacker contextPacker;
+    
+    @Autowired
+    private ChatHistoryWriter chatHistoryWriter;
+    
     @Value("${app.chat.cache.enabled:true}")
     private boolean cacheEnabled;
     
+    @Value("${app.chat.stream.timeout-ms:180000}")
+    private long streamTimeoutMs;
+    
     /**
      * 基于知识库进行问答（带会话支持）
      */
     public String askQuestion(String question, Long knowledgeBaseId, User user, String sessionId) {
+        return askQuestion(question, knowledgeBaseId, user, sessionId, null);
+    }
+    
+    /**
+     * 基于知识库进行问答，只在满足过滤条件的片段中检索
+     */
+    public String askQuestion(String question, Long knowledgeBaseId, User user, String sessionId,
+                              RetrievalFilter filter) {
         try {
-            // 验证知识库权限
-            KnowledgeBase knowledgeBase = knowledgeBaseRepository.findByIdAndUser(knowledgeBaseId, user)
-                    .orElseThrow(() -> new RuntimeException("知识库不存在或无权访问"));
+            PreparedAnswer prepared = prepareAnswer(question, knowledgeBaseId, user, sessionId, filter);
+            KnowledgeBase knowledgeBase = prepared.knowledgeBase();
             
-            // 获取或创建会话
-            getOrCreateSession(sessionId, user, knowledgeBase);
-            
-            // 获取聊天历史上下文
-            String conversationHistory = "";
-            if (cacheEnabled && sessionId != null) {
-                conversationHistory = chatCacheService.getConversationHistory(sessionId);
+            CachedAnswer cached = prepared.cacheHit();
+            if (cached != null) {
+                saveChatInteraction(sessionId, question, cached.getAnswer(), cached.getContextChunks(), user, knowledgeBase, 0L);
+                return cached.getAnswer();
             }
             
-            // 1. 使用混合检索搜索相关文档片段
-            List<DocumentChunk> relevantChunks;
-            if (hybridRetrievalService.isHybridEnabled()) {
-                // 使用混合检索（向量+关键词）
-                relevantChunks = hybridRetrievalService.hybridSearch(question, knowledgeBaseId);
-                logger.info("使用混合检索，找到 {} 个相关片段", relevantChunks.size());
-            } else {
-                // 使用传统向量检索
-                Embedding questionEmbedding = embeddingModel.embed(question).content();
-                String embeddingString = embeddingToString(questionEmbedding);
-                relevantChunks = documentChunkRepository.findSimilarChunks(
-                        knowledgeBaseId, embeddingString, 5);
-                logger.info("使用向量检索，找到 {} 个相关片段", relevantChunks.size());
-            }
-            
-            // 2. 对检索结果进行重排序（可选）
-            if (rerankingService.isRerankingEnabled()) {
-                relevantChunks = rerankingService.rerankResults(relevantChunks, question);
-                logger.info("重排序后保留 {} 个片段", relevantChunks.size());
-            }
-            
-            if (relevantChunks.isEmpty()) {
-                String response = "抱歉，在您的知识库中没有找到相关信息。";
+            if (prepared.prompt() == null) {
                 // 保存到缓存和数据库
-                saveChatInteraction(sessionId, question, response, null, user, knowledgeBase, 0L);
-                return response;
+                saveChatInteraction(sessionId, question, NO_RESULT_RESPONSE, null, user, knowledgeBase, 0L);
+                return NO_RESULT_RESPONSE;
             }
             
-            // 3. 构建上下文
-            String context = relevantChunks.stream()
-                    .map(DocumentChunk::getContent)
-                    .collect(Collectors.joining("\n\n"));
-            
-            // 4. 构建提示词（包含聊天历史）
-            String prompt = buildPromptWithHistory(context, question, conversationHistory);
-            
             // 5. 调用大模型生成回答
             long startTime = System.currentTimeMillis();
-            String response = chatLanguageModel.generate(prompt);
+            String response = chatLanguageModel.generate(prepared.prompt());
             long responseTime = System.currentTimeMillis() - startTime;
             
             // 6. 保存到缓存和数据库
-            String contextChunksJson = convertChunksToJson(relevantChunks);
+            String contextChunksJson = convertChunksToJson(prepared.chunks());
             saveChatInteraction(sessionId, question, response, contextChunksJson, user, knowledgeBase, responseTime);
+            if (prepared.cacheProbe() != null) {
+                semanticAnswerCache.put(knowledgeBase.getId(), prepared.cacheProbe(), question, response, contextChunksJson);
+            }
             
             logger.info("用户 {} 在知识库 {} 中提问: {} (会话: {})", user.getUsername(), knowledgeBase.getName(), question, sessionId);
             
@@ -130,7 +138,232 @@ public class RagService {
             
         } catch (Exception e) {
             logger.error("RAG问答失败", e);
-            return "抱歉，处理您的问题时出现了错误。请稍后再试。";
+            return ERROR_RESPONSE;
+        }
+    }
+    
+    /**
+     * 流式问答：检索和构建提示词在调用线程完成，之后模型生成的token逐个以SSE事件推送
+     *
+     * 事件依次为若干 token（data 为文本片段）和一个 done（data 为耗时统计），出错时为 error。
+     * 完整回答在生成结束后同样写入缓存和数据库；客户端中途断开不影响保存。
+     * 首token延迟（从收到请求算起）和生成速度分别记录在 rag.ask.first-token 和 rag.ask.tokens-per-second 指标中。
+     */
+    public SseEmitter askQuestionStream(String question, Long knowledgeBaseId, User user, String sessionId,
+                                        RetrievalFilter filter) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        long requestStart = System.nanoTime();
+        
+        PreparedAnswer prepared;
+        try {
+            prepared = prepareAnswer(question, knowledgeBaseId, user, sessionId, filter);
+        } catch (Exception e) {
+            logger.error("RAG流式问答失败", e);
+            sendEvent(emitter, "error", ERROR_RESPONSE);
+            emitter.complete();
+            return emitter;
+        }
+        
+        CachedAnswer cached = prepared.cacheHit();
+        if (cached != null) {
+            saveChatInteraction(sessionId, question, cached.getAnswer(), cached.getContextChunks(), user,
+                    prepared.knowledgeBase(), 0L);
+            sendEvent(emitter, "token", cached.getAnswer());
+            sendEvent(emitter, "done", Map.of("responseTimeMs", 0L, "outputTokens", 0, "cached", true));
+            emitter.complete();
+            return emitter;
+        }
+        
+        if (prepared.prompt() == null) {
+            saveChatInteraction(sessionId, question, NO_RESULT_RESPONSE, null, user, prepared.knowledgeBase(), 0L);
+            sendEvent(emitter, "token", NO_RESULT_RESPONSE);
+            sendEvent(emitter, "done", Map.of("responseTimeMs", 0L, "outputTokens", 0));
+            emitter.complete();
+            return emitter;
+        }
+        
+        AnswerStreamHandler handler = new AnswerStreamHandler(emitter, question, user, sessionId, prepared, requestStart);
+        emitter.onTimeout(handler::onClientGone);
+        emitter.onError(error -> handler.onClientGone());
+        streamingChatLanguageModel.generate(prepared.prompt(), handler);
+        return emitter;
+    }
+    
+    /**
+     * 验证权限、检索并重排序相关片段、构建提示词；没有相关片段或命中语义回答缓存时 prompt 为null
+     *
+     * 只有不带过滤条件、没有聊天历史的问题才查找和写入语义回答缓存，否则同一个问题的正确回答可能不同。
+     */
+    private PreparedAnswer prepareAnswer(String question, Long knowledgeBaseId, User user, String sessionId,
+                                         RetrievalFilter filter) {
+        // 验证知识库权限
+        KnowledgeBase knowledgeBase = knowledgeBaseRepository.findByIdAndUser(knowledgeBaseId, user)
+                .orElseThrow(() -> new RuntimeException("知识库不存在或无权访问"));
+        
+        // 获取或创建会话
+        ensureSession(sessionId, user, knowledgeBase);
+        
+        // 获取聊天历史上下文
+        List<ChatMessage> conversationHistory = List.of();
+        if (cacheEnabled && sessionId != null) {
+            conversationHistory = chatCacheService.getRecentMessages(sessionId);
+        }
+        
+        // 查找语义回答缓存，问题向量随后也会被检索复用（查询向量缓存）
+        SemanticAnswerCache.Probe cacheProbe = null;
+        if (semanticAnswerCache.isEnabled() && filter == null && conversationHistory.isEmpty()) {
+            cacheProbe = semanticAnswerCache.lookup(knowledgeBaseId, queryEmbeddingService.embedQuery(question));
+            if (cacheProbe.hit() != null) {
+                return new PreparedAnswer(knowledgeBase, List.of(), null, cacheProbe);
+            }
+        }
+        
+        // 1. 使用混合检索搜索相关文档片段
+        List<ChunkSearchResult> relevantChunks;
+        if (hybridRetrievalService.isHybridEnabled()) {
+            // 使用混合检索（向量+关键词）
+            // mmr / cross-encoder 重排序需要比最终结果更多的候选
+            int candidates = rerankingService.candidateLimit(hybridRetrievalService.getMaxResults());
+            relevantChunks = hybridRetrievalService.hybridSearch(question, knowledgeBaseId, filter, candidates);
+            logger.info("使用混合检索，找到 {} 个相关片段", relevantChunks.size());
+        } else {
+            // 使用传统向量检索
+            float[] questionEmbedding = queryEmbeddingService.embedQuery(question);
+            relevantChunks = vectorStore.search(knowledgeBaseId, questionEmbedding,
+                    rerankingService.candidateLimit(5), 0, filter);
+            logger.info("使用向量检索，找到 {} 个相关片段", relevantChunks.size());
+        }
+        
+        // 2. 对检索结果进行重排序（可选）
+        if (rerankingService.isRerankingEnabled()) {
+            relevantChunks = rerankingService.rerankResults(relevantChunks, question);
+            logger.info("重排序后保留 {} 个片段", relevantChunks.size());
+        }
+        
+        if (relevantChunks.isEmpty()) {
+            return new PreparedAnswer(knowledgeBase, relevantChunks, null, null);
+        }
+        
+        // 3. 在token预算内组装上下文和提示词（包含聊天历史），只引用实际放入提示词的片段
+        ContextPacker.PackedContext packed = contextPacker.pack(question, conversationHistory, relevantChunks);
+        logger.info("提示词 {} tokens，放入 {} 个片段（截断 {} 个）、{} 条历史消息",
+                packed.tokens(), packed.chunks().size(), packed.truncatedChunks(), packed.historyMessages());
+        return new PreparedAnswer(knowledgeBase, packed.chunks(), packed.prompt(), cacheProbe);
+    }
+    
+    private record PreparedAnswer(KnowledgeBase knowledgeBase, List<ChunkSearchResult> chunks, String prompt,
+                                  SemanticAnswerCache.Probe cacheProbe) {
+        
+        CachedAnswer cacheHit() {
+            return cacheProbe == null ? null : cacheProbe.hit();
+        }
+    }
+    
+    /**
+     * 发送一个SSE事件，客户端已断开时返回false
+     */
+    private static boolean sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("SSE客户端已断开: {}", e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 接收模型的流式输出：转发token、累积完整回答，结束后记录指标并保存聊天交互
+     *
+     * 回调都在模型客户端的同一个线程上依次执行。
+     */
+    private final class AnswerStreamHandler implements StreamingResponseHandler<AiMessage> {
+        
+        private final SseEmitter emitter;
+        private final String question;
+        private final User user;
+        private final String sessionId;
+        private final PreparedAnswer prepared;
+        private final long requestStart;
+        private final long generationStart = System.nanoTime();
+        private final StringBuilder answer = new StringBuilder();
+        private long firstTokenAt;
+        private int tokens;
+        private volatile boolean clientGone;
+        
+        AnswerStreamHandler(SseEmitter emitter, String question, User user, String sessionId,
+                            PreparedAnswer prepared, long requestStart) {
+            this.emitter = emitter;
+            this.question = question;
+            this.user = user;
+            this.sessionId = sessionId;
+            this.prepared = prepared;
+            this.requestStart = requestStart;
+        }
+        
+        void onClientGone() {
+            clientGone = true;
+        }
+        
+        @Override
+        public void onNext(String token) {
+            if (firstTokenAt == 0) {
+                firstTokenAt = System.nanoTime();
+                meterRegistry.timer("rag.ask.first-token").record(firstTokenAt - requestStart, TimeUnit.NANOSECONDS);
+            }
+            answer.append(token);
+            tokens++;
+            if (!clientGone && !sendEvent(emitter, "token", token)) {
+                clientGone = true;
+            }
+        }
+        
+        @Override
+        public void onComplete(Response<AiMessage> response) {
+            long now = System.nanoTime();
+            String text = response.content() != null && response.content().text() != null
+                    ? response.content().text() : answer.toString();
+            // 优先使用服务端返回的输出token数，流式片段数只是近似
+            int outputTokens = response.tokenUsage() != null && response.tokenUsage().outputTokenCount() != null
+                    ? response.tokenUsage().outputTokenCount() : tokens;
+            long generationNanos = firstTokenAt == 0 ? 0 : now - firstTokenAt;
+            double tokensPerSecond = generationNanos > 0 ? outputTokens / (generationNanos / 1e9) : 0.0;
+            if (generationNanos > 0) {
+                meterRegistry.summary("rag.ask.tokens-per-second").record(tokensPerSecond);
+            }
+            
+            long responseTime = TimeUnit.NANOSECONDS.toMillis(now - generationStart);
+            String contextChunksJson = convertChunksToJson(prepared.chunks());
+            saveChatInteraction(sessionId, question, text, contextChunksJson, user, prepared.knowledgeBase(), responseTime);
+            if (prepared.cacheProbe() != null) {
+                semanticAnswerCache.put(prepared.knowledgeBase().getId(), prepared.cacheProbe(), question, text,
+                        contextChunksJson);
+            }
+            logger.info("用户 {} 在知识库 {} 中流式提问: {} (会话: {}) - 首token {} ms，{} tokens，{} tokens/s",
+                    user.getUsername(), prepared.knowledgeBase().getName(), question, sessionId,
+                    firstTokenAt == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstTokenAt - requestStart),
+                    outputTokens, String.format("%.1f", tokensPerSecond));
+            
+            if (!clientGone) {
+                Map<String, Object> stats = new HashMap<>();
+                stats.put("sessionId", sessionId);
+                stats.put("responseTimeMs", responseTime);
+                stats.put("firstTokenMs", firstTokenAt == 0 ? null : TimeUnit.NANOSECONDS.toMillis(firstTokenAt - requestStart));
+                stats.put("outputTokens", outputTokens);
+                stats.put("tokensPerSecond", tokensPerSecond);
+                sendEvent(emitter, "done", stats);
+                emitter.complete();
+            }
+        }
+        
+        @Override
+        public void onError(Throwable error) {
+            logger.error("RAG流式生成失败", error);
+            meterRegistry.counter("rag.ask.stream.errors").increment();
+            if (!clientGone) {
+                sendEvent(emitter, "error", ERROR_RESPONSE);
+                emitter.complete();
+            }
         }
     }
     
@@ -142,21 +375,18 @@ public class RagService {
     }
     
     /**
-     * 获取或创建聊天会话
+     * 会话不存在（首次提问或已过期）时创建聊天会话
      */
-    private ChatSession getOrCreateSession(String sessionId, User user, KnowledgeBase knowledgeBase) {
+    private void ensureSession(String sessionId, User user, KnowledgeBase knowledgeBase) {
         if (sessionId == null || !cacheEnabled) {
-            return null;
+            return;
         }
         
-        ChatSession session = chatCacheService.getSession(sessionId);
-        if (session == null) {
+        // 只用 EXISTS 判断会话是否存在，本轮需要的历史消息由 getRecentMessages 单独读取
+        if (!chatCacheService.sessionExists(sessionId)) {
             // 创建新会话
-            sessionId = chatCacheService.createSession(user.getId(), knowledgeBase.getId(), knowledgeBase.getName());
-            session = chatCacheService.getSession(sessionId);
+            chatCacheService.createSession(user.getId(), knowledgeBase.getId(), knowledgeBase.getName());
         }
-        
-        return session;
     }
     
     /**
@@ -168,8 +398,7 @@ public class RagService {
         try {
             // 保存到Redis缓存
             if (cacheEnabled && sessionId != null) {
-                chatCacheService.addUserMessage(sessionId, question);
-                chatCacheService.addAssistantMessage(sessionId, response, contextChunks);
+                chatCacheService.addExchange(sessionId, question, response, contextChunks);
             }
             
             // 保存到数据库
@@ -183,7 +412,7 @@ public class RagService {
             chatHistory.setResponseTimeMs(responseTime);
             chatHistory.setCreatedAt(LocalDateTime.now());
             
-            chatHistoryRepository.save(chatHistory);
+            chatHistoryWriter.save(chatHistory);
             
         } catch (Exception e) {
             logger.error("保存聊天交互失败", e);
@@ -193,7 +422,7 @@ public class RagService {
     /**
      * 将文档片段转换为JSON
      */
-    private String convertChunksToJson(List<DocumentChunk> chunks) {
+    private String convertChunksToJson(List<ChunkSearchResult> chunks) {
         try {
             return objectMapper.writeValueAsString(chunks.stream()
                     .map(chunk -> {
@@ -214,32 +443,6 @@ public class RagService {
         }
     }
     
-    /**
-     * 构建包含聊天历史的提示词
-     */
-    private String buildPromptWithHistory(String context, String question, String conversationHistory) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("请基于以下知识库内容和聊天历史回答用户的问题。如果知识库中没有相关信息，请明确说明。\n\n");
-        
-        if (!conversationHistory.isEmpty()) {
-            prompt.append("聊天历史：\n");
-            prompt.append(conversationHistory);
-            prompt.append("\n\n");
-        }
-        
-        prompt.append("知识库内容：\n");
-        prompt.append(context);
-        prompt.append("\n\n");
-        
-        prompt.append("用户问题：");
-        prompt.append(question);
-        prompt.append("\n\n");
-        
-        prompt.append("请提供准确、有用的回答，并考虑聊天历史中的上下文：");
-        
-        return prompt.toString();
-    }
-    
     /**
      * 构建提示词（原方法保持不变）
      */
@@ -310,8 +513,8 @@ public class RagService {
             // 从Redis删除
             chatCacheService.deleteSession(sessionId);
             
-            // 从数据库删除
-            chatHistoryRepository.deleteBySessionId(sessionId);
+            // 从数据库删除，尚未写入的记录一并丢弃
+            chatHistoryWriter.deleteSession(sessionId);
             
             logger.info("删除聊天会话: {}", sessionId);
         } catch (Exception e) {
@@ -329,19 +532,4 @@ public class RagService {
         
         return chatCacheService.getUserSessions(userId);
     }
-    
-    /**
-     * 将Embedding转换为字符串格式（用于数据库存储）
-     */
-    private String embeddingToString(Embedding embedding) {
-        float[] vector = embedding.vector();
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < vector.length; i++) {
-            if (i > 0) sb.append(",");
-            sb.append(vector[i]);
-        }
-        sb.append("]");
-        return sb.toString();
-    }
 }
@@ -1,16 +1,38 @@
 package com.example.ragone.service;
 
-import com.example.ragone.entity.DocumentChunk;
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.repository.DocumentChunkRepository;
+import com.example.ragone.retrieval.CrossEncoderScorer;
+import com.example.ragone.text.TextSketch;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * 重排序服务 - 对检索结果进行二次排序优化
+ *
+ * 每个片段的文本先转换为 {@link TextSketch}（词项哈希和词频、MinHash签名），按片段ID缓存，
+ * 同一片段再次被检索到时不再分词。相关性按查询词项在片段中的命中数计算，多样性按与排在前面的片段的
+ * MinHash相似度计算，每个片段的融合分数只算一次，再用容量为 max-results 的小顶堆选出前几个，不做全量排序。
+ *
+ * mode 为 mmr 时改用最大边际相关性（MMR）：按ID一次查询取回候选片段的向量（检索本身只返回精简投影），
+ * 一次计算出所有片段两两之间的余弦相似度矩阵，再贪心地选择 λ·与查询的相似度 − (1−λ)·与已选片段的最大相似度
+ * 最高的片段。切分时相互重叠的相邻片段向量几乎相同，会在这一步被剔除，减少提示词中的重复内容。
+ *
+ * mode 为 cross-encoder 时用进程内的交叉编码器（{@link CrossEncoderScorer}）对融合排序的前 max-candidates 个
+ * 候选批量打分；超过 budget-ms 时保持融合排序。这两种模式下检索阶段按 {@link #candidateLimit} 多取候选，
+ * 否则候选数就是检索的结果数，max-candidates 不会生效。整个重排序阶段的耗时记录在 rag.rerank.latency 指标中（按模式区分）。
  */
 @Service
 public class RerankingService {
@@ -29,37 +51,84 @@ public class RerankingService {
     @Value("${app.reranking.relevance-weight:0.9}")
     private double relevanceWeight;
     
+    @Value("${app.reranking.sketch-cache-size:10000}")
+    private long sketchCacheSize;
+    
+    @Value("${app.reranking.mode:heuristic}")
+    private String mode;
+    
+    @Value("${app.reranking.mmr-lambda:0.7}")
+    private double mmrLambda;
+    
+    @Value("${app.reranking.max-candidates:20}")
+    private int maxCandidates;
+    
+    @Value("${app.reranking.cross-encoder.budget-ms:300}")
+    private long crossEncoderBudgetMs;
+    
+    @Autowired(required = false)
+    private CrossEncoderScorer crossEncoderScorer;
+    
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private QueryEmbeddingService queryEmbeddingService;
+    
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+    
+    private Cache<Long, TextSketch> sketchCache;
+    
+    @PostConstruct
+    public void init() {
+        if (!"heuristic".equals(mode) && !"mmr".equals(mode) && !"cross-encoder".equals(mode)) {
+            throw new IllegalStateException("未知的重排序模式: " + mode + "，可选: heuristic, mmr, cross-encoder");
+        }
+        if (mmrLambda < 0 || mmrLambda > 1) {
+            throw new IllegalStateException("app.reranking.mmr-lambda 必须在 0 到 1 之间: " + mmrLambda);
+        }
+        if ("cross-encoder".equals(mode) && crossEncoderScorer == null) {
+            throw new IllegalStateException("交叉编码器重排序未初始化");
+        }
+        
+        // 片段内容入库后不再修改，缓存不需要过期；为0时每次请求重新计算
+        if (sketchCacheSize > 0) {
+            sketchCache = Caffeine.newBuilder()
+                    .maximumSize(sketchCacheSize)
+                    .build();
+        }
+    }
+    
     /**
      * 对检索结果进行重排序
      */
-    public List<DocumentChunk> rerankResults(List<DocumentChunk> chunks, String query) {
+    public List<ChunkSearchResult> rerankResults(List<ChunkSearchResult> chunks, String query) {
         if (!rerankingEnabled || chunks.isEmpty()) {
             return chunks.stream().limit(maxRerankedResults).collect(Collectors.toList());
         }
         
         try {
-            // 1. 计算相关性分数
-            Map<Long, Double> relevanceScores = calculateRelevanceScores(chunks, query);
-            
-            // 2. 计算多样性分数
-            Map<Long, Double> diversityScores = calculateDiversityScores(chunks);
-            
-            // 3. 融合分数并排序
-            List<DocumentChunk> rerankedChunks = chunks.stream()
-                    .sorted((a, b) -> {
-                        double scoreA = relevanceScores.getOrDefault(a.getId(), 0.0) * relevanceWeight +
-                                       diversityScores.getOrDefault(a.getId(), 0.0) * diversityWeight;
-                        double scoreB = relevanceScores.getOrDefault(b.getId(), 0.0) * relevanceWeight +
-                                       diversityScores.getOrDefault(b.getId(), 0.0) * diversityWeight;
-                        return Double.compare(scoreB, scoreA);
-                    })
-                    .limit(maxRerankedResults)
-                    .collect(Collectors.toList());
+            long startTime = System.nanoTime();
+            List<ChunkSearchResult> rerankedChunks = switch (mode) {
+                case "mmr" -> mmrRerank(chunks, query);
+                case "cross-encoder" -> crossEncoderRerank(chunks, query);
+                default -> heuristicRerank(chunks, query);
+            };
+            long elapsed = System.nanoTime() - startTime;
+            if (meterRegistry != null) {
+                Timer.builder("rag.rerank.latency").tag("mode", mode).register(meterRegistry)
+                        .record(elapsed, TimeUnit.NANOSECONDS);
+            }
             
-            logger.debug("重排序完成 - 原始结果: {}, 重排序结果: {}", chunks.size(), rerankedChunks.size());
+            logger.debug("重排序完成 - 原始结果: {}, 重排序结果: {}, 耗时 {} ms", chunks.size(), rerankedChunks.size(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
             
             return rerankedChunks;
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return chunks.stream().limit(maxRerankedResults).collect(Collectors.toList());
         } catch (Exception e) {
             logger.error("重排序失败，返回原始结果", e);
             return chunks.stream().limit(maxRerankedResults).collect(Collectors.toList());
@@ -67,100 +136,261 @@ public class RerankingService {
     }
     
     /**
-     * 计算相关性分数
+     * 按词项相关性和文本多样性的加权分数重排序
      */
-    private Map<Long, Double> calculateRelevanceScores(List<DocumentChunk> chunks, String query) {
-        Map<Long, Double> scores = new HashMap<>();
-        
-        // 简单的关键词匹配分数计算
-        String[] queryWords = query.toLowerCase().split("\\s+");
+    private List<ChunkSearchResult> heuristicRerank(List<ChunkSearchResult> chunks, String query) {
+        int n = chunks.size();
+        TextSketch querySketch = TextSketch.of(query);
+        TextSketch[] sketches = new TextSketch[n];
+        for (int i = 0; i < n; i++) {
+            sketches[i] = sketchOf(chunks.get(i));
+        }
         
-        for (DocumentChunk chunk : chunks) {
-            double score = 0.0;
-            String content = chunk.getContent().toLowerCase();
-            
-            // 计算关键词匹配分数
-            for (String word : queryWords) {
-                if (word.length() > 1) { // 忽略单字符
-                    int count = countOccurrences(content, word);
-                    score += count * (1.0 / word.length()); // 长词权重更高
-                }
-            }
-            
-            // 考虑文档长度（较短文档可能更相关）
-            double lengthPenalty = Math.max(0.1, 1.0 - (content.length() / 10000.0));
-            score *= lengthPenalty;
-            
-            scores.put(chunk.getId(), score);
+        // 1. 每个片段的融合分数只计算一次
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = calculateRelevanceScore(sketches[i], querySketch) * relevanceWeight
+                    + calculateDiversityScore(sketches, i) * diversityWeight;
         }
         
-        return scores;
+        // 2. 小顶堆选出分数最高的 max-results 个
+        int[] top = selectTop(scores, maxRerankedResults);
+        List<ChunkSearchResult> rerankedChunks = new ArrayList<>(top.length);
+        for (int index : top) {
+            rerankedChunks.add(chunks.get(index));
+        }
+        return rerankedChunks;
     }
     
     /**
-     * 计算多样性分数 - 避免返回相似的内容
+     * 最大边际相关性重排序
      */
-    private Map<Long, Double> calculateDiversityScores(List<DocumentChunk> chunks) {
-        Map<Long, Double> scores = new HashMap<>();
+    private List<ChunkSearchResult> mmrRerank(List<ChunkSearchResult> chunks, String query) {
+        int n = chunks.size();
+        // 检索时已经计算过查询向量，这里命中查询向量缓存
+        float[] queryVector = queryEmbeddingService.embedQuery(query);
+        int dimension = queryVector.length;
+        float[] normalizedQuery = new float[dimension];
+        normalizeInto(queryVector, normalizedQuery, 0);
         
-        for (int i = 0; i < chunks.size(); i++) {
-            DocumentChunk currentChunk = chunks.get(i);
-            double diversityScore = 1.0;
-            
-            // 检查与前面片段的相似性
-            for (int j = 0; j < i; j++) {
-                DocumentChunk previousChunk = chunks.get(j);
-                double similarity = calculateTextSimilarity(
-                    currentChunk.getContent(), 
-                    previousChunk.getContent()
-                );
-                diversityScore *= (1.0 - similarity);
+        // 1. 检索结果不携带向量，这里一次查询取回全部候选的向量，归一化后连续存放；查不到向量的片段整行为0
+        float[] vectors = new float[n * dimension];
+        Map<Long, float[]> fetched = fetchEmbeddings(chunks);
+        for (int i = 0; i < n; i++) {
+            ChunkSearchResult chunk = chunks.get(i);
+            float[] embedding = fetched.get(chunk.getId());
+            if (embedding == null) {
+                continue;
+            }
+            if (embedding.length != dimension) {
+                throw new IllegalStateException("片段 " + chunk.getId() + " 的向量维度 " + embedding.length
+                        + " 与查询向量维度 " + dimension + " 不一致");
+            }
+            normalizeInto(embedding, vectors, i * dimension);
+        }
+        
+        // 2. 与查询的相似度和两两相似度矩阵（对称，只计算上三角）
+        double[] relevance = new double[n];
+        float[] similarity = new float[n * n];
+        for (int i = 0; i < n; i++) {
+            relevance[i] = dot(normalizedQuery, 0, vectors, i * dimension, dimension);
+            for (int j = i + 1; j < n; j++) {
+                float value = dot(vectors, i * dimension, vectors, j * dimension, dimension);
+                similarity[i * n + j] = value;
+                similarity[j * n + i] = value;
             }
-            
-            scores.put(currentChunk.getId(), Math.max(0.0, diversityScore));
         }
         
-        return scores;
+        // 3. 贪心选择，maxSimilarity[i] 为片段 i 与已选片段的最大相似度
+        int k = Math.min(maxRerankedResults, n);
+        boolean[] selected = new boolean[n];
+        double[] maxSimilarity = new double[n];
+        List<ChunkSearchResult> rerankedChunks = new ArrayList<>(k);
+        for (int round = 0; round < k; round++) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (selected[i]) {
+                    continue;
+                }
+                double penalty = round == 0 ? 0.0 : maxSimilarity[i];
+                double score = mmrLambda * relevance[i] - (1 - mmrLambda) * penalty;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            selected[best] = true;
+            rerankedChunks.add(chunks.get(best));
+            for (int i = 0; i < n; i++) {
+                double value = similarity[i * n + best];
+                if (round == 0 || value > maxSimilarity[i]) {
+                    maxSimilarity[i] = value;
+                }
+            }
+        }
+        return rerankedChunks;
     }
     
     /**
-     * 计算文本相似性（简单的Jaccard相似性）
+     * 交叉编码器重排序：融合排序的前 max-candidates 个候选一次批量打分，超时则保持融合排序
      */
-    private double calculateTextSimilarity(String text1, String text2) {
-        Set<String> words1 = Arrays.stream(text1.toLowerCase().split("\\s+"))
-                .filter(word -> word.length() > 1)
-                .collect(Collectors.toSet());
-        
-        Set<String> words2 = Arrays.stream(text2.toLowerCase().split("\\s+"))
-                .filter(word -> word.length() > 1)
-                .collect(Collectors.toSet());
-        
-        Set<String> intersection = new HashSet<>(words1);
-        intersection.retainAll(words2);
+    private List<ChunkSearchResult> crossEncoderRerank(List<ChunkSearchResult> chunks, String query)
+            throws InterruptedException {
+        List<ChunkSearchResult> candidates = chunks.size() > maxCandidates
+                ? chunks.subList(0, maxCandidates) : chunks;
+        List<String> passages = new ArrayList<>(candidates.size());
+        for (ChunkSearchResult chunk : candidates) {
+            passages.add(chunk.getContent());
+        }
         
-        Set<String> union = new HashSet<>(words1);
-        union.addAll(words2);
+        float[] scores = crossEncoderScorer.score(query, passages, crossEncoderBudgetMs);
+        if (scores == null) {
+            return chunks.stream().limit(maxRerankedResults).collect(Collectors.toList());
+        }
         
-        return union.isEmpty() ? 0.0 : (double) intersection.size() / union.size();
+        double[] ranking = new double[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            ranking[i] = scores[i];
+        }
+        int[] top = selectTop(ranking, maxRerankedResults);
+        List<ChunkSearchResult> rerankedChunks = new ArrayList<>(top.length);
+        for (int index : top) {
+            rerankedChunks.add(candidates.get(index).withScore(scores[index]));
+        }
+        return rerankedChunks;
+    }
+    
+    /**
+     * 一次查询取回候选片段的向量，只在MMR模式下调用
+     */
+    private Map<Long, float[]> fetchEmbeddings(List<ChunkSearchResult> chunks) {
+        List<Long> ids = new ArrayList<>(chunks.size());
+        for (ChunkSearchResult chunk : chunks) {
+            if (chunk.getId() != null) {
+                ids.add(chunk.getId());
+            }
+        }
+        return ids.isEmpty() ? Collections.emptyMap() : documentChunkRepository.findEmbeddingsByIds(ids);
+    }
+    
+    private static void normalizeInto(float[] vector, float[] target, int offset) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float scale = norm == 0 ? 0f : (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            target[offset + i] = vector[i] * scale;
+        }
+    }
+    
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+    
+    private TextSketch sketchOf(ChunkSearchResult chunk) {
+        if (sketchCache == null || chunk.getId() == null) {
+            return TextSketch.of(chunk.getContent());
+        }
+        return sketchCache.get(chunk.getId(), id -> TextSketch.of(chunk.getContent()));
+    }
+    
+    /**
+     * 计算相关性分数：查询词项在片段中的命中次数，较短的片段可能更相关
+     */
+    private static double calculateRelevanceScore(TextSketch chunk, TextSketch query) {
+        double lengthPenalty = Math.max(0.1, 1.0 - (chunk.length() / 10000.0));
+        return chunk.matchCount(query) * lengthPenalty;
+    }
+    
+    /**
+     * 计算多样性分数 - 与排在前面的每个片段越相似，分数越低，避免返回相似的内容
+     */
+    private static double calculateDiversityScore(TextSketch[] sketches, int index) {
+        double diversityScore = 1.0;
+        for (int j = 0; j < index; j++) {
+            diversityScore *= (1.0 - sketches[index].similarity(sketches[j]));
+        }
+        return Math.max(0.0, diversityScore);
     }
     
     /**
-     * 计算字符串中某个子串的出现次数
+     * 返回分数最高的 k 个下标，按分数从高到低排列，同分时原始位置靠前的优先
      */
-    private int countOccurrences(String text, String pattern) {
-        int count = 0;
-        int index = 0;
-        while ((index = text.indexOf(pattern, index)) != -1) {
-            count++;
-            index += pattern.length();
+    static int[] selectTop(double[] scores, int k) {
+        int size = 0;
+        int[] heap = new int[Math.min(k, scores.length)];
+        if (heap.length == 0) {
+            return heap;
+        }
+        // 堆顶是当前入选者中最差的一个，新元素只需要与堆顶比较
+        for (int i = 0; i < scores.length; i++) {
+            if (size < heap.length) {
+                heap[size] = i;
+                siftUp(heap, size++, scores);
+            } else if (better(i, heap[0], scores)) {
+                heap[0] = i;
+                siftDown(heap, size, scores);
+            }
+        }
+        // 依次弹出堆顶，从后往前填，得到从高到低的顺序
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores);
+        }
+        return result;
+    }
+    
+    private static boolean better(int a, int b, double[] scores) {
+        int compare = Double.compare(scores[a], scores[b]);
+        return compare > 0 || (compare == 0 && a < b);
+    }
+    
+    private static void siftUp(int[] heap, int position, double[] scores) {
+        int item = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!better(heap[parent], item, scores)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
         }
-        return count;
+        heap[position] = item;
+    }
+    
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        if (size == 0) {
+            return;
+        }
+        int item = heap[0];
+        int position = 0;
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && better(heap[child], heap[child + 1], scores)) {
+                child++;
+            }
+            if (!better(item, heap[child], scores)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = item;
     }
     
     /**
      * 基于位置的简单重排序
      */
-    public List<DocumentChunk> simpleRerank(List<DocumentChunk> chunks, String query) {
+    public List<ChunkSearchResult> simpleRerank(List<ChunkSearchResult> chunks, String query) {
         if (chunks.isEmpty()) {
             return chunks;
         }
@@ -206,4 +436,14 @@ public class RerankingService {
     public boolean isRerankingEnabled() {
         return rerankingEnabled;
     }
+    
+    /**
+     * 检索阶段应取的候选数：mmr 和 cross-encoder 模式需要比最终结果更大的候选集，取 max(retrievalLimit, max-candidates)
+     */
+    public int candidateLimit(int retrievalLimit) {
+        if (rerankingEnabled && ("mmr".equals(mode) || "cross-encoder".equals(mode))) {
+            return Math.max(retrievalLimit, maxCandidates);
+        }
+        return retrievalLimit;
+    }
 }
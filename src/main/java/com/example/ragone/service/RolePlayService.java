@@ -1,5 +1,6 @@
 package com.example.ragone.service;
 
+import com.example.ragone.dto.ChunkSearchResult;
 import com.example.ragone.entity.*;
 import com.example.ragone.entity.Character;
 import com.example.ragone.repository.RolePlayHistoryRepository;
@@ -121,7 +122,7 @@ public class RolePlayService {
             List<RolePlayHistory> recentHistory = getRecentHistory(session, 10);
             
             // 从知识库检索相关内容
-            List<DocumentChunk> contextChunks = retrieveRelevantContext(userMessage, character, recentHistory);
+            List<ChunkSearchResult> contextChunks = retrieveRelevantContext(userMessage, character, recentHistory);
             
             // 构建对话上下文
             String conversationContext = buildConversationContext(profile, recentHistory, contextChunks, userMessage);
@@ -153,7 +154,7 @@ public class RolePlayService {
                                 Map<String, Object> info = new HashMap<>();
                                 info.put("id", chunk.getId());
                                 info.put("content", chunk.getContent().substring(0, Math.min(200, chunk.getContent().length())));
-                                info.put("documentId", chunk.getDocument().getId());
+                                info.put("documentId", chunk.getDocumentId());
                                 return info;
                             })
                             .collect(Collectors.toList());
@@ -192,7 +193,7 @@ public class RolePlayService {
     /**
      * 从知识库检索相关上下文
      */
-    private List<DocumentChunk> retrieveRelevantContext(String userMessage, Character character, List<RolePlayHistory> recentHistory) {
+    private List<ChunkSearchResult> retrieveRelevantContext(String userMessage, Character character, List<RolePlayHistory> recentHistory) {
         logger.debug("Retrieving relevant context for message: {}", userMessage.substring(0, Math.min(50, userMessage.length())));
         
         try {
@@ -210,7 +211,7 @@ public class RolePlayService {
             String query = queryBuilder.toString();
             
             // 从知识库检索相关片段
-            List<DocumentChunk> chunks = hybridRetrievalService.hybridSearch(
+            List<ChunkSearchResult> chunks = hybridRetrievalService.hybridSearch(
                     query,
                     character.getKnowledgeBase().getId()
             );
@@ -233,7 +234,7 @@ public class RolePlayService {
      * 构建对话上下文
      */
     private String buildConversationContext(CharacterProfile profile, List<RolePlayHistory> recentHistory, 
-                                          List<DocumentChunk> contextChunks, String userMessage) {
+                                          List<ChunkSearchResult> contextChunks, String userMessage) {
         StringBuilder contextBuilder = new StringBuilder();
         
         // 添加系统提示词
@@ -247,7 +248,7 @@ public class RolePlayService {
         // 添加知识库上下文
         if (!contextChunks.isEmpty()) {
             contextBuilder.append("相关知识库内容:\n");
-            for (DocumentChunk chunk : contextChunks) {
+            for (ChunkSearchResult chunk : contextChunks) {
                 contextBuilder.append("- ").append(chunk.getContent()).append("\n");
             }
             contextBuilder.append("\n");
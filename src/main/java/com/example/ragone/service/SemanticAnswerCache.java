@@ -0,0 +1,283 @@
+package com.example.ragone.service;
+
+import com.example.ragone.dto.CachedAnswer;
+import com.example.ragone.event.DocumentIndexedEvent;
+import com.example.ragone.event.DocumentRemovedEvent;
+import com.example.ragone.vector.HnswIndex;
+import com.example.ragone.vector.VectorSearchResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 语义回答缓存：同一知识库中与已回答问题足够相似的新问题直接返回缓存的回答和引用片段
+ *
+ * 缓存条目保存在Redis哈希 ans:kb:{知识库ID}:{代数} 中，多个节点共享；每个节点按知识库在内存中
+ * 用缓存问题的向量构建一个小的HNSW索引做近邻查询，余弦相似度不低于阈值才算命中。
+ * 知识库有文档入库或删除时代数（ans:kb:{知识库ID}:gen）加一，旧代数的条目不再被读取，
+ * 在途请求生成的回答也只会写入旧代数的哈希，不会污染新的缓存。
+ * 本地索引在代数变化或超过 refresh-seconds 后从Redis重新加载，以看到其他节点写入的条目。
+ */
+@Service
+public class SemanticAnswerCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+    
+    private static final String KEY_PREFIX = "ans:kb:";
+    
+    private static final int HNSW_M = 16;
+    private static final int HNSW_EF_CONSTRUCTION = 100;
+    private static final int HNSW_EF_SEARCH = 32;
+    
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${app.answer-cache.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${app.answer-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+    
+    @Value("${app.answer-cache.ttl-hours:24}")
+    private long ttlHours;
+    
+    @Value("${app.answer-cache.max-entries-per-knowledge-base:1000}")
+    private int maxEntries;
+    
+    @Value("${app.answer-cache.max-loaded-knowledge-bases:64}")
+    private long maxLoadedKnowledgeBases;
+    
+    @Value("${app.answer-cache.refresh-seconds:60}")
+    private long refreshSeconds;
+    
+    private Cache<Long, LocalIndex> indexes;
+    
+    private Counter hits;
+    private Counter misses;
+    
+    @PostConstruct
+    public void init() {
+        indexes = Caffeine.newBuilder()
+                .maximumSize(maxLoadedKnowledgeBases)
+                .expireAfterWrite(Duration.ofSeconds(refreshSeconds))
+                .build();
+        hits = meterRegistry.counter("rag.answer-cache", "result", "hit");
+        misses = meterRegistry.counter("rag.answer-cache", "result", "miss");
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 查找与问题向量足够相似的缓存回答；返回的 Probe 同时携带查找时的代数，供生成回答后写回
+     */
+    public Probe lookup(Long knowledgeBaseId, float[] questionEmbedding) {
+        long generation;
+        try {
+            generation = currentGeneration(knowledgeBaseId);
+        } catch (Exception e) {
+            logger.warn("读取语义回答缓存代数失败: {}", e.getMessage());
+            return new Probe(questionEmbedding, -1, null, 0.0);
+        }
+        
+        LocalIndex index = indexes.getIfPresent(knowledgeBaseId);
+        if (index == null || index.generation != generation) {
+            index = load(knowledgeBaseId, generation);
+            indexes.put(knowledgeBaseId, index);
+        }
+        
+        Probe probe = index.search(questionEmbedding, generation);
+        if (probe.hit() != null) {
+            hits.increment();
+            logger.debug("语义回答缓存命中 - 知识库: {}, 相似度: {}, 缓存问题: {}",
+                    knowledgeBaseId, probe.similarity(), probe.hit().getQuestion());
+        } else {
+            misses.increment();
+        }
+        return probe;
+    }
+    
+    /**
+     * 写入新生成的回答；代数已变化（期间有文档变更）时写入的旧代数哈希不会再被读取
+     */
+    public void put(Long knowledgeBaseId, Probe probe, String question, String answer, String contextChunks) {
+        if (probe.generation() < 0) {
+            return;
+        }
+        try {
+            String entriesKey = entriesKey(knowledgeBaseId, probe.generation());
+            Long size = redisTemplate.opsForHash().size(entriesKey);
+            if (size != null && size >= maxEntries) {
+                logger.debug("知识库 {} 的语义回答缓存已满（{} 条），不再写入", knowledgeBaseId, size);
+                return;
+            }
+            
+            CachedAnswer entry = new CachedAnswer(question, probe.vector(), answer, contextChunks);
+            redisTemplate.opsForHash().put(entriesKey, sha256(QueryEmbeddingService.normalize(question)), entry);
+            redisTemplate.expire(entriesKey, Duration.ofHours(ttlHours));
+            
+            LocalIndex index = indexes.getIfPresent(knowledgeBaseId);
+            if (index != null && index.generation == probe.generation()) {
+                index.add(entry);
+            }
+        } catch (Exception e) {
+            logger.warn("写入语义回答缓存失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 使知识库的全部缓存回答失效
+     */
+    public void invalidate(Long knowledgeBaseId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Long generation = stringRedisTemplate.opsForValue().increment(generationKey(knowledgeBaseId));
+            indexes.invalidate(knowledgeBaseId);
+            if (generation != null && generation > 0) {
+                redisTemplate.unlink(entriesKey(knowledgeBaseId, generation - 1));
+            }
+            logger.info("知识库 {} 文档变更，语义回答缓存失效", knowledgeBaseId);
+        } catch (Exception e) {
+            logger.warn("语义回答缓存失效失败: {}", e.getMessage());
+        }
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexed(DocumentIndexedEvent event) {
+        invalidate(event.getKnowledgeBaseId());
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentRemoved(DocumentRemovedEvent event) {
+        invalidate(event.getKnowledgeBaseId());
+    }
+    
+    private long currentGeneration(Long knowledgeBaseId) {
+        String value = stringRedisTemplate.opsForValue().get(generationKey(knowledgeBaseId));
+        return value == null ? 0 : Long.parseLong(value);
+    }
+    
+    private LocalIndex load(Long knowledgeBaseId, long generation) {
+        LocalIndex index = new LocalIndex(generation);
+        try {
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(entriesKey(knowledgeBaseId, generation));
+            for (Object value : entries.values()) {
+                if (value instanceof CachedAnswer entry && entry.getEmbedding() != null) {
+                    index.add(entry);
+                }
+            }
+            logger.debug("加载知识库 {} 的语义回答缓存 {} 条（代数 {}）", knowledgeBaseId, index.size(), generation);
+        } catch (Exception e) {
+            logger.warn("加载语义回答缓存失败: {}", e.getMessage());
+        }
+        return index;
+    }
+    
+    private static String generationKey(Long knowledgeBaseId) {
+        return KEY_PREFIX + knowledgeBaseId + ":gen";
+    }
+    
+    private static String entriesKey(Long knowledgeBaseId, long generation) {
+        return KEY_PREFIX + knowledgeBaseId + ":" + generation;
+    }
+    
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 一次查找的结果：问题向量、查找时的代数、命中的条目（未命中为null）及其相似度
+     */
+    public record Probe(float[] vector, long generation, CachedAnswer hit, double similarity) {
+    }
+    
+    /**
+     * 单个知识库的缓存问题向量索引，节点编号即 answers 中的下标
+     */
+    private final class LocalIndex {
+        
+        private final long generation;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<CachedAnswer> answers = new ArrayList<>();
+        private HnswIndex index;
+        
+        LocalIndex(long generation) {
+            this.generation = generation;
+        }
+        
+        void add(CachedAnswer entry) {
+            lock.writeLock().lock();
+            try {
+                if (index == null) {
+                    index = new HnswIndex(entry.getEmbedding().length, HNSW_M, HNSW_EF_CONSTRUCTION, 64);
+                } else if (index.dimension() != entry.getEmbedding().length) {
+                    return;
+                }
+                index.add(answers.size(), entry.getEmbedding());
+                answers.add(entry);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        Probe search(float[] query, long generation) {
+            lock.readLock().lock();
+            try {
+                if (index == null || index.dimension() != query.length) {
+                    return new Probe(query, generation, null, 0.0);
+                }
+                VectorSearchResult result = index.search(query, 1, HNSW_EF_SEARCH);
+                if (result.size() == 0 || result.score(0) < similarityThreshold) {
+                    return new Probe(query, generation, null, result.size() == 0 ? 0.0 : result.score(0));
+                }
+                return new Probe(query, generation, answers.get(result.node(0)), result.score(0));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        int size() {
+            lock.readLock().lock();
+            try {
+                return answers.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.ragone.text;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * 内存BM25倒排索引
+ *
+ * 文本按构造时给定的 {@link Tokenizer} 分词（默认 {@link CjkBigramTokenizer}），每个词项一个 {@link PostingList}，文档号按写入顺序分配。
+ * 查询用WAND算法求 top-k：按游标当前文档号排序，累加各词项的得分上界，
+ * 上界之和不超过当前第k名分数的文档直接跳过，不解码也不打分。
+ * 删除只打墓碑标记，文档频率不回退，删除比例较高时由调用方重建索引。
+ *
+ * 非线程安全：写入需要调用方加写锁，查询可以在读锁下并发执行。
+ */
+public class Bm25Index {
+    
+    private final Tokenizer tokenizer;
+    private final float k1;
+    private final float b;
+    
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private PostingList[] postings = new PostingList[1024];
+    
+    private long[] labels = new long[1024];
+    private int[] docLengths = new int[1024];
+    private int size;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private long liveLength;
+    
+    public Bm25Index(float k1, float b) {
+        this(CjkBigramTokenizer.INSTANCE, k1, b);
+    }
+    
+    public Bm25Index(Tokenizer tokenizer, float k1, float b) {
+        this.tokenizer = tokenizer;
+        this.k1 = k1;
+        this.b = b;
+    }
+    
+    /**
+     * 写入一个文档，返回分配的文档号
+     */
+    public int add(long label, String text) {
+        List<String> tokens = new ArrayList<>();
+        tokenizer.tokenize(text, tokens::add);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        
+        if (size == labels.length) {
+            int newLength = size + (size >> 1);
+            labels = Arrays.copyOf(labels, newLength);
+            docLengths = Arrays.copyOf(docLengths, newLength);
+        }
+        int doc = size++;
+        labels[doc] = label;
+        docLengths[doc] = tokens.size();
+        liveLength += tokens.size();
+        
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postingsFor(entry.getKey()).add(doc, entry.getValue(), tokens.size());
+        }
+        return doc;
+    }
+    
+    public void markDeleted(int doc) {
+        if (!deleted.get(doc)) {
+            deleted.set(doc);
+            deletedCount++;
+            liveLength -= docLengths[doc];
+        }
+    }
+    
+    public boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+    
+    public long label(int doc) {
+        return labels[doc];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int liveCount() {
+        return size - deletedCount;
+    }
+    
+    public int termCount() {
+        return termIds.size();
+    }
+    
+    /**
+     * 返回BM25得分最高的 k 个未删除文档，accept 为null时不过滤
+     */
+    public Bm25SearchResult search(String query, int k, IntPredicate accept) {
+        int live = liveCount();
+        if (k <= 0 || live == 0) {
+            return new Bm25SearchResult(new long[0], new float[0]);
+        }
+        // 查询中重复出现的词项按次数加权
+        Map<String, Integer> queryTerms = new LinkedHashMap<>();
+        tokenizer.tokenize(query, token -> queryTerms.merge(token, 1, Integer::sum));
+        
+        float averageLength = Math.max((float) liveLength / live, 1f);
+        PostingCursor[] cursors = new PostingCursor[queryTerms.size()];
+        int cursorCount = 0;
+        for (Map.Entry<String, Integer> entry : queryTerms.entrySet()) {
+            Integer termId = termIds.get(entry.getKey());
+            if (termId == null) {
+                continue;
+            }
+            PostingList list = postings[termId];
+            float weight = entry.getValue() * idf(list.docFreq);
+            float upperBound = weight * tfNorm(list.maxTf, list.minDocLength, averageLength);
+            PostingCursor cursor = new PostingCursor(list, weight, upperBound);
+            cursor.next();
+            cursors[cursorCount++] = cursor;
+        }
+        
+        TopDocs top = new TopDocs(k);
+        while (cursorCount > 0) {
+            sortByDoc(cursors, cursorCount);
+            
+            // 找到上界累加第一次超过当前门槛的游标，它指向的文档是下一个可能进入 top-k 的候选
+            float threshold = top.isFull() ? top.minScore() : Float.NEGATIVE_INFINITY;
+            float boundSum = 0f;
+            int pivot = -1;
+            for (int i = 0; i < cursorCount; i++) {
+                if (cursors[i].doc() == PostingCursor.NO_MORE_DOCS) {
+                    break;
+                }
+                boundSum += cursors[i].upperBound;
+                if (boundSum > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            
+            int pivotDoc = cursors[pivot].doc();
+            if (cursors[0].doc() == pivotDoc) {
+                // 所有在 pivotDoc 之前的游标都已对齐，完整打分后全部前进一步
+                float score = 0f;
+                float normalizer = k1 * (1 - b + b * docLengths[pivotDoc] / averageLength);
+                for (int i = 0; i < cursorCount && cursors[i].doc() == pivotDoc; i++) {
+                    int tf = cursors[i].tf();
+                    score += cursors[i].weight * tf * (k1 + 1) / (tf + normalizer);
+                    cursors[i].next();
+                }
+                if (!deleted.get(pivotDoc) && (accept == null || accept.test(pivotDoc))) {
+                    top.offer(pivotDoc, score);
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].advance(pivotDoc);
+                }
+            }
+            
+            // 移除已经读完的游标
+            int remaining = 0;
+            for (int i = 0; i < cursorCount; i++) {
+                if (cursors[i].doc() != PostingCursor.NO_MORE_DOCS) {
+                    cursors[remaining++] = cursors[i];
+                }
+            }
+            cursorCount = remaining;
+        }
+        return top.toResult(labels);
+    }
+    
+    private float idf(int docFreq) {
+        int documents = Math.max(size, docFreq);
+        return (float) Math.log(1 + (documents - docFreq + 0.5) / (docFreq + 0.5));
+    }
+    
+    /**
+     * 词频和文档长度部分的得分，对 tf 单调递增、对文档长度单调递减，
+     * 代入最大词频和最短文档长度即为该词项的得分上界
+     */
+    private float tfNorm(int tf, int docLength, float averageLength) {
+        return tf * (k1 + 1) / (tf + k1 * (1 - b + b * docLength / averageLength));
+    }
+    
+    private PostingList postingsFor(String term) {
+        Integer termId = termIds.get(term);
+        if (termId == null) {
+            termId = termIds.size();
+            termIds.put(term, termId);
+            if (termId == postings.length) {
+                postings = Arrays.copyOf(postings, termId + (termId >> 1));
+            }
+            postings[termId] = new PostingList();
+        }
+        return postings[termId];
+    }
+    
+    private static void sortByDoc(PostingCursor[] cursors, int count) {
+        for (int i = 1; i < count; i++) {
+            PostingCursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].doc() > cursor.doc()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+    
+    /**
+     * 固定容量的最小堆，堆顶为当前第k名
+     */
+    private static final class TopDocs {
+        
+        private final int[] docs;
+        private final float[] scores;
+        private int size;
+        
+        TopDocs(int capacity) {
+            docs = new int[capacity];
+            scores = new float[capacity];
+        }
+        
+        boolean isFull() {
+            return size == docs.length;
+        }
+        
+        float minScore() {
+            return scores[0];
+        }
+        
+        void offer(int doc, float score) {
+            if (size < docs.length) {
+                docs[size] = doc;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                docs[0] = doc;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+        
+        Bm25SearchResult toResult(long[] labels) {
+            long[] resultLabels = new long[size];
+            float[] resultScores = new float[size];
+            for (int i = size - 1; i >= 0; i--) {
+                resultLabels[i] = labels[docs[0]];
+                resultScores[i] = scores[0];
+                docs[0] = docs[size - 1];
+                scores[0] = scores[size - 1];
+                size--;
+                siftDown(0);
+            }
+            return new Bm25SearchResult(resultLabels, resultScores);
+        }
+        
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >> 1;
+                if (scores[parent] <= scores[index]) {
+                    break;
+                }
+                swap(parent, index);
+                index = parent;
+            }
+        }
+        
+        private void siftDown(int index) {
+            while (true) {
+                int left = 2 * index + 1;
+                if (left >= size) {
+                    return;
+                }
+                int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[index] <= scores[smallest]) {
+                    return;
+                }
+                swap(index, smallest);
+                index = smallest;
+            }
+        }
+        
+        private void swap(int i, int j) {
+            int doc = docs[i];
+            docs[i] = docs[j];
+            docs[j] = doc;
+            float score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+    }
+}
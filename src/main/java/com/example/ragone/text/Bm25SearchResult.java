@@ -0,0 +1,27 @@
+package com.example.ragone.text;
+
+/**
+ * BM25查询结果，按分数从高到低排列
+ */
+public class Bm25SearchResult {
+    
+    private final long[] labels;
+    private final float[] scores;
+    
+    Bm25SearchResult(long[] labels, float[] scores) {
+        this.labels = labels;
+        this.scores = scores;
+    }
+    
+    public int size() {
+        return labels.length;
+    }
+    
+    public long label(int i) {
+        return labels[i];
+    }
+    
+    public float score(int i) {
+        return scores[i];
+    }
+}
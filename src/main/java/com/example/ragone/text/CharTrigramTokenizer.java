@@ -0,0 +1,54 @@
+package com.example.ragone.text;
+
+import java.util.function.Consumer;
+
+/**
+ * 容错检索用的字符三元组分词器
+ *
+ * 与 pg_trgm 的切分方式一致：字母数字串转为小写，前面补两个空格、后面补一个空格后切成三元组
+ * （“word” → “  w”“ wo”“wor”“ord”“rd ”），拼错一个字母只影响少数三元组，其余仍能匹配。
+ * 中日韩字符没有空格分词，每个字单独作为一个词项，错一个字同样只影响一个词项。
+ */
+public final class CharTrigramTokenizer implements Tokenizer {
+    
+    public static final CharTrigramTokenizer INSTANCE = new CharTrigramTokenizer();
+    
+    private static final int MAX_WORD_LENGTH = 64;
+    
+    private CharTrigramTokenizer() {
+    }
+    
+    @Override
+    public void tokenize(CharSequence text, Consumer<String> sink) {
+        StringBuilder word = new StringBuilder("  ");
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            
+            if (CjkBigramTokenizer.isCjk(codePoint)) {
+                flushWord(word, sink);
+                sink.accept(new String(Character.toChars(codePoint)));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                if (word.length() < MAX_WORD_LENGTH) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+            } else {
+                flushWord(word, sink);
+            }
+        }
+        flushWord(word, sink);
+    }
+    
+    private static void flushWord(StringBuilder word, Consumer<String> sink) {
+        if (word.length() <= 2) {
+            return;
+        }
+        word.append(' ');
+        for (int start = 0; start + 3 <= word.length(); start++) {
+            sink.accept(word.substring(start, start + 3));
+        }
+        word.setLength(2);
+    }
+}
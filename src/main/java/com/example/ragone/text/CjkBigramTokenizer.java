@@ -0,0 +1,87 @@
+package com.example.ragone.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 中日韩文本的二元分词器
+ *
+ * 连续的中日韩字符切分为相互重叠的二元组（“向量检索” → “向量”“量检”“检索”），
+ * 只有一个字的片段输出单字；字母和数字按连续片段切分并转为小写；标点和空白作为分隔符丢弃。
+ * 不需要词典，召回接近按词分词，代价是倒排表中多一些无意义的二元组。
+ */
+public final class CjkBigramTokenizer implements Tokenizer {
+    
+    public static final CjkBigramTokenizer INSTANCE = new CjkBigramTokenizer();
+    
+    // 超长的字母数字串（如base64、哈希值）截断，避免词典被撑大
+    private static final int MAX_WORD_LENGTH = 64;
+    
+    private CjkBigramTokenizer() {
+    }
+    
+    public List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        tokenize(text, tokens::add);
+        return tokens;
+    }
+    
+    @Override
+    public void tokenize(CharSequence text, Consumer<String> sink) {
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        int cjkRun = 0;
+        
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            
+            if (isCjk(codePoint)) {
+                flushWord(word, sink);
+                if (previousCjk >= 0) {
+                    sink.accept(new StringBuilder(4).appendCodePoint(previousCjk).appendCodePoint(codePoint).toString());
+                }
+                previousCjk = codePoint;
+                cjkRun++;
+                continue;
+            }
+            
+            flushCjk(previousCjk, cjkRun, sink);
+            previousCjk = -1;
+            cjkRun = 0;
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (word.length() < MAX_WORD_LENGTH) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+            } else {
+                flushWord(word, sink);
+            }
+        }
+        flushCjk(previousCjk, cjkRun, sink);
+        flushWord(word, sink);
+    }
+    
+    private static void flushCjk(int previousCjk, int cjkRun, Consumer<String> sink) {
+        if (cjkRun == 1) {
+            sink.accept(new String(Character.toChars(previousCjk)));
+        }
+    }
+    
+    private static void flushWord(StringBuilder word, Consumer<String> sink) {
+        if (word.length() > 0) {
+            sink.accept(word.toString());
+            word.setLength(0);
+        }
+    }
+    
+    static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.ragone.text;
+
+/**
+ * 倒排表的顺序读取游标，创建时固定可见的记录数，读锁下与后续追加互不影响
+ */
+final class PostingCursor {
+    
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    
+    final float weight;
+    final float upperBound;
+    
+    private final PostingList postings;
+    private final int end;
+    private int offset;
+    private int index;
+    private int skip;
+    private int doc = -1;
+    private int tf;
+    
+    PostingCursor(PostingList postings, float weight, float upperBound) {
+        this.postings = postings;
+        this.end = postings.docFreq;
+        this.weight = weight;
+        this.upperBound = upperBound;
+    }
+    
+    int doc() {
+        return doc;
+    }
+    
+    int tf() {
+        return tf;
+    }
+    
+    int next() {
+        if (index >= end) {
+            doc = NO_MORE_DOCS;
+            return doc;
+        }
+        doc += readVarInt();
+        tf = readVarInt();
+        index++;
+        return doc;
+    }
+    
+    /**
+     * 前进到第一个文档号不小于 target 的记录
+     */
+    int advance(int target) {
+        if (doc >= target) {
+            return doc;
+        }
+        // 跳表项 i 对应第 (i + 1) * SKIP_INTERVAL 条记录，skipDocs[i] 为它之前一条的文档号
+        while (skip < postings.skipCount && postings.skipDocs[skip] < target) {
+            int skipIndex = (skip + 1) * PostingList.SKIP_INTERVAL;
+            if (skipIndex > index && skipIndex < end) {
+                offset = postings.skipOffsets[skip];
+                doc = postings.skipDocs[skip];
+                index = skipIndex;
+            }
+            skip++;
+        }
+        while (doc < target) {
+            next();
+        }
+        return doc;
+    }
+    
+    private int readVarInt() {
+        byte[] data = postings.data;
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
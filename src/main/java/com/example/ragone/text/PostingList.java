@@ -0,0 +1,57 @@
+package com.example.ragone.text;
+
+import java.util.Arrays;
+
+/**
+ * 单个词项的倒排表
+ *
+ * 文档号递增追加，按 (与上一文档号的差值, 词频) 两个变长整数编码在一个 byte[] 中。
+ * 每 SKIP_INTERVAL 条记录一个跳表项（该块之前的最后一个文档号和块起始字节偏移），
+ * 查询时 {@link PostingCursor#advance(int)} 可以整块跳过，不用逐条解码。
+ * 同时记录最大词频和最短文档长度，用于计算该词项BM25得分的上界。
+ */
+final class PostingList {
+    
+    static final int SKIP_INTERVAL = 64;
+    
+    byte[] data = new byte[16];
+    int length;
+    int docFreq;
+    int lastDoc = -1;
+    int maxTf;
+    int minDocLength = Integer.MAX_VALUE;
+    
+    int[] skipDocs = new int[0];
+    int[] skipOffsets = new int[0];
+    int skipCount;
+    
+    void add(int doc, int tf, int docLength) {
+        if (docFreq > 0 && docFreq % SKIP_INTERVAL == 0) {
+            if (skipCount == skipDocs.length) {
+                int newLength = Math.max(4, skipCount * 2);
+                skipDocs = Arrays.copyOf(skipDocs, newLength);
+                skipOffsets = Arrays.copyOf(skipOffsets, newLength);
+            }
+            skipDocs[skipCount] = lastDoc;
+            skipOffsets[skipCount] = length;
+            skipCount++;
+        }
+        writeVarInt(doc - lastDoc);
+        writeVarInt(tf);
+        lastDoc = doc;
+        docFreq++;
+        maxTf = Math.max(maxTf, tf);
+        minDocLength = Math.min(minDocLength, docLength);
+    }
+    
+    private void writeVarInt(int value) {
+        if (length + 5 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+        }
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+}
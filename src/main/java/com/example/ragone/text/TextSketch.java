@@ -0,0 +1,143 @@
+package com.example.ragone.text;
+
+import java.util.Arrays;
+
+/**
+ * 文本的紧凑表示：词项哈希的有序集合（带词频）加上 MinHash 签名
+ *
+ * 词项由 {@link CjkBigramTokenizer} 切分后哈希为 int，构建后不可变，可以按片段ID缓存复用。
+ * 签名使用单次置换 MinHash（one permutation hashing）：每个词项只计算一次哈希，高位决定分桶，
+ * 桶内保留最小值；两个签名相同的非空桶所占比例即为 Jaccard 相似度的估计，比较时不分配内存。
+ */
+public final class TextSketch {
+    
+    public static final int SIGNATURE_BINS = 64;
+    
+    // 哈希的高 6 位选桶，其余 26 位作为桶内比较的值
+    private static final int BIN_BITS = Integer.numberOfTrailingZeros(SIGNATURE_BINS);
+    private static final int BIN_SHIFT = Integer.SIZE - BIN_BITS;
+    private static final int VALUE_MASK = -1 >>> BIN_BITS;
+    private static final int EMPTY_BIN = Integer.MAX_VALUE;
+    
+    private final int[] terms;
+    private final int[] frequencies;
+    private final int[] signature;
+    private final int length;
+    
+    private TextSketch(int[] terms, int[] frequencies, int[] signature, int length) {
+        this.terms = terms;
+        this.frequencies = frequencies;
+        this.signature = signature;
+        this.length = length;
+    }
+    
+    public static TextSketch of(CharSequence text) {
+        int[][] hashes = {new int[64]};
+        int[] count = new int[1];
+        CjkBigramTokenizer.INSTANCE.tokenize(text, token -> {
+            if (count[0] == hashes[0].length) {
+                hashes[0] = Arrays.copyOf(hashes[0], count[0] * 2);
+            }
+            hashes[0][count[0]++] = hash(token);
+        });
+        
+        int[] sorted = hashes[0];
+        int n = count[0];
+        Arrays.sort(sorted, 0, n);
+        
+        // 排序后相同的哈希相邻，原地去重并统计词频
+        int[] frequencies = new int[n];
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique > 0 && sorted[unique - 1] == sorted[i]) {
+                frequencies[unique - 1]++;
+            } else {
+                sorted[unique] = sorted[i];
+                frequencies[unique] = 1;
+                unique++;
+            }
+        }
+        int[] terms = Arrays.copyOf(sorted, unique);
+        
+        int[] signature = new int[SIGNATURE_BINS];
+        Arrays.fill(signature, EMPTY_BIN);
+        for (int term : terms) {
+            int bin = term >>> BIN_SHIFT;
+            int value = term & VALUE_MASK;
+            if (value < signature[bin]) {
+                signature[bin] = value;
+            }
+        }
+        return new TextSketch(terms, Arrays.copyOf(frequencies, unique), signature, text.length());
+    }
+    
+    /**
+     * 词项的哈希值：String.hashCode 再经 murmur3 的 fmix32 打散，使高位也均匀分布
+     */
+    static int hash(String token) {
+        int h = token.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+    
+    /**
+     * 原文长度（字符数）
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * 不同词项的数量
+     */
+    public int termCount() {
+        return terms.length;
+    }
+    
+    /**
+     * 对方每个不同词项在本文本中的词频之和，即对方作为查询时的词项命中数
+     */
+    public int matchCount(TextSketch query) {
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        int[] queryTerms = query.terms;
+        // 两个有序数组归并求交集
+        while (i < terms.length && j < queryTerms.length) {
+            if (terms[i] < queryTerms[j]) {
+                i++;
+            } else if (terms[i] > queryTerms[j]) {
+                j++;
+            } else {
+                total += frequencies[i];
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * 按 MinHash 签名估计的 Jaccard 相似度，两个文本都没有词项时为0
+     */
+    public double similarity(TextSketch other) {
+        int matches = 0;
+        int occupied = 0;
+        for (int bin = 0; bin < SIGNATURE_BINS; bin++) {
+            int a = signature[bin];
+            int b = other.signature[bin];
+            if (a == EMPTY_BIN && b == EMPTY_BIN) {
+                continue;
+            }
+            occupied++;
+            if (a == b) {
+                matches++;
+            }
+        }
+        return occupied == 0 ? 0.0 : (double) matches / occupied;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.ragone.text;
+
+import java.util.function.Consumer;
+
+/**
+ * 把文本切分为索引词项
+ */
+@FunctionalInterface
+public interface Tokenizer {
+    
+    void tokenize(CharSequence text, Consumer<String> sink);
+}
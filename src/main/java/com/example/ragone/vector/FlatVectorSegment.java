@@ -0,0 +1,473 @@
+package com.example.ragone.vector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.LongPredicate;
+
+/**
+ * 内存映射的平面向量段文件，用于精确（暴力扫描）的余弦相似度检索
+ *
+ * 文件布局（小端字节序，各区按8字节对齐）：
+ * <pre>
+ * 头部 32 字节 : magic "RVSG" | version | dimension | count | encoding | 保留 | maxChunkId(int64)
+ * 向量区       : count * dimension 个归一化后的 float32，按行连续存放
+ * 量化区       : 仅 INT8 / BINARY 编码，每行 dimension 个 int8 或 dimension/8 字节的符号位
+ * 缩放系数     : 仅 INT8 编码，count 个 float32
+ * 片段ID表     : count 个 int64
+ * 文档ID表     : count 个 int64
+ * </pre>
+ * 向量区紧跟头部，映射后按32字节对齐，扫描时直接从映射缓冲区读取，向量不占用Java堆。
+ * 量化编码的段首轮只扫描量化区，再读取候选行的float32向量重新打分，
+ * 因此常驻页缓存的热数据只有量化区（int8为1/4，二值为1/32）。
+ * 段文件写入后不再修改，删除的行只在内存中打墓碑标记，由调用方在合并段时清除。
+ *
+ * 非线程安全：打墓碑标记需要调用方加写锁，查询可以在读锁下并发执行。
+ */
+public final class FlatVectorSegment {
+    
+    public static final int ENCODING_FLOAT32 = 0;
+    public static final int ENCODING_INT8 = 1;
+    public static final int ENCODING_BINARY = 2;
+    
+    private static final int MAGIC = 0x47535652;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int dimension;
+    private final int count;
+    private final int encoding;
+    private final long maxChunkId;
+    private final int quantizedRowBytes;
+    private final int quantizedOffset;
+    private final int scaleOffset;
+    private final int chunkIdOffset;
+    private final int documentIdOffset;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    
+    private FlatVectorSegment(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("不是有效的向量段文件: " + path);
+        }
+        this.dimension = buffer.getInt(8);
+        this.count = buffer.getInt(12);
+        this.encoding = buffer.getInt(16);
+        this.maxChunkId = buffer.getLong(24);
+        if (encoding != ENCODING_FLOAT32 && encoding != ENCODING_INT8 && encoding != ENCODING_BINARY) {
+            throw new IOException("不支持的向量编码 " + encoding + ": " + path);
+        }
+        
+        long[] layout = layout(dimension, count, encoding);
+        this.quantizedRowBytes = quantizedRowBytes(dimension, encoding);
+        this.quantizedOffset = (int) layout[0];
+        this.scaleOffset = (int) layout[1];
+        this.chunkIdOffset = (int) layout[2];
+        this.documentIdOffset = (int) layout[3];
+        if (buffer.capacity() != layout[4]) {
+            throw new IOException("向量段文件长度与头部不一致: " + path);
+        }
+    }
+    
+    /**
+     * 以只读方式映射段文件
+     */
+    public static FlatVectorSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("向量段文件长度无效: " + path + " (" + size + " 字节)");
+            }
+            // 映射在通道关闭后依然有效，随缓冲区被回收而解除
+            return new FlatVectorSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+    
+    /**
+     * 创建段文件写入器，先写临时文件，{@link Writer#finish()} 时原子替换为目标文件
+     */
+    public static Writer writer(Path path, int dimension, int encoding) throws IOException {
+        return new Writer(path, dimension, encoding);
+    }
+    
+    /**
+     * 返回与 query 最相似的 k 个未删除行（行号 + 相似度），query 须已归一化
+     *
+     * float32 编码的段直接精确扫描；量化编码的段先在量化区取 k * rescoreFactor 个候选，
+     * 再按float32向量重新计算相似度，返回的分数均为全精度余弦相似度。
+     */
+    public VectorSearchResult search(float[] query, int k, int rescoreFactor) {
+        return search(query, k, rescoreFactor, null);
+    }
+    
+    /**
+     * 同 {@link #search(float[], int, int)}，只返回文档ID满足 documentFilter 的行（为null时不过滤）
+     */
+    public VectorSearchResult search(float[] query, int k, int rescoreFactor, LongPredicate documentFilter) {
+        checkDimension(query);
+        if (encoding == ENCODING_FLOAT32) {
+            return searchExact(query, k, documentFilter);
+        }
+        if (k <= 0 || count == 0) {
+            return new VectorSearchResult(new int[0], new float[0]);
+        }
+        
+        int candidateCount = k * Math.max(rescoreFactor, 1);
+        NodeHeap candidates = new NodeHeap(candidateCount + 1, false);
+        if (encoding == ENCODING_INT8) {
+            for (int row = 0; row < count; row++) {
+                if (skip(row, documentFilter)) {
+                    continue;
+                }
+                float score = buffer.getFloat(scaleOffset + row * Float.BYTES)
+                        * VectorMath.dotInt8(query, buffer, quantizedOffset + row * quantizedRowBytes, dimension);
+                offer(candidates, candidateCount, row, score);
+            }
+        } else {
+            long[] queryBits = VectorMath.binarize(query);
+            for (int row = 0; row < count; row++) {
+                if (skip(row, documentFilter)) {
+                    continue;
+                }
+                // 汉明距离越小越相似，取负数后按分数从高到低排序
+                float score = -VectorMath.hamming(queryBits, buffer, quantizedOffset + row * quantizedRowBytes);
+                offer(candidates, candidateCount, row, score);
+            }
+        }
+        
+        NodeHeap results = new NodeHeap(k + 1, false);
+        while (candidates.size() > 0) {
+            int row = candidates.topNode();
+            candidates.pop();
+            offer(results, k, row, VectorMath.dot(query, buffer, vectorOffset(row), dimension));
+        }
+        return results.drainDescending();
+    }
+    
+    /**
+     * 忽略量化区，按float32向量扫描所有未删除的行，用作量化检索召回率的基准
+     */
+    public VectorSearchResult searchExact(float[] query, int k) {
+        return searchExact(query, k, null);
+    }
+    
+    public VectorSearchResult searchExact(float[] query, int k, LongPredicate documentFilter) {
+        checkDimension(query);
+        if (k <= 0 || count == 0) {
+            return new VectorSearchResult(new int[0], new float[0]);
+        }
+        NodeHeap results = new NodeHeap(k + 1, false);
+        for (int row = 0; row < count; row++) {
+            if (skip(row, documentFilter)) {
+                continue;
+            }
+            offer(results, k, row, VectorMath.dot(query, buffer, vectorOffset(row), dimension));
+        }
+        return results.drainDescending();
+    }
+    
+    private boolean skip(int row, LongPredicate documentFilter) {
+        return (deletedCount > 0 && deleted.get(row))
+                || (documentFilter != null && !documentFilter.test(documentId(row)));
+    }
+    
+    /**
+     * 将属于指定文档的行标记为删除，返回新标记的行数
+     */
+    public int markDocumentDeleted(long documentId) {
+        int marked = 0;
+        for (int row = 0; row < count; row++) {
+            if (documentId(row) == documentId && !deleted.get(row)) {
+                deleted.set(row);
+                marked++;
+            }
+        }
+        deletedCount += marked;
+        return marked;
+    }
+    
+    public boolean isDeleted(int row) {
+        return deleted.get(row);
+    }
+    
+    public long chunkId(int row) {
+        return buffer.getLong(chunkIdOffset + row * Long.BYTES);
+    }
+    
+    public long documentId(int row) {
+        return buffer.getLong(documentIdOffset + row * Long.BYTES);
+    }
+    
+    /**
+     * 返回行的归一化向量副本，用于合并段时重写
+     */
+    public float[] vector(int row) {
+        float[] vector = new float[dimension];
+        int offset = vectorOffset(row);
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = buffer.getFloat(offset + i * Float.BYTES);
+        }
+        return vector;
+    }
+    
+    public Path path() {
+        return path;
+    }
+    
+    public int dimension() {
+        return dimension;
+    }
+    
+    public int encoding() {
+        return encoding;
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    public int liveCount() {
+        return count - deletedCount;
+    }
+    
+    public long maxChunkId() {
+        return maxChunkId;
+    }
+    
+    private int vectorOffset(int row) {
+        return HEADER_BYTES + row * dimension * Float.BYTES;
+    }
+    
+    private void checkDimension(float[] query) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + query.length + " != " + dimension);
+        }
+    }
+    
+    /**
+     * 维护容量为 k 的最小堆，堆顶为当前第 k 好的结果
+     */
+    private static void offer(NodeHeap heap, int k, int row, float score) {
+        if (heap.size() < k) {
+            heap.push(row, score);
+        } else if (score > heap.topScore()) {
+            heap.pop();
+            heap.push(row, score);
+        }
+    }
+    
+    private static int quantizedRowBytes(int dimension, int encoding) {
+        return switch (encoding) {
+            case ENCODING_INT8 -> dimension;
+            case ENCODING_BINARY -> (dimension + 63) / 64 * Long.BYTES;
+            default -> 0;
+        };
+    }
+    
+    /**
+     * 计算各区的起始偏移：{量化区, 缩放系数, 片段ID表, 文档ID表, 文件总长度}
+     */
+    private static long[] layout(int dimension, long count, int encoding) {
+        long quantizedOffset = HEADER_BYTES + count * dimension * Float.BYTES;
+        long scaleOffset = align(quantizedOffset + count * quantizedRowBytes(dimension, encoding));
+        long chunkIdOffset = align(scaleOffset + (encoding == ENCODING_INT8 ? count * Float.BYTES : 0));
+        long documentIdOffset = chunkIdOffset + count * Long.BYTES;
+        return new long[] {quantizedOffset, scaleOffset, chunkIdOffset, documentIdOffset,
+                documentIdOffset + count * Long.BYTES};
+    }
+    
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+    
+    /**
+     * 段文件写入器：float32向量逐行追加写入段文件，量化行写入旁路临时文件，
+     * 片段ID、文档ID和缩放系数缓存在内存中，完成时依次拼接在向量区之后
+     */
+    public static final class Writer implements Closeable {
+        
+        private final Path target;
+        private final Path temp;
+        private final Path quantizedTemp;
+        private final int dimension;
+        private final int encoding;
+        private final FileChannel channel;
+        private final FileChannel quantizedChannel;
+        private final ByteBuffer rowBuffer;
+        private final ByteBuffer quantizedRowBuffer;
+        private long[] chunkIds = new long[1024];
+        private long[] documentIds = new long[1024];
+        private float[] scales;
+        private int count;
+        private long maxChunkId = -1;
+        private boolean finished;
+        
+        private Writer(Path target, int dimension, int encoding) throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.quantizedTemp = target.resolveSibling(target.getFileName() + ".q.tmp");
+            this.dimension = dimension;
+            this.encoding = encoding;
+            Files.createDirectories(target.getParent());
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.rowBuffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_BYTES);
+            if (encoding == ENCODING_FLOAT32) {
+                this.quantizedChannel = null;
+                this.quantizedRowBuffer = null;
+            } else {
+                this.quantizedChannel = FileChannel.open(quantizedTemp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.quantizedRowBuffer = ByteBuffer.allocate(quantizedRowBytes(dimension, encoding))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            this.scales = encoding == ENCODING_INT8 ? new float[1024] : null;
+        }
+        
+        /**
+         * 追加一行，向量在写入前归一化
+         */
+        public void add(long chunkId, long documentId, float[] vector) throws IOException {
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+            }
+            // 单个映射缓冲区最大 2GB，据此限制单段的行数
+            if (layout(dimension, count + 1L, encoding)[4] > Integer.MAX_VALUE) {
+                throw new IllegalStateException("向量段已达到最大行数 " + count);
+            }
+            if (count == chunkIds.length) {
+                chunkIds = Arrays.copyOf(chunkIds, count * 2);
+                documentIds = Arrays.copyOf(documentIds, count * 2);
+                if (scales != null) {
+                    scales = Arrays.copyOf(scales, count * 2);
+                }
+            }
+            
+            float[] normalized = VectorMath.normalize(vector);
+            rowBuffer.clear();
+            for (float v : normalized) {
+                rowBuffer.putFloat(v);
+            }
+            rowBuffer.flip();
+            writeFully(channel, rowBuffer);
+            if (encoding != ENCODING_FLOAT32) {
+                writeQuantized(normalized);
+            }
+            
+            chunkIds[count] = chunkId;
+            documentIds[count] = documentId;
+            maxChunkId = Math.max(maxChunkId, chunkId);
+            count++;
+        }
+        
+        public int size() {
+            return count;
+        }
+        
+        /**
+         * 拼接量化区、缩放系数、ID表并写入头部，落盘后原子替换目标文件并映射打开
+         */
+        public FlatVectorSegment finish() throws IOException {
+            long[] layout = layout(dimension, count, encoding);
+            if (quantizedChannel != null) {
+                long transferred = 0;
+                long size = quantizedChannel.size();
+                while (transferred < size) {
+                    transferred += quantizedChannel.transferTo(transferred, size - transferred, channel);
+                }
+            }
+            
+            ByteBuffer tail = ByteBuffer.allocate((int) (layout[4] - channel.position())).order(ByteOrder.LITTLE_ENDIAN);
+            if (scales != null) {
+                tail.position((int) (layout[1] - channel.position()));
+                for (int i = 0; i < count; i++) {
+                    tail.putFloat(scales[i]);
+                }
+            }
+            tail.position((int) (layout[2] - channel.position()));
+            for (int i = 0; i < count; i++) {
+                tail.putLong(chunkIds[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                tail.putLong(documentIds[i]);
+            }
+            tail.flip();
+            writeFully(channel, tail);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(count)
+                    .putInt(encoding).putInt(0).putLong(maxChunkId);
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(true);
+            channel.close();
+            closeQuantized();
+            
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return open(target);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                closeQuantized();
+                Files.deleteIfExists(temp);
+            }
+        }
+        
+        /**
+         * INT8 按行对称量化：缩放系数为最大绝对值 / 127；BINARY 按符号位打包
+         */
+        private void writeQuantized(float[] normalized) throws IOException {
+            quantizedRowBuffer.clear();
+            if (encoding == ENCODING_INT8) {
+                float maxAbs = 0f;
+                for (float v : normalized) {
+                    maxAbs = Math.max(maxAbs, Math.abs(v));
+                }
+                float scale = maxAbs > 0 ? maxAbs / 127f : 1f;
+                for (float v : normalized) {
+                    quantizedRowBuffer.put((byte) Math.round(v / scale));
+                }
+                scales[count] = scale;
+            } else {
+                for (long word : VectorMath.binarize(normalized)) {
+                    quantizedRowBuffer.putLong(word);
+                }
+            }
+            quantizedRowBuffer.flip();
+            writeFully(quantizedChannel, quantizedRowBuffer);
+        }
+        
+        private void closeQuantized() throws IOException {
+            if (quantizedChannel != null) {
+                quantizedChannel.close();
+                Files.deleteIfExists(quantizedTemp);
+            }
+        }
+        
+        private static void writeFully(FileChannel target, ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                target.write(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.ragone.vector;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * 内存HNSW图索引（余弦相似度）
+ *
+ * 向量写入时先归一化，相似度即点积。图和向量全部保存在基本类型数组中：
+ * 向量连续存放在一个 float[] 里，第0层邻接表是每个节点 2M 个槽位的定长 int[]，
+ * 上层邻接表按节点单独分配 int[]（每层一个计数位加 M 个槽位）。
+ * 删除只打墓碑标记，节点仍参与图遍历，但不会出现在查询结果中。
+ *
+ * 非线程安全：写入需要调用方加写锁，查询可以在读锁下并发执行。
+ */
+public class HnswIndex {
+    
+    private static final int MAX_LEVEL = 16;
+    
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    
+    private int capacity;
+    private int size;
+    private float[] vectors;
+    private long[] labels;
+    private int[] levels;
+    private int[] links0;
+    private int[] links0Count;
+    private int[][] upperLinks;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    
+    public HnswIndex(int dimension, int m, int efConstruction, int initialCapacity) {
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.capacity = Math.max(initialCapacity, 16);
+        this.vectors = new float[capacity * dimension];
+        this.labels = new long[capacity];
+        this.levels = new int[capacity];
+        this.links0 = new int[capacity * maxM0];
+        this.links0Count = new int[capacity];
+        this.upperLinks = new int[capacity][];
+    }
+    
+    /**
+     * 插入一个向量，返回分配的节点编号
+     */
+    public int add(long label, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+        }
+        ensureCapacity(size + 1);
+        
+        int node = size++;
+        int offset = node * dimension;
+        normalizeInto(vector, vectors, offset);
+        labels[node] = label;
+        int level = randomLevel();
+        levels[node] = level;
+        upperLinks[node] = level > 0 ? new int[level * (m + 1)] : null;
+        
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+        
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedySearch(vectors, offset, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(vectors, offset, ep, efConstruction, l, null);
+            int[] selected = selectNeighbors(candidates, m);
+            setLinks(node, l, selected);
+            int maxLinks = l == 0 ? maxM0 : m;
+            for (int neighbor : selected) {
+                connect(neighbor, node, l, maxLinks);
+            }
+            // 选出的邻居按相似度降序排列，第一个即为下一层的入口
+            ep = selected[0];
+        }
+        
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+    
+    /**
+     * 查询与 query 最相似的 k 个未删除节点，ef 为第0层的候选列表长度（不小于 k）
+     */
+    public VectorSearchResult search(float[] query, int k, int ef) {
+        return search(query, k, ef, null);
+    }
+    
+    /**
+     * 带过滤的查询：不满足 accept 的节点照常参与图遍历，但不进入结果（为null时不过滤）
+     *
+     * 过滤条件选择性很高时图遍历可能凑不满 k 个结果，调用方应改用 {@link #searchExact}。
+     */
+    public VectorSearchResult search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0 || k <= 0) {
+            return new VectorSearchResult(new int[0], new float[0]);
+        }
+        float[] normalized = new float[dimension];
+        normalizeInto(query, normalized, 0);
+        
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedySearch(normalized, 0, ep, l);
+        }
+        IntPredicate live = accept == null ? node -> !deleted.get(node)
+                : node -> !deleted.get(node) && accept.test(node);
+        NodeHeap results = searchLayer(normalized, 0, ep, Math.max(ef, k), 0, live);
+        while (results.size() > k) {
+            results.pop();
+        }
+        return results.drainDescending();
+    }
+    
+    /**
+     * 暴力扫描满足 accept 的未删除节点，用于过滤后候选很少的查询
+     */
+    public VectorSearchResult searchExact(float[] query, int k, IntPredicate accept) {
+        if (size == 0 || k <= 0) {
+            return new VectorSearchResult(new int[0], new float[0]);
+        }
+        float[] normalized = new float[dimension];
+        normalizeInto(query, normalized, 0);
+        
+        NodeHeap results = new NodeHeap(k + 1, false);
+        for (int node = 0; node < size; node++) {
+            if (deleted.get(node) || !accept.test(node)) {
+                continue;
+            }
+            float score = dot(normalized, 0, node);
+            if (results.size() < k || score > results.topScore()) {
+                results.push(node, score);
+                if (results.size() > k) {
+                    results.pop();
+                }
+            }
+        }
+        return results.drainDescending();
+    }
+    
+    public void markDeleted(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+    
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+    
+    public long label(int node) {
+        return labels[node];
+    }
+    
+    /**
+     * 返回节点归一化后的向量副本
+     */
+    public float[] vector(int node) {
+        return Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int liveCount() {
+        return size - deletedCount;
+    }
+    
+    public int dimension() {
+        return dimension;
+    }
+    
+    /**
+     * 上层贪心搜索：沿着更相似的邻居一直走，直到没有更好的邻居
+     */
+    private int greedySearch(float[] query, int queryOffset, int ep, int level) {
+        float best = dot(query, queryOffset, ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = level == 0 ? links0 : upperLinks[ep];
+            int base = linkBase(ep, level);
+            int count = linkCount(ep, level);
+            for (int i = 0; i < count; i++) {
+                int neighbor = links[base + i];
+                float score = dot(query, queryOffset, neighbor);
+                if (score > best) {
+                    best = score;
+                    ep = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+    
+    /**
+     * 在指定层上做 ef 宽度的最佳优先搜索，返回以最差结果为堆顶的最小堆
+     *
+     * @param accept 允许进入结果的节点，为null时所有节点都可以进入结果（构建图时使用）
+     */
+    private NodeHeap searchLayer(float[] query, int queryOffset, int ep, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        NodeHeap candidates = new NodeHeap(ef * 2, true);
+        NodeHeap results = new NodeHeap(ef + 1, false);
+        
+        float score = dot(query, queryOffset, ep);
+        visited.set(ep);
+        candidates.push(ep, score);
+        if (accept == null || accept.test(ep)) {
+            results.push(ep, score);
+        }
+        
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            int candidate = candidates.topNode();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            candidates.pop();
+            
+            int[] links = level == 0 ? links0 : upperLinks[candidate];
+            int base = linkBase(candidate, level);
+            int count = linkCount(candidate, level);
+            for (int i = 0; i < count; i++) {
+                int neighbor = links[base + i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float neighborScore = dot(query, queryOffset, neighbor);
+                if (results.size() < ef || neighborScore > results.topScore()) {
+                    candidates.push(neighbor, neighborScore);
+                    // 已删除和被过滤的节点只用于导航，不进入结果
+                    if (accept == null || accept.test(neighbor)) {
+                        results.push(neighbor, neighborScore);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * 启发式邻居选择：候选按与基准点的相似度从高到低考察，
+     * 只保留比任何已选邻居都更接近基准点的候选，使邻居分布在不同方向上
+     */
+    private int[] selectNeighbors(NodeHeap candidates, int maxCount) {
+        int count = candidates.size();
+        int[] sortedNodes = new int[count];
+        float[] sortedScores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sortedNodes[i] = candidates.topNode();
+            sortedScores[i] = candidates.topScore();
+            candidates.pop();
+        }
+        
+        int[] selected = new int[Math.min(maxCount, count)];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            int candidate = sortedNodes[i];
+            int candidateOffset = candidate * dimension;
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (dot(vectors, candidateOffset, selected[j]) > sortedScores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            }
+        }
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+    
+    private void setLinks(int node, int level, int[] neighbors) {
+        int[] links = level == 0 ? links0 : upperLinks[node];
+        int base = linkBase(node, level);
+        System.arraycopy(neighbors, 0, links, base, neighbors.length);
+        setLinkCount(node, level, neighbors.length);
+    }
+    
+    /**
+     * 为已有节点添加一条反向连接，邻居已满时重新做一次启发式选择
+     */
+    private void connect(int node, int newNeighbor, int level, int maxLinks) {
+        int[] links = level == 0 ? links0 : upperLinks[node];
+        int base = linkBase(node, level);
+        int count = linkCount(node, level);
+        if (count < maxLinks) {
+            links[base + count] = newNeighbor;
+            setLinkCount(node, level, count + 1);
+            return;
+        }
+        
+        int nodeOffset = node * dimension;
+        NodeHeap candidates = new NodeHeap(count + 1, false);
+        for (int i = 0; i < count; i++) {
+            candidates.push(links[base + i], dot(vectors, nodeOffset, links[base + i]));
+        }
+        candidates.push(newNeighbor, dot(vectors, nodeOffset, newNeighbor));
+        int[] selected = selectNeighbors(candidates, maxLinks);
+        System.arraycopy(selected, 0, links, base, selected.length);
+        setLinkCount(node, level, selected.length);
+    }
+    
+    private int linkBase(int node, int level) {
+        return level == 0 ? node * maxM0 : (level - 1) * (m + 1) + 1;
+    }
+    
+    private int linkCount(int node, int level) {
+        return level == 0 ? links0Count[node] : upperLinks[node][(level - 1) * (m + 1)];
+    }
+    
+    private void setLinkCount(int node, int level, int count) {
+        if (level == 0) {
+            links0Count[node] = count;
+        } else {
+            upperLinks[node][(level - 1) * (m + 1)] = count;
+        }
+    }
+    
+    private int randomLevel() {
+        double r = 1.0 - random.nextDouble();
+        return Math.min((int) (-Math.log(r) * levelMultiplier), MAX_LEVEL);
+    }
+    
+    private float dot(float[] query, int queryOffset, int node) {
+        int offset = node * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[queryOffset + i] * vectors[offset + i];
+        }
+        return sum;
+    }
+    
+    private void normalizeInto(float[] source, float[] target, int offset) {
+        double norm = 0;
+        for (float v : source) {
+            norm += v * v;
+        }
+        float scale = norm > 0 ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        for (int i = 0; i < dimension; i++) {
+            target[offset + i] = source[i] * scale;
+        }
+    }
+    
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(required, capacity + (capacity >> 1));
+        vectors = Arrays.copyOf(vectors, newCapacity * dimension);
+        labels = Arrays.copyOf(labels, newCapacity);
+        levels = Arrays.copyOf(levels, newCapacity);
+        links0 = Arrays.copyOf(links0, newCapacity * maxM0);
+        links0Count = Arrays.copyOf(links0Count, newCapacity);
+        upperLinks = Arrays.copyOf(upperLinks, newCapacity);
+        capacity = newCapacity;
+    }
+}
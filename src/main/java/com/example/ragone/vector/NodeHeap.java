@@ -0,0 +1,92 @@
+package com.example.ragone.vector;
+
+import java.util.Arrays;
+
+/**
+ * 基于基本类型数组的二叉堆（节点编号 + 分数）
+ */
+final class NodeHeap {
+    
+    private final boolean maxHeap;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+    
+    NodeHeap(int initialCapacity, boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.nodes = new int[Math.max(initialCapacity, 4)];
+        this.scores = new float[nodes.length];
+    }
+    
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!higher(score, scores[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+    
+    void pop() {
+        int lastNode = nodes[--size];
+        float lastScore = scores[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && higher(scores[right], scores[child])) {
+                child = right;
+            }
+            if (!higher(scores[child], lastScore)) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        nodes[i] = lastNode;
+        scores[i] = lastScore;
+    }
+    
+    int topNode() {
+        return nodes[0];
+    }
+    
+    float topScore() {
+        return scores[0];
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    /**
+     * 清空最小堆，结果按分数从高到低排列
+     */
+    VectorSearchResult drainDescending() {
+        int count = size;
+        int[] sortedNodes = new int[count];
+        float[] sortedScores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sortedNodes[i] = topNode();
+            sortedScores[i] = topScore();
+            pop();
+        }
+        return new VectorSearchResult(sortedNodes, sortedScores);
+    }
+    
+    private boolean higher(float a, float b) {
+        return maxHeap ? a > b : a < b;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.ragone.vector;
+
+import org.postgresql.util.ByteConverter;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * pgvector 的 vector 类型
+ *
+ * 实现 {@link PGBinaryObject}，在连接注册了二进制传输后，驱动直接以 pgvector 的二进制格式
+ * （int16 维度 + int16 保留位 + 大端 float4 数组）收发向量，不再拼接和解析 "[f1,f2,...]" 文本。
+ * 未注册二进制传输的连接仍按文本格式工作。
+ */
+public class PgVector extends PGobject implements PGBinaryObject, Cloneable {
+    
+    public static final String TYPE_NAME = "vector";
+    
+    private float[] vector;
+    
+    public PgVector() {
+        setType(TYPE_NAME);
+    }
+    
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+    
+    public float[] toArray() {
+        return vector;
+    }
+    
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        vector = decode(value, offset);
+    }
+    
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : 4 + vector.length * 4;
+    }
+    
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        encode(vector, bytes, offset);
+    }
+    
+    @Override
+    public void setValue(String value) throws SQLException {
+        vector = value == null ? null : parse(value);
+    }
+    
+    @Override
+    public String getValue() {
+        return vector == null ? null : format(vector);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PgVector other && Arrays.equals(vector, other.vector);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vector);
+    }
+    
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        PgVector copy = (PgVector) super.clone();
+        copy.vector = vector == null ? null : vector.clone();
+        return copy;
+    }
+    
+    /**
+     * 按 pgvector 二进制格式编码
+     */
+    public static void encode(float[] vector, byte[] bytes, int offset) {
+        ByteConverter.int2(bytes, offset, vector.length);
+        ByteConverter.int2(bytes, offset + 2, 0);
+        for (int i = 0; i < vector.length; i++) {
+            ByteConverter.float4(bytes, offset + 4 + i * 4, vector[i]);
+        }
+    }
+    
+    /**
+     * 按 pgvector 二进制格式解码
+     */
+    public static float[] decode(byte[] bytes, int offset) {
+        int dimension = ByteConverter.int2(bytes, offset);
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = ByteConverter.float4(bytes, offset + 4 + i * 4);
+        }
+        return vector;
+    }
+    
+    /**
+     * 解析文本格式 "[f1,f2,...]"
+     */
+    public static float[] parse(String value) {
+        String body = value.trim();
+        if (body.startsWith("[")) {
+            body = body.substring(1, body.length() - 1);
+        }
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i].trim());
+        }
+        return vector;
+    }
+    
+    /**
+     * 格式化为文本格式 "[f1,f2,...]"
+     */
+    public static String format(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 12);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vector[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.ragone.vector;
+
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Oid;
+import org.postgresql.core.QueryExecutor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 在 JDBC 连接上注册 pgvector 类型
+ *
+ * pgvector 是扩展类型，OID 因库而异，驱动默认只会以文本格式收发。
+ * 这里把 vector 映射到 {@link PgVector}，并把它的 OID 加入驱动的二进制收发列表。
+ * 注册状态保存在物理连接上，连接池复用连接时只会注册一次。
+ */
+public final class PgVectorSupport {
+    
+    private PgVectorSupport() {
+    }
+    
+    /**
+     * 确保连接已注册 pgvector 类型（可重复调用）
+     */
+    public static void register(Connection connection) throws SQLException {
+        BaseConnection baseConnection = connection.unwrap(BaseConnection.class);
+        int oid = baseConnection.getTypeInfo().getPGType(PgVector.TYPE_NAME);
+        if (oid == Oid.UNSPECIFIED) {
+            return;
+        }
+        
+        QueryExecutor executor = baseConnection.getQueryExecutor();
+        if (executor.useBinaryForSend(oid)) {
+            return;
+        }
+        
+        baseConnection.unwrap(PGConnection.class).addDataType(PgVector.TYPE_NAME, PgVector.class);
+        executor.addBinaryReceiveOid(oid);
+        executor.addBinarySendOid(oid);
+    }
+}
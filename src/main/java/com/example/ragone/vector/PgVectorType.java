@@ -0,0 +1,94 @@
+package com.example.ragone.vector;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.UserType;
+import org.postgresql.util.PGobject;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Hibernate 自定义类型：将 float[] 映射为 pgvector 的 vector 列
+ *
+ * 用于实体字段（{@code @Type(PgVectorType.class)}）和原生查询参数绑定，
+ * 读写都经过 {@link PgVector} 的二进制编解码。
+ */
+public class PgVectorType implements UserType<float[]> {
+    
+    @Override
+    public int getSqlType() {
+        return Types.OTHER;
+    }
+    
+    @Override
+    public Class<float[]> returnedClass() {
+        return float[].class;
+    }
+    
+    @Override
+    public boolean equals(float[] x, float[] y) {
+        return Arrays.equals(x, y);
+    }
+    
+    @Override
+    public int hashCode(float[] x) {
+        return Arrays.hashCode(x);
+    }
+    
+    @Override
+    public float[] nullSafeGet(ResultSet rs, int position, SharedSessionContractImplementor session, Object owner)
+            throws SQLException {
+        return toFloatArray(rs.getObject(position));
+    }
+    
+    @Override
+    public void nullSafeSet(PreparedStatement st, float[] value, int index, SharedSessionContractImplementor session)
+            throws SQLException {
+        if (value == null) {
+            st.setNull(index, Types.OTHER);
+            return;
+        }
+        PgVectorSupport.register(st.getConnection());
+        st.setObject(index, new PgVector(value));
+    }
+    
+    @Override
+    public float[] deepCopy(float[] value) {
+        return value == null ? null : value.clone();
+    }
+    
+    @Override
+    public boolean isMutable() {
+        return true;
+    }
+    
+    @Override
+    public Serializable disassemble(float[] value) {
+        return deepCopy(value);
+    }
+    
+    @Override
+    public float[] assemble(Serializable cached, Object owner) {
+        return deepCopy((float[]) cached);
+    }
+    
+    /**
+     * 将驱动返回的对象转换为 float[]（兼容二进制和文本两种格式）
+     */
+    public static float[] toFloatArray(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof PgVector vector) {
+            return vector.toArray();
+        }
+        if (value instanceof PGobject object) {
+            return object.getValue() == null ? null : PgVector.parse(object.getValue());
+        }
+        return PgVector.parse(value.toString());
+    }
+}
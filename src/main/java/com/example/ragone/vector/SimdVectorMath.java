@@ -0,0 +1,64 @@
+package com.example.ragone.vector;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 基于 Vector API 的SIMD实现，只能在确认模块已加载后由 {@link VectorMath} 调用
+ */
+final class SimdVectorMath {
+    
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    
+    // int8 扩展为 float 时字节向量的位宽是浮点向量的 1/4，最小为64位，因此要求浮点向量至少256位
+    private static final boolean INT8_SUPPORTED = SPECIES.vectorBitSize() >= 256;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = INT8_SUPPORTED
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 4))
+            : null;
+    
+    private SimdVectorMath() {
+    }
+    
+    static float dot(float[] query, ByteBuffer buffer, int byteOffset, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(dimension);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            FloatVector v = FloatVector.fromByteBuffer(SPECIES, buffer, byteOffset + i * Float.BYTES, ByteOrder.LITTLE_ENDIAN);
+            acc = q.fma(v, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += query[i] * buffer.getFloat(byteOffset + i * Float.BYTES);
+        }
+        return sum;
+    }
+    
+    static boolean supportsInt8() {
+        return INT8_SUPPORTED;
+    }
+    
+    static float dotInt8(float[] query, ByteBuffer buffer, int byteOffset, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(dimension);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            ByteVector bytes = ByteVector.fromByteBuffer(BYTE_SPECIES, buffer, byteOffset + i, ByteOrder.LITTLE_ENDIAN);
+            FloatVector v = (FloatVector) bytes.convertShape(VectorOperators.B2F, SPECIES, 0);
+            acc = q.fma(v, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += query[i] * buffer.get(byteOffset + i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.ragone.vector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 向量运算工具
+ *
+ * 运行时加载了 jdk.incubator.vector 模块（启动参数 --add-modules jdk.incubator.vector）时
+ * 使用SIMD实现，否则回退到标量循环，两者结果只有浮点累加顺序上的差异。
+ */
+public final class VectorMath {
+    
+    private static final boolean SIMD_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    
+    private VectorMath() {
+    }
+    
+    public static boolean isSimdAvailable() {
+        return SIMD_AVAILABLE;
+    }
+    
+    /**
+     * 计算 query 与缓冲区中从 byteOffset 开始的 dimension 个 float32 的点积，缓冲区须为小端字节序
+     */
+    public static float dot(float[] query, ByteBuffer buffer, int byteOffset, int dimension) {
+        if (SIMD_AVAILABLE) {
+            return SimdVectorMath.dot(query, buffer, byteOffset, dimension);
+        }
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * buffer.getFloat(byteOffset + i * Float.BYTES);
+        }
+        return sum;
+    }
+    
+    /**
+     * 计算 query 与缓冲区中从 byteOffset 开始的 dimension 个 int8 的点积（未乘缩放系数）
+     */
+    public static float dotInt8(float[] query, ByteBuffer buffer, int byteOffset, int dimension) {
+        if (SIMD_AVAILABLE && SimdVectorMath.supportsInt8()) {
+            return SimdVectorMath.dotInt8(query, buffer, byteOffset, dimension);
+        }
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * buffer.get(byteOffset + i);
+        }
+        return sum;
+    }
+    
+    /**
+     * 计算按位打包的二值向量与缓冲区中从 byteOffset 开始的 bits.length 个 int64 之间的汉明距离
+     */
+    public static int hamming(long[] bits, ByteBuffer buffer, int byteOffset) {
+        int distance = 0;
+        for (int i = 0; i < bits.length; i++) {
+            distance += Long.bitCount(bits[i] ^ buffer.getLong(byteOffset + i * Long.BYTES));
+        }
+        return distance;
+    }
+    
+    /**
+     * 按符号位二值化：第 i 维大于0时置第 i 位，每64维打包为一个 int64
+     */
+    public static long[] binarize(float[] vector) {
+        long[] bits = new long[(vector.length + 63) / 64];
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                bits[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return bits;
+    }
+    
+    /**
+     * 返回归一化后的向量副本，零向量原样返回全零
+     */
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm > 0 ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.ragone.vector;
+
+/**
+ * 向量查询结果：节点（或行）编号和相似度，按相似度从高到低排列
+ */
+public final class VectorSearchResult {
+    
+    private final int[] nodes;
+    private final float[] scores;
+    
+    VectorSearchResult(int[] nodes, float[] scores) {
+        this.nodes = nodes;
+        this.scores = scores;
+    }
+    
+    public int size() {
+        return nodes.length;
+    }
+    
+    public int node(int i) {
+        return nodes[i];
+    }
+    
+    public float score(int i) {
+        return scores[i];
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import com.example.ragone.dto.RetrievalFilter;
+import com.example.ragone.entity.KnowledgeBase.VectorQuantization;
+import com.example.ragone.repository.DocumentChunkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PgVectorStoreTest {
+    
+    private static final Long KNOWLEDGE_BASE_ID = 7L;
+    private static final float[] QUERY = {0.1f, 0.2f};
+    private static final List<ChunkSearchResult> RESULTS = List.of(new ChunkSearchResult(1L, 2L, 0, "a", 0.9));
+    
+    @Mock
+    private DocumentChunkRepository documentChunkRepository;
+    
+    @Mock
+    private VectorQuantizationResolver vectorQuantizationResolver;
+    
+    @Mock
+    private QuantizationRecallMonitor quantizationRecallMonitor;
+    
+    @InjectMocks
+    private PgVectorStore store;
+    
+    private final RetrievalFilter filter = new RetrievalFilter();
+    
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(store, "rescoreFactor", 4);
+    }
+    
+    @Test
+    void unquantizedSearchUsesPlainAnnQuery() {
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.NONE);
+        when(documentChunkRepository.findSimilarChunks(KNOWLEDGE_BASE_ID, QUERY, 10, filter)).thenReturn(RESULTS);
+        
+        assertThat(store.search(KNOWLEDGE_BASE_ID, QUERY, 10, 0, filter)).isSameAs(RESULTS);
+        verify(documentChunkRepository, never()).findSimilarChunksRescored(any(), any(), any(), anyInt(), anyInt(), any());
+        verifyNoInteractions(quantizationRecallMonitor);
+        assertThat(store.inDatabase(KNOWLEDGE_BASE_ID)).isTrue();
+    }
+    
+    @Test
+    void int8IsStoredAsHalfvecAndRescoresWiderCandidateList() {
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.INT8);
+        when(documentChunkRepository.findSimilarChunksRescored(KNOWLEDGE_BASE_ID, QUERY, VectorQuantization.HALFVEC,
+                40, 10, filter)).thenReturn(RESULTS);
+        
+        assertThat(store.search(KNOWLEDGE_BASE_ID, QUERY, 10, 0, filter)).isSameAs(RESULTS);
+        verify(documentChunkRepository, never()).findSimilarChunks(any(), any(), anyInt(), any());
+        assertThat(store.inDatabase(KNOWLEDGE_BASE_ID)).isFalse();
+        
+        // 召回率采样的基准是同一查询的精确检索
+        Supplier<List<ChunkSearchResult>> exact = captureExactSupplier(VectorQuantization.HALFVEC);
+        verify(documentChunkRepository, never()).findSimilarChunksExact(any(), any(), anyInt(), any());
+        exact.get();
+        verify(documentChunkRepository).findSimilarChunksExact(KNOWLEDGE_BASE_ID, QUERY, 10, filter);
+    }
+    
+    @Test
+    void binaryKeepsItsStorageMode() {
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.BINARY);
+        when(documentChunkRepository.findSimilarChunksRescored(KNOWLEDGE_BASE_ID, QUERY, VectorQuantization.BINARY,
+                20, 5, filter)).thenReturn(RESULTS);
+        
+        assertThat(store.search(KNOWLEDGE_BASE_ID, QUERY, 5, 0, filter)).isSameAs(RESULTS);
+        captureExactSupplier(VectorQuantization.BINARY);
+    }
+    
+    @Test
+    void rescoreFactorBelowOneFetchesOnlyLimit() {
+        ReflectionTestUtils.setField(store, "rescoreFactor", 0);
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.HALFVEC);
+        when(documentChunkRepository.findSimilarChunksRescored(KNOWLEDGE_BASE_ID, QUERY, VectorQuantization.HALFVEC,
+                10, 10, filter)).thenReturn(RESULTS);
+        
+        assertThat(store.search(KNOWLEDGE_BASE_ID, QUERY, 10, 0, filter)).isSameAs(RESULTS);
+    }
+    
+    @Test
+    void quantizedBatchSearchRunsEachQuery() {
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.HALFVEC);
+        when(documentChunkRepository.findSimilarChunksRescored(eq(KNOWLEDGE_BASE_ID), any(),
+                eq(VectorQuantization.HALFVEC), eq(40), eq(10), eq(filter))).thenReturn(RESULTS);
+        
+        List<List<ChunkSearchResult>> results = store.searchBatch(KNOWLEDGE_BASE_ID,
+                List.of(QUERY, new float[]{0.3f, 0.4f}), 10, filter);
+        
+        assertThat(results).containsExactly(RESULTS, RESULTS);
+        verify(documentChunkRepository, never()).findSimilarChunksBatch(any(), any(), anyInt(), any());
+        verify(quantizationRecallMonitor, times(2)).sample(eq("pgvector"), eq(VectorQuantization.HALFVEC),
+                eq(RESULTS), any());
+    }
+    
+    @Test
+    void unquantizedBatchSearchUsesSingleQuery() {
+        List<float[]> queries = List.of(QUERY, new float[]{0.3f, 0.4f});
+        when(vectorQuantizationResolver.modeOf(KNOWLEDGE_BASE_ID)).thenReturn(VectorQuantization.NONE);
+        when(documentChunkRepository.findSimilarChunksBatch(KNOWLEDGE_BASE_ID, queries, 10, filter))
+                .thenReturn(List.of(RESULTS, RESULTS));
+        
+        assertThat(store.searchBatch(KNOWLEDGE_BASE_ID, queries, 10, filter)).hasSize(2);
+        verifyNoInteractions(quantizationRecallMonitor);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Supplier<List<ChunkSearchResult>> captureExactSupplier(VectorQuantization storage) {
+        ArgumentCaptor<Supplier<List<ChunkSearchResult>>> exact = ArgumentCaptor.forClass(Supplier.class);
+        verify(quantizationRecallMonitor).sample(eq("pgvector"), eq(storage), eq(RESULTS), exact.capture());
+        return exact.getValue();
+    }
+}
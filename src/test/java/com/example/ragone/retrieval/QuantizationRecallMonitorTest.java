@@ -0,0 +1,49 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuantizationRecallMonitorTest {
+    
+    @Test
+    void fullOverlapIgnoresOrder() {
+        assertThat(QuantizationRecallMonitor.recallAtK(results(3, 1, 2), results(1, 2, 3))).isEqualTo(1.0);
+    }
+    
+    @Test
+    void partialOverlap() {
+        assertThat(QuantizationRecallMonitor.recallAtK(results(1, 9, 3, 8), results(1, 2, 3, 4))).isEqualTo(0.5);
+    }
+    
+    @Test
+    void noOverlap() {
+        assertThat(QuantizationRecallMonitor.recallAtK(results(7, 8), results(1, 2))).isZero();
+    }
+    
+    @Test
+    void baselineIsTruncatedToQuantizedSize() {
+        // k 取量化结果数量，精确结果排在第 k 名之后的片段不算命中
+        assertThat(QuantizationRecallMonitor.recallAtK(results(1, 4), results(1, 2, 3, 4))).isEqualTo(0.5);
+        // 精确结果不足 k 个时只比较量化结果的前几个
+        assertThat(QuantizationRecallMonitor.recallAtK(results(1, 2, 3), results(2, 1))).isEqualTo(1.0);
+    }
+    
+    @Test
+    void emptyResultsCountAsFullRecall() {
+        assertThat(QuantizationRecallMonitor.recallAtK(List.of(), results(1, 2))).isEqualTo(1.0);
+        assertThat(QuantizationRecallMonitor.recallAtK(results(1, 2), List.of())).isEqualTo(1.0);
+    }
+    
+    private static List<ChunkSearchResult> results(long... ids) {
+        List<ChunkSearchResult> results = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            results.add(new ChunkSearchResult(ids[i], 1L, i, "chunk " + ids[i], 1.0 - i * 0.1));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.ragone.retrieval;
+
+import com.example.ragone.entity.KnowledgeBase;
+import com.example.ragone.entity.KnowledgeBase.VectorQuantization;
+import com.example.ragone.repository.KnowledgeBaseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class VectorQuantizationResolverTest {
+    
+    @Mock
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+    
+    @InjectMocks
+    private VectorQuantizationResolver resolver;
+    
+    @BeforeEach
+    void setUp() {
+        // 缓存时间足够长，测试期间只有 invalidate 能让缓存失效
+        ReflectionTestUtils.setField(resolver, "settingsTtlSeconds", 3600L);
+        resolver.init();
+    }
+    
+    @Test
+    void cachesModeUntilInvalidated() {
+        KnowledgeBase knowledgeBase = new KnowledgeBase();
+        knowledgeBase.setVectorQuantization(VectorQuantization.BINARY);
+        when(knowledgeBaseRepository.findById(1L)).thenReturn(Optional.of(knowledgeBase));
+        
+        assertThat(resolver.modeOf(1L)).isEqualTo(VectorQuantization.BINARY);
+        knowledgeBase.setVectorQuantization(VectorQuantization.INT8);
+        assertThat(resolver.modeOf(1L)).isEqualTo(VectorQuantization.BINARY);
+        verify(knowledgeBaseRepository, times(1)).findById(1L);
+        
+        resolver.invalidate(1L);
+        assertThat(resolver.modeOf(1L)).isEqualTo(VectorQuantization.INT8);
+        verify(knowledgeBaseRepository, times(2)).findById(1L);
+    }
+    
+    @Test
+    void invalidateOnlyAffectsThatKnowledgeBase() {
+        KnowledgeBase first = new KnowledgeBase();
+        first.setVectorQuantization(VectorQuantization.HALFVEC);
+        KnowledgeBase second = new KnowledgeBase();
+        second.setVectorQuantization(VectorQuantization.BINARY);
+        when(knowledgeBaseRepository.findById(1L)).thenReturn(Optional.of(first));
+        when(knowledgeBaseRepository.findById(2L)).thenReturn(Optional.of(second));
+        resolver.modeOf(1L);
+        resolver.modeOf(2L);
+        
+        resolver.invalidate(1L);
+        resolver.modeOf(1L);
+        resolver.modeOf(2L);
+        
+        verify(knowledgeBaseRepository, times(2)).findById(1L);
+        verify(knowledgeBaseRepository, times(1)).findById(2L);
+    }
+    
+    @Test
+    void missingKnowledgeBaseIsUnquantized() {
+        when(knowledgeBaseRepository.findById(9L)).thenReturn(Optional.empty());
+        
+        assertThat(resolver.modeOf(9L)).isEqualTo(VectorQuantization.NONE);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.ragone.service;
+
+import com.example.ragone.dto.ChatMessage;
+import com.example.ragone.dto.ChunkSearchResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextPackerTest {
+    
+    // 加载cl100k编码表较慢，整个测试类共用一个实例，每个用例前重置预算
+    private static ContextPacker packer;
+    
+    @BeforeAll
+    static void initPacker() throws Exception {
+        packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(packer, "tokenizerPath", "");
+        packer.init();
+    }
+    
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(packer, "historyMaxRatio", 0.3);
+        ReflectionTestUtils.setField(packer, "minChunkTokens", 8);
+        budget(3000);
+    }
+    
+    @Test
+    void countsTokensWithCl100k() {
+        assertThat(packer.countTokens("")).isZero();
+        assertThat(packer.countTokens("hello world")).isEqualTo(2);
+        // 特殊token按普通文本计数，不抛异常
+        assertThat(packer.countTokens("<|endoftext|>")).isGreaterThan(1);
+    }
+    
+    @Test
+    void packsEverythingThatFits() {
+        List<ChunkSearchResult> chunks = List.of(chunk(1, "第一个片段。"), chunk(2, "第二个片段。"));
+        List<ChatMessage> history = List.of(new ChatMessage("user", "你好"), new ChatMessage("assistant", "你好！"));
+        
+        ContextPacker.PackedContext packed = packer.pack("问题是什么？", history, chunks);
+        
+        assertThat(packed.chunks()).containsExactlyElementsOf(chunks);
+        assertThat(packed.truncatedChunks()).isZero();
+        assertThat(packed.historyMessages()).isEqualTo(2);
+        assertThat(packed.prompt()).contains("第一个片段。\n\n第二个片段。", "用户: 你好\n助手: 你好！\n", "问题是什么？");
+        assertThat(packed.tokens()).isEqualTo(packer.countTokens(packed.prompt()));
+    }
+    
+    @Test
+    void historyKeepsMostRecentMessagesWithinRatio() {
+        budget(600);
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            history.add(new ChatMessage(i % 2 == 0 ? "user" : "assistant", "message number " + i + " with some words"));
+        }
+        int fixedTokens = packer.pack("question", List.of(), List.of(chunk(1, "short chunk."))).tokens()
+                - packer.countTokens("short chunk.");
+        
+        ContextPacker.PackedContext packed = packer.pack("question", history, List.of(chunk(1, "short chunk.")));
+        
+        int kept = packed.historyMessages();
+        assertThat(kept).isPositive().isLessThan(history.size());
+        // 保留的是最近的连续消息
+        assertThat(packed.prompt()).contains("message number 99 ", "message number " + (100 - kept) + " ")
+                .doesNotContain("message number " + (99 - kept) + " ");
+        int historyTokens = packed.tokens() - fixedTokens - packer.countTokens("short chunk.");
+        assertThat(historyTokens).isLessThanOrEqualTo((int) ((600 - fixedTokens) * 0.3) + 2);
+    }
+    
+    @Test
+    void truncatesFirstOverflowingChunkAtSentenceBoundary() {
+        budget(200);
+        StringBuilder longChunk = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            longChunk.append("这是第").append(i).append("句话，内容用于测试截断。");
+        }
+        List<ChunkSearchResult> chunks = List.of(chunk(1, "开头的完整片段。"), chunk(2, longChunk.toString()),
+                chunk(3, "之后的片段不会放入。"));
+        
+        ContextPacker.PackedContext packed = packer.pack("问题", List.of(), chunks);
+        
+        assertThat(packed.chunks()).extracting(ChunkSearchResult::getId).containsExactly(1L, 2L);
+        assertThat(packed.truncatedChunks()).isEqualTo(1);
+        assertThat(packed.tokens()).isLessThanOrEqualTo(200);
+        String context = contextOf(packed.prompt());
+        assertThat(context).startsWith("开头的完整片段。\n\n这是第0句话").endsWith("内容用于测试截断。")
+                .doesNotContain("之后的片段");
+    }
+    
+    @Test
+    void hardCutKeepsSurrogatePairsIntact() {
+        // 没有句子边界，只能按token硬截断；表情符号在UTF-16中是代理对
+        String emoji = "😀🎉🚀👍".repeat(200);
+        for (int budget = 120; budget < 200; budget++) {
+            budget(budget);
+            ContextPacker.PackedContext packed = packer.pack("q", List.of(), List.of(chunk(1, emoji)));
+            
+            assertThat(packed.truncatedChunks()).isEqualTo(1);
+            assertThat(packed.tokens()).isLessThanOrEqualTo(budget);
+            String context = contextOf(packed.prompt());
+            assertThat(context).isNotEmpty();
+            assertThat(emoji).startsWith(context);
+            assertThat(context.codePoints().noneMatch(cp -> cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)).isTrue();
+            assertThat(Character.isHighSurrogate(context.charAt(context.length() - 1))).isFalse();
+        }
+    }
+    
+    @Test
+    void returnsNullPromptWhenNoChunkFits() {
+        budget(60);
+        ReflectionTestUtils.setField(packer, "minChunkTokens", 48);
+        String question = "这个问题本身就比较长，占去了大部分预算，剩下的空间放不下任何知识库片段";
+        
+        ContextPacker.PackedContext packed = packer.pack(question, List.of(), List.of(chunk(1, "片段内容。".repeat(50))));
+        
+        assertThat(packed.prompt()).isNull();
+        assertThat(packed.chunks()).isEmpty();
+        assertThat(packed.tokens()).isZero();
+        
+        assertThat(packer.pack("q", List.of(), List.of()).prompt()).isNull();
+    }
+    
+    private static void budget(int maxPromptTokens) {
+        ReflectionTestUtils.setField(packer, "maxPromptTokens", maxPromptTokens);
+    }
+    
+    private static ChunkSearchResult chunk(long id, String content) {
+        return new ChunkSearchResult(id, 1L, (int) id, content, 1.0);
+    }
+    
+    private static String contextOf(String prompt) {
+        int start = prompt.indexOf("知识库内容：\n") + "知识库内容：\n".length();
+        return prompt.substring(start, prompt.indexOf("\n\n用户问题：", start));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.ragone.service;
+
+import com.example.ragone.dto.ChunkSearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 重排序的JMH基准：原实现（逐对分词求Jaccard、比较器内重复计算分数）与基于 TextSketch 的实现对比
+ *
+ * sketchCold 关闭片段缓存，每次请求重新分词；sketchWarm 为缓存命中后的稳定状态。运行方式：
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ * java -cp target/test-classes:target/classes:$(cat target/test.classpath) org.openjdk.jmh.Main RerankingServiceBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RerankingServiceBenchmark {
+    
+    private static final String[] WORDS = {
+        "向量", "检索", "知识库", "文档", "片段", "混合", "关键词", "重排序", "相似度", "索引",
+        "角色", "性格", "背景", "故事", "对话", "模型", "embedding", "rerank", "query", "chunk",
+        "postgres", "latency", "的", "是", "在", "和", "了", "一个", "可以", "通过"
+    };
+    
+    @Param({"10", "50", "200"})
+    private int candidates;
+    
+    private List<ChunkSearchResult> chunks;
+    private String query;
+    
+    private RerankingService coldService;
+    private RerankingService warmService;
+    private LegacyReranker legacy;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        chunks = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            chunks.add(new ChunkSearchResult((long) i, (long) i / 10, i % 10, randomText(random, 160), 1.0 - i * 0.001));
+        }
+        query = "混合检索 重排序 相似度 query";
+        
+        coldService = newService(0);
+        warmService = newService(10_000);
+        warmService.rerankResults(chunks, query);
+        legacy = new LegacyReranker(5, 0.1, 0.9);
+    }
+    
+    @Benchmark
+    public List<ChunkSearchResult> legacy() {
+        return legacy.rerankResults(chunks, query);
+    }
+    
+    @Benchmark
+    public List<ChunkSearchResult> sketchCold() {
+        return coldService.rerankResults(chunks, query);
+    }
+    
+    @Benchmark
+    public List<ChunkSearchResult> sketchWarm() {
+        return warmService.rerankResults(chunks, query);
+    }
+    
+    private static RerankingService newService(long sketchCacheSize) {
+        RerankingService service = new RerankingService();
+        ReflectionTestUtils.setField(service, "rerankingEnabled", true);
+        ReflectionTestUtils.setField(service, "maxRerankedResults", 5);
+        ReflectionTestUtils.setField(service, "diversityWeight", 0.1);
+        ReflectionTestUtils.setField(service, "relevanceWeight", 0.9);
+        ReflectionTestUtils.setField(service, "sketchCacheSize", sketchCacheSize);
+        ReflectionTestUtils.setField(service, "mode", "heuristic");
+        ReflectionTestUtils.setField(service, "mmrLambda", 0.7);
+        service.init();
+        return service;
+    }
+    
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(3) == 0) {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+    
+    /**
+     * 改造前的重排序实现，仅作为基准对照
+     */
+    static final class LegacyReranker {
+        
+        private final int maxRerankedResults;
+        private final double diversityWeight;
+        private final double relevanceWeight;
+        
+        LegacyReranker(int maxRerankedResults, double diversityWeight, double relevanceWeight) {
+            this.maxRerankedResults = maxRerankedResults;
+            this.diversityWeight = diversityWeight;
+            this.relevanceWeight = relevanceWeight;
+        }
+        
+        List<ChunkSearchResult> rerankResults(List<ChunkSearchResult> chunks, String query) {
+            Map<Long, Double> relevanceScores = calculateRelevanceScores(chunks, query);
+            Map<Long, Double> diversityScores = calculateDiversityScores(chunks);
+            return chunks.stream()
+                    .sorted((a, b) -> {
+                        double scoreA = relevanceScores.getOrDefault(a.getId(), 0.0) * relevanceWeight +
+                                       diversityScores.getOrDefault(a.getId(), 0.0) * diversityWeight;
+                        double scoreB = relevanceScores.getOrDefault(b.getId(), 0.0) * relevanceWeight +
+                                       diversityScores.getOrDefault(b.getId(), 0.0) * diversityWeight;
+                        return Double.compare(scoreB, scoreA);
+                    })
+                    .limit(maxRerankedResults)
+                    .collect(Collectors.toList());
+        }
+        
+        private Map<Long, Double> calculateRelevanceScores(List<ChunkSearchResult> chunks, String query) {
+            Map<Long, Double> scores = new HashMap<>();
+            String[] queryWords = query.toLowerCase().split("\\s+");
+            for (ChunkSearchResult chunk : chunks) {
+                double score = 0.0;
+                String content = chunk.getContent().toLowerCase();
+                for (String word : queryWords) {
+                    if (word.length() > 1) {
+                        int count = countOccurrences(content, word);
+                        score += count * (1.0 / word.length());
+                    }
+                }
+                double lengthPenalty = Math.max(0.1, 1.0 - (content.length() / 10000.0));
+                score *= lengthPenalty;
+                scores.put(chunk.getId(), score);
+            }
+            return scores;
+        }
+        
+        private Map<Long, Double> calculateDiversityScores(List<ChunkSearchResult> chunks) {
+            Map<Long, Double> scores = new HashMap<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                ChunkSearchResult currentChunk = chunks.get(i);
+                double diversityScore = 1.0;
+                for (int j = 0; j < i; j++) {
+                    double similarity = calculateTextSimilarity(currentChunk.getContent(), chunks.get(j).getContent());
+                    diversityScore *= (1.0 - similarity);
+                }
+                scores.put(currentChunk.getId(), Math.max(0.0, diversityScore));
+            }
+            return scores;
+        }
+        
+        private double calculateTextSimilarity(String text1, String text2) {
+            Set<String> words1 = Arrays.stream(text1.toLowerCase().split("\\s+"))
+                    .filter(word -> word.length() > 1)
+                    .collect(Collectors.toSet());
+            Set<String> words2 = Arrays.stream(text2.toLowerCase().split("\\s+"))
+                    .filter(word -> word.length() > 1)
+                    .collect(Collectors.toSet());
+            Set<String> intersection = new HashSet<>(words1);
+            intersection.retainAll(words2);
+            Set<String> union = new HashSet<>(words1);
+            union.addAll(words2);
+            return union.isEmpty() ? 0.0 : (double) intersection.size() / union.size();
+        }
+        
+        private int countOccurrences(String text, String pattern) {
+            int count = 0;
+            int index = 0;
+            while ((index = text.indexOf(pattern, index)) != -1) {
+                count++;
+                index += pattern.length();
+            }
+            return count;
+        }
+    }
+}
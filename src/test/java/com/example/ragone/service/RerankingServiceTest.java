@@ -0,0 +1,63 @@
+package com.example.ragone.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RerankingServiceTest {
+    
+    @Test
+    void selectTopReturnsBestFirst() {
+        double[] scores = {0.3, 0.9, 0.1, 0.7, 0.5};
+        
+        assertThat(RerankingService.selectTop(scores, 3)).containsExactly(1, 3, 4);
+        assertThat(RerankingService.selectTop(scores, 1)).containsExactly(1);
+    }
+    
+    @Test
+    void selectTopReturnsAllWhenKExceedsSize() {
+        double[] scores = {0.2, 0.8, 0.5};
+        
+        assertThat(RerankingService.selectTop(scores, 10)).containsExactly(1, 2, 0);
+    }
+    
+    @Test
+    void selectTopHandlesEmptyInputAndZeroK() {
+        assertThat(RerankingService.selectTop(new double[0], 5)).isEmpty();
+        assertThat(RerankingService.selectTop(new double[]{1.0, 2.0}, 0)).isEmpty();
+    }
+    
+    @Test
+    void selectTopBreaksTiesByLowerIndex() {
+        // 同分时保留原顺序在前的片段，结果与稳定排序一致
+        double[] scores = {0.5, 0.9, 0.5, 0.9, 0.5, 0.1};
+        
+        assertThat(RerankingService.selectTop(scores, 4)).containsExactly(1, 3, 0, 2);
+        assertThat(RerankingService.selectTop(new double[]{1, 1, 1, 1}, 2)).containsExactly(0, 1);
+    }
+    
+    @Test
+    void selectTopMatchesStableSort() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 500; trial++) {
+            int n = random.nextInt(200);
+            double[] scores = new double[n];
+            for (int i = 0; i < n; i++) {
+                // 取值范围很小，制造大量同分
+                scores[i] = random.nextInt(10) / 10.0;
+            }
+            int k = random.nextInt(n + 5);
+            int[] expected = IntStream.range(0, n).boxed()
+                    .sorted(Comparator.<Integer>comparingDouble(i -> scores[i]).reversed())
+                    .limit(k)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            
+            assertThat(RerankingService.selectTop(scores, k)).containsExactly(expected);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.ragone.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class Bm25IndexTest {
+    
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    
+    // 按空格切分，测试中直接控制词项
+    private static final Tokenizer WHITESPACE = (text, sink) -> {
+        for (String token : text.toString().split("\\s+")) {
+            if (!token.isEmpty()) {
+                sink.accept(token);
+            }
+        }
+    };
+    
+    @Test
+    void wandTopKMatchesExhaustiveScan() {
+        Random random = new Random(7);
+        List<String> documents = randomCorpus(random, 3000);
+        Bm25Index index = new Bm25Index(WHITESPACE, K1, B);
+        for (int doc = 0; doc < documents.size(); doc++) {
+            index.add(1000L + doc, documents.get(doc));
+        }
+        ExhaustiveScorer scorer = new ExhaustiveScorer(documents);
+        
+        for (int trial = 0; trial < 100; trial++) {
+            String query = randomQuery(random);
+            int k = 1 + random.nextInt(20);
+            assertMatchesExhaustive(index, scorer, query, k, null);
+        }
+    }
+    
+    @Test
+    void wandTopKMatchesExhaustiveScanWithDeletionsAndFilter() {
+        Random random = new Random(11);
+        List<String> documents = randomCorpus(random, 3000);
+        Bm25Index index = new Bm25Index(WHITESPACE, K1, B);
+        for (int doc = 0; doc < documents.size(); doc++) {
+            index.add(1000L + doc, documents.get(doc));
+        }
+        for (int doc = 0; doc < documents.size(); doc += 3) {
+            index.markDeleted(doc);
+        }
+        assertThat(index.liveCount()).isEqualTo(2000);
+        ExhaustiveScorer scorer = new ExhaustiveScorer(documents);
+        
+        for (int trial = 0; trial < 100; trial++) {
+            String query = randomQuery(random);
+            int k = 1 + random.nextInt(20);
+            IntPredicate accept = trial % 2 == 0 ? null : doc -> doc % 5 != 1;
+            assertMatchesExhaustive(index, scorer, query, k, accept);
+        }
+    }
+    
+    @Test
+    void emptyResultsForUnknownTermsAndNonPositiveK() {
+        Bm25Index index = new Bm25Index(WHITESPACE, K1, B);
+        index.add(1L, "alpha beta");
+        index.add(2L, "beta gamma");
+        
+        assertThat(index.search("delta", 5, null).size()).isZero();
+        assertThat(index.search("beta", 0, null).size()).isZero();
+        
+        Bm25SearchResult result = index.search("beta gamma", 5, null);
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.label(0)).isEqualTo(2L);
+        assertThat(result.score(0)).isGreaterThan(result.score(1));
+    }
+    
+    @Test
+    void deletedDocumentsAreNeverReturned() {
+        Bm25Index index = new Bm25Index(WHITESPACE, K1, B);
+        int first = index.add(1L, "alpha alpha alpha");
+        index.add(2L, "alpha beta");
+        index.markDeleted(first);
+        index.markDeleted(first);
+        
+        Bm25SearchResult result = index.search("alpha", 5, null);
+        assertThat(result.size()).isEqualTo(1);
+        assertThat(result.label(0)).isEqualTo(2L);
+        assertThat(index.liveCount()).isEqualTo(1);
+    }
+    
+    private static void assertMatchesExhaustive(Bm25Index index, ExhaustiveScorer scorer, String query, int k,
+                                                IntPredicate accept) {
+        double[] expected = scorer.scores(index, query);
+        List<Double> candidates = new ArrayList<>();
+        for (int doc = 0; doc < expected.length; doc++) {
+            if (expected[doc] > 0 && !index.isDeleted(doc) && (accept == null || accept.test(doc))) {
+                candidates.add(expected[doc]);
+            }
+        }
+        candidates.sort((x, y) -> Double.compare(y, x));
+        
+        Bm25SearchResult result = index.search(query, k, accept);
+        assertThat(result.size()).as(query).isEqualTo(Math.min(k, candidates.size()));
+        for (int i = 0; i < result.size(); i++) {
+            int doc = (int) (result.label(i) - 1000L);
+            // 同分文档的先后不确定，逐名次比较分数，并核对返回文档自身的分数
+            assertThat(index.isDeleted(doc)).isFalse();
+            assertThat(accept == null || accept.test(doc)).isTrue();
+            assertThat((double) result.score(i)).as(query).isCloseTo(candidates.get(i), within(1e-4));
+            assertThat((double) result.score(i)).as(query).isCloseTo(expected[doc], within(1e-4));
+            if (i > 0) {
+                assertThat(result.score(i)).isLessThanOrEqualTo(result.score(i - 1));
+            }
+        }
+    }
+    
+    /**
+     * 逐文档计算BM25得分：文档频率包含已删除文档，平均长度只算未删除文档
+     */
+    private static final class ExhaustiveScorer {
+        
+        private final List<Map<String, Integer>> frequencies = new ArrayList<>();
+        private final Map<String, Integer> docFreq = new HashMap<>();
+        private final int[] lengths;
+        
+        ExhaustiveScorer(List<String> documents) {
+            lengths = new int[documents.size()];
+            for (int doc = 0; doc < documents.size(); doc++) {
+                Map<String, Integer> tf = new HashMap<>();
+                WHITESPACE.tokenize(documents.get(doc), token -> tf.merge(token, 1, Integer::sum));
+                tf.keySet().forEach(term -> docFreq.merge(term, 1, Integer::sum));
+                frequencies.add(tf);
+                lengths[doc] = tf.values().stream().mapToInt(Integer::intValue).sum();
+            }
+        }
+        
+        double[] scores(Bm25Index index, String query) {
+            long liveLength = 0;
+            for (int doc = 0; doc < lengths.length; doc++) {
+                if (!index.isDeleted(doc)) {
+                    liveLength += lengths[doc];
+                }
+            }
+            double averageLength = Math.max((double) liveLength / index.liveCount(), 1.0);
+            
+            Map<String, Integer> queryTerms = new HashMap<>();
+            WHITESPACE.tokenize(query, token -> queryTerms.merge(token, 1, Integer::sum));
+            double[] scores = new double[lengths.length];
+            for (Map.Entry<String, Integer> term : queryTerms.entrySet()) {
+                Integer df = docFreq.get(term.getKey());
+                if (df == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (lengths.length - df + 0.5) / (df + 0.5));
+                for (int doc = 0; doc < lengths.length; doc++) {
+                    Integer tf = frequencies.get(doc).get(term.getKey());
+                    if (tf != null) {
+                        double normalizer = K1 * (1 - B + B * lengths[doc] / averageLength);
+                        scores[doc] += term.getValue() * idf * tf * (K1 + 1) / (tf + normalizer);
+                    }
+                }
+            }
+            return scores;
+        }
+    }
+    
+    /**
+     * 词项按近似Zipf分布抽取，高频词的倒排表跨越多个跳表块，低频词只出现在少数文档中
+     */
+    private static List<String> randomCorpus(Random random, int count) {
+        List<String> documents = new ArrayList<>(count);
+        for (int doc = 0; doc < count; doc++) {
+            String[] tokens = new String[5 + random.nextInt(40)];
+            Arrays.setAll(tokens, i -> randomTerm(random));
+            documents.add(String.join(" ", tokens));
+        }
+        return documents;
+    }
+    
+    private static String randomQuery(Random random) {
+        String[] tokens = new String[1 + random.nextInt(5)];
+        Arrays.setAll(tokens, i -> random.nextInt(10) == 0 ? "missing" : randomTerm(random));
+        return String.join(" ", tokens);
+    }
+    
+    private static String randomTerm(Random random) {
+        return "t" + (int) Math.floor(Math.pow(200, random.nextDouble()));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.ragone.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PostingListTest {
+    
+    @Test
+    void varIntRoundTripAcrossByteLengths() {
+        // 差值和词频覆盖 1~5 字节的变长整数边界
+        int[] gaps = {1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, 268_435_455, 268_435_456};
+        int[] tfs = {1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, 268_435_455, Integer.MAX_VALUE};
+        PostingList postings = new PostingList();
+        int[] docs = new int[gaps.length];
+        int doc = -1;
+        for (int i = 0; i < gaps.length; i++) {
+            doc += gaps[i];
+            docs[i] = doc;
+            postings.add(doc, tfs[i], 10);
+        }
+        
+        PostingCursor cursor = new PostingCursor(postings, 1f, 1f);
+        for (int i = 0; i < docs.length; i++) {
+            assertThat(cursor.next()).isEqualTo(docs[i]);
+            assertThat(cursor.tf()).isEqualTo(tfs[i]);
+        }
+        assertThat(cursor.next()).isEqualTo(PostingCursor.NO_MORE_DOCS);
+        assertThat(postings.maxTf).isEqualTo(Integer.MAX_VALUE);
+        assertThat(postings.docFreq).isEqualTo(docs.length);
+    }
+    
+    @Test
+    void recordsSkipEntryAtEveryBlockBoundary() {
+        PostingList postings = new PostingList();
+        int count = PostingList.SKIP_INTERVAL * 5 + 7;
+        for (int i = 0; i < count; i++) {
+            postings.add(i * 3, 1, 10);
+        }
+        
+        assertThat(postings.skipCount).isEqualTo(5);
+        for (int i = 0; i < postings.skipCount; i++) {
+            // 跳表项记录的是块之前最后一条记录的文档号
+            assertThat(postings.skipDocs[i]).isEqualTo(((i + 1) * PostingList.SKIP_INTERVAL - 1) * 3);
+        }
+    }
+    
+    @Test
+    void advanceMatchesLinearScanAcrossBlocks() {
+        Random random = new Random(42);
+        int count = PostingList.SKIP_INTERVAL * 20 + 13;
+        int[] docs = new int[count];
+        int[] tfs = new int[count];
+        PostingList postings = new PostingList();
+        int doc = -1;
+        for (int i = 0; i < count; i++) {
+            doc += 1 + random.nextInt(300);
+            docs[i] = doc;
+            tfs[i] = 1 + random.nextInt(20);
+            postings.add(doc, tfs[i], 10);
+        }
+        
+        for (int trial = 0; trial < 200; trial++) {
+            PostingCursor cursor = new PostingCursor(postings, 1f, 1f);
+            cursor.next();
+            int target = -1;
+            while (true) {
+                // 有时只前进一点，有时一次跨过多个块
+                target += random.nextBoolean() ? 1 + random.nextInt(50) : 1 + random.nextInt(40_000);
+                int expected = firstAtLeast(docs, target);
+                int actual = cursor.advance(target);
+                if (expected == docs.length) {
+                    assertThat(actual).isEqualTo(PostingCursor.NO_MORE_DOCS);
+                    break;
+                }
+                assertThat(actual).isEqualTo(docs[expected]);
+                assertThat(cursor.tf()).isEqualTo(tfs[expected]);
+                target = Math.max(target, actual);
+            }
+        }
+    }
+    
+    @Test
+    void advanceToExactBlockBoundaryDocs() {
+        PostingList postings = new PostingList();
+        int count = PostingList.SKIP_INTERVAL * 4;
+        for (int i = 0; i < count; i++) {
+            postings.add(i * 2, i + 1, 10);
+        }
+        
+        for (int block = 1; block < 4; block++) {
+            int index = block * PostingList.SKIP_INTERVAL;
+            // 跳表项本身指向的文档号、块的第一条记录和块内的第二条记录
+            for (int target : new int[]{(index - 1) * 2, index * 2, index * 2 + 1}) {
+                PostingCursor cursor = new PostingCursor(postings, 1f, 1f);
+                cursor.next();
+                int expected = firstAtLeast(postingDocs(count), target);
+                assertThat(cursor.advance(target)).isEqualTo(expected * 2);
+                assertThat(cursor.tf()).isEqualTo(expected + 1);
+                assertThat(cursor.next()).isEqualTo((expected + 1) * 2);
+            }
+        }
+    }
+    
+    @Test
+    void advanceBackwardsDoesNotMove() {
+        PostingList postings = new PostingList();
+        for (int i = 0; i < PostingList.SKIP_INTERVAL * 3; i++) {
+            postings.add(i * 5, 1, 10);
+        }
+        PostingCursor cursor = new PostingCursor(postings, 1f, 1f);
+        cursor.next();
+        
+        assertThat(cursor.advance(500)).isEqualTo(500);
+        assertThat(cursor.advance(100)).isEqualTo(500);
+        assertThat(cursor.advance(500)).isEqualTo(500);
+    }
+    
+    @Test
+    void cursorIgnoresPostingsAppendedAfterCreation() {
+        PostingList postings = new PostingList();
+        int visible = PostingList.SKIP_INTERVAL * 2 + 3;
+        for (int i = 0; i < visible; i++) {
+            postings.add(i, 1, 10);
+        }
+        PostingCursor cursor = new PostingCursor(postings, 1f, 1f);
+        PostingCursor stale = new PostingCursor(postings, 1f, 1f);
+        // 追加的记录会产生新的跳表项，游标不能通过它们跳到可见范围之外
+        for (int i = visible; i < PostingList.SKIP_INTERVAL * 6; i++) {
+            postings.add(i, 1, 10);
+        }
+        
+        cursor.next();
+        assertThat(cursor.advance(visible - 1)).isEqualTo(visible - 1);
+        assertThat(cursor.advance(visible)).isEqualTo(PostingCursor.NO_MORE_DOCS);
+        
+        stale.next();
+        assertThat(stale.advance(PostingList.SKIP_INTERVAL * 5)).isEqualTo(PostingCursor.NO_MORE_DOCS);
+        
+        PostingCursor fresh = new PostingCursor(postings, 1f, 1f);
+        fresh.next();
+        assertThat(fresh.advance(PostingList.SKIP_INTERVAL * 5)).isEqualTo(PostingList.SKIP_INTERVAL * 5);
+    }
+    
+    private static int[] postingDocs(int count) {
+        int[] docs = new int[count];
+        Arrays.setAll(docs, i -> i * 2);
+        return docs;
+    }
+    
+    private static int firstAtLeast(int[] docs, int target) {
+        int index = Arrays.binarySearch(docs, target);
+        return index >= 0 ? index : -index - 1;
+    }
+}
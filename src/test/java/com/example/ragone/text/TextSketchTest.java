@@ -0,0 +1,95 @@
+package com.example.ragone.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TextSketchTest {
+    
+    @Test
+    void countsDistinctTermsAndLength() {
+        String text = "向量检索 Vector vector search";
+        TextSketch sketch = TextSketch.of(text);
+        
+        // 向量 量检 检索 vector search
+        assertThat(sketch.termCount()).isEqualTo(5);
+        assertThat(sketch.length()).isEqualTo(text.length());
+    }
+    
+    @Test
+    void matchCountSumsDocumentFrequenciesOfQueryTerms() {
+        TextSketch document = TextSketch.of("alpha beta alpha gamma alpha beta 向量检索");
+        
+        assertThat(document.matchCount(TextSketch.of("alpha"))).isEqualTo(3);
+        // 查询中重复的词项只算一次
+        assertThat(document.matchCount(TextSketch.of("alpha alpha beta"))).isEqualTo(5);
+        assertThat(document.matchCount(TextSketch.of("检索 delta"))).isEqualTo(1);
+        assertThat(document.matchCount(TextSketch.of("delta"))).isZero();
+        assertThat(document.matchCount(TextSketch.of(""))).isZero();
+    }
+    
+    @Test
+    void matchCountAgreesWithTokenCounts() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < 50; trial++) {
+            String document = randomText(random, 300, 100);
+            String query = randomText(random, 8, 150);
+            
+            Map<String, Integer> frequencies = new HashMap<>();
+            CjkBigramTokenizer.INSTANCE.tokenize(document, token -> frequencies.merge(token, 1, Integer::sum));
+            Set<String> queryTerms = new HashSet<>(CjkBigramTokenizer.INSTANCE.tokenize(query));
+            int expected = queryTerms.stream().mapToInt(term -> frequencies.getOrDefault(term, 0)).sum();
+            
+            assertThat(TextSketch.of(document).matchCount(TextSketch.of(query))).isEqualTo(expected);
+        }
+    }
+    
+    @Test
+    void similarityOfIdenticalAndEmptyTexts() {
+        TextSketch sketch = TextSketch.of("retrieval augmented generation 检索增强生成");
+        
+        assertThat(sketch.similarity(TextSketch.of("Retrieval, augmented generation! 检索增强生成"))).isEqualTo(1.0);
+        assertThat(TextSketch.of("").similarity(TextSketch.of("..."))).isZero();
+        assertThat(sketch.similarity(TextSketch.of(""))).isZero();
+    }
+    
+    @Test
+    void similarityEstimatesJaccard() {
+        // 两组各 1000 个词项，共享 500 个，Jaccard = 500 / 1500
+        StringBuilder left = new StringBuilder();
+        StringBuilder right = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            if (i < 1000) {
+                left.append('w').append(i).append(' ');
+            }
+            if (i >= 500) {
+                right.append('w').append(i).append(' ');
+            }
+        }
+        
+        double similarity = TextSketch.of(left).similarity(TextSketch.of(right));
+        assertThat(similarity).isCloseTo(1.0 / 3, within(0.15));
+        assertThat(TextSketch.of(left).similarity(TextSketch.of("x1 x2 x3 x4 x5 x6 x7 x8"))).isLessThan(0.1);
+    }
+    
+    private static String randomText(Random random, int words, int vocabulary) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            int word = random.nextInt(vocabulary);
+            // 一部分词用中文字符，覆盖二元组切分
+            if (word % 3 == 0) {
+                text.append((char) ('一' + word % 20)).append((char) ('一' + word / 20)).append('，');
+            } else {
+                text.append("w").append(word).append(' ');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.ragone.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class FlatVectorSegmentTest {
+    
+    // 不是SIMD宽度的整数倍，覆盖尾部的标量循环；二值编码占两个 int64
+    private static final int DIMENSION = 100;
+    private static final int K = 10;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void writerRoundTrip() throws IOException {
+        Random random = new Random(1);
+        float[][] vectors = randomVectors(random, 1500);
+        Path path = directory.resolve("kb/segment-1.vec");
+        
+        FlatVectorSegment segment = write(path, vectors, FlatVectorSegment.ENCODING_INT8);
+        FlatVectorSegment reopened = FlatVectorSegment.open(path);
+        
+        for (FlatVectorSegment s : new FlatVectorSegment[]{segment, reopened}) {
+            assertThat(s.size()).isEqualTo(vectors.length);
+            assertThat(s.liveCount()).isEqualTo(vectors.length);
+            assertThat(s.dimension()).isEqualTo(DIMENSION);
+            assertThat(s.encoding()).isEqualTo(FlatVectorSegment.ENCODING_INT8);
+            assertThat(s.maxChunkId()).isEqualTo(chunkId(vectors.length - 1));
+            // 行数超过写入器ID表的初始容量，覆盖扩容
+            long[] chunkIds = new long[vectors.length];
+            long[] documentIds = new long[vectors.length];
+            double maxError = 0;
+            for (int row = 0; row < vectors.length; row++) {
+                chunkIds[row] = s.chunkId(row);
+                documentIds[row] = s.documentId(row);
+                float[] expected = VectorMath.normalize(vectors[row]);
+                float[] actual = s.vector(row);
+                for (int i = 0; i < DIMENSION; i++) {
+                    maxError = Math.max(maxError, Math.abs(actual[i] - expected[i]));
+                }
+            }
+            assertThat(chunkIds).isEqualTo(IntStream.range(0, vectors.length).mapToLong(row -> chunkId(row)).toArray());
+            assertThat(documentIds).isEqualTo(IntStream.range(0, vectors.length).mapToLong(row -> documentId(row)).toArray());
+            assertThat(maxError).isZero();
+        }
+        // 临时文件已被原子替换
+        try (var files = Files.list(path.getParent())) {
+            assertThat(files).containsExactly(path);
+        }
+    }
+    
+    @Test
+    void emptySegmentRoundTrip() throws IOException {
+        Path path = directory.resolve("empty.vec");
+        try (FlatVectorSegment.Writer writer = FlatVectorSegment.writer(path, DIMENSION,
+                FlatVectorSegment.ENCODING_BINARY)) {
+            writer.finish();
+        }
+        
+        FlatVectorSegment segment = FlatVectorSegment.open(path);
+        assertThat(segment.size()).isZero();
+        assertThat(segment.maxChunkId()).isEqualTo(-1);
+        assertThat(segment.search(new float[DIMENSION], K, 4).size()).isZero();
+    }
+    
+    @Test
+    void abandonedWriterLeavesNoFiles() throws IOException {
+        Path path = directory.resolve("abandoned.vec");
+        try (FlatVectorSegment.Writer writer = FlatVectorSegment.writer(path, DIMENSION,
+                FlatVectorSegment.ENCODING_INT8)) {
+            writer.add(1L, 1L, randomVectors(new Random(2), 1)[0]);
+            assertThatThrownBy(() -> writer.add(2L, 1L, new float[DIMENSION - 1]))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        
+        try (var files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+    
+    @Test
+    void searchExactMatchesBruteForceCosine() throws IOException {
+        Random random = new Random(3);
+        float[][] vectors = randomVectors(random, 1000);
+        FlatVectorSegment segment = write(directory.resolve("float.vec"), vectors, FlatVectorSegment.ENCODING_FLOAT32);
+        
+        for (int q = 0; q < 20; q++) {
+            float[] query = VectorMath.normalize(randomVectors(random, 1)[0]);
+            int[] expected = bruteForce(vectors, query, K);
+            VectorSearchResult result = segment.searchExact(query, K);
+            VectorSearchResult search = segment.search(query, K, 4);
+            
+            assertThat(result.size()).isEqualTo(K);
+            for (int i = 0; i < K; i++) {
+                assertThat(result.node(i)).isEqualTo(expected[i]);
+                assertThat((double) result.score(i)).isCloseTo(cosine(vectors[expected[i]], query), within(1e-5));
+                // float32 编码的段 search 即为精确扫描
+                assertThat(search.node(i)).isEqualTo(result.node(i));
+            }
+        }
+    }
+    
+    @Test
+    void int8SearchRescoresWithFullPrecision() throws IOException {
+        assertQuantizedSearch(FlatVectorSegment.ENCODING_INT8, 4, 0.95);
+    }
+    
+    @Test
+    void binarySearchRescoresWithFullPrecision() throws IOException {
+        assertQuantizedSearch(FlatVectorSegment.ENCODING_BINARY, 10, 0.8);
+    }
+    
+    @Test
+    void deletedRowsAndDocumentFilter() throws IOException {
+        Random random = new Random(4);
+        float[][] vectors = randomVectors(random, 1000);
+        FlatVectorSegment segment = write(directory.resolve("deleted.vec"), vectors, FlatVectorSegment.ENCODING_INT8);
+        
+        // 每个文档10行，删除文档 3 后再删一次不重复计数
+        assertThat(segment.markDocumentDeleted(3)).isEqualTo(10);
+        assertThat(segment.markDocumentDeleted(3)).isZero();
+        assertThat(segment.markDocumentDeleted(12345)).isZero();
+        assertThat(segment.liveCount()).isEqualTo(990);
+        assertThat(segment.isDeleted(30)).isTrue();
+        assertThat(segment.isDeleted(40)).isFalse();
+        
+        // 查询被删除行自身的向量，无论哪种扫描都不能返回它
+        float[] query = VectorMath.normalize(vectors[35]);
+        for (VectorSearchResult result : new VectorSearchResult[]{
+                segment.search(query, K, 4), segment.searchExact(query, K)}) {
+            assertThat(result.size()).isEqualTo(K);
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(segment.documentId(result.node(i))).isNotEqualTo(3);
+            }
+        }
+        
+        for (VectorSearchResult result : new VectorSearchResult[]{
+                segment.search(query, K, 4, doc -> doc == 3 || doc == 7),
+                segment.searchExact(query, K, doc -> doc == 3 || doc == 7)}) {
+            assertThat(result.size()).isEqualTo(K);
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(segment.documentId(result.node(i))).isEqualTo(7);
+            }
+        }
+    }
+    
+    @Test
+    void openRejectsCorruptFiles() throws IOException {
+        Path path = directory.resolve("corrupt.vec");
+        write(path, randomVectors(new Random(5), 10), FlatVectorSegment.ENCODING_INT8);
+        byte[] bytes = Files.readAllBytes(path);
+        
+        Path truncated = directory.resolve("truncated.vec");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThatThrownBy(() -> FlatVectorSegment.open(truncated)).isInstanceOf(IOException.class);
+        
+        Path header = directory.resolve("header.vec");
+        Files.write(header, Arrays.copyOf(bytes, 16));
+        assertThatThrownBy(() -> FlatVectorSegment.open(header)).isInstanceOf(IOException.class);
+        
+        Path magic = directory.resolve("magic.vec");
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 0x7F;
+        Files.write(magic, badMagic);
+        assertThatThrownBy(() -> FlatVectorSegment.open(magic)).isInstanceOf(IOException.class);
+        
+        Path encoding = directory.resolve("encoding.vec");
+        byte[] badEncoding = bytes.clone();
+        badEncoding[16] = 9;
+        Files.write(encoding, badEncoding);
+        assertThatThrownBy(() -> FlatVectorSegment.open(encoding)).isInstanceOf(IOException.class);
+        
+        Path longer = directory.resolve("longer.vec");
+        Files.copy(path, longer);
+        try (FileChannel channel = FileChannel.open(longer, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(8));
+        }
+        assertThatThrownBy(() -> FlatVectorSegment.open(longer)).isInstanceOf(IOException.class);
+    }
+    
+    @Test
+    void searchRejectsWrongDimension() throws IOException {
+        FlatVectorSegment segment = write(directory.resolve("dim.vec"), randomVectors(new Random(6), 10),
+                FlatVectorSegment.ENCODING_FLOAT32);
+        
+        assertThatThrownBy(() -> segment.search(new float[DIMENSION + 1], K, 4))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    private void assertQuantizedSearch(int encoding, int rescoreFactor, double minRecall) throws IOException {
+        Random random = new Random(7);
+        float[][] vectors = clusteredVectors(random, 2000, 40);
+        FlatVectorSegment segment = write(directory.resolve("quantized.vec"), vectors, encoding);
+        
+        double recall = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = VectorMath.normalize(perturb(random, vectors[random.nextInt(vectors.length)], 0.3f));
+            VectorSearchResult result = segment.search(query, K, rescoreFactor);
+            assertThat(result.size()).isEqualTo(K);
+            
+            Set<Integer> expected = new HashSet<>();
+            for (int row : bruteForce(vectors, query, K)) {
+                expected.add(row);
+            }
+            for (int i = 0; i < K; i++) {
+                // 重新打分后返回的是全精度余弦相似度，而不是量化分数
+                assertThat((double) result.score(i)).isCloseTo(cosine(vectors[result.node(i)], query), within(1e-5));
+                if (i > 0) {
+                    assertThat(result.score(i)).isLessThanOrEqualTo(result.score(i - 1));
+                }
+                if (expected.contains(result.node(i))) {
+                    recall += 1.0 / K;
+                }
+            }
+        }
+        assertThat(recall / queries).isGreaterThanOrEqualTo(minRecall);
+    }
+    
+    private static FlatVectorSegment write(Path path, float[][] vectors, int encoding) throws IOException {
+        try (FlatVectorSegment.Writer writer = FlatVectorSegment.writer(path, DIMENSION, encoding)) {
+            for (int row = 0; row < vectors.length; row++) {
+                writer.add(chunkId(row), documentId(row), vectors[row]);
+            }
+            assertThat(writer.size()).isEqualTo(vectors.length);
+            return writer.finish();
+        }
+    }
+    
+    private static long chunkId(int row) {
+        return 1_000_000_000_000L + row * 3L;
+    }
+    
+    private static long documentId(int row) {
+        return row / 10;
+    }
+    
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIMENSION];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+    
+    /**
+     * 围绕若干中心生成向量，近似真实嵌入的聚簇分布；各向同性的高维随机向量近邻之间几乎没有差别，
+     * 不能反映量化检索的召回率
+     */
+    private static float[][] clusteredVectors(Random random, int count, int clusters) {
+        float[][] centers = randomVectors(random, clusters);
+        float[][] vectors = new float[count][];
+        for (int row = 0; row < count; row++) {
+            vectors[row] = perturb(random, centers[random.nextInt(clusters)], 0.5f);
+        }
+        return vectors;
+    }
+    
+    private static float[] perturb(Random random, float[] vector, float noise) {
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] + noise * (float) random.nextGaussian();
+        }
+        return result;
+    }
+    
+    private static int[] bruteForce(float[][] vectors, float[] query, int k) {
+        double[] scores = new double[vectors.length];
+        for (int row = 0; row < vectors.length; row++) {
+            scores[row] = cosine(vectors[row], query);
+        }
+        return IntStream.range(0, vectors.length).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(row -> scores[row]).reversed())
+                .limit(k)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+    
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.ragone.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+    
+    private static final int DIMENSION = 32;
+    private static final int COUNT = 3000;
+    private static final int K = 10;
+    
+    @Test
+    void searchReachesHighRecallAgainstExactScan() {
+        Random random = new Random(1);
+        HnswIndex index = buildIndex(random);
+        
+        double recall = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            VectorSearchResult approximate = index.search(query, K, 64);
+            VectorSearchResult exact = index.searchExact(query, K, node -> true);
+            assertThat(approximate.size()).isEqualTo(K);
+            recall += overlap(approximate, exact) / (double) K;
+        }
+        assertThat(recall / queries).isGreaterThanOrEqualTo(0.9);
+    }
+    
+    @Test
+    void searchExactMatchesBruteForceSort() {
+        Random random = new Random(2);
+        float[][] vectors = new float[500][];
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50, 16);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+            assertThat(index.add(100L + i, vectors[i])).isEqualTo(i);
+        }
+        
+        for (int q = 0; q < 20; q++) {
+            float[] query = randomVector(random);
+            double[] cosine = new double[vectors.length];
+            for (int i = 0; i < vectors.length; i++) {
+                cosine[i] = cosine(query, vectors[i]);
+            }
+            int[] expected = IntStream.range(0, vectors.length).boxed()
+                    .sorted(Comparator.<Integer>comparingDouble(i -> cosine[i]).reversed())
+                    .limit(K)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            
+            VectorSearchResult result = index.searchExact(query, K, node -> true);
+            assertThat(result.size()).isEqualTo(K);
+            for (int i = 0; i < K; i++) {
+                assertThat(result.node(i)).isEqualTo(expected[i]);
+                assertThat((double) result.score(i)).isCloseTo(cosine[expected[i]], within(1e-5));
+                assertThat(index.label(result.node(i))).isEqualTo(100L + expected[i]);
+            }
+        }
+    }
+    
+    @Test
+    void deletedNodesAreNeverReturned() {
+        Random random = new Random(3);
+        HnswIndex index = buildIndex(random);
+        for (int node = 0; node < COUNT; node += 3) {
+            index.markDeleted(node);
+        }
+        index.markDeleted(0);
+        assertThat(index.liveCount()).isEqualTo(COUNT - (COUNT + 2) / 3);
+        
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomVector(random);
+            VectorSearchResult approximate = index.search(query, K, 64);
+            VectorSearchResult exact = index.searchExact(query, K, node -> true);
+            assertThat(approximate.size()).isEqualTo(K);
+            assertThat(exact.size()).isEqualTo(K);
+            for (int i = 0; i < K; i++) {
+                assertThat(index.isDeleted(approximate.node(i))).isFalse();
+                assertThat(index.isDeleted(exact.node(i))).isFalse();
+            }
+        }
+        
+        // 删除的节点恰好是查询向量本身时也不能返回
+        float[] vector = index.vector(3);
+        assertThat(index.search(vector, 1, 64).node(0)).isNotEqualTo(3);
+        assertThat(index.searchExact(vector, 1, node -> true).node(0)).isNotEqualTo(3);
+    }
+    
+    @Test
+    void filteredSearchOnlyReturnsAcceptedNodes() {
+        Random random = new Random(4);
+        HnswIndex index = buildIndex(random);
+        IntPredicate accept = node -> node % 5 == 2;
+        
+        double recall = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            VectorSearchResult filtered = index.search(query, K, 128, accept);
+            VectorSearchResult exact = index.searchExact(query, K, accept);
+            for (int i = 0; i < filtered.size(); i++) {
+                assertThat(accept.test(filtered.node(i))).isTrue();
+            }
+            for (int i = 0; i < exact.size(); i++) {
+                assertThat(accept.test(exact.node(i))).isTrue();
+            }
+            recall += overlap(filtered, exact) / (double) K;
+        }
+        assertThat(recall / queries).isGreaterThanOrEqualTo(0.8);
+    }
+    
+    @Test
+    void resultsAreSortedByDescendingScore() {
+        Random random = new Random(5);
+        HnswIndex index = buildIndex(random);
+        VectorSearchResult result = index.search(randomVector(random), 50, 100);
+        
+        assertThat(result.size()).isEqualTo(50);
+        for (int i = 1; i < result.size(); i++) {
+            assertThat(result.score(i)).isLessThanOrEqualTo(result.score(i - 1));
+        }
+    }
+    
+    @Test
+    void emptyIndexAndDimensionMismatch() {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50, 16);
+        
+        assertThat(index.search(new float[DIMENSION], K, 64).size()).isZero();
+        assertThat(index.searchExact(new float[DIMENSION], K, node -> true).size()).isZero();
+        assertThatThrownBy(() -> index.add(1L, new float[DIMENSION + 1]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    private static HnswIndex buildIndex(Random random) {
+        // 初始容量故意很小，覆盖扩容
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100, 16);
+        for (int i = 0; i < COUNT; i++) {
+            index.add(i, randomVector(random));
+        }
+        assertThat(index.size()).isEqualTo(COUNT);
+        return index;
+    }
+    
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+    
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+    
+    private static int overlap(VectorSearchResult a, VectorSearchResult b) {
+        Set<Integer> nodes = new HashSet<>();
+        for (int i = 0; i < b.size(); i++) {
+            nodes.add(b.node(i));
+        }
+        int count = 0;
+        for (int i = 0; i < a.size(); i++) {
+            if (nodes.contains(a.node(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.ragone.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PgVectorTest {
+    
+    @Test
+    void encodesPgvectorBinaryLayout() {
+        byte[] bytes = new byte[3 + 4 + 2 * 4];
+        PgVector.encode(new float[]{1.5f, -2f}, bytes, 3);
+        
+        // 前3个字节不被改写；int16 维度、int16 保留位，之后是大端 float4
+        ByteBuffer expected = ByteBuffer.allocate(bytes.length);
+        expected.position(3);
+        expected.putShort((short) 2).putShort((short) 0).putFloat(1.5f).putFloat(-2f);
+        assertThat(bytes).isEqualTo(expected.array());
+    }
+    
+    @Test
+    void decodeRoundTripsAtOffset() {
+        Random random = new Random(3);
+        float[] vector = new float[1024];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        vector[0] = -0f;
+        vector[1] = Float.MIN_VALUE;
+        vector[2] = Float.MAX_VALUE;
+        vector[3] = Float.NaN;
+        vector[4] = Float.NEGATIVE_INFINITY;
+        
+        byte[] bytes = new byte[5 + 4 + vector.length * 4];
+        PgVector.encode(vector, bytes, 5);
+        
+        assertThat(PgVector.decode(bytes, 5)).isEqualTo(vector);
+    }
+    
+    @Test
+    void decodesEmptyVector() {
+        byte[] bytes = new byte[4];
+        PgVector.encode(new float[0], bytes, 0);
+        
+        assertThat(PgVector.decode(bytes, 0)).isEmpty();
+    }
+    
+    @Test
+    void binaryTransferRoundTrip() throws Exception {
+        PgVector source = new PgVector(new float[]{0.25f, -1f, 3e-8f});
+        byte[] bytes = new byte[2 + source.lengthInBytes()];
+        source.toBytes(bytes, 2);
+        
+        PgVector target = new PgVector();
+        target.setByteValue(bytes, 2);
+        
+        assertThat(source.lengthInBytes()).isEqualTo(4 + 3 * 4);
+        assertThat(target.toArray()).isEqualTo(source.toArray());
+        assertThat(target).isEqualTo(source).hasSameHashCodeAs(source);
+        assertThat(new PgVector().lengthInBytes()).isZero();
+    }
+    
+    @Test
+    void textFormatRoundTrip() throws Exception {
+        float[] vector = {1f, -0.5f, 1.0E-7f, 123456.78f};
+        String text = PgVector.format(vector);
+        
+        assertThat(text).isEqualTo("[1.0,-0.5,1.0E-7,123456.78]");
+        assertThat(PgVector.parse(text)).isEqualTo(vector);
+        assertThat(PgVector.parse(" [1, 2.5 ,-3] ")).containsExactly(1f, 2.5f, -3f);
+        assertThat(PgVector.parse("[]")).isEmpty();
+        
+        PgVector value = new PgVector();
+        value.setValue(text);
+        assertThat(value.toArray()).isEqualTo(vector);
+        assertThat(value.getValue()).isEqualTo(text);
+        value.setValue(null);
+        assertThat(value.getValue()).isNull();
+    }
+    
+    @Test
+    void cloneCopiesVector() throws Exception {
+        PgVector source = new PgVector(new float[]{1f, 2f});
+        PgVector copy = (PgVector) source.clone();
+        copy.toArray()[0] = 9f;
+        
+        assertThat(source.toArray()).containsExactly(1f, 2f);
+        assertThat(copy.getType()).isEqualTo(PgVector.TYPE_NAME);
+    }
+}
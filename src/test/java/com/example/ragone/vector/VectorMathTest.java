@@ -0,0 +1,107 @@
+package com.example.ragone.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorMathTest {
+    
+    // 覆盖比SIMD宽度短、恰好整数倍和带尾部的长度
+    private static final int[] DIMENSIONS = {1, 7, 8, 16, 33, 100, 1024, 1031};
+    
+    @Test
+    void simdModuleIsLoadedInTests() {
+        // surefire 的 argLine 加载了 jdk.incubator.vector，下面的比较才会走到SIMD实现
+        assertThat(VectorMath.isSimdAvailable()).isTrue();
+    }
+    
+    @Test
+    void simdDotMatchesScalar() {
+        assumeTrue(VectorMath.isSimdAvailable());
+        Random random = new Random(1);
+        for (int dimension : DIMENSIONS) {
+            float[] query = randomFloats(random, dimension);
+            // 非零偏移，向量不与缓冲区起点对齐
+            int offset = 12;
+            ByteBuffer buffer = ByteBuffer.allocate(offset + dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            float[] row = randomFloats(random, dimension);
+            for (int i = 0; i < dimension; i++) {
+                buffer.putFloat(offset + i * Float.BYTES, row[i]);
+            }
+            
+            double expected = 0;
+            for (int i = 0; i < dimension; i++) {
+                expected += (double) query[i] * row[i];
+            }
+            assertThat((double) SimdVectorMath.dot(query, buffer, offset, dimension))
+                    .isCloseTo(expected, within(1e-4 * Math.sqrt(dimension)));
+            assertThat(VectorMath.dot(query, buffer, offset, dimension))
+                    .isEqualTo(SimdVectorMath.dot(query, buffer, offset, dimension));
+        }
+    }
+    
+    @Test
+    void simdDotInt8MatchesScalar() {
+        assumeTrue(VectorMath.isSimdAvailable() && SimdVectorMath.supportsInt8());
+        Random random = new Random(2);
+        for (int dimension : DIMENSIONS) {
+            float[] query = randomFloats(random, dimension);
+            int offset = 5;
+            byte[] bytes = new byte[offset + dimension];
+            for (int i = 0; i < dimension; i++) {
+                // 包含 -128 和 127 两个端点
+                bytes[offset + i] = (byte) (random.nextInt(256) - 128);
+            }
+            bytes[offset] = Byte.MIN_VALUE;
+            bytes[offset + dimension - 1] = Byte.MAX_VALUE;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            
+            double expected = 0;
+            for (int i = 0; i < dimension; i++) {
+                expected += (double) query[i] * bytes[offset + i];
+            }
+            assertThat((double) SimdVectorMath.dotInt8(query, buffer, offset, dimension))
+                    .isCloseTo(expected, within(1e-2 * Math.sqrt(dimension)));
+            assertThat(VectorMath.dotInt8(query, buffer, offset, dimension))
+                    .isEqualTo(SimdVectorMath.dotInt8(query, buffer, offset, dimension));
+        }
+    }
+    
+    @Test
+    void binarizeAndHamming() {
+        float[] vector = new float[130];
+        vector[0] = 1f;
+        vector[63] = 0.5f;
+        vector[64] = 2f;
+        vector[129] = 3f;
+        // 0 和负数都不置位
+        vector[1] = -1f;
+        
+        long[] bits = VectorMath.binarize(vector);
+        assertThat(bits).containsExactly(1L | 1L << 63, 1L, 1L << 1);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 3 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(8, bits[0]).putLong(16, 0L).putLong(24, bits[2] | 1L << 5);
+        assertThat(VectorMath.hamming(bits, buffer, 8)).isEqualTo(2);
+    }
+    
+    @Test
+    void normalizeHandlesZeroVector() {
+        assertThat(VectorMath.normalize(new float[]{3f, 4f})).containsExactly(0.6f, 0.8f);
+        assertThat(VectorMath.normalize(new float[3])).containsExactly(0f, 0f, 0f);
+    }
+    
+    private static float[] randomFloats(Random random, int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        return values;
+    }
+}